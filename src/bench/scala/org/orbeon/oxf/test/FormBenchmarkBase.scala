@@ -0,0 +1,48 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.test
+
+import org.openjdk.jmh.annotations._
+
+/**
+ * Base for benchmarks which run against a live document created from a synthetic form.
+ *
+ * The document is not thread-safe, so subclasses must use `Scope.Thread`.
+ */
+abstract class FormBenchmarkBase extends DocumentTestBase {
+
+    @Param(Array("10"))          var controls: Int = _
+    @Param(Array("1"))           var repeats: Int  = _
+    @Param(Array("100", "1000")) var rows: Int     = _
+
+    // Whether the form enables XPath dependency analysis
+    protected def xpathAnalysisEnabled = true
+
+    // Called once the document is ready
+    protected def afterSetup(): Unit = ()
+
+    @Setup(Level.Trial)
+    def setupForm(): Unit = {
+        ResourceManagerTestBase.staticSetup()
+        setUp()
+        setupDocument(SyntheticForm(controls, repeats, rows, xpathAnalysisEnabled))
+        afterSetup()
+    }
+
+    @TearDown(Level.Trial)
+    def tearDownForm(): Unit = {
+        disposeDocument()
+        tearDown()
+    }
+}
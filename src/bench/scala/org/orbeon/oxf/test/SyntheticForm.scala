@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.test
+
+import org.dom4j.Document
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils
+import xml.Elem
+
+/**
+ * Reproducible synthetic forms for benchmarks. A form has:
+ *
+ * - `controls` top-level input fields, each with a constraint
+ * - `rows` instance rows, each with a value and a calculated value, and a calculated total over all the rows
+ * - `repeats` repeats over the rows, each showing the value and the calculated value of each row
+ *
+ * The same parameters always produce the same form.
+ */
+object SyntheticForm {
+
+    def apply(controls: Int, repeats: Int, rows: Int, xpathAnalysis: Boolean = true): Document =
+        Dom4jUtils.readDom4j(elem(controls, repeats, rows, xpathAnalysis).toString)
+
+    def elem(controls: Int, repeats: Int, rows: Int, xpathAnalysis: Boolean): Elem =
+        <xh:html xmlns:xh="http://www.w3.org/1999/xhtml"
+                 xmlns:xf="http://www.w3.org/2002/xforms"
+                 xmlns:xxf="http://orbeon.org/oxf/xml/xforms"
+                 xmlns:xs="http://www.w3.org/2001/XMLSchema">
+            <xh:head>
+                <xf:model id="model" xxf:xpath-analysis={xpathAnalysis.toString}>
+                    <xf:instance id="instance">{instance(controls, rows)}</xf:instance>
+                    <xf:bind ref="fields/field" constraint=". castable as xs:integer"/>
+                    <xf:bind ref="rows/row/b" calculate="../a * 2"/>
+                    <xf:bind ref="total" calculate="sum(../rows/row/b)"/>
+                </xf:model>
+            </xh:head>
+            <xh:body>
+                {
+                    for (i ← 1 to controls)
+                        yield <xf:input id={"field" + i} ref={"fields/field[" + i + "]"}/>
+                }
+                {
+                    for (i ← 1 to repeats)
+                        yield
+                            <xf:repeat id={"repeat" + i} ref="rows/row">
+                                <xf:input id={"a" + i} ref="a"/>
+                                <xf:output id={"b" + i} ref="b"/>
+                            </xf:repeat>
+                }
+                <xf:output id="total" ref="total"/>
+            </xh:body>
+        </xh:html>
+
+    def instance(controls: Int, rows: Int): Elem =
+        <form>
+            <fields>{ for (i ← 1 to controls) yield <field>{i}</field> }</fields>
+            <rows>{ for (i ← 1 to rows) yield <row code={"c" + (i % 10)}><a>{i}</a><b/></row> }</rows>
+            <total/>
+        </form>
+}
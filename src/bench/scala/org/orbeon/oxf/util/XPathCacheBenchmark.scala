@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util
+
+import org.openjdk.jmh.annotations._
+import org.orbeon.oxf.test.{SyntheticForm, ResourceManagerTestBase}
+import org.orbeon.oxf.xforms.XFormsStaticStateImpl.BASIC_NAMESPACE_MAPPING
+import org.orbeon.oxf.xml.TransformerUtils
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils
+import org.orbeon.saxon.om.DocumentInfo
+
+/**
+ * Cached XPath evaluation. The expressions are cheap to evaluate, so this mostly measures the expression cache lookup
+ * and borrowing and returning expressions from their pool, with and without contention.
+ *
+ * Both pool types are compared. See also XPathCacheAfterGCBenchmark.
+ */
+@State(Scope.Benchmark)
+class XPathCacheBenchmark {
+
+    @Param(Array("100")) var rows: Int = _
+    @Param(Array("soft-reference", "striped")) var pool: String = _
+
+    private var document: DocumentInfo = _
+
+    @Setup(Level.Trial)
+    def setup(): Unit = {
+        ResourceManagerTestBase.staticSetup()
+        XPathCache.setPoolType(pool)
+        val instance = Dom4jUtils.readDom4j(SyntheticForm.instance(controls = 10, rows = rows).toString)
+        document = TransformerUtils.dom4jToTinyTree(XPathCache.getGlobalConfiguration, instance, false)
+    }
+
+    private def evaluate(xpathString: String) =
+        XPathCache.evaluateSingle(document, xpathString, BASIC_NAMESPACE_MAPPING, null, null, null, null, null, null)
+
+    @Benchmark
+    def evaluateSingle() = evaluate("/form/total")
+
+    @Benchmark
+    def evaluatePredicate() = evaluate("/form/rows/row[@code = 'c1'][1]/a")
+
+    @Benchmark @Threads(4)
+    def evaluateSingleContended() = evaluate("/form/total")
+
+    @Benchmark @Threads(4)
+    def evaluatePredicateContended() = evaluate("/form/rows/row[@code = 'c1'][1]/a")
+}
+
+/**
+ * Same as XPathCacheBenchmark, but with a full GC before each iteration. The GC can clear the soft references of the
+ * soft-reference pool, so this includes the cost of recompiling expressions. Run with a small heap, or a small
+ * -XX:SoftRefLRUPolicyMSPerMB, to make this more likely.
+ */
+@State(Scope.Benchmark)
+class XPathCacheAfterGCBenchmark extends XPathCacheBenchmark {
+
+    @Setup(Level.Iteration)
+    def collectGarbage(): Unit = System.gc()
+}
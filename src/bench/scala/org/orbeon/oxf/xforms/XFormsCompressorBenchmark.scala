@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms
+
+import java.util.zip.Deflater
+import org.openjdk.jmh.annotations._
+import org.orbeon.oxf.test.{SyntheticForm, ResourceManagerTestBase}
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils
+
+/**
+ * Compressing and uncompressing the serialization of a synthetic form, with the configured codec and with gzip.
+ */
+@State(Scope.Thread)
+class XFormsCompressorBenchmark {
+
+    @Param(Array("100", "1000", "10000")) var rows: Int = _
+
+    private var bytes: Array[Byte] = _
+    private var compressed: Array[Byte] = _
+    private var compressedGzip: Array[Byte] = _
+
+    @Setup(Level.Trial)
+    def setup(): Unit = {
+        ResourceManagerTestBase.staticSetup()
+        bytes          = Dom4jUtils.domToString(SyntheticForm(controls = 10, repeats = 1, rows = rows)).getBytes("UTF-8")
+        compressed     = XFormsCompressor.compressBytes(bytes)
+        compressedGzip = XFormsCompressor.compressBytes(bytes, Deflater.BEST_SPEED)
+    }
+
+    @Benchmark
+    def compress() = XFormsCompressor.compressBytes(bytes)
+
+    @Benchmark
+    def uncompress() = XFormsCompressor.uncompressBytes(compressed)
+
+    @Benchmark
+    def compressGzip() = XFormsCompressor.compressBytes(bytes, Deflater.BEST_SPEED)
+
+    @Benchmark
+    def uncompressGzip() = XFormsCompressor.uncompressBytes(compressedGzip)
+}
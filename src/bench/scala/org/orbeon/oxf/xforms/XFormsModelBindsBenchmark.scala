@@ -0,0 +1,48 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms
+
+import org.openjdk.jmh.annotations._
+import org.orbeon.oxf.test.FormBenchmarkBase
+import org.orbeon.oxf.xforms.model.DataModel
+import org.orbeon.saxon.om.NodeInfo
+import org.orbeon.scaxon.XML._
+
+/**
+ * Recalculating the binds of a live document after changing the value of one row, which impacts one row calculation
+ * and the total.
+ */
+@State(Scope.Thread)
+class XFormsModelBindsBenchmark extends FormBenchmarkBase {
+
+    private var model: XFormsModel = _
+    private var values: IndexedSeq[NodeInfo] = _
+
+    override protected def afterSetup(): Unit = {
+        model  = document.getDefaultModel
+        values = (model.getDefaultInstance.rootElement \ "rows" \ "row" \ "a").toIndexedSeq
+    }
+
+    private var count = 0
+
+    @Benchmark
+    def recalculate(): Unit = {
+        count += 1
+        val node = values(count % values.size)
+
+        DataModel.setValueIfChanged(node, count.toString)
+        model.markValueChange(node, false)
+        model.doRecalculate(false)
+    }
+}
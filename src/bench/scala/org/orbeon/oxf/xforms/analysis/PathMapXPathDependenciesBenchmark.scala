@@ -0,0 +1,37 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.analysis
+
+import org.openjdk.jmh.annotations._
+import org.orbeon.oxf.test.FormBenchmarkBase
+
+/**
+ * Setting the value of a top-level field and refreshing. Only a few controls depend on the field, so with XPath
+ * analysis most of the time goes to checking the dependencies of the other controls, and without it to updating them.
+ */
+@State(Scope.Thread)
+class PathMapXPathDependenciesBenchmark extends FormBenchmarkBase {
+
+    @Param(Array("true", "false")) var xpathAnalysis: Boolean = _
+
+    override protected def xpathAnalysisEnabled = xpathAnalysis
+
+    private var value = 0
+
+    @Benchmark
+    def setValueAndRefresh(): Unit = {
+        value += 1
+        setControlValue("field1", value.toString)
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.analysis
+
+import org.dom4j.Document
+import org.openjdk.jmh.annotations._
+import org.orbeon.oxf.test.{SyntheticForm, ResourceManagerTestBase}
+import org.orbeon.oxf.xforms.XFormsStaticStateImpl
+
+/**
+ * Creating the static state of a synthetic form, including annotation, extraction and analysis with XPath analysis.
+ *
+ * The parallelism parameter is the number of threads analyzing the XPath of large forms, as with the
+ * oxf.xforms.analysis.parallelism property.
+ */
+@State(Scope.Thread)
+class StaticAnalysisBenchmark extends ResourceManagerTestBase {
+
+    @Param(Array("100", "1000")) var controls: Int = _
+    @Param(Array("10"))          var repeats: Int  = _
+    @Param(Array("1", "4"))      var parallelism: Int = _
+
+    private var form: Document = _
+
+    @Setup(Level.Trial)
+    def setup(): Unit = {
+        ResourceManagerTestBase.staticSetup()
+        setUp()
+        form = SyntheticForm(controls, repeats, rows = 10)
+    }
+
+    @TearDown(Level.Trial)
+    def dispose(): Unit = tearDown()
+
+    @Benchmark
+    def analyze() =
+        PartControlsAnalysis.Parallelism.withValue(parallelism) {
+            XFormsStaticStateImpl.createFromDocument(form)._2
+        }
+}
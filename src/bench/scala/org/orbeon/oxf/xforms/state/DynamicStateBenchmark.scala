@@ -0,0 +1,38 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state
+
+import org.openjdk.jmh.annotations._
+import org.orbeon.oxf.test.FormBenchmarkBase
+
+/**
+ * Creating, encoding and decoding the dynamic state of a live document.
+ */
+@State(Scope.Thread)
+class DynamicStateBenchmark extends FormBenchmarkBase {
+
+    private var encoded: String = _
+
+    override protected def afterSetup(): Unit =
+        encoded = DynamicState(document).encodeToString(compress = true, isForceEncryption = false)
+
+    @Benchmark
+    def create() = DynamicState(document)
+
+    @Benchmark
+    def encode() = DynamicState(document).encodeToString(compress = true, isForceEncryption = false)
+
+    @Benchmark
+    def decode() = DynamicState(encoded).decodeInstancesControls
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xml
+
+import java.io.{ObjectInputStream, ByteArrayInputStream, ObjectOutputStream, ByteArrayOutputStream}
+import org.dom4j.Document
+import org.openjdk.jmh.annotations._
+import org.orbeon.oxf.test.{SyntheticForm, ResourceManagerTestBase}
+
+/**
+ * Recording, replaying and serializing a SAXStore holding a synthetic form.
+ */
+@State(Scope.Thread)
+class SAXStoreBenchmark {
+
+    @Param(Array("100", "1000")) var rows: Int = _
+
+    private var document: Document = _
+    private var saxStore: SAXStore = _
+    private var serialized: Array[Byte] = _
+
+    @Setup(Level.Trial)
+    def setup(): Unit = {
+        ResourceManagerTestBase.staticSetup()
+        document   = SyntheticForm(controls = 10, repeats = 1, rows = rows)
+        saxStore   = TransformerUtils.dom4jToSAXStore(document, false)
+        serialized = serialize(saxStore)
+    }
+
+    private def serialize(saxStore: SAXStore) = {
+        val bytes = new ByteArrayOutputStream
+        val out = new ObjectOutputStream(bytes)
+        saxStore.writeExternal(out)
+        out.close()
+        bytes.toByteArray
+    }
+
+    @Benchmark
+    def record() = TransformerUtils.dom4jToSAXStore(document, false)
+
+    @Benchmark
+    def replay(): Unit = saxStore.replay(new XMLReceiverAdapter)
+
+    @Benchmark
+    def write() = serialize(saxStore)
+
+    @Benchmark
+    def read() = new SAXStore(new ObjectInputStream(new ByteArrayInputStream(serialized)))
+}
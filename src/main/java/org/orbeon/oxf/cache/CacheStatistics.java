@@ -36,4 +36,14 @@ public interface CacheStatistics {
     public int getMissCount();
     public int getAddCount();
     public int getExpirationCount();
+
+    /**
+     * Maximum weight of objects the cache can hold, or 0 if the cache is not weight-bounded
+     */
+    public long getMaxWeight();
+
+    /**
+     * Approximate weight of objects in cache at this time, or 0 if the cache is not weight-bounded
+     */
+    public long getCurrentWeight();
 }
@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.cache;
+
+import org.orbeon.oxf.xml.SAXStore;
+import org.orbeon.saxon.tinytree.TinyDocumentImpl;
+import org.orbeon.saxon.tinytree.TinyTree;
+
+/**
+ * Estimate the size of cached objects for weight-bounded caches.
+ *
+ * Sizes are rough estimates, which is enough to set memory budgets per cache.
+ */
+public class CacheWeigher {
+
+    // Weight for objects we don't know how to estimate
+    public static final long DEFAULT_WEIGHT = 1024;
+
+    // TinyTree arrays per node: nodeKind (byte), depth (short), next, alpha, beta, nameCode (ints)
+    private static final long TINY_TREE_NODE_WEIGHT = 19;
+    // TinyTree arrays per attribute: parent, nameCode, typeCode (ints) and value
+    private static final long TINY_TREE_ATTRIBUTE_WEIGHT = 12 + 40;
+    // TinyTree arrays per namespace: parent, code (ints)
+    private static final long TINY_TREE_NAMESPACE_WEIGHT = 8;
+
+    private CacheWeigher() {}
+
+    public static long weigh(Object object) {
+        if (object == null)
+            return 0;
+        else if (object instanceof Weighable)
+            return ((Weighable) object).getApproximateWeight();
+        else if (object instanceof SAXStore)
+            return ((SAXStore) object).getApproximateSize();
+        else if (object instanceof TinyDocumentImpl)
+            return weighTinyTree(((TinyDocumentImpl) object).getTree());
+        else
+            return DEFAULT_WEIGHT;
+    }
+
+    public static long weighTinyTree(TinyTree tree) {
+        return tree.getNumberOfNodes() * TINY_TREE_NODE_WEIGHT
+            + tree.getNumberOfAttributes() * TINY_TREE_ATTRIBUTE_WEIGHT
+            + tree.getNumberOfNamespaces() * TINY_TREE_NAMESPACE_WEIGHT
+            + tree.getCharacterBuffer().length() * 2;
+    }
+}
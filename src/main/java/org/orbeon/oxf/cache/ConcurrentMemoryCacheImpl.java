@@ -0,0 +1,509 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.cache;
+
+import org.orbeon.oxf.pipeline.api.PipelineContext;
+import org.orbeon.oxf.util.PropertyContext;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrent memory cache implementation.
+ *
+ * Lookups go to a ConcurrentHashMap and don't take any lock. Instead of relinking the entry on each hit, the hit is
+ * recorded in a lossy, striped read buffer which is drained into the access-order list when full or when the cache
+ * is modified. This gives an approximate LRU order.
+ *
+ * Modifications (add, remove, take, eviction) are serialized with a single lock, so the Cacheable eviction lock and
+ * the added/removed/evicted notifications behave as with MemoryCacheImpl.
+ */
+public class ConcurrentMemoryCacheImpl implements Cache {
+
+    private static final int READ_BUFFER_STRIPES = ceilingPowerOfTwo(4 * Runtime.getRuntime().availableProcessors());
+    private static final int READ_BUFFER_STRIPES_MASK = READ_BUFFER_STRIPES - 1;
+    private static final int READ_BUFFER_SIZE = 32;
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+    private static final int READ_BUFFER_DRAIN_MASK = READ_BUFFER_SIZE / 2 - 1;
+
+    private final String statisticsContextKey;
+    private final Object statisticsLock = new Object();
+
+    private volatile int maxSize;
+    private final long maxWeight;
+    private volatile int currentSize;   // only modified while holding lock
+    private volatile long currentWeight; // only modified while holding lock
+
+    private final ConcurrentHashMap<CacheKey, Node> keyToNodeMap = new ConcurrentHashMap<CacheKey, Node>();
+    private final CacheLinkedList<Node> accessOrder = new CacheLinkedList<Node>(); // guarded by lock
+    private final ReadBuffer[] readBuffers = new ReadBuffer[READ_BUFFER_STRIPES];
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public ConcurrentMemoryCacheImpl(String cacheName, int maxSize) {
+        this(cacheName, maxSize, 0);
+    }
+
+    /**
+     * @param maxWeight     if > 0, also bound the cache by the approximate weight of its objects, see CacheWeigher
+     */
+    public ConcurrentMemoryCacheImpl(String cacheName, int maxSize, long maxWeight) {
+        this.maxSize = maxSize;
+        this.maxWeight = maxWeight;
+        this.statisticsContextKey = "concurrent-memory-cache-statistics." + cacheName;
+
+        for (int i = 0; i < readBuffers.length; i++)
+            readBuffers[i] = new ReadBuffer();
+    }
+
+    // Entries are never mutated once published in the map, a new node replaces an existing one instead
+    private static class Node extends CacheEntry {
+        Node(CacheKey key, Object validity, Object cacheable, long weight) {
+            this.key = key;
+            this.validity = validity;
+            this.cacheable = cacheable;
+            this.weight = weight;
+        }
+
+        // listEntry is null once the node is no longer in the cache (guarded by lock)
+        boolean isLinked() {
+            return listEntry != null;
+        }
+    }
+
+    private static class ReadBuffer {
+        final AtomicReferenceArray<Node> slots = new AtomicReferenceArray<Node>(READ_BUFFER_SIZE);
+        final AtomicInteger writeCounter = new AtomicInteger();
+    }
+
+    // The statistics of a pipeline execution are updated by all the threads running branches of the pipeline
+    private class ConcurrentMemoryCacheStatistics implements CacheStatistics {
+
+        private final AtomicInteger hitsCount = new AtomicInteger();
+        private final AtomicInteger missCount = new AtomicInteger();
+        private final AtomicInteger addCount = new AtomicInteger();
+        private final AtomicInteger expirationCount = new AtomicInteger();
+
+        public int getMaxSize() { return maxSize; }
+        public int getCurrentSize() { return currentSize; }
+
+        public int getHitCount() { return hitsCount.get(); }
+        public int getMissCount() { return missCount.get(); }
+        public int getAddCount() { return addCount.get(); }
+        public int getExpirationCount() { return expirationCount.get(); }
+        public long getMaxWeight() { return maxWeight; }
+        public long getCurrentWeight() { return currentWeight; }
+
+        public void incrementHitsCount() { hitsCount.incrementAndGet(); }
+        public void incrementMissCount() { missCount.incrementAndGet(); }
+        public void incrementAddCount() { addCount.incrementAndGet(); }
+        public void incrementExpirationCount() { expirationCount.incrementAndGet(); }
+    }
+
+    public void add(CacheKey key, Object validity, Object cacheable) {
+        if (key == null || validity == null || maxSize == 0) return;
+        final ConcurrentMemoryCacheStatistics statistics = statisticsIfAvailable();
+        if (statistics != null)
+            statistics.incrementAddCount();
+
+        // Weigh outside of the lock as this might have to go through large objects
+        final long weight = (maxWeight > 0) ? CacheWeigher.weigh(cacheable) : 0;
+
+        lock.lock();
+        try {
+            drainReadBuffers();
+
+            final Node newNode = new Node(key, validity, cacheable, weight);
+            final Node existingNode = keyToNodeMap.get(key);
+            if (existingNode == null) {
+                // No existing entry found
+                if (maxWeight > 0 && weight > maxWeight) {
+                    // Object doesn't fit in the cache even if empty
+                    return;
+                }
+
+                // If the cache is full, try to evict entries, starting from the end
+                makeRoom(1, weight);
+                // If somehow we couldn't manage to evict an entry (e.g. all were locked), the cache will grow over
+                // maxsize.
+
+                keyToNodeMap.put(key, newNode);
+                newNode.listEntry = accessOrder.addFirst(newNode);
+                currentSize++;
+                currentWeight += weight;
+
+                // Notify object
+                notifyAdded(cacheable);
+            } else {
+                // Replace entry and move to the front
+                unlink(existingNode);
+                keyToNodeMap.put(key, newNode);
+                newNode.listEntry = accessOrder.addFirst(newNode);
+                currentWeight += weight - existingNode.weight;
+
+                // New object might be heavier
+                if (maxWeight > 0)
+                    makeRoom(0, 0);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void remove(CacheKey key) {
+        lock.lock();
+        try {
+            final Node node = keyToNodeMap.get(key);
+            if (node != null)
+                remove(node, false, true); // don't consider this an eviction
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int removeAll() {
+        lock.lock();
+        try {
+            final int previousSize = currentSize;
+
+            drainReadBuffers();
+
+            // Notify objects and clear
+            for (final Node node : accessOrder) {
+                notifyRemoved(node.cacheable);
+                node.listEntry = null;
+            }
+
+            keyToNodeMap.clear();
+            accessOrder.clear();
+            currentSize = 0;
+            currentWeight = 0;
+            return previousSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Find valid entry and record the access
+    public Object findValid(CacheKey key, Object validity) {
+        final Node node = keyToNodeMap.get(key);
+        if (node != null && lowerOrEqual(validity, node.validity)) {
+            final ConcurrentMemoryCacheStatistics statistics = statisticsIfAvailable();
+            if (statistics != null)
+                statistics.incrementHitsCount();
+
+            recordRead(node);
+            return node.cacheable;
+        } else {
+            // Not latest validity
+            final ConcurrentMemoryCacheStatistics statistics = statisticsIfAvailable();
+            if (statistics != null)
+                statistics.incrementMissCount();
+            return null;
+        }
+    }
+
+    // Like findValid but remove from the cache (with removed() notification)
+    public Object takeValid(CacheKey key, Object validity) {
+        // Fail fast without taking the lock
+        if (keyToNodeMap.get(key) == null) {
+            final ConcurrentMemoryCacheStatistics statistics = statisticsIfAvailable();
+            if (statistics != null)
+                statistics.incrementMissCount();
+            return null;
+        }
+
+        final Node node;
+        lock.lock();
+        try {
+            final Node currentNode = keyToNodeMap.get(key);
+            if (currentNode != null && lowerOrEqual(validity, currentNode.validity)) {
+                remove(currentNode, false, true);
+                node = currentNode;
+            } else {
+                node = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        final ConcurrentMemoryCacheStatistics statistics = statisticsIfAvailable();
+        if (statistics != null) {
+            if (node != null)
+                statistics.incrementHitsCount();
+            else
+                statistics.incrementMissCount();
+        }
+
+        return node != null ? node.cacheable : null;
+    }
+
+    public CacheEntry findAny(CacheKey key) {
+        // Don't update statistics here
+        return keyToNodeMap.get(key);
+    }
+
+    public int getCurrentSize() {
+        return currentSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getCurrentWeight() {
+        return currentWeight;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public void setMaxSize(int maxSize) {
+        lock.lock();
+        try {
+            if (maxSize != this.maxSize) {
+                // Decrease size if necessary
+                drainReadBuffers();
+
+                // Try to evict entries, but don't try more times than the number of elements initially in the cache
+                int tryCount = 0;
+                final int maxTries = currentSize;
+                while (currentSize > maxSize && tryCount < maxTries) {
+                    tryEvictLast();
+                    tryCount++;
+                }
+
+                this.maxSize = maxSize;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // NOTE: Iterate over a snapshot, in approximate most-recently-used order
+    public Iterator<CacheKey> iterateCacheKeys() {
+        final List<CacheKey> result = new ArrayList<CacheKey>();
+        for (final Node node : snapshot())
+            result.add(node.key);
+        return result.iterator();
+    }
+
+    public Iterator<Object> iterateCacheObjects() {
+        final List<Object> result = new ArrayList<Object>();
+        for (final Node node : snapshot())
+            result.add(node.cacheable);
+        return result.iterator();
+    }
+
+    public CacheStatistics getStatistics() {
+        final PropertyContext propertyContext = PipelineContext.get();
+        ConcurrentMemoryCacheStatistics statistics = (ConcurrentMemoryCacheStatistics) propertyContext.getAttribute(statisticsContextKey);
+        if (statistics == null) {
+            // Branches of the pipeline context can get here concurrently
+            synchronized (statisticsLock) {
+                statistics = (ConcurrentMemoryCacheStatistics) propertyContext.getAttribute(statisticsContextKey);
+                if (statistics == null) {
+                    statistics = new ConcurrentMemoryCacheStatistics();
+                    propertyContext.setAttribute(statisticsContextKey, statistics);
+                }
+            }
+        }
+
+        return statistics;
+    }
+
+    private ConcurrentMemoryCacheStatistics statisticsIfAvailable() {
+        return (PipelineContext.get() != null) ? (ConcurrentMemoryCacheStatistics) getStatistics() : null;
+    }
+
+    private List<Node> snapshot() {
+        lock.lock();
+        try {
+            drainReadBuffers();
+            final List<Node> result = new ArrayList<Node>(currentSize);
+            for (final Node node : accessOrder)
+                result.add(node);
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void recordRead(Node node) {
+        final ReadBuffer buffer = readBuffers[(int) Thread.currentThread().getId() & READ_BUFFER_STRIPES_MASK];
+        final int writeCount = buffer.writeCounter.getAndIncrement();
+
+        // Lossy: if the slot still holds a node not yet drained, it is simply overwritten
+        buffer.slots.lazySet(writeCount & READ_BUFFER_MASK, node);
+
+        // Drain opportunistically, but never wait for the lock on the read path
+        if ((writeCount & READ_BUFFER_DRAIN_MASK) == READ_BUFFER_DRAIN_MASK && lock.tryLock()) {
+            try {
+                drainReadBuffers();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // Must be called while holding lock
+    private void drainReadBuffers() {
+        for (final ReadBuffer buffer : readBuffers) {
+            for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+                final Node node = buffer.slots.getAndSet(i, null);
+                // Node might have been removed or replaced since the read was recorded
+                if (node != null && node.isLinked() && accessOrder.getFirst() != node) {
+                    accessOrder.remove(node.listEntry);
+                    node.listEntry = accessOrder.addFirst(node);
+                }
+            }
+        }
+    }
+
+    // Whether adding the given count and weight would exceed the size or weight limit
+    private boolean isOverLimit(int additionalCount, long additionalWeight) {
+        return currentSize + additionalCount > maxSize || (maxWeight > 0 && currentWeight + additionalWeight > maxWeight);
+    }
+
+    // Must be called while holding lock
+    private void makeRoom(int additionalCount, long additionalWeight) {
+        // Try to evict entries, but don't try more times than the number of elements initially in the cache
+        int tryCount = 0;
+        final int maxTries = currentSize;
+        while (isOverLimit(additionalCount, additionalWeight) && tryCount < maxTries) {
+            if (! tryEvictLast())
+                break;
+            tryCount++;
+        }
+    }
+
+    // Must be called while holding lock
+    private boolean tryEvictLast() {
+        for (final Iterator<Node> i = accessOrder.reverseIterator(); i.hasNext();) {
+            final Node nodeToTry = i.next();
+            if (tryEvict(nodeToTry)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Must be called while holding lock
+    private boolean tryEvict(Node node) {
+
+        assert keyToNodeMap.get(node.key) == node;
+
+        // Obtain lock if possible
+        final Lock evictionLock;
+        final boolean canEvict;
+        if (node.cacheable instanceof Cacheable) {
+            evictionLock = ((Cacheable) node.cacheable).getEvictionLock();
+            canEvict = evictionLock == null || evictionLock.tryLock();
+        } else {
+            evictionLock = null;
+            canEvict = true;
+        }
+
+        // Only remove object if we are allowed to
+        if (canEvict) {
+            try {
+                remove(node, true, false);
+            } finally {
+                // Release lock if we got one
+                if (evictionLock != null)
+                    evictionLock.unlock();
+            }
+        }
+
+        return canEvict;
+    }
+
+    // Must be called while holding lock
+    private void remove(Node node, boolean isEvict, boolean isRemove) {
+        if (keyToNodeMap.remove(node.key, node)) {
+            unlink(node);
+            currentSize--;
+            currentWeight -= node.weight;
+
+            // Notify object
+            if (isEvict) {
+                notifyEvicted(node.cacheable);
+            } else if (isRemove) {
+                notifyRemoved(node.cacheable);
+            }
+        }
+    }
+
+    // Must be called while holding lock
+    private void unlink(Node node) {
+        if (node.isLinked()) {
+            accessOrder.remove(node.listEntry);
+            node.listEntry = null;
+        }
+    }
+
+    private void notifyAdded(Object object) {
+        if (object instanceof Cacheable) {
+            ((Cacheable) object).added();
+        }
+    }
+
+    private void notifyRemoved(Object object) {
+        if (object instanceof Cacheable) {
+            ((Cacheable) object).removed();
+        }
+    }
+
+    private void notifyEvicted(Object object) {
+        if (object instanceof Cacheable) {
+            ((Cacheable) object).evicted();
+        }
+        final ConcurrentMemoryCacheStatistics statistics = statisticsIfAvailable();
+        if (statistics != null)
+            statistics.incrementExpirationCount();
+    }
+
+    private static boolean lowerOrEqual(Object left, Object right) {
+        if (left instanceof List && right instanceof List) {
+            List leftList = (List) left;
+            List rightList = (List) right;
+            if (leftList.size() != rightList.size())
+                return false;
+            for (Iterator leftIterator = leftList.iterator(), rightIterator = rightList.iterator();leftIterator.hasNext();) {
+                Object leftObject = leftIterator.next();
+                Object rightObject = rightIterator.next();
+                if (!lowerOrEqual(leftObject, rightObject))
+                    return false;
+            }
+            return true;
+        } else if (left instanceof Long && right instanceof Long) {
+            return (Long) left <= (Long) right;
+        } else {
+            return false;
+        }
+    }
+
+    private static int ceilingPowerOfTwo(int value) {
+        int result = 1;
+        while (result < value)
+            result <<= 1;
+        return result;
+    }
+}
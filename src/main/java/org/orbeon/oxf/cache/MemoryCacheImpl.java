@@ -29,15 +29,25 @@ import java.util.concurrent.locks.Lock;
 public class MemoryCacheImpl implements Cache {
 
     private int maxSize;
+    private final long maxWeight;
 
     private final String statisticsContextKey;
 
     private Map<CacheKey, CacheEntry> keyToEntryMap = new HashMap<CacheKey, CacheEntry>();
     private CacheLinkedList linkedList = new CacheLinkedList();
     private int currentSize;
+    private long currentWeight;
 
     public MemoryCacheImpl(String cacheName, int maxSize) {
+        this(cacheName, maxSize, 0);
+    }
+
+    /**
+     * @param maxWeight     if > 0, also bound the cache by the approximate weight of its objects, see CacheWeigher
+     */
+    public MemoryCacheImpl(String cacheName, int maxSize, long maxWeight) {
         this.maxSize = maxSize;
+        this.maxWeight = maxWeight;
         this.statisticsContextKey =  "memory-cache-statistics." + cacheName;
     }
 
@@ -55,6 +65,8 @@ public class MemoryCacheImpl implements Cache {
         public int getMissCount() { return missCount; }
         public int getAddCount() { return addCount; }
         public int getExpirationCount() { return expirationCount; }
+        public long getMaxWeight() { return maxWeight; }
+        public long getCurrentWeight() { return currentWeight; }
 
         public void incrementHitsCount() { hitsCount++; }
         public void incrementMissCount() { missCount++; }
@@ -68,21 +80,27 @@ public class MemoryCacheImpl implements Cache {
         final MemoryCacheStatistics statistics = (propertyContext != null) ? (MemoryCacheStatistics) getStatistics() : null;
         if (statistics != null)
             statistics.incrementAddCount();
+        final long weight = (maxWeight > 0) ? CacheWeigher.weigh(cacheable) : 0;
         CacheEntry entry = keyToEntryMap.get(key);
         if (entry == null) {
             // No existing entry found
-            if (currentSize == maxSize) {
-                // Cache is full, try to evict one entry, starting from the end
-                tryEvictLast();
-                // If somehow we couldn't manage to evict an entry (e.g. all were locked), the cache will grow over
-                // maxsize.
+            if (maxWeight > 0 && weight > maxWeight) {
+                // Object doesn't fit in the cache even if empty
+                return;
             }
+
+            // If the cache is full, try to evict entries, starting from the end
+            makeRoom(1, weight);
+            // If somehow we couldn't manage to evict an entry (e.g. all were locked), the cache will grow over
+            // maxsize.
             currentSize++;
+            currentWeight += weight;
 
             entry = new CacheEntry();
             entry.key = key;
             entry.validity = validity;
             entry.cacheable = cacheable;
+            entry.weight = weight;
             keyToEntryMap.put(key, entry);
             entry.listEntry = linkedList.addFirst(entry);
 
@@ -93,8 +111,30 @@ public class MemoryCacheImpl implements Cache {
             // Update validity and move to the front
             entry.validity = validity;
             entry.cacheable = cacheable;
+            currentWeight += weight - entry.weight;
+            entry.weight = weight;
             linkedList.remove(entry.listEntry);
             entry.listEntry = linkedList.addFirst(entry);
+
+            // New object might be heavier
+            if (maxWeight > 0)
+                makeRoom(0, 0);
+        }
+    }
+
+    // Whether adding the given count and weight would exceed the size or weight limit
+    private boolean isOverLimit(int additionalCount, long additionalWeight) {
+        return currentSize + additionalCount > maxSize || (maxWeight > 0 && currentWeight + additionalWeight > maxWeight);
+    }
+
+    private void makeRoom(int additionalCount, long additionalWeight) {
+        // Try to evict entries, but don't try more times than the number of elements initially in the cache
+        int tryCount = 0;
+        final int maxTries = currentSize;
+        while (isOverLimit(additionalCount, additionalWeight) && tryCount < maxTries) {
+            if (! tryEvictLast())
+                break;
+            tryCount++;
         }
     }
 
@@ -147,6 +187,7 @@ public class MemoryCacheImpl implements Cache {
             keyToEntryMap.remove(key);
             linkedList.remove(entry.listEntry);
             currentSize--;
+            currentWeight -= entry.weight;
 
             // Notify object
             if (isEvict) {
@@ -190,6 +231,7 @@ public class MemoryCacheImpl implements Cache {
         keyToEntryMap = new HashMap<CacheKey, CacheEntry>();
         linkedList = new CacheLinkedList();
         currentSize = 0;
+        currentWeight = 0;
         return previousSize;
     }
 
@@ -242,6 +284,14 @@ public class MemoryCacheImpl implements Cache {
         return maxSize;
     }
 
+    public long getCurrentWeight() {
+        return currentWeight;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
     public synchronized void setMaxSize(int maxSize) {
         if (maxSize != this.maxSize) {
             // Decrease size if necessary
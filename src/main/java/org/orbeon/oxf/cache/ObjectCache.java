@@ -13,10 +13,12 @@
  */
 package org.orbeon.oxf.cache;
 
+import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.properties.Properties;
+import org.orbeon.oxf.properties.PropertySet;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Factory for ObjectCache instances.
@@ -28,8 +30,13 @@ public class ObjectCache {
 
     private static final String CACHE_PROPERTY_NAME_PREFIX = "oxf.";
     private static final String CACHE_PROPERTY_NAME_SIZE_SUFFIX = ".size";
+    private static final String CACHE_PROPERTY_NAME_TYPE_SUFFIX = ".type";
+    private static final String CACHE_PROPERTY_NAME_MAX_WEIGHT_SUFFIX = ".max-weight";
 
-    private static final Map<String, Cache> namedObjectCaches = new HashMap<String, Cache>();
+    private static final String MEMORY_CACHE_TYPE = "memory";
+    private static final String CONCURRENT_CACHE_TYPE = "concurrent";
+
+    private static final ConcurrentMap<String, Cache> namedObjectCaches = new ConcurrentHashMap<String, Cache>();
 
     static {
         namedObjectCaches.put(DEFAULT_CACHE_NAME, new MemoryCacheImpl(DEFAULT_CACHE_NAME, DEFAULT_SIZE));
@@ -49,16 +56,37 @@ public class ObjectCache {
     /**
      * Get the instance of the object cache specified.
      *
+     * The implementation is selected with the oxf.[cache name].type property: "memory" (the default) uses a single
+     * lock, "concurrent" uses lock-free lookups with an approximate LRU policy.
+     *
+     * If the oxf.[cache name].max-weight property is set to a number of bytes, the cache is also bounded by the
+     * approximate size of its objects as estimated by CacheWeigher.
+     *
      * @param cacheName     name of the cache
      * @param defaultSize   default size if size is not found in properties
      * @return              instance of cache
      */
-    public synchronized static Cache instance(String cacheName, int defaultSize) {
+    public static Cache instance(String cacheName, int defaultSize) {
+        // Don't synchronize in the common case where the cache already exists
+        final Cache existingCache = namedObjectCaches.get(cacheName);
+        return existingCache != null ? existingCache : createInstance(cacheName, defaultSize);
+    }
+
+    private synchronized static Cache createInstance(String cacheName, int defaultSize) {
         Cache cache = namedObjectCaches.get(cacheName);
         if (cache == null) {
-            final String propertyName = CACHE_PROPERTY_NAME_PREFIX + cacheName + CACHE_PROPERTY_NAME_SIZE_SUFFIX;
-            final Integer size = Properties.instance().getPropertySet().getInteger(propertyName, defaultSize);
-            cache = new MemoryCacheImpl(cacheName, size);
+            final PropertySet propertySet = Properties.instance().getPropertySet();
+            final Integer size = propertySet.getInteger(CACHE_PROPERTY_NAME_PREFIX + cacheName + CACHE_PROPERTY_NAME_SIZE_SUFFIX, defaultSize);
+            final String type = propertySet.getString(CACHE_PROPERTY_NAME_PREFIX + cacheName + CACHE_PROPERTY_NAME_TYPE_SUFFIX, MEMORY_CACHE_TYPE);
+            final long maxWeight = propertySet.getInteger(CACHE_PROPERTY_NAME_PREFIX + cacheName + CACHE_PROPERTY_NAME_MAX_WEIGHT_SUFFIX, 0);
+
+            if (CONCURRENT_CACHE_TYPE.equals(type))
+                cache = new ConcurrentMemoryCacheImpl(cacheName, size, maxWeight);
+            else if (MEMORY_CACHE_TYPE.equals(type))
+                cache = new MemoryCacheImpl(cacheName, size, maxWeight);
+            else
+                throw new OXFException("Invalid cache type for cache " + cacheName + ": " + type);
+
             namedObjectCaches.put(cacheName, cache);
         }
         return cache;
@@ -16,9 +16,11 @@ package org.orbeon.oxf.pipeline.api;
 import org.orbeon.oxf.util.PropertyContext;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * PipelineContext represents a context object passed to all the processors running in a given
@@ -51,7 +53,11 @@ public class PipelineContext implements PropertyContext {
         }
     }
 
-    private Map<Object, Object> attributes = new HashMap<Object, Object>();
+    private final Map<Object, Object> attributes;
+    // For a branch context, attributes which are not shared with the parent context
+    private final Map<Object, Object> localAttributes;
+    private final boolean setLocalAttributes;
+    private final PipelineContext parentContext;
     private List<ContextListener> listeners;
     private boolean destroyed;
 
@@ -62,6 +68,45 @@ public class PipelineContext implements PropertyContext {
      * Create a new pipeline context.
      */
     public PipelineContext() {
+        this.attributes = new ConcurrentHashMap<Object, Object>();
+        this.localAttributes = null;
+        this.setLocalAttributes = false;
+        this.parentContext = null;
+
+        // Save and set ThreadLocal
+        originalPipelineContext = threadLocal.get();
+        threadLocal.set(this);
+    }
+
+    /**
+     * Create a branch context, to run part of a pipeline on another thread.
+     *
+     * The branch shares the attributes and listeners of the parent context, except for the given local attributes.
+     * Attributes which are not local are read from and set on the parent context.
+     * Destroying the branch only calls the listeners added with addLocalContextListener(), the others are called when
+     * the parent context is destroyed.
+     *
+     * @param parentContext   context to share attributes and listeners with
+     * @param localAttributes attributes specific to the branch, e.g. the current stack of processors
+     */
+    public PipelineContext(PipelineContext parentContext, Map<Object, Object> localAttributes) {
+        this(parentContext, localAttributes, false);
+    }
+
+    /**
+     * Create a branch context, which optionally keeps all the attributes set on it.
+     *
+     * With setLocalAttributes, the processors which are reset in the branch store their state in the branch, while the
+     * state of the other processors is still found in the parent context. This allows running the same processors
+     * concurrently in multiple branches.
+     */
+    public PipelineContext(PipelineContext parentContext, Map<Object, Object> localAttributes, boolean setLocalAttributes) {
+        this.attributes = null;
+        // NOTE: The local attributes can be read by the branches of this branch
+        this.localAttributes = Collections.synchronizedMap(new HashMap<Object, Object>(localAttributes));
+        this.setLocalAttributes = setLocalAttributes;
+        this.parentContext = parentContext;
+
         // Save and set ThreadLocal
         originalPipelineContext = threadLocal.get();
         threadLocal.set(this);
@@ -77,8 +122,15 @@ public class PipelineContext implements PropertyContext {
      * @param key the attribute key
      * @param o   the attribute value to associate with the key
      */
-    public synchronized void setAttribute(Object key, Object o) {
-        attributes.put(key, o);
+    public void setAttribute(Object key, Object o) {
+        if (localAttributes != null && (setLocalAttributes || localAttributes.containsKey(key)))
+            localAttributes.put(key, o);
+        else if (parentContext != null)
+            parentContext.setAttribute(key, o);
+        else if (o == null)
+            attributes.remove(key);
+        else
+            attributes.put(key, o);
     }
 
     /**
@@ -88,7 +140,12 @@ public class PipelineContext implements PropertyContext {
      * @return the attribute value, null if there is no attribute with the given key
      */
     public Object getAttribute(Object key) {
-        return attributes.get(key);
+        if (localAttributes != null && localAttributes.containsKey(key))
+            return localAttributes.get(key);
+        else if (parentContext != null)
+            return parentContext.getAttribute(key);
+        else
+            return attributes.get(key);
     }
 
     /**
@@ -97,6 +154,22 @@ public class PipelineContext implements PropertyContext {
      * @param listener listener to add
      */
     public synchronized void addContextListener(ContextListener listener) {
+        if (parentContext != null) {
+            parentContext.addContextListener(listener);
+            return;
+        }
+        if (listeners == null)
+            listeners = new ArrayList<ContextListener>();
+        listeners.add(listener);
+    }
+
+    /**
+     * Add a new listener called when this context is destroyed. For a branch context, this is when the branch is
+     * destroyed, e.g. to release resources held by the branch only.
+     *
+     * @param listener listener to add
+     */
+    public synchronized void addLocalContextListener(ContextListener listener) {
         if (listeners == null)
             listeners = new ArrayList<ContextListener>();
         listeners.add(listener);
@@ -111,10 +184,15 @@ public class PipelineContext implements PropertyContext {
     public void destroy(boolean success) {
         if (!destroyed) {
             try {
-                if (listeners != null) {
-                    for (final ContextListener contextListener: listeners) {
-                        contextListener.contextDestroyed(success);
+                // NOTE: Listeners can be added while others are called, e.g. by a branch which is still running
+                for (int i = 0;; i++) {
+                    final ContextListener contextListener;
+                    synchronized (this) {
+                        if (listeners == null || i >= listeners.size())
+                            break;
+                        contextListener = listeners.get(i);
                     }
+                    contextListener.contextDestroyed(success);
                 }
             } finally {
                 destroyed = true;
@@ -0,0 +1,342 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor;
+
+import org.apache.commons.pool.BasePoolableObjectFactory;
+import org.apache.commons.pool.impl.GenericObjectPool;
+import org.apache.log4j.Logger;
+import org.orbeon.oxf.common.OXFException;
+import org.orbeon.oxf.pipeline.api.ExternalContext;
+import org.orbeon.oxf.properties.PropertySet;
+import org.orbeon.oxf.util.LoggerFactory;
+import org.orbeon.oxf.util.NetUtils;
+import org.orbeon.oxf.webapp.WebAppListener;
+import org.orbeon.oxf.xforms.analytics.Gauge;
+import org.orbeon.oxf.xforms.analytics.XFormsMetrics;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of JDBC connections for a Datasource which is not obtained through JNDI.
+ *
+ * - at most maxActive connections are open, and borrowing waits at most maxWait ms for a connection to be returned
+ * - connections are validated when borrowed, and while idle, with the validation query if any
+ * - connections idle for more than maxIdleTime ms are closed
+ *
+ * Pools are closed when the web app is destroyed. The metrics of all the pools are exposed as sql.connection-pool.*
+ * gauges.
+ */
+public class ConnectionPool {
+
+    private static final Logger logger = LoggerFactory.createLogger(ConnectionPool.class);
+
+    public static final String MAX_ACTIVE_PROPERTY = "pool.max-active";
+    public static final int MAX_ACTIVE_DEFAULT = 8;
+    public static final String MAX_WAIT_PROPERTY = "pool.max-wait";
+    public static final int MAX_WAIT_DEFAULT = 30 * 1000;
+    public static final String MAX_IDLE_TIME_PROPERTY = "pool.max-idle-time";
+    public static final int MAX_IDLE_TIME_DEFAULT = 5 * 60 * 1000;
+    public static final String VALIDATION_QUERY_PROPERTY = "pool.validation-query";
+    public static final String STATEMENT_CACHE_SIZE_PROPERTY = "statement-cache-size";
+    public static final int STATEMENT_CACHE_SIZE_DEFAULT = 50;
+
+    // One pool per datasource
+    private static final ConcurrentHashMap<Datasource, ConnectionPool> pools = new ConcurrentHashMap<Datasource, ConnectionPool>();
+
+    private final Datasource datasource;
+    private final String validationQuery;
+    private final int statementCacheSize;
+    private final GenericObjectPool<PooledConnection> pool;
+
+    // Metrics
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong destroyedCount = new AtomicLong();
+    private final AtomicLong borrowedCount = new AtomicLong();
+    private final AtomicLong validationFailureCount = new AtomicLong();
+    private final AtomicLong timedOutCount = new AtomicLong();
+    private final AtomicLong totalWaitTime = new AtomicLong();
+
+    // Gauge summing a metric over all the pools
+    private static abstract class PoolsGauge implements Gauge {
+        public long value() {
+            long result = 0;
+            for (final ConnectionPool pool : pools.values())
+                result += value(pool);
+            return result;
+        }
+
+        protected abstract long value(ConnectionPool pool);
+    }
+
+    static {
+        XFormsMetrics.registerGauge("sql.connection-pool.active-count", new PoolsGauge() {
+            protected long value(ConnectionPool pool) { return pool.getActiveCount(); }
+        });
+        XFormsMetrics.registerGauge("sql.connection-pool.idle-count", new PoolsGauge() {
+            protected long value(ConnectionPool pool) { return pool.getIdleCount(); }
+        });
+        XFormsMetrics.registerGauge("sql.connection-pool.created-count", new PoolsGauge() {
+            protected long value(ConnectionPool pool) { return pool.getCreatedCount(); }
+        });
+        XFormsMetrics.registerGauge("sql.connection-pool.destroyed-count", new PoolsGauge() {
+            protected long value(ConnectionPool pool) { return pool.getDestroyedCount(); }
+        });
+        XFormsMetrics.registerGauge("sql.connection-pool.borrowed-count", new PoolsGauge() {
+            protected long value(ConnectionPool pool) { return pool.getBorrowedCount(); }
+        });
+        XFormsMetrics.registerGauge("sql.connection-pool.validation-failure-count", new PoolsGauge() {
+            protected long value(ConnectionPool pool) { return pool.getValidationFailureCount(); }
+        });
+        XFormsMetrics.registerGauge("sql.connection-pool.timed-out-count", new PoolsGauge() {
+            protected long value(ConnectionPool pool) { return pool.getTimedOutCount(); }
+        });
+        // In ms
+        XFormsMetrics.registerGauge("sql.connection-pool.wait-time", new PoolsGauge() {
+            protected long value(ConnectionPool pool) { return pool.getTotalWaitTime() / 1000000; }
+        });
+    }
+
+    /**
+     * Return the pool for the given datasource, creating it if needed.
+     *
+     * @param datasource   datasource
+     * @param propertySet  properties of the processor, used to configure the pool when it is created
+     * @return             pool, or null if pooling is disabled
+     */
+    public static ConnectionPool getPool(final Datasource datasource, PropertySet propertySet) {
+        ConnectionPool pool = pools.get(datasource);
+        if (pool == null) {
+            final int maxActive = getInteger(propertySet, MAX_ACTIVE_PROPERTY, MAX_ACTIVE_DEFAULT);
+            if (maxActive <= 0)
+                return null;
+
+            final ConnectionPool newPool = new ConnectionPool(datasource, maxActive,
+                    getInteger(propertySet, MAX_WAIT_PROPERTY, MAX_WAIT_DEFAULT),
+                    getInteger(propertySet, MAX_IDLE_TIME_PROPERTY, MAX_IDLE_TIME_DEFAULT),
+                    propertySet != null ? propertySet.getString(VALIDATION_QUERY_PROPERTY) : null,
+                    getStatementCacheSize(propertySet));
+
+            pool = pools.putIfAbsent(datasource, newPool);
+            if (pool == null) {
+                logger.info("Created JDBC connection pool for datasource " + datasource + " with at most " + maxActive + " connections.");
+                pool = newPool;
+
+                // Close the connections when the web app is destroyed
+                final ExternalContext externalContext = NetUtils.getExternalContext();
+                if (externalContext != null)
+                    externalContext.getWebAppContext().addListener(new WebAppListener() {
+                        public void webAppDestroyed() {
+                            pools.remove(datasource, newPool);
+                            newPool.close();
+                        }
+                    });
+            } else {
+                newPool.close();
+            }
+        }
+        return pool;
+    }
+
+    public static Collection<ConnectionPool> getPools() {
+        return Collections.unmodifiableCollection(pools.values());
+    }
+
+    public static int getStatementCacheSize(PropertySet propertySet) {
+        return getInteger(propertySet, STATEMENT_CACHE_SIZE_PROPERTY, STATEMENT_CACHE_SIZE_DEFAULT);
+    }
+
+    private static int getInteger(PropertySet propertySet, String name, int defaultValue) {
+        return propertySet != null ? propertySet.getInteger(name, defaultValue) : defaultValue;
+    }
+
+    public ConnectionPool(Datasource datasource, int maxActive, long maxWait, long maxIdleTime, String validationQuery, int statementCacheSize) {
+        this.datasource = datasource;
+        this.validationQuery = validationQuery;
+        this.statementCacheSize = statementCacheSize;
+
+        this.pool = new GenericObjectPool<PooledConnection>(new ConnectionFactory());
+        pool.setMaxActive(maxActive);
+        pool.setMaxIdle(maxActive);
+        pool.setWhenExhaustedAction(GenericObjectPool.WHEN_EXHAUSTED_BLOCK);
+        pool.setMaxWait(maxWait);
+        pool.setTestOnBorrow(true);
+        pool.setTestWhileIdle(true);
+        pool.setMinEvictableIdleTimeMillis(maxIdleTime);
+        pool.setTimeBetweenEvictionRunsMillis(Math.max(1000, maxIdleTime / 2));
+        pool.setNumTestsPerEvictionRun(maxActive);
+    }
+
+    public Datasource getDatasource() {
+        return datasource;
+    }
+
+    /**
+     * Borrow a connection, waiting if the maximum number of connections are in use.
+     */
+    public PooledConnection borrowConnection() {
+        final long startTime = System.nanoTime();
+        try {
+            final PooledConnection connection = pool.borrowObject();
+            borrowedCount.incrementAndGet();
+            return connection;
+        } catch (NoSuchElementException e) {
+            timedOutCount.incrementAndGet();
+            throw new OXFException("Timed out waiting for JDBC connection for datasource: " + datasource, e);
+        } catch (OXFException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new OXFException("Cannot get JDBC connection for datasource: " + datasource, e);
+        } finally {
+            totalWaitTime.addAndGet(System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * Return a connection to the pool, once its transaction is committed or rolled back.
+     */
+    public void returnConnection(PooledConnection connection) {
+        try {
+            pool.returnObject(connection);
+        } catch (Exception e) {
+            logger.warn("Exception while returning JDBC connection to pool", e);
+        }
+    }
+
+    /**
+     * Discard a connection which must not be reused, e.g. after a failed commit or rollback.
+     */
+    public void invalidateConnection(PooledConnection connection) {
+        try {
+            pool.invalidateObject(connection);
+        } catch (Exception e) {
+            logger.warn("Exception while discarding JDBC connection", e);
+        }
+    }
+
+    public void close() {
+        try {
+            pool.close();
+        } catch (Exception e) {
+            logger.warn("Exception while closing JDBC connection pool", e);
+        }
+    }
+
+    private class ConnectionFactory extends BasePoolableObjectFactory<PooledConnection> {
+
+        public PooledConnection makeObject() {
+            try {
+                Class.forName(datasource.getDriverClassName());
+            } catch (ClassNotFoundException e) {
+                throw new OXFException("Cannot load JDBC driver for class: " + datasource.getDriverClassName());
+            }
+
+            final Connection connection;
+            try {
+                connection = DriverManager.getConnection(datasource.getUri(), datasource.getUsername(), datasource.getPassword());
+            } catch (SQLException e) {
+                throw new OXFException("Cannot get connection from JDBC DriverManager for datasource: " + datasource, e);
+            }
+
+            createdCount.incrementAndGet();
+            if (logger.isDebugEnabled())
+                logger.debug("Created JDBC connection for datasource: " + datasource);
+
+            return new PooledConnection(connection, statementCacheSize);
+        }
+
+        @Override
+        public void destroyObject(PooledConnection connection) {
+            destroyedCount.incrementAndGet();
+            connection.close();
+        }
+
+        @Override
+        public void passivateObject(PooledConnection connection) {
+            connection.closeStatementsInUse();
+        }
+
+        @Override
+        public boolean validateObject(PooledConnection pooledConnection) {
+            final Connection connection = pooledConnection.getConnection();
+            boolean valid;
+            try {
+                if (connection.isClosed()) {
+                    valid = false;
+                } else if (validationQuery != null) {
+                    final Statement statement = connection.createStatement();
+                    try {
+                        statement.execute(validationQuery);
+                    } finally {
+                        statement.close();
+                    }
+                    // Don't leave a transaction open on an idle connection
+                    if (! connection.getAutoCommit())
+                        connection.rollback();
+                    valid = true;
+                } else {
+                    valid = true;
+                }
+            } catch (SQLException e) {
+                valid = false;
+            }
+
+            if (! valid) {
+                validationFailureCount.incrementAndGet();
+                logger.info("Discarding invalid JDBC connection for datasource: " + datasource);
+            }
+            return valid;
+        }
+    }
+
+    public int getActiveCount() {
+        return pool.getNumActive();
+    }
+
+    public int getIdleCount() {
+        return pool.getNumIdle();
+    }
+
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    public long getDestroyedCount() {
+        return destroyedCount.get();
+    }
+
+    public long getBorrowedCount() {
+        return borrowedCount.get();
+    }
+
+    public long getValidationFailureCount() {
+        return validationFailureCount.get();
+    }
+
+    public long getTimedOutCount() {
+        return timedOutCount.get();
+    }
+
+    // Total time spent waiting for connections, in nanoseconds
+    public long getTotalWaitTime() {
+        return totalWaitTime.get();
+    }
+}
@@ -16,6 +16,7 @@ package org.orbeon.oxf.processor;
 import org.apache.log4j.Logger;
 import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.pipeline.api.PipelineContext;
+import org.orbeon.oxf.properties.PropertySet;
 import org.orbeon.oxf.util.LoggerFactory;
 
 import javax.naming.InitialContext;
@@ -37,17 +38,31 @@ public class DatabaseContext {
     /**
      * Get a connection valid for this pipeline execution, given a JDBC JNDI name.
      *
+     * A branch of the pipeline context, which runs on another thread, gets its own connection.
+     *
      * The returned connection must not be closed by the user.
      *
      * @param pipelineContext  current pipeline context
-     * @param datasource       Datasource object
+     * @param jndiName         JNDI name of the datasource
      * @return                 Connection object
      */
     public static Connection getConnection(PipelineContext pipelineContext, final String jndiName) {
+        return getPooledConnection(pipelineContext, jndiName, null).getConnection();
+    }
+
+    /**
+     * Get a connection valid for this pipeline execution, given a JDBC JNDI name, along with its statement cache.
+     *
+     * @param pipelineContext  current pipeline context
+     * @param jndiName         JNDI name of the datasource
+     * @param propertySet      processor properties configuring the statement cache, or null for defaults
+     * @return                 PooledConnection object
+     */
+    public static PooledConnection getPooledConnection(PipelineContext pipelineContext, final String jndiName, PropertySet propertySet) {
         // Try to obtain connection from context
         // We used to synchronize on DatabaseContext.class here, but this should not be necessary since pipelineContext
         // is only used by one thread at a time.
-        Connection connection = (Connection) getContext(pipelineContext).connections.get(jndiName);
+        PooledConnection connection = getContext(pipelineContext).connections.get(jndiName);
         if (connection == null) {
             try {
                 // Create connection from datasource
@@ -57,9 +72,10 @@ public class DatabaseContext {
                 if (ds == null) {
                     throw new OXFException("Cannot find DataSource object by looking-up: " + jndiName);
                 }
-                Connection newConnection = ds.getConnection();
+                // The container pools connections, but statements are cached only for this pipeline execution
+                PooledConnection newConnection = new PooledConnection(ds.getConnection(), ConnectionPool.getStatementCacheSize(propertySet));
                 // Set connection properties
-                setConnectionProperties(newConnection, pipelineContext, jndiName);
+                setConnectionProperties(newConnection, null, pipelineContext, jndiName);
                 // Save connection into context
                 getContext(pipelineContext).connections.put(jndiName, newConnection);
 
@@ -83,61 +99,92 @@ public class DatabaseContext {
      * @return                 Connection object
      */
     public static Connection getConnection(PipelineContext pipelineContext, Datasource datasource) {
+        return getPooledConnection(pipelineContext, datasource, null).getConnection();
+    }
+
+    /**
+     * Get a connection valid for this pipeline execution, given a Datasource object, along with its statement cache.
+     *
+     * Unless disabled, the connection comes from the pool for the datasource, and goes back to it at the end of the
+     * pipeline execution.
+     *
+     * @param pipelineContext  current pipeline context
+     * @param datasource       Datasource object
+     * @param propertySet      processor properties configuring the pool, or null for defaults
+     * @return                 PooledConnection object
+     */
+    public static PooledConnection getPooledConnection(PipelineContext pipelineContext, Datasource datasource, PropertySet propertySet) {
         // Try to obtain connection from context
-        Connection connection = (Connection) getContext(pipelineContext).connections.get(datasource.toString());
+        // NOTE: Don't synchronize, as pipelineContext is only used by one thread at a time, and borrowing a connection
+        // may have to wait for another thread to return one.
+        PooledConnection connection = getContext(pipelineContext).connections.get(datasource.toString());
         if (connection == null) {
-            synchronized (DatabaseContext.class) {
-                connection = (Connection) getContext(pipelineContext).connections.get(datasource.toString());
-                if (connection == null) {
-                    // Create connection
-                    try {
-                        Class.forName(datasource.getDriverClassName());
-                    } catch (ClassNotFoundException e) {
-                        throw new OXFException("Cannot load JDBC driver for class: " + datasource.getDriverClassName());
-                    }
-                    Connection newConnection;
-                    try {
-                        newConnection = DriverManager.getConnection(datasource.getUri(), datasource.getUsername(), datasource.getPassword());
-                    } catch (SQLException e) {
-                        throw new OXFException("Cannot get connection from JDBC DriverManager for datasource: " + datasource, e);
-                    }
-
-                    // Set connection properties
-                    try {
-                        setConnectionProperties(newConnection, pipelineContext, datasource.toString());
-                    } catch (Exception e) {
-                         throw new OXFException(e);
-                    }
-                    // Save connection into context
-                    getContext(pipelineContext).connections.put(datasource.toString(), newConnection);
-
-                    connection = newConnection;
+            final ConnectionPool pool = ConnectionPool.getPool(datasource, propertySet);
+            final PooledConnection newConnection;
+            if (pool != null) {
+                newConnection = pool.borrowConnection();
+            } else {
+                // Create connection
+                try {
+                    Class.forName(datasource.getDriverClassName());
+                } catch (ClassNotFoundException e) {
+                    throw new OXFException("Cannot load JDBC driver for class: " + datasource.getDriverClassName());
+                }
+                try {
+                    newConnection = new PooledConnection(
+                            DriverManager.getConnection(datasource.getUri(), datasource.getUsername(), datasource.getPassword()),
+                            ConnectionPool.getStatementCacheSize(propertySet));
+                } catch (SQLException e) {
+                    throw new OXFException("Cannot get connection from JDBC DriverManager for datasource: " + datasource, e);
                 }
             }
+
+            // Set connection properties
+            try {
+                setConnectionProperties(newConnection, pool, pipelineContext, datasource.toString());
+            } catch (Exception e) {
+                if (pool != null)
+                    pool.invalidateConnection(newConnection);
+                throw new OXFException(e);
+            }
+            // Save connection into context
+            getContext(pipelineContext).connections.put(datasource.toString(), newConnection);
+
+            connection = newConnection;
         }
 
         return connection;
     }
 
-    private static void setConnectionProperties(final Connection connection, PipelineContext pipelineContext, final String datasourceName) throws SQLException {
+    private static void setConnectionProperties(final PooledConnection pooledConnection, final ConnectionPool pool, PipelineContext pipelineContext, final String datasourceName) throws SQLException {
+        final Connection connection = pooledConnection.getConnection();
         // Set connection properties
         connection.setAutoCommit(false);
-        // Commit or rollback when context is destroyed
-        pipelineContext.addContextListener(new PipelineContext.ContextListenerAdapter() {
+        // Commit or rollback when context is destroyed, then return the connection to the pool or close it
+        // NOTE: A branch context has its own connections, which are released as soon as the branch ends, see
+        // ProcessorImpl.getBranchLocalAttributes()
+        pipelineContext.addLocalContextListener(new PipelineContext.ContextListenerAdapter() {
             public void contextDestroyed(boolean success) {
                 try {
                     if (success) {
                         logger.info("Committing JDBC connection for datasource: " + datasourceName + ".");
                         connection.commit();
-                        connection.close();
                     } else {
                         logger.info("Rolling back JDBC connection for datasource: " + datasourceName + ".");
                         connection.rollback();
-                        connection.close();
                     }
                 } catch (SQLException e) {
+                    if (pool != null)
+                        pool.invalidateConnection(pooledConnection);
+                    else
+                        pooledConnection.close();
                     throw new OXFException(e);
                 }
+
+                if (pool != null)
+                    pool.returnConnection(pooledConnection);
+                else
+                    pooledConnection.close();
             }
         });
     }
@@ -153,6 +200,6 @@ public class DatabaseContext {
 
     private static class Context {
         // Map datasource to connections
-        public Map connections = new HashMap();
+        public Map<String, PooledConnection> connections = new HashMap<String, PooledConnection>();
     }
 }
@@ -111,4 +111,21 @@ public class Datasource {
     public String toString() {
         return "[" + driverClassName + "|" + uri + "|" + username + "]";
     }
+
+    // Datasources are equal if they connect to the same database the same way, so they can share connections
+    public boolean equals(Object o) {
+        if (! (o instanceof Datasource))
+            return false;
+        final Datasource other = (Datasource) o;
+        return equal(driverClassName, other.driverClassName) && equal(uri, other.uri)
+                && equal(username, other.username) && equal(password, other.password);
+    }
+
+    public int hashCode() {
+        return (uri != null ? uri.hashCode() : 0) * 31 + (username != null ? username.hashCode() : 0);
+    }
+
+    private static boolean equal(String s1, String s2) {
+        return s1 == null ? s2 == null : s1.equals(s2);
+    }
 }
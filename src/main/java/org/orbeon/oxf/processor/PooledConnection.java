@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor;
+
+import org.apache.log4j.Logger;
+import org.orbeon.oxf.util.LoggerFactory;
+import org.orbeon.oxf.xforms.analytics.Gauge;
+import org.orbeon.oxf.xforms.analytics.XFormsMetrics;
+
+import java.sql.*;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A JDBC connection along with an LRU cache of its prepared statements, keyed by SQL string.
+ *
+ * Statements obtained with prepareStatement() must be released with closeStatement(), which keeps them for reuse
+ * instead of closing them, after clearing their batch and parameters. A statement is removed from the cache while in use, so that nested uses of the same SQL get
+ * distinct statements.
+ *
+ * Like the underlying connection, this is used by a single thread at a time.
+ */
+public class PooledConnection {
+
+    private static final Logger logger = LoggerFactory.createLogger(PooledConnection.class);
+
+    // Metrics, across all connections
+    private static final AtomicLong statementCacheHits = new AtomicLong();
+    private static final AtomicLong statementCacheMisses = new AtomicLong();
+
+    static {
+        XFormsMetrics.registerGauge("sql.statement-cache.hit-count", new Gauge() {
+            public long value() { return getStatementCacheHits(); }
+        });
+        XFormsMetrics.registerGauge("sql.statement-cache.miss-count", new Gauge() {
+            public long value() { return getStatementCacheMisses(); }
+        });
+    }
+
+    private final Connection connection;
+    private final int statementCacheSize;
+
+    // Idle statements by SQL string, least recently used first
+    private final LinkedHashMap<String, PreparedStatement> idleStatements;
+    // Statements in use which can go back to the cache, with their SQL string
+    private final Map<PreparedStatement, String> statementsInUse = new IdentityHashMap<PreparedStatement, String>();
+
+    public PooledConnection(Connection connection, final int statementCacheSize) {
+        this.connection = connection;
+        this.statementCacheSize = statementCacheSize;
+        this.idleStatements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > statementCacheSize) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                } else
+                    return false;
+            }
+        };
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Return a prepared statement for the given SQL, reusing a cached statement if possible.
+     */
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        if (statementCacheSize <= 0)
+            return connection.prepareStatement(sql);
+
+        PreparedStatement statement = idleStatements.remove(sql);
+        if (statement != null) {
+            statementCacheHits.incrementAndGet();
+        } else {
+            statementCacheMisses.incrementAndGet();
+            statement = connection.prepareStatement(sql);
+        }
+        statementsInUse.put(statement, sql);
+        return statement;
+    }
+
+    /**
+     * Release a statement. Statements obtained with prepareStatement() are kept for reuse, others are closed.
+     */
+    public void closeStatement(PreparedStatement statement) throws SQLException {
+        final String sql = statementsInUse.remove(statement);
+        if (sql == null) {
+            // Not from the cache, but don't close a statement which was already released to the cache
+            if (! idleStatements.containsValue(statement))
+                statement.close();
+        } else if (idleStatements.containsKey(sql)) {
+            // Another statement with the same SQL was released in the meanwhile
+            statement.close();
+        } else {
+            try {
+                final ResultSet resultSet = statement.getResultSet();
+                if (resultSet != null)
+                    resultSet.close();
+                statement.clearBatch();
+                statement.clearParameters();
+                statement.clearWarnings();
+            } catch (SQLException e) {
+                // Don't reuse a statement in an unknown state
+                statement.close();
+                return;
+            }
+            idleStatements.put(sql, statement);
+        }
+    }
+
+    /**
+     * Close the statements which were not released, e.g. after an error.
+     */
+    public void closeStatementsInUse() {
+        for (final PreparedStatement statement : statementsInUse.keySet())
+            closeQuietly(statement);
+        statementsInUse.clear();
+    }
+
+    /**
+     * Close all the statements and the connection.
+     */
+    public void close() {
+        closeStatementsInUse();
+        for (final PreparedStatement statement : idleStatements.values())
+            closeQuietly(statement);
+        idleStatements.clear();
+
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.warn("Exception while closing JDBC connection", e);
+        }
+    }
+
+    int getIdleStatementCount() {
+        return idleStatements.size();
+    }
+
+    private static void closeQuietly(Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            logger.debug("Exception while closing JDBC statement", e);
+        }
+    }
+
+    public static long getStatementCacheHits() {
+        return statementCacheHits.get();
+    }
+
+    public static long getStatementCacheMisses() {
+        return statementCacheMisses.get();
+    }
+}
@@ -425,6 +425,28 @@ public abstract class ProcessorImpl implements Processor {
         return new ProcessorKey(parents, this);
     }
 
+    /**
+     * Return the attributes which a branch of the given context must not share with it, see PipelineContext. This
+     * must be called on the thread which creates the branch.
+     */
+    protected static Map<Object, Object> getBranchLocalAttributes(PipelineContext context) {
+        // The branch gets its own copy of the stack of parent processors, which is used to find processor states
+        final Stack<ProcessorImpl> parents = (Stack<ProcessorImpl>) context.getAttribute(PARENT_PROCESSORS);
+        final Stack<ProcessorImpl> parentsCopy;
+        if (parents != null) {
+            parentsCopy = new Stack<ProcessorImpl>();
+            parentsCopy.addAll(parents);
+        } else {
+            parentsCopy = null;
+        }
+
+        final Map<Object, Object> localAttributes = new HashMap<Object, Object>();
+        localAttributes.put(PARENT_PROCESSORS, parentsCopy);
+        // JDBC connections and their statement caches are used by one thread at a time, so the branch gets its own
+        localAttributes.put(DatabaseContext.DATASOURCE_CONTEXT, null);
+        return localAttributes;
+    }
+
     public void start(PipelineContext pipelineContext) {
         throw new ValidationException("Start not supported; processor implemented by '"
                 + getClass().getName() + "'", locationData);
@@ -0,0 +1,318 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor.generator;
+
+import org.orbeon.oxf.cache.Cache;
+import org.orbeon.oxf.cache.CacheEntry;
+import org.orbeon.oxf.cache.CacheKey;
+import org.orbeon.oxf.cache.ObjectCache;
+import org.orbeon.oxf.xml.SAXStore;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Cache of parsed HTTP resources for the URL generator, which follows the caching headers of the responses.
+ *
+ * - a response with Cache-Control: no-store or private is not cached, as this is a shared cache
+ * - a response to a request with credentials or cookies is only cached with Cache-Control: public or s-maxage
+ * - a response which varies on request headers other than Accept-Encoding is not cached
+ * - a cached response is used without any request while fresh, as per Cache-Control: s-maxage or max-age and Age
+ * - once stale, it is still used during the stale-while-revalidate period while it is revalidated in the background
+ * - otherwise it is revalidated with If-None-Match and If-Modified-Since
+ *
+ * The size of the cache is set with the oxf.cache.http.size property.
+ */
+public class HttpCache {
+
+    public static final String CACHE_NAME = "cache.http";
+    private static final int DEFAULT_SIZE = 200;
+
+    public static Cache instance() {
+        return ObjectCache.instance(CACHE_NAME, DEFAULT_SIZE);
+    }
+
+    public static Entry find(CacheKey key) {
+        final CacheEntry cacheEntry = instance().findAny(key);
+        return (cacheEntry != null) ? (Entry) cacheEntry.cacheable : null;
+    }
+
+    public static synchronized void add(CacheKey key, Entry entry) {
+        instance().add(key, entry.getValidity(), entry);
+    }
+
+    public static synchronized void remove(CacheKey key) {
+        instance().remove(key);
+    }
+
+    /**
+     * Replace the entry for the given key, unless it has been replaced or removed in the meantime, for example by a
+     * concurrent request.
+     *
+     * @param expected  entry to replace
+     * @param entry     new entry, or null to remove the entry
+     * @return          whether the entry was replaced
+     */
+    public static synchronized boolean replace(CacheKey key, Entry expected, Entry entry) {
+        if (find(key) != expected)
+            return false;
+
+        if (entry != null)
+            add(key, entry);
+        else
+            remove(key);
+        return true;
+    }
+
+    /**
+     * Return the value of an Age header in seconds, or 0 if the header is missing or invalid.
+     */
+    public static long parseAge(String value) {
+        return Math.max(0, CacheControl.parseSeconds(value));
+    }
+
+    /**
+     * Return the values of a header, separated by commas, or null if the header is missing. The header name is
+     * matched case-insensitively.
+     */
+    public static String getHeader(Map<String, List<String>> headers, String name) {
+        if (headers == null)
+            return null;
+
+        StringBuilder result = null;
+        for (final Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            if (name.equalsIgnoreCase(entry.getKey()) && entry.getValue() != null) {
+                for (final String value : entry.getValue()) {
+                    if (result == null)
+                        result = new StringBuilder(value);
+                    else
+                        result.append(',').append(value);
+                }
+            }
+        }
+        return (result != null) ? result.toString() : null;
+    }
+
+    /**
+     * Cache-Control directives of a response which are relevant to a shared cache.
+     */
+    public static class CacheControl {
+
+        public static final CacheControl NONE = new CacheControl(false, false, false, false, false, -1, 0);
+
+        private final boolean noStore;
+        private final boolean noCache;
+        private final boolean mustRevalidate;
+        private final boolean isPublic;
+        private final boolean isSharedMaxAge;
+        private final long maxAge;
+        private final long staleWhileRevalidate;
+
+        public CacheControl(boolean noStore, boolean noCache, boolean mustRevalidate, boolean isPublic,
+                            boolean isSharedMaxAge, long maxAge, long staleWhileRevalidate) {
+            this.noStore = noStore;
+            this.noCache = noCache;
+            this.mustRevalidate = mustRevalidate;
+            this.isPublic = isPublic;
+            this.isSharedMaxAge = isSharedMaxAge;
+            this.maxAge = maxAge;
+            this.staleWhileRevalidate = staleWhileRevalidate;
+        }
+
+        /**
+         * Parse the value of a Cache-Control header. Unknown directives and invalid values are ignored.
+         *
+         * @param value header value, or null
+         */
+        public static CacheControl parse(String value) {
+            if (value == null)
+                return NONE;
+
+            boolean noStore = false;
+            boolean noCache = false;
+            boolean mustRevalidate = false;
+            boolean isPublic = false;
+            long maxAge = -1;
+            long sharedMaxAge = -1;
+            long staleWhileRevalidate = 0;
+
+            for (final String directive : value.split(",")) {
+                final int equalIndex = directive.indexOf('=');
+                final String name = (equalIndex == -1 ? directive : directive.substring(0, equalIndex)).trim().toLowerCase();
+                final String argument = (equalIndex == -1) ? null : directive.substring(equalIndex + 1).trim();
+
+                if (name.equals("no-store") || name.equals("private")) {
+                    noStore = true;
+                } else if (name.equals("public")) {
+                    isPublic = true;
+                } else if (name.equals("no-cache")) {
+                    noCache = true;
+                } else if (name.equals("must-revalidate") || name.equals("proxy-revalidate")) {
+                    mustRevalidate = true;
+                } else if (name.equals("max-age")) {
+                    maxAge = parseSeconds(argument);
+                } else if (name.equals("s-maxage")) {
+                    // Takes precedence over max-age for a shared cache
+                    sharedMaxAge = parseSeconds(argument);
+                } else if (name.equals("stale-while-revalidate")) {
+                    staleWhileRevalidate = Math.max(0, parseSeconds(argument));
+                }
+            }
+
+            return new CacheControl(noStore, noCache, mustRevalidate, isPublic, sharedMaxAge != -1,
+                    sharedMaxAge != -1 ? sharedMaxAge : maxAge, staleWhileRevalidate);
+        }
+
+        static long parseSeconds(String argument) {
+            if (argument == null)
+                return -1;
+            try {
+                return Math.max(0, Long.parseLong(argument.replace("\"", "")));
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        public boolean isNoStore() {
+            return noStore;
+        }
+
+        /**
+         * Whether the response is explicitly meant for shared caches, with public or s-maxage, in which case it can be
+         * cached even if the request had credentials.
+         */
+        public boolean isShared() {
+            return isPublic || isSharedMaxAge;
+        }
+
+        /**
+         * Number of seconds during which a response can be used without revalidation.
+         */
+        public long getFreshnessLifetime() {
+            return noCache ? 0 : Math.max(0, maxAge);
+        }
+
+        /**
+         * Number of seconds after the response becomes stale during which it can be used while it is revalidated.
+         */
+        public long getStaleWhileRevalidate() {
+            return (noCache || mustRevalidate) ? 0 : staleWhileRevalidate;
+        }
+    }
+
+    /**
+     * A cached response, along with what is needed to decide whether it can be used and to revalidate it.
+     */
+    public static class Entry {
+
+        private final SAXStore document;
+        private final String etag;
+        private final Long lastModified;
+        private final long validity;
+        private final CacheControl cacheControl;
+        private final long freshUntil;
+        private final long staleUntil;
+        private final AtomicBoolean revalidating = new AtomicBoolean();
+
+        /**
+         * @param document      parsed response
+         * @param etag          ETag of the response, or null
+         * @param lastModified  Last-Modified of the response, or null
+         * @param validity      validity of the document, which changes when the document changes
+         * @param cacheControl  Cache-Control of the response
+         * @param age           Age of the response in seconds, i.e. for how long it was already cached upstream
+         * @param time          time at which the response was received
+         */
+        public Entry(SAXStore document, String etag, Long lastModified, long validity, CacheControl cacheControl, long age, long time) {
+            this.document = document;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.validity = validity;
+            this.cacheControl = cacheControl;
+            this.freshUntil = time + (cacheControl.getFreshnessLifetime() - age) * 1000;
+            this.staleUntil = freshUntil + cacheControl.getStaleWhileRevalidate() * 1000;
+        }
+
+        /**
+         * Return an entry for the same document following a 304 response received at the given time. The ETag and
+         * Cache-Control of the 304 response, if present, replace the current ones.
+         */
+        public Entry refresh(String newEtag, CacheControl newCacheControl, long age, long time) {
+            return new Entry(document, newEtag != null ? newEtag : etag, lastModified, validity,
+                    newCacheControl != null ? newCacheControl : cacheControl, age, time);
+        }
+
+        /**
+         * Whether a response can be cached and is worth caching, i.e. whether it can be used without a request for
+         * some time, or revalidated with a conditional request.
+         *
+         * @param vary             Vary header of the response, or null
+         * @param credentialsSent  whether the request had credentials, an Authorization header or cookies
+         */
+        public static boolean isCacheable(CacheControl cacheControl, String etag, Long lastModified, String vary, boolean credentialsSent) {
+            if (cacheControl.isNoStore())
+                return false;
+
+            // The response might be specific to the user, and the cache key doesn't include credentials
+            if (credentialsSent && ! cacheControl.isShared())
+                return false;
+
+            // The cache key doesn't include all the request headers, but the content encoding doesn't change the document
+            if (vary != null)
+                for (final String header : vary.split(","))
+                    if (header.trim().length() > 0 && ! header.trim().equalsIgnoreCase("Accept-Encoding"))
+                        return false;
+
+            return cacheControl.getFreshnessLifetime() > 0 || etag != null || lastModified != null;
+        }
+
+        public SAXStore getDocument() {
+            return document;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public Long getLastModified() {
+            return lastModified;
+        }
+
+        public Long getValidity() {
+            return validity;
+        }
+
+        public boolean isFresh(long time) {
+            return time < freshUntil;
+        }
+
+        public boolean isUsableWhileRevalidating(long time) {
+            return time < staleUntil;
+        }
+
+        /**
+         * Claim the background revalidation of this entry.
+         *
+         * @return false if the entry is already being revalidated
+         */
+        public boolean startRevalidation() {
+            return revalidating.compareAndSet(false, true);
+        }
+
+        public void endRevalidation() {
+            revalidating.set(false);
+        }
+    }
+}
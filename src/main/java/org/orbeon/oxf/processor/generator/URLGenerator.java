@@ -18,9 +18,13 @@ import org.dom4j.Element;
 import org.orbeon.oxf.cache.*;
 import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.common.ValidationException;
+import org.orbeon.oxf.externalcontext.AsyncExternalContext;
+import org.orbeon.oxf.externalcontext.AsyncRequest;
+import org.orbeon.oxf.pipeline.api.ExternalContext;
 import org.orbeon.oxf.pipeline.api.PipelineContext;
 import org.orbeon.oxf.pipeline.api.XMLReceiver;
 import org.orbeon.oxf.processor.*;
+import org.orbeon.oxf.processor.pipeline.PipelineExecutor;
 import org.orbeon.oxf.resources.ResourceManagerWrapper;
 import org.orbeon.oxf.resources.URLFactory;
 import org.orbeon.oxf.resources.handler.OXFHandler;
@@ -41,6 +45,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.FutureTask;
 
 /**
  * Generates SAX events from a document fetched from an URL.
@@ -67,6 +72,7 @@ public class URLGenerator extends ProcessorImpl {
 
     private static final boolean DEFAULT_CACHE_USE_LOCAL_CACHE = true;
     private static final boolean DEFAULT_ENABLE_CONDITIONAL_GET = false;
+    private static final boolean DEFAULT_ENABLE_HTTP_CACHE = true;
 
     private static final boolean DEFAULT_PREEMPTIVE_AUTHENTICATION = true;
 
@@ -112,10 +118,19 @@ public class URLGenerator extends ProcessorImpl {
                       boolean ignoreConnectionEncoding, XMLUtils.ParserConfiguration parserConfiguration, boolean handleLexical,
                       String mode, Map<String, String[]> headerNameValues, String forwardHeaders, boolean cacheUseLocalCache,
                       boolean enableConditionalGET) {
+        this(url, contentType, forceContentType, encoding, forceEncoding, ignoreConnectionEncoding, parserConfiguration,
+                handleLexical, mode, headerNameValues, forwardHeaders, cacheUseLocalCache, enableConditionalGET,
+                DEFAULT_ENABLE_HTTP_CACHE);
+    }
+
+    public URLGenerator(URL url, String contentType, boolean forceContentType, String encoding, boolean forceEncoding,
+                      boolean ignoreConnectionEncoding, XMLUtils.ParserConfiguration parserConfiguration, boolean handleLexical,
+                      String mode, Map<String, String[]> headerNameValues, String forwardHeaders, boolean cacheUseLocalCache,
+                      boolean enableConditionalGET, boolean enableHttpCache) {
         this.localConfigURIReferences = new ConfigURIReferences(new Config(url, contentType, forceContentType, encoding,
                 forceEncoding, ignoreConnectionEncoding, parserConfiguration, handleLexical, mode,
                 headerNameValues, forwardHeaders,
-                cacheUseLocalCache, enableConditionalGET, null, null, DEFAULT_PREEMPTIVE_AUTHENTICATION, null, new TidyConfig(null)));
+                cacheUseLocalCache, enableConditionalGET, enableHttpCache, null, null, DEFAULT_PREEMPTIVE_AUTHENTICATION, null, new TidyConfig(null)));
         addOutputInfo(new ProcessorInputOutputInfo(OUTPUT_DATA));
     }
 
@@ -135,6 +150,7 @@ public class URLGenerator extends ProcessorImpl {
 
         private boolean cacheUseLocalCache = DEFAULT_CACHE_USE_LOCAL_CACHE;
         private boolean enableConditionalGET = DEFAULT_ENABLE_CONDITIONAL_GET;
+        private boolean enableHttpCache = DEFAULT_ENABLE_HTTP_CACHE;
 
         private String username;
         private String password;
@@ -166,7 +182,7 @@ public class URLGenerator extends ProcessorImpl {
         public Config(URL url, String contentType, boolean forceContentType, String encoding, boolean forceEncoding,
                       boolean ignoreConnectionEncoding, XMLUtils.ParserConfiguration parserConfiguration,
                       boolean handleLexical, String mode, Map<String, String[]> headerNameValues, String forwardHeaders,
-                      boolean cacheUseLocalCache, boolean enableConditionalGET, String username, String password,
+                      boolean cacheUseLocalCache, boolean enableConditionalGET, boolean enableHttpCache, String username, String password,
                       boolean preemptiveAuthentication, String domain, TidyConfig tidyConfig) {
 
             this.url = url;
@@ -190,6 +206,7 @@ public class URLGenerator extends ProcessorImpl {
             // cache. Either way, it's complicated. So we disable conditional GET if XInclude is enabled for now. This
             // could be easier if we had a real HTTP client document cache.
             this.enableConditionalGET = enableConditionalGET && ! parserConfiguration.handleXInclude;
+            this.enableHttpCache = enableHttpCache;
 
             // Authentication
             this.username = username;
@@ -256,6 +273,16 @@ public class URLGenerator extends ProcessorImpl {
             return enableConditionalGET;
         }
 
+        /**
+         * Whether the HTTP cache is used for the main document. As for conditional GET, this is not done with
+         * XInclude, as the cached document would depend on the included documents.
+         */
+        public boolean isUseHttpCache() {
+            final String protocol = url.getProtocol();
+            return enableHttpCache && ! parserConfiguration.handleXInclude
+                    && (protocol.equals("http") || protocol.equals("https"));
+        }
+
         public String getUsername() {
             return username;
         }
@@ -374,6 +401,7 @@ public class URLGenerator extends ProcessorImpl {
                             // Cache control
                             final boolean cacheUseLocalCache = ProcessorUtils.selectBooleanValue(configElement, "/config/cache-control/use-local-cache", DEFAULT_CACHE_USE_LOCAL_CACHE);
                             final boolean enableConditionalGET = ProcessorUtils.selectBooleanValue(configElement, "/config/cache-control/conditional-get", DEFAULT_ENABLE_CONDITIONAL_GET);
+                            final boolean enableHttpCache = ProcessorUtils.selectBooleanValue(configElement, "/config/cache-control/http-cache", DEFAULT_ENABLE_HTTP_CACHE);
 
                             // Authentication
                             final org.dom4j.Node configAuthentication = XPathUtils.selectSingleNode(configElement, "/config/authentication");
@@ -398,7 +426,7 @@ public class URLGenerator extends ProcessorImpl {
                             final Config config = new Config(fullURL, contentType, forceContentType, encoding, forceEncoding,
                                     ignoreConnectionEncoding, new XMLUtils.ParserConfiguration(validating, handleXInclude, externalEntities), handleLexical, mode,
                                     headerNameValues, forwardHeaders,
-                                    cacheUseLocalCache, enableConditionalGET,
+                                    cacheUseLocalCache, enableConditionalGET, enableHttpCache,
                                     username, password, preemptiveAuthentication, domain,
                                     tidyConfig);
                             if (logger.isDebugEnabled())
@@ -411,8 +439,11 @@ public class URLGenerator extends ProcessorImpl {
                     if (configURIReferences.config.getURL() == null)
                         throw new OXFException("Missing configuration.");
 
+                    // The HTTP cache replaces the local cache for the main document
+                    final boolean isUseHttpCache = configURIReferences.config.isUseHttpCache();
+
                     // We use the same validity as for the output
-                    final boolean isUseLocalCache = configURIReferences.config.isCacheUseLocalCache();
+                    final boolean isUseLocalCache = configURIReferences.config.isCacheUseLocalCache() && ! isUseHttpCache;
                     final CacheKey localCacheKey;
                     final Object localCacheValidity;
                     if (isUseLocalCache) {
@@ -425,9 +456,15 @@ public class URLGenerator extends ProcessorImpl {
 
                     // Decide whether to use read from the special oxf: handler or the generic URL handler
                     final URLGeneratorState state = (URLGenerator.URLGeneratorState) URLGenerator.this.getState(pipelineContext);
+                    if (isUseHttpCache) {
+                        // Look into the HTTP cache before anything else, as the cached document might be used without
+                        // any request. This does nothing if done already to retrieve the validity.
+                        getHandlerValidity(pipelineContext, configURIReferences.config, configURIReferences.config.getURL(),
+                                state.ensureMainResourceHandler(pipelineContext, configURIReferences.config));
+                    }
                     if (state.getDocument() != null) {
-                        // Document was found when retrieving validity in conditional get
-                        // NOTE: This only happens if isCacheUseLocalCache() == true
+                        // Document was found when retrieving validity in conditional get or in the HTTP cache
+                        // NOTE: This only happens if isCacheUseLocalCache() == true or with the HTTP cache
                         // NOTE: Document was re-added to cache in getValidityImpl()
                         state.getDocument().replay(xmlReceiver);
                     } else {
@@ -440,73 +477,28 @@ public class URLGenerator extends ProcessorImpl {
                             try {
                                 // We need to read the resource
 
-                                // Find content-type to use. If the config says to force the
-                                // content-type, we use the content-type provided by the user.
-                                // Otherwise, we give the priority to the content-type provided by
-                                // the connection, then the content-type provided by the user, then
-                                // we use the default content-type (XML). The user will have to
-                                // provide a content-type for example to read HTML documents with
-                                // the file: protocol.
-                                String contentType;
-                                if (configURIReferences.config.isForceContentType()) {
-                                    contentType = configURIReferences.config.getContentType();
-                                } else {
-                                    contentType = handler.getResourceMediaType();
-                                    if (contentType == null)
-                                        contentType = configURIReferences.config.getContentType();
-                                    if (contentType == null)
-                                        contentType = ProcessorUtils.DEFAULT_CONTENT_TYPE;
-                                }
-
                                 // Get and cache validity as the handler is open, as validity is likely to be used later
                                 // again for caching reasons
                                 final Long validity = (Long) getHandlerValidity(pipelineContext, configURIReferences.config, configURIReferences.config.getURL(), handler);
 
                                 // Create store for caching if necessary
-                                final XMLReceiver output = isUseLocalCache ? new SAXStore(xmlReceiver) : xmlReceiver;
-
-                                // Handle mode
-                                String mode = configURIReferences.config.getMode();
-                                if (mode == null) {
-                                    // Mode is inferred from content-type
-                                    if (ProcessorUtils.HTML_CONTENT_TYPE.equals(contentType))
-                                        mode = "html";
-                                    else if (XMLUtils.isXMLMediatype(contentType))
-                                        mode = "xml";
-                                    else if (XMLUtils.isTextOrJSONContentType(contentType))
-                                        mode = "text";
-                                    else
-                                        mode = "binary";
-                                }
+                                final XMLReceiver output = (isUseLocalCache || isUseHttpCache) ? new SAXStore(xmlReceiver) : xmlReceiver;
 
                                 // Read resource
-                                if (mode.equals("html")) {
-                                    // HTML mode
-                                    handler.readHTML(output);
-                                    configURIReferences.uriReferences = null;
-                                } else if (mode.equals("xml")) {
-                                    // XML mode
-                                    final URIProcessorOutputImpl.URIReferences uriReferences = new URIProcessorOutputImpl.URIReferences();
-                                    handler.readXML(pipelineContext, output, uriReferences);
-                                    configURIReferences.uriReferences = uriReferences.getReferences();
-                                } else if (mode.equals("text")) {
-                                    // Text mode
-                                    handler.readText(output, contentType, validity);
-                                    configURIReferences.uriReferences = null;
-                                } else {
-                                    // Binary mode
-                                    handler.readBinary(output, contentType, validity);
-                                    configURIReferences.uriReferences = null;
-                                }
+                                configURIReferences.uriReferences = readResource(pipelineContext, configURIReferences.config, handler, validity, output);
 
                                 // Cache the resource if requested but only if there is not a failure status code. It
                                 // seems reasonable to follow the semantic of the web and to never cache unsuccessful
                                 // responses.
-                                if (isUseLocalCache && ! handler.isFailureStatusCode()) {
+                                if ((isUseLocalCache || isUseHttpCache) && ! handler.isFailureStatusCode()) {
                                     // Make sure SAXStore loses its reference on its output so that we don't clutter the cache
                                     ((SAXStore) output).setXMLReceiver(null);
                                     // Add to cache
-                                    ObjectCache.instance().add(localCacheKey, localCacheValidity, output);
+                                    if (isUseLocalCache)
+                                        ObjectCache.instance().add(localCacheKey, localCacheValidity, output);
+                                    else
+                                        addToHttpCache(getHttpCacheKey(configURIReferences.config, (URLResourceHandler) handler),
+                                                (URLResourceHandler) handler, (SAXStore) output, validity, null);
                                 }
                             } finally {
                                 handler.destroy();
@@ -621,16 +613,18 @@ public class URLGenerator extends ProcessorImpl {
                                 // Destroy handler
                                 handler.destroy();
                             }
+                        } else if (config.isUseHttpCache()) {
+                            // Main handler with HTTP cache
+                            // NOTE: This may store the document in the state
+                            validity = getHttpCacheValidity(config, (URLResourceHandler) handler, state);
                         } else {
                             // Main handler
 
                             // Try to see what we have in cache
                             final CacheEntry cacheEntry;
                             if (config.isEnableConditionalGET()) {
-                                // NOTE: This *could* be transparently handled by HttpClient cache if configured properly:
-                                // http://hc.apache.org/httpcomponents-client-ga/httpclient-cache/apidocs/org/apache/http/impl/client/cache/CachingHttpClient.html
-                                // Although, this would only cache the bytes, and probably not provide us with a
-                                // readily-parsed SAXStore.
+                                // NOTE: For HTTP, this is superseded by HttpCache, which follows the caching headers of the
+                                // responses and keeps readily-parsed SAXStores.
                                 final CacheKey localCacheKey = new InternalCacheKey(URLGenerator.this, "urlDocument", config.toString());
                                 cacheEntry = ObjectCache.instance().findAny(localCacheKey);
                             } else {
@@ -692,6 +686,67 @@ public class URLGenerator extends ProcessorImpl {
         return output;
     }
 
+    /**
+     * Read a resource with the given mode, or with a mode inferred from the content-type.
+     *
+     * @return URI references of the resource, or null
+     */
+    private static List<URIProcessorOutputImpl.URIReference> readResource(PipelineContext pipelineContext, Config config,
+                                                                           ResourceHandler handler, Long validity,
+                                                                           XMLReceiver output) throws IOException {
+        // Find content-type to use. If the config says to force the
+        // content-type, we use the content-type provided by the user.
+        // Otherwise, we give the priority to the content-type provided by
+        // the connection, then the content-type provided by the user, then
+        // we use the default content-type (XML). The user will have to
+        // provide a content-type for example to read HTML documents with
+        // the file: protocol.
+        String contentType;
+        if (config.isForceContentType()) {
+            contentType = config.getContentType();
+        } else {
+            contentType = handler.getResourceMediaType();
+            if (contentType == null)
+                contentType = config.getContentType();
+            if (contentType == null)
+                contentType = ProcessorUtils.DEFAULT_CONTENT_TYPE;
+        }
+
+        // Handle mode
+        String mode = config.getMode();
+        if (mode == null) {
+            // Mode is inferred from content-type
+            if (ProcessorUtils.HTML_CONTENT_TYPE.equals(contentType))
+                mode = "html";
+            else if (XMLUtils.isXMLMediatype(contentType))
+                mode = "xml";
+            else if (XMLUtils.isTextOrJSONContentType(contentType))
+                mode = "text";
+            else
+                mode = "binary";
+        }
+
+        // Read resource
+        if (mode.equals("html")) {
+            // HTML mode
+            handler.readHTML(output);
+            return null;
+        } else if (mode.equals("xml")) {
+            // XML mode
+            final URIProcessorOutputImpl.URIReferences uriReferences = new URIProcessorOutputImpl.URIReferences();
+            handler.readXML(pipelineContext, output, uriReferences);
+            return uriReferences.getReferences();
+        } else if (mode.equals("text")) {
+            // Text mode
+            handler.readText(output, contentType, validity);
+            return null;
+        } else {
+            // Binary mode
+            handler.readBinary(output, contentType, validity);
+            return null;
+        }
+    }
+
     private interface ResourceHandler {
         Long getValidity() throws IOException;
         Long getConditional(Long lastModified) throws IOException;
@@ -810,6 +865,8 @@ public class URLGenerator extends ProcessorImpl {
     private static class URLResourceHandler implements ResourceHandler {
         private PipelineContext pipelineContext;
         private Config config;
+        private scala.collection.immutable.Map<String, String[]> requestHeaders;
+        private boolean credentialsSent;
         private ConnectionResult connectionResult;
         private InputStream inputStream;
 
@@ -851,10 +908,47 @@ public class URLGenerator extends ProcessorImpl {
         }
 
         public Long getConditional(Long lastModified) throws IOException {
-            openConnection(lastModified);
+            openConnection(lastModified, null);
             return getValidity();
         }
 
+        public void openConditional(Long lastModified, String etag) throws IOException {
+            openConnection(lastModified, etag);
+        }
+
+        public String getResponseHeader(String name) throws IOException {
+            openConnection();
+            return HttpCache.getHeader(connectionResult.responseHeaders, name);
+        }
+
+        public HttpCache.CacheControl getResponseCacheControl() throws IOException {
+            return HttpCache.CacheControl.parse(getResponseHeader("Cache-Control"));
+        }
+
+        /**
+         * Headers of a regular GET, including the forwarded headers and cookies. All header names are lowercase.
+         */
+        public scala.collection.immutable.Map<String, String[]> getRequestHeaders() {
+            if (requestHeaders == null)
+                requestHeaders = Connection.jBuildConnectionHeaders(config.getURL().getProtocol(), getCredentials(),
+                        config.getHeaderNameValues(), config.getForwardHeaders(), indentedLogger);
+            return requestHeaders;
+        }
+
+        /**
+         * Whether the request had credentials, an Authorization header or cookies.
+         */
+        public boolean isCredentialsSent() throws IOException {
+            openConnection();
+            return credentialsSent;
+        }
+
+        private Connection.Credentials getCredentials() {
+            return config.getUsername() == null ?
+                null :
+                new Connection.Credentials(config.getUsername(), config.getPassword(), config.isPreemptiveAuthentication() ? "true" : "false", config.getDomain());
+        }
+
         public void destroy() throws IOException {
             // Make sure the connection is closed because when
             // getting the last modified date, the stream is
@@ -867,40 +961,45 @@ public class URLGenerator extends ProcessorImpl {
             // Just in case - although URLResourceHandler should be gc'ed quickly
             pipelineContext = null;
             config = null;
+            requestHeaders = null;
             connectionResult = null;
             inputStream = null;
         }
 
         private void openConnection() throws IOException {
-            openConnection(null);
+            openConnection(null, null);
         }
 
-        private void openConnection(Long lastModified) throws IOException {
+        private void openConnection(Long lastModified, String etag) throws IOException {
             if (connectionResult == null) {
                 // TODO: pass logging callback
 
-                final Map<String, String[]> newHeaders;
-                if (lastModified != null) {
+                final URL url = config.getURL();
+                final Connection.Credentials credentials = getCredentials();
+                final scala.collection.immutable.Map<String, String[]> headers;
+                if (lastModified != null || etag != null) {
                     // A conditional GET is requested
-                    newHeaders = new HashMap<String, String[]>();
+                    final Map<String, String[]> newHeaders = new HashMap<String, String[]>();
                     if (config.getHeaderNameValues() != null)
                         newHeaders.putAll(config.getHeaderNameValues());
-                    newHeaders.put("If-Modified-Since", new String[] { DateUtils.RFC1123Date().print(lastModified) });
+                    if (lastModified != null)
+                        newHeaders.put("If-Modified-Since", new String[] { DateUtils.RFC1123Date().print(lastModified) });
+                    if (etag != null)
+                        newHeaders.put("If-None-Match", new String[] { etag });
+
+                    headers = Connection.jBuildConnectionHeaders(url.getProtocol(), credentials, newHeaders, config.getForwardHeaders(), indentedLogger);
                 } else {
                     // Regular GET
-                    newHeaders = config.getHeaderNameValues();
+                    headers = getRequestHeaders();
                 }
 
-                final Connection.Credentials credentials = config.getUsername() == null ?
-                    null :
-                    new Connection.Credentials(config.getUsername(), config.getPassword(), config.isPreemptiveAuthentication() ? "true" : "false", config.getDomain());
+                final Connection connection = Connection.jApply("GET", url, credentials, null, headers, true, false, indentedLogger);
 
-                final URL url = config.getURL();
-                final scala.collection.immutable.Map<String, String[]> headers =
-                    Connection.jBuildConnectionHeaders(url.getProtocol(), credentials, newHeaders, config.getForwardHeaders(), indentedLogger);
+                // Cookies are either forwarded, or come from the HTTP state kept between requests
+                credentialsSent = credentials != null || headers.contains("authorization") || headers.contains("cookie")
+                        || (connection.cookieStoreOption().isDefined() && ! connection.cookieStoreOption().get().getCookies().isEmpty());
 
-                connectionResult =
-                    Connection.jApply("GET", url, credentials, null, headers, true, false, indentedLogger).connect(true);
+                connectionResult = connection.connect(true);
                 inputStream =
                     connectionResult.getResponseInputStream(); // empty stream if conditional GET succeeded
             }
@@ -1130,6 +1229,165 @@ public class URLGenerator extends ProcessorImpl {
         }
     }
 
+    private CacheKey getHttpCacheKey(Config config, URLResourceHandler handler) {
+        // The headers set by the configuration and the forwarded headers are part of the key, as they might change the
+        // response. Credentials and cookies are not, as responses to requests with those are only cached when they
+        // are meant for shared caches.
+        final Map<String, String[]> headers = new TreeMap<String, String[]>();
+        for (final scala.collection.Iterator<scala.Tuple2<String, String[]>> i = handler.getRequestHeaders().iterator(); i.hasNext();) {
+            final scala.Tuple2<String, String[]> header = i.next();
+            headers.put(header._1(), header._2());
+        }
+        headers.remove("authorization");
+        headers.remove("cookie");
+        headers.remove(Connection.TokenKey());
+
+        final StringBuilder key = new StringBuilder(config.toString());
+        for (final Map.Entry<String, String[]> header : headers.entrySet())
+            key.append('|').append(header.getKey()).append('=').append(Arrays.asList(header.getValue()));
+        return new InternalCacheKey(URLGenerator.this, "httpDocument", key.toString());
+    }
+
+    /**
+     * Return the validity of the main document with the HTTP cache. If the cached document can be used, it is stored in
+     * the state. Otherwise, the handler is left with the response to read.
+     */
+    private Long getHttpCacheValidity(Config config, URLResourceHandler handler, URLGeneratorState state) throws IOException {
+        final CacheKey key = getHttpCacheKey(config, handler);
+        final HttpCache.Entry entry = HttpCache.find(key);
+        final long now = System.currentTimeMillis();
+
+        if (entry != null && entry.isFresh(now)) {
+            // Use the cached document without any request
+            if (logger.isDebugEnabled())
+                logger.debug("Using fresh document from HTTP cache: " + config.getURL().toExternalForm());
+            state.setDocument(entry.getDocument());
+            return entry.getValidity();
+        } else if (entry != null && entry.isUsableWhileRevalidating(now) && NetUtils.getExternalContext() != null) {
+            // Use the stale document, and revalidate it in the background unless this is being done already. Without
+            // external context, there is no request to run the revalidation with, so it is done right away below.
+            if (logger.isDebugEnabled())
+                logger.debug("Using stale document from HTTP cache: " + config.getURL().toExternalForm());
+            if (entry.startRevalidation())
+                revalidateInBackground(key, entry, config);
+            state.setDocument(entry.getDocument());
+            return entry.getValidity();
+        } else {
+            if (entry != null) {
+                // Conditional GET
+                final HttpCache.Entry revalidatedEntry = revalidate(key, entry, handler);
+                if (revalidatedEntry != null) {
+                    state.setDocument(revalidatedEntry.getDocument());
+                    return revalidatedEntry.getValidity();
+                }
+            }
+
+            // The response will be read, and added to the HTTP cache if possible
+            return getResponseValidity(handler, now);
+        }
+    }
+
+    /**
+     * Return the validity of a response. Without Last-Modified, the time of the response is used if the response can
+     * be cached, so that the outputs depending on this document can still be cached.
+     */
+    private static Long getResponseValidity(URLResourceHandler handler, long now) throws IOException {
+        final Long lastModified = handler.getValidity();
+        if (lastModified == null && ! handler.isFailureStatusCode() && isCacheable(handler, null))
+            return now;
+        else
+            return lastModified;
+    }
+
+    private static boolean isCacheable(URLResourceHandler handler, Long lastModified) throws IOException {
+        return HttpCache.Entry.isCacheable(handler.getResponseCacheControl(), handler.getResponseHeader("ETag"), lastModified,
+                handler.getResponseHeader("Vary"), handler.isCredentialsSent());
+    }
+
+    /**
+     * Revalidate a cached document with a conditional GET.
+     *
+     * @return  updated entry if the document hasn't changed, null otherwise
+     */
+    private HttpCache.Entry revalidate(CacheKey key, HttpCache.Entry entry, URLResourceHandler handler) throws IOException {
+        handler.openConditional(entry.getLastModified(), entry.getEtag());
+        if (handler.getConnectionStatusCode() != 304)
+            return null;
+
+        // The 304 response may or may not repeat the caching headers
+        final String cacheControlHeader = handler.getResponseHeader("Cache-Control");
+        final HttpCache.CacheControl cacheControl = (cacheControlHeader != null) ? HttpCache.CacheControl.parse(cacheControlHeader) : null;
+        final HttpCache.Entry revalidatedEntry = entry.refresh(handler.getResponseHeader("ETag"), cacheControl,
+                HttpCache.parseAge(handler.getResponseHeader("Age")), System.currentTimeMillis());
+
+        HttpCache.replace(key, entry, (cacheControl != null && cacheControl.isNoStore()) ? null : revalidatedEntry);
+        return revalidatedEntry;
+    }
+
+    private void revalidateInBackground(final CacheKey key, final HttpCache.Entry entry, final Config config) {
+        // The request might be gone by the time the revalidation runs, see AsynchronousSubmissionManager
+        final ExternalContext currentExternalContext = NetUtils.getExternalContext();
+        final ExternalContext newExternalContext = new AsyncExternalContext(
+            currentExternalContext.getWebAppContext(),
+            new AsyncRequest(currentExternalContext.getRequest()),
+            currentExternalContext.getResponse());
+
+        PipelineExecutor.execute(new FutureTask<Object>(new Runnable() {
+            public void run() {
+                final PipelineContext pipelineContext = new PipelineContext();
+                pipelineContext.setAttribute(PipelineContext.EXTERNAL_CONTEXT, newExternalContext);
+                boolean success = false;
+                try {
+                    final URLResourceHandler handler = new URLResourceHandler(pipelineContext, config);
+                    try {
+                        if (revalidate(key, entry, handler) == null) {
+                            // The document changed, so read the new response for the next time it is used. The entry
+                            // is only replaced if it is still the one being revalidated.
+                            final Long validity = getResponseValidity(handler, System.currentTimeMillis());
+                            if (handler.isFailureStatusCode()) {
+                                HttpCache.replace(key, entry, null);
+                            } else {
+                                final SAXStore document = new SAXStore();
+                                readResource(pipelineContext, config, handler, validity, document);
+                                addToHttpCache(key, handler, document, validity, entry);
+                            }
+                        }
+                    } finally {
+                        handler.destroy();
+                    }
+                    success = true;
+                } catch (Exception e) {
+                    logger.info("Exception while revalidating document in HTTP cache: " + config.getURL().toExternalForm(), e);
+                } finally {
+                    entry.endRevalidation();
+                    pipelineContext.destroy(success);
+                }
+            }
+        }, null));
+    }
+
+    /**
+     * Add a response to the HTTP cache, or remove the current entry if the response can't be cached.
+     *
+     * @param expected  entry which the response replaces, or null to replace any entry
+     */
+    private static void addToHttpCache(CacheKey key, URLResourceHandler handler, SAXStore document, Long validity,
+                                       HttpCache.Entry expected) throws IOException {
+        final Long lastModified = handler.getValidity();
+        final HttpCache.Entry newEntry =
+            (validity != null && isCacheable(handler, lastModified))
+                ? new HttpCache.Entry(document, handler.getResponseHeader("ETag"), lastModified, validity,
+                        handler.getResponseCacheControl(), HttpCache.parseAge(handler.getResponseHeader("Age")), System.currentTimeMillis())
+                : null;
+
+        if (expected != null)
+            HttpCache.replace(key, expected, newEntry);
+        else if (newEntry != null)
+            HttpCache.add(key, newEntry);
+        else
+            HttpCache.remove(key);
+    }
+
     private void makeSureStateIsSet(PipelineContext pipelineContext) {
         if (!hasState(pipelineContext))
             setState(pipelineContext, new URLGeneratorState());
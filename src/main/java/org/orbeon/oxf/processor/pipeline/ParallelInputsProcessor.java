@@ -0,0 +1,185 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor.pipeline;
+
+import org.apache.log4j.Logger;
+import org.orbeon.oxf.cache.OutputCacheKey;
+import org.orbeon.oxf.common.OXFException;
+import org.orbeon.oxf.pipeline.api.PipelineContext;
+import org.orbeon.oxf.pipeline.api.XMLReceiver;
+import org.orbeon.oxf.processor.*;
+import org.orbeon.oxf.processor.impl.ProcessorOutputImpl;
+import org.orbeon.oxf.util.LoggerFactory;
+import org.orbeon.oxf.xml.SAXStore;
+import org.xml.sax.SAXException;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+/**
+ * This internal processor reads independent inputs of a processor concurrently. It is inserted by the pipeline
+ * processor for p:processor elements with parallel="true", or all the p:processor elements of a pipeline with
+ * parallel="true".
+ *
+ * Each input of this processor is connected to an output of this processor. When one of the outputs is first read,
+ * the other inputs are read into SAXStores with the PipelineExecutor, while that output is read on the current thread.
+ * Reading another output then replays its SAXStore.
+ *
+ * Inputs are read with a branch of the current PipelineContext, which shares its attributes but has its own stack of
+ * parent processors. An exception reading an input is thrown when the corresponding output is read.
+ */
+public class ParallelInputsProcessor extends ProcessorImpl {
+
+    private static final Logger logger = LoggerFactory.createLogger(ParallelInputsProcessor.class);
+
+    private final List<ProcessorInput> inputs = new ArrayList<ProcessorInput>();
+
+    public ParallelInputsProcessor() {
+        addInputInfo(new ProcessorInputOutputInfo(INPUT_DATA));
+        addOutputInfo(new ProcessorInputOutputInfo(OUTPUT_DATA));
+    }
+
+    /**
+     * Insert this processor between each of the given inputs and the output it is connected to.
+     */
+    public void connect(List<ProcessorInput> processorInputs) {
+        for (final ProcessorInput processorInput : processorInputs) {
+            final ProcessorOutput connectedOutput = processorInput.getOutput();
+
+            final ProcessorInput input = createInput(INPUT_DATA);
+            input.setOutput(connectedOutput);
+            connectedOutput.setInput(input);
+
+            final ProcessorOutput output = createOutput(inputs.size());
+            output.setInput(processorInput);
+            processorInput.setOutput(output);
+
+            inputs.add(input);
+        }
+    }
+
+    private ProcessorOutput createOutput(final int index) {
+        final ProcessorOutput output = new ProcessorOutputImpl(ParallelInputsProcessor.this, OUTPUT_DATA) {
+            public void readImpl(PipelineContext pipelineContext, XMLReceiver xmlReceiver) {
+                final State state = (State) getState(pipelineContext);
+                final FutureTask<SAXStore> task = state.startTasks(pipelineContext, index);
+                if (task == null) {
+                    // This is the first output read
+                    readInputAsSAX(pipelineContext, inputs.get(index), xmlReceiver);
+                } else {
+                    try {
+                        PipelineExecutor.get(task).replay(xmlReceiver);
+                    } catch (SAXException e) {
+                        throw new OXFException(e);
+                    }
+                }
+            }
+
+            @Override
+            public OutputCacheKey getKeyImpl(PipelineContext pipelineContext) {
+                return getInputKey(pipelineContext, inputs.get(index));
+            }
+
+            @Override
+            public Object getValidityImpl(PipelineContext pipelineContext) {
+                return getInputValidity(pipelineContext, inputs.get(index));
+            }
+        };
+        addOutput(OUTPUT_DATA, output);
+        return output;
+    }
+
+    @Override
+    public void reset(PipelineContext pipelineContext) {
+        if (hasState(pipelineContext))
+            ((State) getState(pipelineContext)).finish();
+        setState(pipelineContext, new State());
+    }
+
+    private class State {
+
+        private List<FutureTask<SAXStore>> tasks;
+        private volatile boolean finished;
+
+        /**
+         * Start reading all the inputs but the given one, if not done yet.
+         *
+         * @return task reading the given input, or null if the input must be read directly
+         */
+        public synchronized FutureTask<SAXStore> startTasks(final PipelineContext pipelineContext, int index) {
+            if (tasks == null) {
+                tasks = new ArrayList<FutureTask<SAXStore>>(inputs.size());
+                for (int i = 0; i < inputs.size(); i++) {
+                    if (i == index) {
+                        tasks.add(null);
+                    } else {
+                        final FutureTask<SAXStore> task = createTask(pipelineContext, inputs.get(i));
+                        tasks.add(task);
+                        PipelineExecutor.execute(task);
+                    }
+                }
+
+                if (logger.isDebugEnabled())
+                    logger.debug("Reading " + (inputs.size() - 1) + " inputs in parallel");
+
+                // Don't leave tasks running once the pipeline is done
+                pipelineContext.addContextListener(new PipelineContext.ContextListenerAdapter() {
+                    public void contextDestroyed(boolean success) {
+                        finish();
+                    }
+                });
+            }
+            return tasks.get(index);
+        }
+
+        private FutureTask<SAXStore> createTask(final PipelineContext pipelineContext, final ProcessorInput input) {
+            final Map<Object, Object> localAttributes = getBranchLocalAttributes(pipelineContext);
+
+            return new FutureTask<SAXStore>(new Callable<SAXStore>() {
+                public SAXStore call() {
+                    if (finished)
+                        return null;
+
+                    final PipelineContext branchContext = new PipelineContext(pipelineContext, localAttributes);
+                    boolean success = false;
+                    try {
+                        final SAXStore saxStore = new SAXStore();
+                        readInputAsSAX(branchContext, input, saxStore);
+                        success = true;
+                        return saxStore;
+                    } finally {
+                        branchContext.destroy(success);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Wait for the tasks which are running, and prevent the others from running.
+         */
+        public void finish() {
+            finished = true;
+
+            final List<FutureTask<SAXStore>> currentTasks;
+            synchronized (this) {
+                currentTasks = tasks;
+            }
+            if (currentTasks != null)
+                for (final FutureTask<SAXStore> task : currentTasks)
+                    if (task != null && !PipelineExecutor.await(task))
+                        return;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor.pipeline;
+
+import org.apache.log4j.Logger;
+import org.orbeon.oxf.common.OXFException;
+import org.orbeon.oxf.properties.Properties;
+import org.orbeon.oxf.properties.PropertySet;
+import org.orbeon.oxf.util.LoggerFactory;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Global executor for the parts of pipelines which run in parallel.
+ *
+ * The number of threads is bounded. A task is waited for with get(), which runs it on the current thread if no thread
+ * has started it yet. So a thread waiting for a task always makes progress, even if all the threads are busy waiting
+ * for other tasks, e.g. with nested parallel blocks.
+ */
+public class PipelineExecutor {
+
+    private static final Logger logger = LoggerFactory.createLogger(PipelineExecutor.class);
+
+    public static final String PARALLELISM_PROPERTY = "oxf.pipeline.parallelism";
+
+    private static final ThreadPoolExecutor executor;
+
+    static {
+        final PropertySet propertySet = Properties.instance().getPropertySet();
+        final int defaultParallelism = Runtime.getRuntime().availableProcessors();
+        final int parallelism = Math.max(1, (propertySet == null) ? defaultParallelism : propertySet.getInteger(PARALLELISM_PROPERTY, defaultParallelism).intValue());
+
+        executor = new ThreadPoolExecutor(parallelism, parallelism, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger threadNumber = new AtomicInteger();
+
+                    public Thread newThread(Runnable runnable) {
+                        final Thread thread = new Thread(runnable, "pipeline-parallel-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public static int getParallelism() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public static void execute(FutureTask<?> task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Wait for the result of a task, running it on the current thread if it hasn't started yet. An exception thrown
+     * by the task is rethrown as is if possible, so that its location data is kept.
+     */
+    public static <T> T get(FutureTask<T> task) {
+        task.run();
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OXFException(e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            else if (cause instanceof Error)
+                throw (Error) cause;
+            else
+                throw new OXFException(cause);
+        }
+    }
+
+    /**
+     * Wait for a task, ignoring its result. A task which hasn't started yet is run on the current thread, so it should
+     * check whether it is still needed before doing any work.
+     *
+     * @return false if the current thread was interrupted
+     */
+    public static boolean await(FutureTask<?> task) {
+        task.run();
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            logger.debug("Exception in unused parallel task", e.getCause());
+        }
+        return true;
+    }
+}
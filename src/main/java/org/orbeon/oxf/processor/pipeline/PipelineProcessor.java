@@ -55,6 +55,8 @@ import java.util.*;
  * reused: if there is one data output (with a 1 cardinality), one can't call
  * read multiple times and get the same result. Only the first call to read
  * on the data output will succeed.
+ * <p>With parallel="true" on p:processor or p:config, independent inputs of a
+ * processor are read concurrently, see ParallelInputsProcessor.
  */
 public class PipelineProcessor extends ProcessorImpl {
 
@@ -322,6 +324,10 @@ public class PipelineProcessor extends ProcessorImpl {
                     setDebugAndSchema(pin, input);
                 }
 
+                // Read independent inputs concurrently if requested
+                if (processorCall.isParallel() || astPipeline.isParallel())
+                    connectParallelInputs(config, processor);
+
             } else if (statement instanceof ASTChoose) {
 
                 // Instantiate processor
@@ -423,6 +429,39 @@ public class PipelineProcessor extends ProcessorImpl {
         return config;
     }
 
+    /**
+     * Insert a ParallelInputsProcessor in front of the inputs of the given processor, except for inline documents. The
+     * data inputs of an aggregate() are read concurrently instead of the aggregate itself.
+     */
+    private static void connectParallelInputs(PipelineConfig config, Processor processor) {
+        final List<ProcessorInput> parallelInputs = new ArrayList<ProcessorInput>();
+        for (final List<ProcessorInput> inputs : processor.getConnectedInputs().values()) {
+            for (final ProcessorInput input : inputs) {
+                // NOTE: ProcessorOutputImpl doesn't use the PipelineContext to return the processor
+                final Processor connectedProcessor = input.getOutput().getProcessor(null);
+                if (connectedProcessor instanceof AggregatorProcessor) {
+                    for (final ProcessorInput aggregatedInput : ((AggregatorProcessor) connectedProcessor).getInputsByName(INPUT_DATA))
+                        addParallelInput(parallelInputs, aggregatedInput);
+                } else {
+                    addParallelInput(parallelInputs, input);
+                }
+            }
+        }
+
+        if (parallelInputs.size() > 1) {
+            final ParallelInputsProcessor parallelInputsProcessor = new ParallelInputsProcessor();
+            parallelInputsProcessor.connect(parallelInputs);
+            // Add to the pipeline, so it is reset when the pipeline runs
+            config.addProcessor(parallelInputsProcessor);
+        }
+    }
+
+    private static void addParallelInput(List<ProcessorInput> parallelInputs, ProcessorInput input) {
+        // Inline documents are not worth reading concurrently
+        if (!DOMGenerator.class.isAssignableFrom(input.getOutput().getProcessorClass()))
+            parallelInputs.add(input);
+    }
+
     private PipelineConfig readPipelineConfig(PipelineContext context, ProcessorInput configInput) {
         try {
             // Read config input using PipelineReader
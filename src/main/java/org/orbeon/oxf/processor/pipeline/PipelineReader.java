@@ -100,6 +100,7 @@ public class PipelineReader extends ProcessorImpl {
         }
 
         ast.setNode(rootElement);
+        ast.setParallel("true".equals(rootElement.attributeValue("parallel")));
         ast.getParams().addAll(params);
 
         // Read and add all statements
@@ -119,6 +120,7 @@ public class PipelineReader extends ProcessorImpl {
                     result.add(processorCall);
                     processorCall.setNode(element);
                     processorCall.setId(element.attributeValue("id"));
+                    processorCall.setParallel("true".equals(element.attributeValue("parallel")));
 
                     // Inputs/outputs
                     for (Iterator j = element.elementIterator(); j.hasNext();) {
@@ -208,6 +210,8 @@ public class PipelineReader extends ProcessorImpl {
                     forEach.setOutputSchemaHref(element.attributeValue("output-schema-href"));
                     forEach.setOutputSchemaUri(element.attributeValue("output-schema-uri"));
                     forEach.setOutputDebug(element.attributeValue("output-debug"));
+                    forEach.setParallel("true".equals(element.attributeValue("parallel")));
+                    forEach.setMaxConcurrency(element.attributeValue("max-concurrency"));
                     forEach.getStatements().addAll(readStatements(element));
                 }
             }
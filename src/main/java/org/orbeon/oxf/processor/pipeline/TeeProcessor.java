@@ -75,30 +75,32 @@ public class TeeProcessor extends ProcessorImpl {
         public void readImpl(PipelineContext context, XMLReceiver xmlReceiver) {
             try {
                 final State state = (State) getState(context);
-                if (state.store == null) {
-                    // Tee hasn't been read yet
-
-                    if (state.stateWasCleared) {
-                        final ProcessorOutput output = getInputByName(INPUT_DATA).getOutput();
-                        logger.error("Tee state was cleared and re-read for output: " + output.getName());
+                // NOTE: Outputs can be read concurrently by ParallelInputsProcessor
+                synchronized (state) {
+                    if (state.store == null) {
+                        // Tee hasn't been read yet
+
+                        if (state.stateWasCleared) {
+                            final ProcessorOutput output = getInputByName(INPUT_DATA).getOutput();
+                            logger.error("Tee state was cleared and re-read for output: " + output.getName());
+                        }
+
+                        // Create SAXStore and read input through it
+                        final ProcessorInput input = getInputByName(INPUT_DATA);
+                        state.store = new SAXStore(xmlReceiver);
+                        readInputAsSAX(context, input, state.store);
+                    } else {
+                        state.store.replay(xmlReceiver);
                     }
 
-                    // Create SAXStore and read input through it
-                    final ProcessorInput input = getInputByName(INPUT_DATA);
-                    state.store = new SAXStore(xmlReceiver);
-                    readInputAsSAX(context, input, state.store);
-                } else {
-                    state.store.replay(xmlReceiver);
-                }
+                    // If this output can be read only once, increase read count
+                    if (!isMultipleReads) {
+                        state.readCount++;
+                    }
 
-                // If this output can be read only once, increase read count
-                if (!isMultipleReads) {
-                    state.readCount++;
+                    // If possible, free the SAXStore after the last read
+                    freeSAXStoreIfNeeded(state);
                 }
-
-                // If possible, free the SAXStore after the last read
-                freeSAXStoreIfNeeded(state);
-
             } catch (SAXException e) {
                 throw new OXFException(e);
             }
@@ -110,9 +112,11 @@ public class TeeProcessor extends ProcessorImpl {
         public void doneReading(PipelineContext context) {
             // This output can be read more than once, so increase read count only when needed
             final State state = (State) getState(context);
-            state.readCount++;
-            // If possible, free the SAXStore after the last read
-            freeSAXStoreIfNeeded(state);
+            synchronized (state) {
+                state.readCount++;
+                // If possible, free the SAXStore after the last read
+                freeSAXStoreIfNeeded(state);
+            }
         }
 
         private void freeSAXStoreIfNeeded(State state) {
@@ -30,6 +30,8 @@ public class ASTDocumentHandler implements ASTHandler {
     public boolean startPipeline(ASTPipeline pipeline) {
         currentElement = new NonLazyUserDataElement(new QName("config", PipelineProcessor.PIPELINE_NAMESPACE));
         document.setRootElement(currentElement);
+        if (pipeline.isParallel())
+            currentElement.addAttribute("parallel", "true");
         return true;
     }
 
@@ -49,6 +51,8 @@ public class ASTDocumentHandler implements ASTHandler {
         } else {
             currentElement.addAttribute("class", processorCall.getProcessor().getClass().getName());
         }
+        if (processorCall.isParallel())
+            currentElement.addAttribute("parallel", "true");
         return true;
     }
 
@@ -143,6 +147,10 @@ public class ASTDocumentHandler implements ASTHandler {
         if (forEach.getRef() != null)
             currentElement.addAttribute("ref", forEach.getRef());
         currentElement.addAttribute("root", forEach.getRoot());
+        if (forEach.isParallel())
+            currentElement.addAttribute("parallel", "true");
+        if (forEach.getMaxConcurrency() != null)
+            currentElement.addAttribute("max-concurrency", forEach.getMaxConcurrency());
         return true;
     }
 
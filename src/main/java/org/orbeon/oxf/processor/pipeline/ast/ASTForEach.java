@@ -29,6 +29,8 @@ public class ASTForEach extends ASTStatement {
     private String outputSchemaHref;
     private String outputSchemaUri;
     private String outputDebug;
+    private boolean parallel;
+    private String maxConcurrency;
     private List<ASTStatement> statements = new ArrayList<ASTStatement>();
 
     public ASTHref getHref() {
@@ -119,6 +121,22 @@ public class ASTForEach extends ASTStatement {
         this.outputDebug = outputDebug;
     }
 
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    public String getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public void setMaxConcurrency(String maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+    }
+
     public List<ASTStatement> getStatements() {
         return statements;
     }
@@ -21,6 +21,7 @@ public class ASTPipeline extends ASTNodeContainer {
     private List<ASTParam> params = new ArrayList<ASTParam>();
     private List<ASTStatement> statements = new ArrayList<ASTStatement>();
     private Object validity;
+    private boolean parallel;
 
     public List<ASTParam> getParams() {
         return params;
@@ -47,6 +48,14 @@ public class ASTPipeline extends ASTNodeContainer {
         this.validity = validity;
     }
 
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
     public void walk(ASTHandler handler) {
         if (handler.startPipeline(this))
             walkChildren(handler);
@@ -34,6 +34,7 @@ public class ASTProcessorCall extends ASTStatement {
     private QName name;
     private Processor processor;
     private String id;
+    private boolean parallel;
 
     public void addInput(ASTInput input) {
         inputs.add(input);
@@ -67,6 +68,14 @@ public class ASTProcessorCall extends ASTStatement {
         this.id = id;
     }
 
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
     public Processor getProcessor() {
         return processor;
     }
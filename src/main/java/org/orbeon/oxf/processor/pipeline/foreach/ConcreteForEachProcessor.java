@@ -21,6 +21,7 @@ import org.orbeon.oxf.pipeline.api.PipelineContext;
 import org.orbeon.oxf.pipeline.api.XMLReceiver;
 import org.orbeon.oxf.processor.*;
 import org.orbeon.oxf.processor.generator.DOMGenerator;
+import org.orbeon.oxf.processor.pipeline.PipelineExecutor;
 import org.orbeon.oxf.processor.pipeline.PipelineProcessor;
 import org.orbeon.oxf.processor.pipeline.TeeProcessor;
 import org.orbeon.oxf.processor.pipeline.ast.*;
@@ -28,6 +29,7 @@ import org.orbeon.oxf.util.PooledXPathExpression;
 import org.orbeon.oxf.util.XPathCache;
 import org.orbeon.oxf.xml.EmbeddedDocumentXMLReceiver;
 import org.orbeon.oxf.xml.NamespaceMapping;
+import org.orbeon.oxf.xml.SAXStore;
 import org.orbeon.oxf.xml.dom4j.Dom4jUtils;
 import org.orbeon.saxon.dom4j.DocumentWrapper;
 import org.orbeon.saxon.om.DocumentInfo;
@@ -36,6 +38,9 @@ import org.xml.sax.SAXException;
 import org.xml.sax.helpers.AttributesImpl;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ConcreteForEachProcessor extends ProcessorImpl {
 
@@ -46,6 +51,9 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
     private String rootLocalName;
     private String rootQName;
     private String rootNamespaceURI;
+    private final boolean parallel;
+    // Maximum number of iterations running at the same time with parallel, 0 for the pipeline parallelism
+    private final int maxConcurrency;
 
     public ConcreteForEachProcessor(ASTForEach forEachAST, Object validity) {
         final String[] refsWithNoId = getRefsWithNoId(forEachAST);
@@ -109,6 +117,19 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
                 rootLocalName = rootQName.substring(columnPosition + 1);
             }
         }
+
+        parallel = forEachAST.isParallel();
+        if (forEachAST.getMaxConcurrency() != null) {
+            try {
+                maxConcurrency = Integer.parseInt(forEachAST.getMaxConcurrency());
+            } catch (NumberFormatException e) {
+                throw new ValidationException("Invalid max-concurrency attribute: " + forEachAST.getMaxConcurrency(), forEachAST.getLocationData());
+            }
+            if (maxConcurrency <= 0)
+                throw new ValidationException("Invalid max-concurrency attribute: " + forEachAST.getMaxConcurrency(), forEachAST.getLocationData());
+        } else {
+            maxConcurrency = 0;
+        }
     }
 
     @Override
@@ -128,19 +149,16 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
                     try {
                         expression = createExpression(pipelineContext);
 
-                        for (Iterator i = new ElementIterator(expression); i.hasNext(); iterationCount++) {
-                            final Element currentElement = (Element) i.next();
-
-                            // Create DOMGenerator
-                            final String systemId = Dom4jUtils.makeSystemId(currentElement);
-                            final DOMGenerator domGenerator = new DOMGenerator
-                                    (currentElement, "for each input", DOMGenerator.ZeroValidity, systemId);
-                            domGenerator.createOutput(OUTPUT_DATA);
-                            state.domGenerator = domGenerator;
+                        if (parallel) {
+                            iterationCount = runIterationsInParallel(pipelineContext, new ElementIterator(expression), xmlReceiver);
+                        } else {
+                            for (Iterator i = new ElementIterator(expression); i.hasNext(); iterationCount++) {
+                                state.domGenerator = createDOMGenerator((Element) i.next());
 
-                            // Run iteration
-                            forEachBlockProcessor.reset(pipelineContext);
-                            iterationOutput.read(pipelineContext, new EmbeddedDocumentXMLReceiver(xmlReceiver));
+                                // Run iteration
+                                forEachBlockProcessor.reset(pipelineContext);
+                                iterationOutput.read(pipelineContext, new EmbeddedDocumentXMLReceiver(xmlReceiver));
+                            }
                         }
                     } catch (XPathException e) {
                         throw new OXFException(e);
@@ -259,23 +277,22 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
         try {
             expression = createExpression(pipelineContext);
 
-            for (Iterator i = new ElementIterator(expression); i.hasNext(); iterationCount++) {
-                final Element currentElement = (Element) i.next();
-
-                // Create DOMGenerator
-                final String systemId = Dom4jUtils.makeSystemId(currentElement);
-                final DOMGenerator domGenerator = new DOMGenerator
-                        (currentElement, "for each input", DOMGenerator.ZeroValidity, systemId);
-                domGenerator.createOutput(OUTPUT_DATA);
-                state.domGenerator = domGenerator;
+            if (parallel) {
+                iterationCount = runIterationsInParallel(pipelineContext, new ElementIterator(expression), null);
+            } else {
+                for (Iterator i = new ElementIterator(expression); i.hasNext(); iterationCount++) {
+                    state.domGenerator = createDOMGenerator((Element) i.next());
 
-                // Run iteration
-                forEachBlockProcessor.reset(pipelineContext);
-                forEachBlockProcessor.start(pipelineContext);
+                    // Run iteration
+                    forEachBlockProcessor.reset(pipelineContext);
+                    forEachBlockProcessor.start(pipelineContext);
+                }
             }
 
         } catch (XPathException e) {
             throw new OXFException(e);
+        } catch (SAXException e) {
+            throw new OXFException(e);
         } finally {
             // Clear state to allow gc as the state might be referenced for a while
             if (state != null) state.domGenerator = null;
@@ -287,6 +304,94 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
         commitInputs(pipelineContext, iterationCount);
     }
 
+    private DOMGenerator createDOMGenerator(Element currentElement) {
+        final String systemId = Dom4jUtils.makeSystemId(currentElement);
+        final DOMGenerator domGenerator = new DOMGenerator
+                (currentElement, "for each input", DOMGenerator.ZeroValidity, systemId);
+        domGenerator.createOutput(OUTPUT_DATA);
+        return domGenerator;
+    }
+
+    /**
+     * Run the iterations with the PipelineExecutor, at most maxConcurrency at a time. Each iteration runs with its own
+     * branch of the pipeline context, where the processors of the iteration block keep their state. The output of
+     * each iteration is buffered, and sent in the order of the iterations.
+     *
+     * @param xmlReceiver   receiver for the output of the iterations, or null if there is no output
+     * @return              number of iterations
+     */
+    private int runIterationsInParallel(PipelineContext pipelineContext, Iterator elements, XMLReceiver xmlReceiver) throws SAXException {
+        final int concurrency = (maxConcurrency > 0) ? maxConcurrency : PipelineExecutor.getParallelism();
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final LinkedList<FutureTask<SAXStore>> tasks = new LinkedList<FutureTask<SAXStore>>();
+
+        int iterationCount = 0;
+        boolean success = false;
+        try {
+            while (elements.hasNext() || !tasks.isEmpty()) {
+                // Start iterations until the maximum is reached
+                while (tasks.size() < concurrency && elements.hasNext()) {
+                    final FutureTask<SAXStore> task = createIterationTask(pipelineContext, (Element) elements.next(), xmlReceiver != null, cancelled);
+                    tasks.add(task);
+                    PipelineExecutor.execute(task);
+                    iterationCount++;
+                }
+
+                // Output the first iteration, running it on this thread if no thread has started it
+                final SAXStore saxStore = PipelineExecutor.get(tasks.removeFirst());
+                if (xmlReceiver != null)
+                    saxStore.replay(new EmbeddedDocumentXMLReceiver(xmlReceiver));
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                // Don't start the remaining iterations, and don't leave the running ones behind
+                cancelled.set(true);
+                for (final FutureTask<SAXStore> task : tasks)
+                    if (!PipelineExecutor.await(task))
+                        break;
+            }
+        }
+        return iterationCount;
+    }
+
+    private FutureTask<SAXStore> createIterationTask(final PipelineContext pipelineContext, Element currentElement,
+                                                     final boolean hasOutput, final AtomicBoolean cancelled) {
+        final DOMGenerator domGenerator = createDOMGenerator(currentElement);
+        final Map<Object, Object> localAttributes = getBranchLocalAttributes(pipelineContext);
+
+        return new FutureTask<SAXStore>(new Callable<SAXStore>() {
+            public SAXStore call() {
+                if (cancelled.get())
+                    return null;
+
+                // The state of this processor and of the iteration block is local to the iteration
+                final PipelineContext iterationContext = new PipelineContext(pipelineContext, localAttributes, true);
+                boolean success = false;
+                try {
+                    final State state = new State();
+                    state.domGenerator = domGenerator;
+                    setState(iterationContext, state);
+
+                    // Run iteration
+                    forEachBlockProcessor.reset(iterationContext);
+                    final SAXStore saxStore;
+                    if (hasOutput) {
+                        saxStore = new SAXStore();
+                        iterationOutput.read(iterationContext, saxStore);
+                    } else {
+                        saxStore = null;
+                        forEachBlockProcessor.start(iterationContext);
+                    }
+                    success = true;
+                    return saxStore;
+                } finally {
+                    iterationContext.destroy(success);
+                }
+            }
+        });
+    }
+
     /**
      * Determine all <p:input ref="..."> with no &lt;p:output id="...">.
      * Those are the inputs of this processor.
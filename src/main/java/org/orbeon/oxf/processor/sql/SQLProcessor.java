@@ -41,8 +41,7 @@ import java.util.*;
  * <p/>
  * TODO:
  * <p/>
- * o batch for mass updates when supported
- * o esql:use-limit-clause, esql:skip-rows, esql:max-rows
+ * o esql:use-limit-clause, esql:skip-rows
  * <p/>
  * o The position() and last() functions are not implemented within
  * sql:for-each it does not appear to be trivial to implement them, because
@@ -20,6 +20,7 @@ import org.orbeon.oxf.common.ValidationException;
 import org.orbeon.oxf.pipeline.api.PipelineContext;
 import org.orbeon.oxf.processor.DatabaseContext;
 import org.orbeon.oxf.processor.Datasource;
+import org.orbeon.oxf.processor.PooledConnection;
 import org.orbeon.oxf.processor.sql.delegates.SQLProcessorGenericDelegate;
 import org.orbeon.oxf.properties.PropertySet;
 import org.orbeon.oxf.xml.DeferredXMLReceiver;
@@ -337,10 +338,14 @@ public class SQLProcessorInterpreterContext extends DatabaseContext {
     }
 
     public Connection getConnection() {
+        return getPooledConnection().getConnection();
+    }
+
+    public PooledConnection getPooledConnection() {
         if (jndiName != null) {
             // Connection was configured with as a JDBC datasource
             try {
-                return getConnection(pipelineContext, jndiName);
+                return getPooledConnection(pipelineContext, jndiName, propertySet);
             } catch (RuntimeException e) {
                 if (documentLocator != null)
                     throw new ValidationException(e, new LocationData(documentLocator));
@@ -349,12 +354,26 @@ public class SQLProcessorInterpreterContext extends DatabaseContext {
             }
         } else if (datasource != null) {
             // Connection was configured with an internal datasource
-            return getConnection(pipelineContext, datasource);
+            return getPooledConnection(pipelineContext, datasource, propertySet);
         } else {
             throw new OXFException("No datasource configured, cannot get connection to database.");
         }
     }
 
+    /**
+     * Prepare a statement, reusing a cached statement for the same SQL if possible.
+     */
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        return getPooledConnection().prepareStatement(sql);
+    }
+
+    /**
+     * Release a statement, which might be kept for reuse instead of being closed.
+     */
+    public void closeStatement(PreparedStatement stmt) throws SQLException {
+        getPooledConnection().closeStatement(stmt);
+    }
+
     public Node getInput() {
         return input;
     }
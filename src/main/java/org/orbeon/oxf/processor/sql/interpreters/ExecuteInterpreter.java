@@ -48,7 +48,7 @@ public class ExecuteInterpreter extends SQLProcessor.InterpreterContentHandler {
         final PreparedStatement stmt = interpreterContext.getStatement(0);
         if (stmt != null) { // the statement may not exist or already have been closed
             try {
-                stmt.close();
+                interpreterContext.closeStatement(stmt);
             } catch (SQLException e) {
                 throw new ValidationException(e, new LocationData(getDocumentLocator()));
             }
@@ -23,6 +23,7 @@ import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.common.ValidationException;
 import org.orbeon.oxf.processor.sql.SQLProcessor;
 import org.orbeon.oxf.processor.sql.SQLProcessorInterpreterContext;
+import org.orbeon.oxf.properties.PropertySet;
 import org.orbeon.oxf.util.Base64XMLReceiver;
 import org.orbeon.oxf.util.DateUtils;
 import org.orbeon.oxf.util.NetUtils;
@@ -53,6 +54,11 @@ public class QueryInterpreter extends SQLProcessor.InterpreterContentHandler {
     public static final int UPDATE = 1;
     public static final int CALL = 2;
 
+    // Defaults for the batch-size, fetch-size and max-rows attributes
+    public static final String BATCH_SIZE_PROPERTY = "batch-size";
+    public static final String FETCH_SIZE_PROPERTY = "fetch-size";
+    public static final String MAX_ROWS_PROPERTY = "max-rows";
+
     private int type;
 
     private StringBuilder query;
@@ -60,6 +66,9 @@ public class QueryInterpreter extends SQLProcessor.InterpreterContentHandler {
     private boolean hasReplaceOrSeparator;
     private Iterator nodeIterator;
     private String debugString;
+    private int batchSize;
+    private int fetchSize;
+    private int maxRows;
 
     public QueryInterpreter(SQLProcessorInterpreterContext interpreterContext, int type) {
         super(interpreterContext, false);
@@ -156,6 +165,24 @@ public class QueryInterpreter extends SQLProcessor.InterpreterContentHandler {
         }
         // Get debug attribute
         debugString = attributes.getValue("debug");
+        // Get batching and fetching attributes
+        batchSize = getIntAttribute(attributes, "batch-size", BATCH_SIZE_PROPERTY);
+        fetchSize = getIntAttribute(attributes, "fetch-size", FETCH_SIZE_PROPERTY);
+        maxRows = getIntAttribute(attributes, "max-rows", MAX_ROWS_PROPERTY);
+    }
+
+    private int getIntAttribute(Attributes attributes, String attributeName, String propertyName) {
+        final String value = attributes.getValue(attributeName);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                throw new ValidationException("Invalid " + attributeName + " attribute: " + value, new LocationData(getDocumentLocator()));
+            }
+        } else {
+            final PropertySet propertySet = getInterpreterContext().getPropertySet();
+            return (propertySet != null) ? propertySet.getInteger(propertyName, 0).intValue() : 0;
+        }
     }
 
     public void end(String uri, String localname, String qName) throws SAXException {
@@ -170,12 +197,17 @@ public class QueryInterpreter extends SQLProcessor.InterpreterContentHandler {
                 final String queryString = query.toString();
                 if (type != CALL) {
                     // TODO: see how we can support this: Statement.RETURN_GENERATED_KEYS (won't work with hsqldb)
-                    stmt = getInterpreterContext().getConnection().prepareStatement(queryString);
+                    stmt = getInterpreterContext().prepareStatement(queryString);
                 } else
                     stmt = getInterpreterContext().getConnection().prepareCall(queryString);
                 getInterpreterContext().setStatementString(queryString);
             }
             getInterpreterContext().setStatement(stmt);
+            // Group the iterations of an update into batches if the statement is the same for all of them
+            final boolean isBatch = type == UPDATE && nodeIterator != null && stmt != null && batchSize > 1
+                    && getInterpreterContext().getConnection().getMetaData().supportsBatchUpdates();
+            int batchCount = 0;
+            int batchUpdateCount = 0;
             int nodeCount = 1;
             // Iterate through all source nodes (only one if "select" attribute is missing)
             for (Iterator j = (nodeIterator != null) ? nodeIterator : Collections.singletonList(getInterpreterContext().getCurrentNode()).iterator(); j.hasNext(); nodeCount++) {
@@ -320,12 +352,12 @@ public class QueryInterpreter extends SQLProcessor.InterpreterContentHandler {
                         if (firstIndex < queryString.length()) {
                             replacedQuery.append(queryString.substring(firstIndex));
                         }
-                        // We create a new PreparedStatement for each iteration
+                        // We get a PreparedStatement for each iteration, which is cached if the same query comes again
                         String replacedQueryString = replacedQuery.toString();
                         if (stmt != null) {
-                            stmt.close();
+                            getInterpreterContext().closeStatement(stmt);
                         }
-                        stmt = getInterpreterContext().getConnection().prepareStatement(replacedQueryString);
+                        stmt = getInterpreterContext().prepareStatement(replacedQueryString);
                         getInterpreterContext().setStatement(stmt);
                         getInterpreterContext().setStatementString(replacedQueryString);
                     }
@@ -597,8 +629,17 @@ public class QueryInterpreter extends SQLProcessor.InterpreterContentHandler {
                     // Execute
                     if (SQLProcessor.logger.isDebugEnabled())
                         SQLProcessor.logger.debug("Executing query/call for statement: " + getInterpreterContext().getStatementString());
+                    // Reset on every execution as the statement may come from the cache
+                    stmt.setFetchSize(Math.max(fetchSize, 0));
+                    stmt.setMaxRows(Math.max(maxRows, 0));
                     final boolean hasResultSet = stmt.execute();
                     ResultSetInterpreter.setResultSetInfo(getInterpreterContext(), stmt, hasResultSet);
+                } else if (isBatch) {
+                    stmt.addBatch();
+                    if (++batchCount == batchSize) {
+                        batchUpdateCount += executeBatch(stmt);
+                        batchCount = 0;
+                    }
                 } else if (type == UPDATE) {
                     // We know there is only a possible update count
                     final int updateCount = stmt.executeUpdate();
@@ -607,6 +648,12 @@ public class QueryInterpreter extends SQLProcessor.InterpreterContentHandler {
                     	ResultSetInterpreter.setGeneratedKeysResultSetInfo(getInterpreterContext(), stmt);
                 }
             }
+            if (isBatch) {
+                // Execute the last partial batch, and make the update count the total of all the batches
+                if (batchCount > 0)
+                    batchUpdateCount += executeBatch(stmt);
+                getInterpreterContext().setUpdateCount(batchUpdateCount);
+            }
         } catch (Exception e) {
             // FIXME: should store exception so that it can be retrieved
             // Actually, we'll need a global exception mechanism for pipelines, so this may end up being done
@@ -619,6 +666,15 @@ public class QueryInterpreter extends SQLProcessor.InterpreterContentHandler {
         }
     }
 
+    private static int executeBatch(PreparedStatement stmt) throws SQLException {
+        int updateCount = 0;
+        // Statements which succeeded without an update count (Statement.SUCCESS_NO_INFO) are not counted
+        for (final int count : stmt.executeBatch())
+            if (count > 0)
+                updateCount += count;
+        return updateCount;
+    }
+
     private static class QueryParameter {
         private String direction;
         private String type;
@@ -106,11 +106,12 @@ public class TransformerURIResolver implements URIResolver {
             } else {
                 // Resolve to regular URI
                 final URL url = URLFactory.createURL(base, href);
-                // NOTE: below, we disable use of the URLGenerator's local cache, so that we don't check validity
-                // with HTTP and HTTPS. When would it make sense to use local caching?
+                // NOTE: below, we disable use of the URLGenerator's local cache with HTTP and HTTPS, so that we don't
+                // check validity with a request each time. Instead, the HTTP cache follows the caching headers of the
+                // responses, and only makes requests when they require it.
                 final String protocol = url.getProtocol();
                 final boolean cacheUseLocalCache = !(protocol.equals("http") || protocol.equals("https"));
-                final Processor urlGenerator = new URLGenerator(url, null, false, null, false, false, parserConfiguration, true, mode, null, null, cacheUseLocalCache, false);
+                final Processor urlGenerator = new URLGenerator(url, null, false, null, false, false, parserConfiguration, true, mode, null, null, cacheUseLocalCache, false, true);
                 xmlReader = new ProcessorOutputXMLReader(pipelineContext, urlGenerator.createOutput(ProcessorImpl.OUTPUT_DATA));
                 systemId = url.toExternalForm();
             }
@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util;
+
+import org.apache.commons.pool.BaseObjectPool;
+import org.apache.commons.pool.PoolableObjectFactory;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free object pool with per-thread affinity.
+ *
+ * Idle objects are kept with hard references in a small number of stripes. A thread always starts with the same
+ * stripe, so in the common case it gets back the object it returned last, without contention with other threads.
+ *
+ * Unlike SoftReferenceObjectPool, idle objects are not cleared by the garbage collector. The number of idle objects
+ * is bounded by the number of stripes times the number of slots per stripe: objects returned when there is no free
+ * slot are destroyed.
+ */
+public class StripedObjectPool<T> extends BaseObjectPool<T> {
+
+    private static final int STRIPES = ceilingPowerOfTwo(Runtime.getRuntime().availableProcessors());
+    private static final int STRIPES_MASK = STRIPES - 1;
+    private static final int SLOTS_PER_STRIPE = 2;
+
+    private final PoolableObjectFactory<T> factory;
+    private final Stripe<T>[] stripes;
+
+    private static class Stripe<T> {
+        final AtomicReferenceArray<T> slots = new AtomicReferenceArray<T>(SLOTS_PER_STRIPE);
+
+        // Counters are per stripe to avoid contention between threads
+        final AtomicLong hitCount = new AtomicLong();
+        final AtomicLong createCount = new AtomicLong();
+    }
+
+    @SuppressWarnings("unchecked")
+    public StripedObjectPool(PoolableObjectFactory<T> factory) {
+        this.factory = factory;
+        this.stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i] = new Stripe<T>();
+    }
+
+    private static int stripeIndex() {
+        return (int) Thread.currentThread().getId() & STRIPES_MASK;
+    }
+
+    @Override
+    public T borrowObject() throws Exception {
+        assertOpen();
+
+        final int startIndex = stripeIndex();
+        final Stripe<T> ownStripe = stripes[startIndex];
+
+        // Look at our own stripe first, then steal from other stripes
+        for (int i = 0; i < STRIPES; i++) {
+            final Stripe<T> stripe = stripes[(startIndex + i) & STRIPES_MASK];
+            for (int j = 0; j < SLOTS_PER_STRIPE; j++) {
+                if (stripe.slots.get(j) != null) {
+                    final T obj = stripe.slots.getAndSet(j, null);
+                    if (obj != null) {
+                        ownStripe.hitCount.incrementAndGet();
+                        return obj;
+                    }
+                }
+            }
+        }
+
+        // No idle object
+        ownStripe.createCount.incrementAndGet();
+        return factory.makeObject();
+    }
+
+    @Override
+    public void returnObject(T obj) throws Exception {
+        if (! isClosed()) {
+            final Stripe<T> stripe = stripes[stripeIndex()];
+            for (int j = 0; j < SLOTS_PER_STRIPE; j++)
+                if (stripe.slots.get(j) == null && stripe.slots.compareAndSet(j, null, obj))
+                    return;
+        }
+
+        // Pool is closed or our stripe is full
+        factory.destroyObject(obj);
+    }
+
+    @Override
+    public void invalidateObject(T obj) throws Exception {
+        factory.destroyObject(obj);
+    }
+
+    @Override
+    public int getNumIdle() {
+        int result = 0;
+        for (final Stripe<T> stripe : stripes)
+            for (int j = 0; j < SLOTS_PER_STRIPE; j++)
+                if (stripe.slots.get(j) != null)
+                    result++;
+        return result;
+    }
+
+    @Override
+    public void clear() throws Exception {
+        for (final Stripe<T> stripe : stripes) {
+            for (int j = 0; j < SLOTS_PER_STRIPE; j++) {
+                final T obj = stripe.slots.getAndSet(j, null);
+                if (obj != null) {
+                    try {
+                        factory.destroyObject(obj);
+                    } catch (Exception e) {
+                        // ignore error, keep destroying the rest
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        super.close();
+        clear();
+    }
+
+    /**
+     * Number of times an idle object was reused.
+     */
+    public long getHitCount() {
+        long result = 0;
+        for (final Stripe<T> stripe : stripes)
+            result += stripe.hitCount.get();
+        return result;
+    }
+
+    /**
+     * Number of times a new object had to be created.
+     */
+    public long getCreateCount() {
+        long result = 0;
+        for (final Stripe<T> stripe : stripes)
+            result += stripe.createCount.get();
+        return result;
+    }
+
+    private static int ceilingPowerOfTwo(int value) {
+        int result = 1;
+        while (result < value)
+            result <<= 1;
+        return result;
+    }
+}
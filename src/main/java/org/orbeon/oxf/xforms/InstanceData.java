@@ -31,41 +31,115 @@ import java.util.*;
  * impact on memory usage and garbage collection. This is also why most methods in this class are static.
  *
  * Since 2010-12, this now points back to bind nodes, which store bind MIPs directly.
+ *
+ * As there can be one instance of this class per node of large instances, fields are kept to a minimum: flags are
+ * packed, and data which is rarely set is held by a separate object. Inherited relevance and readonliness are cached
+ * on the node, and the cache of all the nodes of a document is invalidated at once when a local relevant or readonly
+ * MIP changes, or when the structure of the document changes.
  */
 public class InstanceData {// rename to DataNodeProperties once done
 
+    // Packed flags
+    private static final byte SCHEMA_INVALID     = 1;   // schema validity: only set by schema
+    private static final byte INHERITED_RELEVANT = 2;   // cached inherited relevance
+    private static final byte INHERITED_READONLY = 4;   // cached inherited readonliness
+
     private LocationData locationData;
 
-    // Point back to binds that impacted this node
-    private List<XFormsModelBinds.BindNode> bindNodes;
+    // Point back to binds that impacted this node: null, a single BindNode, or an array if more than one bind points
+    // to this node
+    private Object bindNodes;
 
-    // Types set by schema or binds
+    // Type set by binds
     private QName bindType;
-    private QName schemaType;
 
-    // Schema validity: only set by schema
-    private boolean schemaInvalid;
+    private byte flags;
+
+    // Generation of the document, and generation at which the inherited MIPs were cached
+    private Generation generation;
+    private int inheritedGeneration = -1;
+
+    // Data which is rarely set
+    private RareData rareData;
 
-    // Annotations (used only for multipart submission as of 2010-12)
-    private Map<String, String> transientAnnotations;
+    private static class RareData {
+        // Type set by schema
+        QName schemaType;
+        // Annotations (used only for multipart submission as of 2010-12)
+        Map<String, String> transientAnnotations;
+    }
+
+    // Shared by all the InstanceData of a document
+    private static class Generation {
+        int value;
+    }
 
     public static void addBindNode(NodeInfo nodeInfo, XFormsModelBinds.BindNode bindNode) {
         final InstanceData instanceData = getOrCreateInstanceData(nodeInfo, false);
         if (instanceData != READONLY_LOCAL_INSTANCE_DATA) {
             // only register ourselves if we are not a readonly node
-            if (instanceData.bindNodes == null)
-                instanceData.bindNodes = Collections.singletonList(bindNode);
-            else if (instanceData.bindNodes.size() == 1) {
-                final XFormsModelBinds.BindNode oldBindNode = instanceData.bindNodes.get(0);
-                instanceData.bindNodes = new ArrayList<XFormsModelBinds.BindNode>(4); // hoping that situations where many binds point to same node are rare
-                instanceData.bindNodes.add(oldBindNode);
-                instanceData.bindNodes.add(bindNode);
+            if (instanceData.bindNodes == null) {
+                instanceData.bindNodes = bindNode;
+            } else if (instanceData.bindNodes instanceof XFormsModelBinds.BindNode) {
+                instanceData.bindNodes = new XFormsModelBinds.BindNode[] { (XFormsModelBinds.BindNode) instanceData.bindNodes, bindNode };
             } else {
-                instanceData.bindNodes.add(bindNode);
+                // Hoping that situations where many binds point to same node are rare
+                final XFormsModelBinds.BindNode[] oldBindNodes = (XFormsModelBinds.BindNode[]) instanceData.bindNodes;
+                final XFormsModelBinds.BindNode[] newBindNodes = new XFormsModelBinds.BindNode[oldBindNodes.length + 1];
+                System.arraycopy(oldBindNodes, 0, newBindNodes, 0, oldBindNodes.length);
+                newBindNodes[oldBindNodes.length] = bindNode;
+                instanceData.bindNodes = newBindNodes;
             }
+            // A bind node with a non-default relevant or readonly value changes inherited values
+            if (bindNode.isRelevant() != Model.DEFAULT_RELEVANT() || bindNode.isReadonly() != Model.DEFAULT_READONLY())
+                instanceData.invalidateInheritedMIPs();
+        }
+    }
+
+    /**
+     * Called when the local relevant or readonly MIP of the node has changed.
+     */
+    public static void localMIPChanged(NodeInfo nodeInfo) {
+        if (nodeInfo instanceof VirtualNode) {
+            final InstanceData existingInstanceData = getLocalInstanceData(XFormsUtils.getNodeFromNodeInfo(nodeInfo, ""));
+            if (existingInstanceData != null)
+                existingInstanceData.invalidateInheritedMIPs();
+        }
+    }
+
+    /**
+     * Called when the structure of the document containing the node has changed.
+     */
+    public static void structureChanged(NodeInfo nodeInfo) {
+        if (nodeInfo instanceof VirtualNode) {
+            final Node node = XFormsUtils.getNodeFromNodeInfo(nodeInfo, "");
+            final InstanceData rootInstanceData = getLocalInstanceData(getRootNode(node));
+            if (rootInstanceData != null)
+                rootInstanceData.invalidateInheritedMIPs();
         }
     }
 
+    private void invalidateInheritedMIPs() {
+        if (generation != null)
+            generation.value++;
+    }
+
+    private int bindNodeCount() {
+        if (bindNodes == null)
+            return 0;
+        else if (bindNodes instanceof XFormsModelBinds.BindNode)
+            return 1;
+        else
+            return ((XFormsModelBinds.BindNode[]) bindNodes).length;
+    }
+
+    private XFormsModelBinds.BindNode getBindNode(int index) {
+        if (bindNodes instanceof XFormsModelBinds.BindNode)
+            return (XFormsModelBinds.BindNode) bindNodes;
+        else
+            return ((XFormsModelBinds.BindNode[]) bindNodes)[index];
+    }
+
     private static final InstanceData READONLY_LOCAL_INSTANCE_DATA = new InstanceData() {
         @Override
         public boolean getLocalRelevant() {
@@ -104,54 +178,49 @@ public class InstanceData {// rename to DataNodeProperties once done
     };
 
     public boolean getLocalRelevant() {
-        if (bindNodes != null && bindNodes.size() > 0)
-            for (final XFormsModelBinds.BindNode bindNode : bindNodes)
-                if (bindNode.isRelevant() != Model.DEFAULT_RELEVANT())
-                    return !Model.DEFAULT_RELEVANT();
+        for (int i = 0; i < bindNodeCount(); i++)
+            if (getBindNode(i).isRelevant() != Model.DEFAULT_RELEVANT())
+                return !Model.DEFAULT_RELEVANT();
 
         return Model.DEFAULT_RELEVANT();
     }
 
     public boolean getLocalReadonly() {
-        if (bindNodes != null && bindNodes.size() > 0)
-            for (final XFormsModelBinds.BindNode bindNode : bindNodes)
-                if (bindNode.isReadonly() != Model.DEFAULT_READONLY())
-                    return !Model.DEFAULT_READONLY();
+        for (int i = 0; i < bindNodeCount(); i++)
+            if (getBindNode(i).isReadonly() != Model.DEFAULT_READONLY())
+                return !Model.DEFAULT_READONLY();
 
         return Model.DEFAULT_READONLY();
     }
 
     public boolean getRequired() {
-        if (bindNodes != null && bindNodes.size() > 0)
-            for (final XFormsModelBinds.BindNode bindNode : bindNodes)
-                if (bindNode.isRequired() != Model.DEFAULT_REQUIRED())
-                    return !Model.DEFAULT_REQUIRED();
+        for (int i = 0; i < bindNodeCount(); i++)
+            if (getBindNode(i).isRequired() != Model.DEFAULT_REQUIRED())
+                return !Model.DEFAULT_REQUIRED();
 
         return Model.DEFAULT_REQUIRED();
     }
 
     public boolean getValid() {
 
-        if (schemaInvalid)
+        if ((flags & SCHEMA_INVALID) != 0)
             return false;
 
-        if (bindNodes != null && bindNodes.size() > 0)
-            for (final XFormsModelBinds.BindNode bindNode : bindNodes)
-                if (bindNode.isValid() != Model.DEFAULT_VALID())
-                    return !Model.DEFAULT_VALID();
+        for (int i = 0; i < bindNodeCount(); i++)
+            if (getBindNode(i).isValid() != Model.DEFAULT_VALID())
+                return !Model.DEFAULT_VALID();
 
         return Model.DEFAULT_VALID();
     }
 
     public boolean getTypeValid() {
 
-        if (schemaInvalid)
+        if ((flags & SCHEMA_INVALID) != 0)
             return false;
 
-        if (bindNodes != null && bindNodes.size() > 0)
-            for (final XFormsModelBinds.BindNode bindNode : bindNodes)
-                if (bindNode.isTypeValid() != Model.DEFAULT_VALID())
-                    return !Model.DEFAULT_VALID();
+        for (int i = 0; i < bindNodeCount(); i++)
+            if (getBindNode(i).isTypeValid() != Model.DEFAULT_VALID())
+                return !Model.DEFAULT_VALID();
 
         return Model.DEFAULT_VALID();
     }
@@ -160,56 +229,65 @@ public class InstanceData {// rename to DataNodeProperties once done
 
         Map<String, String> result = null;
         boolean doCopy = false;
-        if (bindNodes != null && bindNodes.size() > 0)
-            for (final XFormsModelBinds.BindNode bindNode : bindNodes)
-                if (bindNode.getCustomMips() != null) {
-                    if (result == null) {
-                        // Just reference first Map (it is unmodifiable) as it's the common case
-                        result = bindNode.getCustomMips();
-                        doCopy = true;
-                    } else {
-                        if (doCopy) {
-                            result = new HashMap<String, String>(result);
-                            doCopy = false;
-                        }
-                        result.putAll(bindNode.getCustomMips());
+        for (int i = 0; i < bindNodeCount(); i++) {
+            final XFormsModelBinds.BindNode bindNode = getBindNode(i);
+            if (bindNode.getCustomMips() != null) {
+                if (result == null) {
+                    // Just reference first Map (it is unmodifiable) as it's the common case
+                    result = bindNode.getCustomMips();
+                    doCopy = true;
+                } else {
+                    if (doCopy) {
+                        result = new HashMap<String, String>(result);
+                        doCopy = false;
                     }
+                    result.putAll(bindNode.getCustomMips());
                 }
+            }
+        }
 
         return result;
     }
     
     public QName getSchemaOrBindType() {
 
-        if (schemaType != null)
-            return schemaType;
+        if (rareData != null && rareData.schemaType != null)
+            return rareData.schemaType;
 
         return bindType;
     }
 
     public String getInvalidBindIds() {
         StringBuilder sb = null;
-        if (bindNodes != null && bindNodes.size() > 0)
-            for (final XFormsModelBinds.BindNode bindNode : bindNodes)
-                if (bindNode.isValid() != Model.DEFAULT_VALID()) {
-                    if (sb == null)
-                        sb = new StringBuilder();
-                    else if (sb.length() > 0)
-                        sb.append(' ');
-
-                    sb.append(bindNode.getBindStaticId());
-                }
+        for (int i = 0; i < bindNodeCount(); i++) {
+            final XFormsModelBinds.BindNode bindNode = getBindNode(i);
+            if (bindNode.isValid() != Model.DEFAULT_VALID()) {
+                if (sb == null)
+                    sb = new StringBuilder();
+                else if (sb.length() > 0)
+                    sb.append(' ');
+
+                sb.append(bindNode.getBindStaticId());
+            }
+        }
         return sb == null ? null : sb.toString();
     }
 
     public void setTransientAnnotation(String name, String value) {
-        if (transientAnnotations == null)
-            transientAnnotations = new HashMap<String, String>();
-        transientAnnotations.put(name, value);
+        final RareData rareData = getOrCreateRareData();
+        if (rareData.transientAnnotations == null)
+            rareData.transientAnnotations = new HashMap<String, String>();
+        rareData.transientAnnotations.put(name, value);
     }
 
     public String getTransientAnnotation(String name) {
-        return (transientAnnotations == null) ? null : transientAnnotations.get(name);
+        return (rareData == null || rareData.transientAnnotations == null) ? null : rareData.transientAnnotations.get(name);
+    }
+
+    private RareData getOrCreateRareData() {
+        if (rareData == null)
+            rareData = new RareData();
+        return rareData;
     }
 
     public static void setTransientAnnotation(NodeInfo nodeInfo, String name, String value) {
@@ -238,14 +316,47 @@ public class InstanceData {// rename to DataNodeProperties once done
     }
 
     public static boolean getInheritedRelevant(Node node) {
-        // Iterate this node and its parents. The node is non-relevant if it or any ancestor is non-relevant.
+        // The node is non-relevant if it or any ancestor is non-relevant
+        final InstanceData instanceData = getInheritedInstanceData(node);
+        return (instanceData == null) ? Model.DEFAULT_RELEVANT() : (instanceData.flags & INHERITED_RELEVANT) != 0;
+    }
+
+    // Return the InstanceData of the nearest ancestor-or-self node which has one, with up to date inherited MIPs
+    // Nodes without InstanceData have default local MIPs, so they inherit the MIPs of that node.
+    private static InstanceData getInheritedInstanceData(Node node) {
         for (Node currentNode = node; currentNode != null; currentNode = currentNode.getParent()) {
             final InstanceData currentInstanceData = getLocalInstanceData(currentNode);
-            final boolean currentRelevant = (currentInstanceData == null) ? Model.DEFAULT_RELEVANT() : currentInstanceData.getLocalRelevant();
-            if (!currentRelevant)
-                return false;
+            if (currentInstanceData != null) {
+                currentInstanceData.updateInheritedMIPs(currentNode);
+                return currentInstanceData;
+            }
         }
-        return true;
+        return null;
+    }
+
+    // Compute inherited MIPs from the local MIPs and the parent's inherited MIPs, unless they are already cached
+    private void updateInheritedMIPs(Node node) {
+        if (generation == null || inheritedGeneration != generation.value) {
+
+            boolean relevant = getLocalRelevant();
+            boolean readonly = getLocalReadonly();
+
+            final InstanceData parentInstanceData = getInheritedInstanceData(getParentElement(node));
+            if (parentInstanceData != null) {
+                relevant &= (parentInstanceData.flags & INHERITED_RELEVANT) != 0;
+                readonly |= (parentInstanceData.flags & INHERITED_READONLY) != 0;
+            }
+
+            flags = (byte) ((flags & ~(INHERITED_RELEVANT | INHERITED_READONLY)) | (relevant ? INHERITED_RELEVANT : 0) | (readonly ? INHERITED_READONLY : 0));
+
+            if (generation != null)
+                inheritedGeneration = generation.value;
+        }
+    }
+
+    // The InstanceData of a Document is that of its root element, so the root element has no parent
+    private static Node getParentElement(Node node) {
+        return (node instanceof Document) ? null : node.getParent();
     }
 
     public static boolean getRequired(NodeInfo nodeInfo) {
@@ -269,14 +380,9 @@ public class InstanceData {// rename to DataNodeProperties once done
     }
 
     public static boolean getInheritedReadonly(Node node) {
-        // Iterate this node and its parents. The node is readonly if it or any ancestor is readonly.
-        for (Node currentNode = node; currentNode != null; currentNode = currentNode.getParent()) {
-            final InstanceData currentInstanceData = getLocalInstanceData(currentNode);
-            final boolean currentReadonly = (currentInstanceData == null) ? Model.DEFAULT_READONLY() : currentInstanceData.getLocalReadonly();
-            if (currentReadonly)
-                return true;
-        }
-        return false;
+        // The node is readonly if it or any ancestor is readonly
+        final InstanceData instanceData = getInheritedInstanceData(node);
+        return (instanceData == null) ? Model.DEFAULT_READONLY() : (instanceData.flags & INHERITED_READONLY) != 0;
     }
 
     public static boolean getValid(NodeInfo nodeInfo) {
@@ -299,7 +405,7 @@ public class InstanceData {// rename to DataNodeProperties once done
     }
 
     public static void setSchemaType(Node node, QName type) {
-        getOrCreateInstanceData(node).schemaType = type;
+        getOrCreateInstanceData(node).getOrCreateRareData().schemaType = type;
     }
 
     public static QName getType(NodeInfo nodeInfo) {
@@ -379,25 +485,28 @@ public class InstanceData {// rename to DataNodeProperties once done
         final InstanceData instanceData = getOrCreateInstanceData(node);
 
         // Remember that the value is invalid
-        instanceData.schemaInvalid = true;
+        instanceData.flags |= SCHEMA_INVALID;
     }
 
     public static void clearState(NodeInfo nodeInfo) {
         final InstanceData existingInstanceData = getLocalInstanceData(nodeInfo, false);// not really an update since for read-only nothing changes
-        if (existingInstanceData != null) {
+        if (existingInstanceData != null && existingInstanceData != READONLY_LOCAL_INSTANCE_DATA) {
+            if (existingInstanceData.bindNodes != null)
+                existingInstanceData.invalidateInheritedMIPs();
+
             existingInstanceData.bindNodes = null;
             existingInstanceData.bindType = null;
-            existingInstanceData.schemaType = null;
-            existingInstanceData.schemaInvalid = false;
-            existingInstanceData.transientAnnotations = null;
+            existingInstanceData.flags &= ~SCHEMA_INVALID;
+            existingInstanceData.rareData = null;
         }
     }
 
     public static void clearSchemaState(NodeInfo nodeInfo) {
         final InstanceData existingInstanceData = getLocalInstanceData(nodeInfo, false);// not really an update since for read-only nothing changes
-        if (existingInstanceData != null) {
-            existingInstanceData.schemaType = null;
-            existingInstanceData.schemaInvalid = false;
+        if (existingInstanceData != null && existingInstanceData != READONLY_LOCAL_INSTANCE_DATA) {
+            if (existingInstanceData.rareData != null)
+                existingInstanceData.rareData.schemaType = null;
+            existingInstanceData.flags &= ~SCHEMA_INVALID;
         }
     }
 
@@ -506,9 +615,28 @@ public class InstanceData {// rename to DataNodeProperties once done
             // No other node type is supported
             throw new OXFException("Cannot create InstanceData on node type: " + node.getNodeTypeName());
         }
+
+        // All the nodes of a document share the generation held by the root element
+        final Node rootNode = getRootNode(node);
+        if (rootNode == node || node instanceof Document)
+            instanceData.generation = new Generation();
+        else
+            instanceData.generation = getOrCreateInstanceData(rootNode).generation;
+
         return instanceData;
     }
 
+    // Return the root element of the tree containing the node
+    private static Node getRootNode(Node node) {
+        if (node instanceof Document)
+            return ((Document) node).getRootElement();
+
+        Node currentNode = node;
+        while (currentNode.getParent() != null)
+            currentNode = currentNode.getParent();
+        return currentNode;
+    }
+
     private static InstanceData createNewInstanceData(Object existingData) {
         if (existingData instanceof LocationData) {
             return new InstanceData((LocationData) existingData);
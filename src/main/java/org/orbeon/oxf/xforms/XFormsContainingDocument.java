@@ -146,7 +146,7 @@ public class XFormsContainingDocument extends XBLContainer implements XFormsDocu
     private List<DelayedEvent> delayedEvents;
     private List<XFormsError.ServerError> serverErrors;
     private Set<String> controlsStructuralChanges;
-    private RequestStats requestStats = RequestStatsImpl.apply();
+    private RequestStats requestStats = RequestStatsImpl.apply(this);
 
     // Page template for noscript mode if stored in dynamic state (otherwise stored in static state)
     private AnnotatedTemplate template;
@@ -587,7 +587,7 @@ public class XFormsContainingDocument extends XBLContainer implements XFormsDocu
         
         this.serverErrors = null;
 
-        this.requestStats = RequestStatsImpl.apply();
+        this.requestStats = RequestStatsImpl.apply(this);
 
         if (this.controlsStructuralChanges != null)
             this.controlsStructuralChanges.clear();
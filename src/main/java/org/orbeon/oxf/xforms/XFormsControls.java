@@ -18,6 +18,8 @@ import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.util.IndentedLogger;
 import org.orbeon.oxf.util.LoggerFactory;
 import org.orbeon.oxf.xforms.analysis.XPathDependencies;
+import org.orbeon.oxf.xforms.analytics.RequestStats;
+import org.orbeon.oxf.xforms.analytics.XFormsMetrics;
 import org.orbeon.oxf.xforms.control.*;
 import org.orbeon.oxf.xforms.control.controls.XFormsRepeatControl;
 import org.orbeon.oxf.xforms.control.controls.XFormsRepeatIterationControl;
@@ -289,6 +291,8 @@ public class XFormsControls implements XFormsObjectResolver {
             refreshDone();
         } else {
             indentedLogger.startHandleOperation("controls", "performing refresh", "container id", container.getEffectiveId());
+            final RequestStats requestStats = containingDocument.getRequestStats();
+            final long startTime = requestStats.startTimer();
             {
                 // Notify dependencies
                 xpathDependencies.refreshStart();
@@ -314,6 +318,7 @@ public class XFormsControls implements XFormsObjectResolver {
                 // Handle focus changes
                 Focus.updateFocusWithEvents(focusedBefore, updater.partialFocusRepeat());
             }
+            requestStats.addTime(XFormsMetrics.Refresh(), startTime);
             indentedLogger.endHandleOperation();
         }
     }
@@ -339,7 +344,10 @@ public class XFormsControls implements XFormsObjectResolver {
 
             // Visit all controls and update their bindings
             indentedLogger.startHandleOperation("controls", "updating bindings");
+            final RequestStats requestStats = containingDocument.getRequestStats();
+            final long startTime = requestStats.startTimer();
             final Controls.BindingUpdater updater = Controls.updateBindings(containingDocument);
+            requestStats.addTime(XFormsMetrics.ControlBindings(), startTime);
             indentedLogger.endHandleOperation(
                 "controls visited", Integer.toString(updater.visitedCount()),
                 "bindings evaluated", Integer.toString(updater.updatedCount()),
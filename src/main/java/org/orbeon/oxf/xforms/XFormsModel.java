@@ -919,6 +919,9 @@ public class XFormsModel extends XFormsModelBase implements XFormsEventObserver,
         // Notify dependencies of the change
         if (nodeInfo != null)
             containingDocument.getXPathDependencies().markValueChanged(this, nodeInfo);
+
+        if (binds != null)
+            binds.markValueChanged(nodeInfo);
     }
 
 //    public void markMipChange(NodeInfo nodeInfo) {
@@ -931,8 +934,15 @@ public class XFormsModel extends XFormsModelBase implements XFormsEventObserver,
         // Set the flags
         deferredActionContext.markStructuralChange();
 
+        // Cached inherited MIPs are obsolete
+        if (instance != null)
+            InstanceData.structureChanged(instance.rootElement());
+
         // Notify dependencies of the change
         containingDocument.getXPathDependencies().markStructuralChange(this, instance);
+
+        if (binds != null)
+            binds.markStructuralChange();
     }
 
     public void startOutermostActionHandler() {
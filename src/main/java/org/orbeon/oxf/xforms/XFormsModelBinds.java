@@ -22,6 +22,8 @@ import org.orbeon.oxf.util.IndentedLogger;
 import org.orbeon.oxf.util.XPath;
 import org.orbeon.oxf.util.XPathCache;
 import org.orbeon.oxf.xforms.analysis.XPathDependencies;
+import org.orbeon.oxf.xforms.analytics.RequestStats;
+import org.orbeon.oxf.xforms.analytics.XFormsMetrics;
 import org.orbeon.oxf.xforms.analysis.model.BindTree;
 import org.orbeon.oxf.xforms.analysis.model.Model;
 import org.orbeon.oxf.xforms.event.Dispatch;
@@ -68,12 +70,25 @@ public class XFormsModelBinds {
     private List<Bind> topLevelBinds = new ArrayList<Bind>();
     private Map<String, Bind> singleNodeContextBinds = new HashMap<String, Bind>();
     private Map<Item, List<Bind.BindIteration>> iterationsForContextNodeInfo = new HashMap<Item, List<Bind.BindIteration>>();
+    private Map<String, List<Bind>> bindsForStaticId = new LinkedHashMap<String, List<Bind>>();
 
     private XFormsModelSchemaValidator xformsValidator;         // validator for standard XForms schema types
 
     private boolean isFirstCalculate;                           // whether this is the first recalculate for the associated XForms model
     private boolean isFirstRebuild;                             // whether this is the first rebuild for the associated XForms model
 
+    private final boolean isDependencyGraph;                    // whether to recalculate following the bind dependency graph
+
+    // Nodes whose value changed since the last recalculate, along with their ancestors, when following the dependency graph
+    private final Set<NodeInfo> changedNodesAndAncestors = new HashSet<NodeInfo>();
+    private boolean allNodesChanged = true;
+
+    // Statistics for the current recalculate or revalidate
+    private int mipEvaluationCount;
+    private int skippedIterationCount;
+    private long statsStartTime;
+    private int lastCalculateEvaluationCount;
+
     /**
      * Create an instance of XFormsModelBinds if the given model has xf:bind elements.
      *
@@ -97,12 +112,42 @@ public class XFormsModelBinds {
         // state is deserialized, but we know that new XFormsModelBinds() will occur only once during document
         // initialization. So the assignation below is ok.
         this.isFirstCalculate = this.isFirstRebuild = containingDocument.isInitializing();
+
+        this.isDependencyGraph = containingDocument.getStaticState().getBooleanProperty(XFormsProperties.RECALCULATE_DEPENDENCY_GRAPH_PROPERTY);
     }
 
     public void resetFirstCalculate() {
         this.isFirstCalculate = true;
     }
 
+    /**
+     * Remember that the value of a node changed, so that the next recalculate evaluates the iterations of calculate
+     * binds which read under that node's ancestors.
+     *
+     * @param nodeInfo  node whose value changed, or null if unknown
+     */
+    public void markValueChanged(NodeInfo nodeInfo) {
+        if (isDependencyGraph && ! allNodesChanged) {
+            if (nodeInfo == null) {
+                allNodesChanged = true;
+            } else {
+                // Stop at the first ancestor already recorded, as its own ancestors are recorded too
+                NodeInfo current = nodeInfo;
+                while (current != null && changedNodesAndAncestors.add(current))
+                    current = current.getParent();
+            }
+        }
+    }
+
+    public void markStructuralChange() {
+        allNodesChanged = true;
+    }
+
+    // Number of MIP evaluations during the calculate phase of the last recalculate
+    public int getLastCalculateEvaluationCount() {
+        return lastCalculateEvaluationCount;
+    }
+
     /**
      * Rebuild all binds, computing all bind nodesets (but not computing the MIPs)
      */
@@ -116,6 +161,8 @@ public class XFormsModelBinds {
         topLevelBinds.clear();
         singleNodeContextBinds.clear();
         iterationsForContextNodeInfo.clear();
+        bindsForStaticId.clear();
+        allNodesChanged = true;
 
         // Clear all instances that might have InstanceData
         // Only need to do this after the first rebuild
@@ -166,10 +213,14 @@ public class XFormsModelBinds {
 
             if (indentedLogger.isDebugEnabled())
                 indentedLogger.startHandleOperation("model", "performing bind recalculate", "model id", model.getEffectiveId());
+
+            resetStats();
             {
                 // 1. Evaluate initial values and calculate before the rest
 
                 if (isFirstCalculate || applyDefaults) {
+                    allNodesChanged = true;
+
                     // Handle default values first
                     if (staticModel.hasDefaultValueBind())
                         iterateBinds(new BindRunner() {
@@ -183,17 +234,28 @@ public class XFormsModelBinds {
                 }
 
                 // Handle calculations
-                if (staticModel.hasCalculateBind())
-                    iterateBinds(new BindRunner() {
-                        public void applyBind(Bind bind, int position) {
-                            if (bind.staticBind.getCalculate() != null && dependencies.requireModelMIPUpdate(staticModel, bind.staticBind, Model.CALCULATE()))
-                                handleCalculateBind(bind, position);
-                        }
-                    });
+                if (staticModel.hasCalculateBind()) {
+                    final List<BindTree.Bind> calculateOrder = getCalculateOrder();
+                    if (calculateOrder != null)
+                        applyCalculateBindsInDependencyOrder(calculateOrder);
+                    else
+                        iterateBinds(new BindRunner() {
+                            public void applyBind(Bind bind, int position) {
+                                if (bind.staticBind.getCalculate() != null && dependencies.requireModelMIPUpdate(staticModel, bind.staticBind, Model.CALCULATE()))
+                                    handleCalculateBind(bind, position);
+                            }
+                        });
+                }
+
+                // Changes from now on are handled by the next recalculate
+                changedNodesAndAncestors.clear();
+                allNodesChanged = false;
+                lastCalculateEvaluationCount = mipEvaluationCount;
 
                 // 2. Update computed expression binds if requested
                 applyComputedExpressionBinds();
             }
+            reportStats("bind recalculate", XFormsMetrics.Recalculate());
 
             if (indentedLogger.isDebugEnabled())
                 indentedLogger.endHandleOperation();
@@ -210,12 +272,125 @@ public class XFormsModelBinds {
         model.resetAndEvaluateVariables();
 
         // Apply
-        iterateBinds(new BindRunner() {
-            public void applyBind(Bind bind, int position) {
-                if (bind.staticBind.hasCalculateComputedMIPs() || bind.staticBind.hasCustomMIPs()) // don't bother if not
-                    handleComputedExpressionBind(bind, position);
+        if (getCalculateOrder() != null) {
+            applyComputedExpressionBindsByStaticBind();
+        } else {
+            iterateBinds(new BindRunner() {
+                public void applyBind(Bind bind, int position) {
+                    if (bind.staticBind.hasCalculateComputedMIPs() || bind.staticBind.hasCustomMIPs()) // don't bother if not
+                        handleComputedExpressionBind(bind, position);
+                }
+            });
+        }
+    }
+
+    // Return the calculate binds in dependency order if enabled and available, null otherwise
+    private List<BindTree.Bind> getCalculateOrder() {
+        if (! isDependencyGraph)
+            return null;
+
+        final List<BindTree.Bind> calculateOrder = staticModel.jCalculateBindsInDependencyOrder();
+        if (calculateOrder == null && indentedLogger.isDebugEnabled())
+            indentedLogger.logDebug("model", "bind dependency graph not available", "model id", model.getEffectiveId(),
+                    "reason", "unknown or circular dependencies");
+        return calculateOrder;
+    }
+
+    /**
+     * Apply calculate binds following the dependency graph.
+     *
+     * Whether a calculate must be evaluated is checked once for all the iterations of a bind. As values changed by a
+     * calculate are added to the changeset, a bind which follows in dependency order is evaluated only if a value it
+     * depends on has actually changed, and after that value has been calculated.
+     *
+     * In addition, if the calculate only reads nodes under an ancestor of the bound node, e.g. ../price * ../units,
+     * the iteration is evaluated only if a value under that ancestor has changed.
+     */
+    private void applyCalculateBindsInDependencyOrder(List<BindTree.Bind> calculateOrder) {
+        for (final BindTree.Bind staticBind : calculateOrder) {
+            final List<Bind> binds = bindsForStaticId.get(staticBind.staticId());
+            if (binds != null) {
+                final boolean mustUpdate = dependencies.requireModelMIPUpdate(staticModel, staticBind, Model.CALCULATE());
+                final int ancestorLevel = staticBind.calculateAncestorLevel();
+                for (final Bind bind : binds) {
+                    if (mustUpdate) {
+                        try {
+                            for (int position = 1; position <= bind.nodeset.size(); position++) {
+                                if (mustCalculate(bind.nodeset.get(position - 1), ancestorLevel))
+                                    handleCalculateBind(bind, position);
+                                else
+                                    skippedIterationCount++;
+                            }
+                        } catch (Exception e) {
+                            throw ValidationException.wrapException(e, new ExtendedLocationData(staticBind.locationData(), "evaluating XForms binds", staticBind.element()));
+                        }
+                    } else {
+                        skippedIterationCount += bind.nodeset.size();
+                    }
+                }
             }
-        });
+        }
+    }
+
+    // Whether the calculate of a bound item must be evaluated, given the number of levels above the item under which
+    // the calculate reads, or -1 if unknown
+    private boolean mustCalculate(Item item, int ancestorLevel) {
+        if (allNodesChanged || ancestorLevel < 0 || ! (item instanceof NodeInfo))
+            return true;
+
+        NodeInfo ancestor = (NodeInfo) item;
+        for (int level = 0; level < ancestorLevel && ancestor != null; level++)
+            ancestor = ancestor.getParent();
+
+        // Changes to instances of other models are not recorded by this model
+        if (ancestor == null || model.getInstanceForNode(ancestor) == null)
+            return true;
+
+        return changedNodesAndAncestors.contains(ancestor);
+    }
+
+    // Apply computed expression binds, checking dependencies once for all the iterations of a bind
+    private void applyComputedExpressionBindsByStaticBind() {
+        for (final List<Bind> binds : bindsForStaticId.values()) {
+            final BindTree.Bind staticBind = binds.get(0).staticBind;
+            if (staticBind.hasCalculateComputedMIPs() || staticBind.hasCustomMIPs()) {
+
+                final boolean mustUpdateRelevant = mustUpdateRelevant(staticBind);
+                final boolean mustUpdateReadonly = mustUpdateReadonly(staticBind);
+                final boolean mustUpdateRequired = mustUpdateRequired(staticBind);
+                final boolean mustUpdateCustom   = staticBind.hasCustomMIPs();
+
+                for (final Bind bind : binds) {
+                    if (mustUpdateRelevant || mustUpdateReadonly || mustUpdateRequired || mustUpdateCustom) {
+                        try {
+                            for (int position = 1; position <= bind.nodeset.size(); position++)
+                                handleComputedExpressionBind(bind, position, mustUpdateRelevant, mustUpdateReadonly, mustUpdateRequired);
+                        } catch (Exception e) {
+                            throw ValidationException.wrapException(e, new ExtendedLocationData(staticBind.locationData(), "evaluating XForms binds", staticBind.element()));
+                        }
+                    } else {
+                        skippedIterationCount += bind.nodeset.size();
+                    }
+                }
+            }
+        }
+    }
+
+    private void resetStats() {
+        mipEvaluationCount = 0;
+        skippedIterationCount = 0;
+        statsStartTime = containingDocument.getRequestStats().startTimer();
+    }
+
+    private void reportStats(String operation, String metric) {
+        if (indentedLogger.isDebugEnabled())
+            indentedLogger.logDebug("model", operation + " statistics", "model id", model.getEffectiveId(),
+                    "MIP evaluations", Integer.toString(mipEvaluationCount),
+                    "skipped bind iterations", Integer.toString(skippedIterationCount));
+
+        final RequestStats requestStats = containingDocument.getRequestStats();
+        requestStats.addBindStats(mipEvaluationCount, skippedIterationCount);
+        requestStats.addTime(metric, statsStartTime);
     }
 
     /**
@@ -235,6 +410,8 @@ public class XFormsModelBinds {
             // Reset context stack just to re-evaluate the variables
             model.resetAndEvaluateVariables();
 
+            resetStats();
+
             // 1. Validate based on type and requiredness
             if (staticModel.hasTypeBind() || staticModel.hasRequiredBind())
                 iterateBinds(new BindRunner() {
@@ -252,6 +429,8 @@ public class XFormsModelBinds {
                             validateConstraint(bind, position, invalidInstances);
                     }
                 });
+
+            reportStats("bind revalidate", XFormsMetrics.Revalidate());
         }
     }
 
@@ -424,19 +603,36 @@ public class XFormsModelBinds {
     }
 
     private void handleComputedExpressionBind(Bind bind, int position) {
+        handleComputedExpressionBind(bind, position,
+                mustUpdateRelevant(bind.staticBind), mustUpdateReadonly(bind.staticBind), mustUpdateRequired(bind.staticBind));
+    }
+
+    private void handleComputedExpressionBind(Bind bind, int position, boolean mustUpdateRelevant, boolean mustUpdateReadonly, boolean mustUpdateRequired) {
 
         // Handle relevant, readonly, required, and custom MIPs
-        if (bind.staticBind.getRelevant() != null && dependencies.requireModelMIPUpdate(staticModel, bind.staticBind, Model.RELEVANT()))
+        if (mustUpdateRelevant)
             evaluateAndSetRelevantMIP(bind, position);
-        if (bind.staticBind.getReadonly() != null && dependencies.requireModelMIPUpdate(staticModel, bind.staticBind, Model.READONLY()) || bind.staticBind.getCalculate() != null)
+        if (mustUpdateReadonly)
             evaluateAndSetReadonlyMIP(bind, position);
-        if (bind.staticBind.getRequired() != null && dependencies.requireModelMIPUpdate(staticModel, bind.staticBind, Model.REQUIRED()))
+        if (mustUpdateRequired)
             evaluateAndSetRequiredMIP(bind, position);
 
         // TODO: optimize those as well
         evaluateAndSetCustomMIPs(bind, position);
     }
 
+    private boolean mustUpdateRelevant(BindTree.Bind staticBind) {
+        return staticBind.getRelevant() != null && dependencies.requireModelMIPUpdate(staticModel, staticBind, Model.RELEVANT());
+    }
+
+    private boolean mustUpdateReadonly(BindTree.Bind staticBind) {
+        return staticBind.getReadonly() != null && dependencies.requireModelMIPUpdate(staticModel, staticBind, Model.READONLY()) || staticBind.getCalculate() != null;
+    }
+
+    private boolean mustUpdateRequired(BindTree.Bind staticBind) {
+        return staticBind.getRequired() != null && dependencies.requireModelMIPUpdate(staticModel, staticBind, Model.REQUIRED());
+    }
+
     private void evaluateAndSetCustomMIPs(Bind bind, int position) {
         final Map<String, BindTree.Bind.XPathMIP> customMips = bind.staticBind.customMIPs();
         if (customMips != null && customMips.size() > 0) {
@@ -564,6 +760,7 @@ public class XFormsModelBinds {
         // Setup function context
         // NOTE: When we implement support for allowing binds to receive events, source must be bind id.
         final XFormsFunction.Context functionContext = model.getContextStack().getFunctionContext(model.getEffectiveId());
+        mipEvaluationCount++;
         final String result;
         try {
             result = XPath.evaluateAsString(
@@ -586,6 +783,7 @@ public class XFormsModelBinds {
         // Setup function context
         // NOTE: When we implement support for allowing binds to receive events, source must be bind id.
         final XFormsFunction.Context functionContext = model.getContextStack().getFunctionContext(model.getEffectiveId());
+        mipEvaluationCount++;
 
         final boolean result = (Boolean) XPath.evaluateSingle(
                 nodeset,
@@ -906,6 +1104,14 @@ public class XFormsModelBinds {
                 if (isSingleNodeContext)
                     singleNodeContextBinds.put(staticBind.staticId(), this);
 
+                // Remember all the bind objects for a given static bind
+                List<Bind> binds = bindsForStaticId.get(staticBind.staticId());
+                if (binds == null) {
+                    binds = new ArrayList<Bind>();
+                    bindsForStaticId.put(staticBind.staticId(), binds);
+                }
+                binds.add(this);
+
                 // Set type on node
                 // Get type namespace and local name
                 typeQName = evaluateTypeQName(staticBind.namespaceMapping().mapping);
@@ -1081,16 +1287,23 @@ public class XFormsModelBinds {
     // BindNode holds MIP values for a given bind node
     public static class BindNode {
 
-        // Current MIP state
-        private boolean relevant = Model.DEFAULT_RELEVANT();
-        protected boolean readonly = Model.DEFAULT_READONLY();
-        private boolean required = Model.DEFAULT_REQUIRED();
+        // Current MIP state, packed as there is one BindNode per bind and node
+        private static final int RELEVANT           = 1;
+        private static final int READONLY           = 2;
+        private static final int REQUIRED           = 4;
+        private static final int TYPE_VALID         = 8;
+        private static final int REQUIRED_VALID     = 16;
+        private static final int CONSTRAINT_VALID   = 32;
+
+        private static final int DEFAULT_MIPS =
+            (Model.DEFAULT_RELEVANT() ? RELEVANT : 0) |
+            (Model.DEFAULT_READONLY() ? READONLY : 0) |
+            (Model.DEFAULT_REQUIRED() ? REQUIRED : 0) |
+            (Model.DEFAULT_VALID() ? TYPE_VALID | REQUIRED_VALID | CONSTRAINT_VALID : 0);
+
+        private int mips = DEFAULT_MIPS;
         private Map<String, String> customMips = null;
 
-        private boolean typeValidity = Model.DEFAULT_VALID();
-        private boolean requiredValidity = Model.DEFAULT_VALID();
-        private boolean constraintValidity = Model.DEFAULT_VALID();
-
         public final String bindStaticId;
         public final NodeInfo nodeInfo;
         public final boolean hasChildrenElements;
@@ -1115,16 +1328,30 @@ public class XFormsModelBinds {
             return bindStaticId;
         }
 
+        private boolean getMIP(int mip) {
+            return (mips & mip) != 0;
+        }
+
+        // Return whether the value has changed
+        private boolean setMIP(int mip, boolean value) {
+            final int newMips = value ? mips | mip : mips & ~mip;
+            final boolean changed = newMips != mips;
+            mips = newMips;
+            return changed;
+        }
+
         public void setRelevant(boolean value) {
-            this.relevant = value;
+            if (setMIP(RELEVANT, value) && nodeInfo != null)
+                InstanceData.localMIPChanged(nodeInfo);
         }
 
         public void setReadonly(boolean value) {
-            this.readonly = value;
+            if (setMIP(READONLY, value) && nodeInfo != null)
+                InstanceData.localMIPChanged(nodeInfo);
         }
 
         public void setRequired(boolean value) {
-            this.required = value;
+            setMIP(REQUIRED, value);
         }
 
         public void setCustom(String name, String value) {
@@ -1134,39 +1361,39 @@ public class XFormsModelBinds {
         }
 
         public void setTypeValidity(boolean value) {
-            this.typeValidity = value;
+            setMIP(TYPE_VALID, value);
         }
 
         public void setRequiredValidity(boolean value) {
-            this.requiredValidity = value;
+            setMIP(REQUIRED_VALID, value);
         }
 
         public void setConstraintValidity(boolean value) {
-            this.constraintValidity = value;
+            setMIP(CONSTRAINT_VALID, value);
         }
 
         public boolean isRelevant() {
-            return relevant;
+            return getMIP(RELEVANT);
         }
 
         public boolean isReadonly() {
-            return readonly;
+            return getMIP(READONLY);
         }
 
         public boolean isRequired() {
-            return required;
+            return getMIP(REQUIRED);
         }
 
         public boolean isValid() {
-            return typeValidity && requiredValidity && constraintValidity;
+            return getMIP(TYPE_VALID) && getMIP(REQUIRED_VALID) && getMIP(CONSTRAINT_VALID);
         }
 
         public boolean isTypeValid() {
-            return typeValidity;
+            return getMIP(TYPE_VALID);
         }
 
         public boolean isConstraintValidity() {
-            return constraintValidity;
+            return getMIP(CONSTRAINT_VALID);
         }
 
         public Map<String, String> getCustomMips() {
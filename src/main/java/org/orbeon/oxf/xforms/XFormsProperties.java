@@ -112,6 +112,7 @@ public class XFormsProperties {
 
     private static final String ASYNC_SUBMISSION_POLL_DELAY = "submission-poll-delay";
 
+    public static final String RETRY_ENABLED = "retry.enabled";
     public static final String RETRY_DELAY_INCREMENT = "retry.delay-increment";
     public static final String RETRY_MAX_DELAY = "retry.max-delay";
     public static final String USE_ARIA = "use-aria";
@@ -120,6 +121,7 @@ public class XFormsProperties {
 
     public static final String ENCRYPT_ITEM_VALUES_PROPERTY = "encrypt-item-values";
     public static final String XPATH_ANALYSIS_PROPERTY = "xpath-analysis";
+    public static final String RECALCULATE_DEPENDENCY_GRAPH_PROPERTY = "recalculate.dependency-graph";
 
     public static final String CACHE_DOCUMENT_PROPERTY = "cache.document";
     private static final boolean CACHE_DOCUMENT_DEFAULT = true;
@@ -218,10 +220,12 @@ public class XFormsProperties {
             new PropertyDefinition(NO_UPDATES, false, false),
             new PropertyDefinition(XFORMS11_SWITCH_PROPERTY, false, false), // false for now, but default should change at some point
             new PropertyDefinition(XPATH_ANALYSIS_PROPERTY, false, false),
+            new PropertyDefinition(RECALCULATE_DEPENDENCY_GRAPH_PROPERTY, false, false),
             new PropertyDefinition(CACHE_DOCUMENT_PROPERTY, CACHE_DOCUMENT_DEFAULT, false),
             new PropertyDefinition(SANITIZE_PROPERTY, "", false),
 
             // Properties to propagate to the client
+            new PropertyDefinition(RETRY_ENABLED, true, true),
             new PropertyDefinition(RETRY_DELAY_INCREMENT, 5000, true),
             new PropertyDefinition(RETRY_MAX_DELAY, 30000, true),
             new PropertyDefinition(USE_ARIA, false, true),
@@ -264,6 +268,23 @@ public class XFormsProperties {
     private static final String GZIP_STATE_PROPERTY = XFORMS_PROPERTY_PREFIX + "gzip-state"; // global but could possibly be per document
     private static final boolean GZIP_STATE_DEFAULT = true;
 
+    private static final String DELTA_STATE_PROPERTY = XFORMS_PROPERTY_PREFIX + "delta-state";
+    private static final boolean DELTA_STATE_DEFAULT = false;
+    private static final String DELTA_STATE_COMPACT_AFTER_PROPERTY = XFORMS_PROPERTY_PREFIX + "delta-state.compact-after";
+    private static final int DELTA_STATE_COMPACT_AFTER_DEFAULT = 20;
+
+    private static final String ASYNC_SUBMISSION_PROPERTY_PREFIX = XFORMS_PROPERTY_PREFIX + "asynchronous-submission.";
+    private static final String ASYNC_SUBMISSION_MAX_THREADS_PROPERTY = ASYNC_SUBMISSION_PROPERTY_PREFIX + "max-threads";
+    private static final int ASYNC_SUBMISSION_MAX_THREADS_DEFAULT = 16;
+    private static final String ASYNC_SUBMISSION_QUEUE_SIZE_PROPERTY = ASYNC_SUBMISSION_PROPERTY_PREFIX + "queue-size";
+    private static final int ASYNC_SUBMISSION_QUEUE_SIZE_DEFAULT = 100;
+    private static final String ASYNC_SUBMISSION_MAX_PER_SESSION_PROPERTY = ASYNC_SUBMISSION_PROPERTY_PREFIX + "max-per-session";
+    private static final int ASYNC_SUBMISSION_MAX_PER_SESSION_DEFAULT = 10;
+    private static final String ASYNC_SUBMISSION_TIMEOUT_PROPERTY = ASYNC_SUBMISSION_PROPERTY_PREFIX + "timeout";
+    private static final int ASYNC_SUBMISSION_TIMEOUT_DEFAULT = 0;
+    private static final String ASYNC_SUBMISSION_VIRTUAL_THREADS_PROPERTY = ASYNC_SUBMISSION_PROPERTY_PREFIX + "virtual-threads";
+    private static final boolean ASYNC_SUBMISSION_VIRTUAL_THREADS_DEFAULT = false;
+
     private static final String HOST_LANGUAGE_AVTS_PROPERTY = XFORMS_PROPERTY_PREFIX + "host-language-avts"; // global but should be per document
     private static final String ADDITIONAL_AVT_ELEMENT_NAMESPACES = XFORMS_PROPERTY_PREFIX + "additional-avt-element-namespaces"; // global but should be per document
     private static final String ADDITIONAL_REF_ID_ATTRIBUTE_NAMES = XFORMS_PROPERTY_PREFIX + "additional-ref-id-attribute-names"; // global but should be per document
@@ -294,6 +315,16 @@ public class XFormsProperties {
     private static final String DEBUG_LOG_XPATH_ANALYSIS_PROPERTY = XFORMS_PROPERTY_PREFIX + "debug.log-xpath-analysis";
     private static final String DEBUG_REQUEST_STATS_PROPERTY      = XFORMS_PROPERTY_PREFIX + "debug.log-request-stats";
 
+    private static final String METRICS_SAMPLE_INTERVAL_PROPERTY = XFORMS_PROPERTY_PREFIX + "metrics.sample-interval";
+
+    private static final String STATIC_STATE_DISK_CACHE_PROPERTY           = XFORMS_PROPERTY_PREFIX + "cache.static-state.disk";
+    private static final String STATIC_STATE_DISK_CACHE_DIRECTORY_PROPERTY = XFORMS_PROPERTY_PREFIX + "cache.static-state.disk.directory";
+    private static final String STATIC_STATE_WARM_UP_PROPERTY              = XFORMS_PROPERTY_PREFIX + "cache.static-state.warm-up";
+
+    private static final String ANALYSIS_PARALLELISM_PROPERTY = XFORMS_PROPERTY_PREFIX + "analysis.parallelism";
+
+    private static final String AJAX_STREAMING_PROPERTY = XFORMS_PROPERTY_PREFIX + "ajax.streaming";
+
     // == Global properties ============================================================================================
     /**
      * Return a PropertyDefinition given a property name.
@@ -341,6 +372,41 @@ public class XFormsProperties {
                 (GZIP_STATE_PROPERTY, GZIP_STATE_DEFAULT);
     }
 
+    public static boolean isDeltaState() {
+        return Properties.instance().getPropertySet().getBoolean
+                (DELTA_STATE_PROPERTY, DELTA_STATE_DEFAULT);
+    }
+
+    public static int getDeltaStateCompactAfter() {
+        return Properties.instance().getPropertySet().getInteger
+                (DELTA_STATE_COMPACT_AFTER_PROPERTY, DELTA_STATE_COMPACT_AFTER_DEFAULT);
+    }
+
+    public static int getAsyncSubmissionMaxThreads() {
+        return Properties.instance().getPropertySet().getInteger
+                (ASYNC_SUBMISSION_MAX_THREADS_PROPERTY, ASYNC_SUBMISSION_MAX_THREADS_DEFAULT);
+    }
+
+    public static int getAsyncSubmissionQueueSize() {
+        return Properties.instance().getPropertySet().getInteger
+                (ASYNC_SUBMISSION_QUEUE_SIZE_PROPERTY, ASYNC_SUBMISSION_QUEUE_SIZE_DEFAULT);
+    }
+
+    public static int getAsyncSubmissionMaxPerSession() {
+        return Properties.instance().getPropertySet().getInteger
+                (ASYNC_SUBMISSION_MAX_PER_SESSION_PROPERTY, ASYNC_SUBMISSION_MAX_PER_SESSION_DEFAULT);
+    }
+
+    public static int getAsyncSubmissionTimeout() {
+        return Properties.instance().getPropertySet().getInteger
+                (ASYNC_SUBMISSION_TIMEOUT_PROPERTY, ASYNC_SUBMISSION_TIMEOUT_DEFAULT);
+    }
+
+    public static boolean isAsyncSubmissionVirtualThreads() {
+        return Properties.instance().getPropertySet().getBoolean
+                (ASYNC_SUBMISSION_VIRTUAL_THREADS_PROPERTY, ASYNC_SUBMISSION_VIRTUAL_THREADS_DEFAULT);
+    }
+
     public static boolean isHostLanguageAVTs() {
         return Properties.instance().getPropertySet().getBoolean
                 (HOST_LANGUAGE_AVTS_PROPERTY, HOST_LANGUAGE_AVTS_DEFAULT);
@@ -401,6 +467,45 @@ public class XFormsProperties {
         return Properties.instance().getPropertySet().getBoolean(DEBUG_REQUEST_STATS_PROPERTY, false);
     }
 
+    /**
+     * Gather metrics for one request out of the returned number, or for no request if 0.
+     */
+    public static int getMetricsSampleInterval() {
+        return Properties.instance().getPropertySet().getInteger(METRICS_SAMPLE_INTERVAL_PROPERTY, 0);
+    }
+
+    public static boolean isStaticStateDiskCache() {
+        return Properties.instance().getPropertySet().getBoolean(STATIC_STATE_DISK_CACHE_PROPERTY, false);
+    }
+
+    /**
+     * Directory of the static state disk cache, or null to use a subdirectory of the temporary directory.
+     */
+    public static String getStaticStateDiskCacheDirectory() {
+        return Properties.instance().getPropertySet().getString(STATIC_STATE_DISK_CACHE_DIRECTORY_PROPERTY);
+    }
+
+    /**
+     * Number of static states to load from the disk cache upon startup.
+     */
+    public static int getStaticStateWarmUp() {
+        return Properties.instance().getPropertySet().getInteger(STATIC_STATE_WARM_UP_PROPERTY, 0);
+    }
+
+    /**
+     * Number of threads analyzing the XPath expressions of large forms, or 1 to analyze them sequentially.
+     */
+    public static int getAnalysisParallelism() {
+        return Properties.instance().getPropertySet().getInteger(ANALYSIS_PARALLELISM_PROPERTY, 1);
+    }
+
+    /**
+     * Whether the Ajax response is sent to the client as it is produced, instead of after it is complete.
+     */
+    public static boolean isAjaxStreaming() {
+        return Properties.instance().getPropertySet().getBoolean(AJAX_STREAMING_PROPERTY, false);
+    }
+
     // == XForms document properties ===================================================================================
 
     public static String getStateHandling(XFormsContainingDocument containingDocument) {
@@ -489,6 +594,13 @@ public class XFormsProperties {
         return getStringProperty(containingDocument, TYPE_INPUT_FORMAT_PROPERTY_PREFIX + typeName);
     }
 
+    /**
+     * Whether the client retries failed Ajax requests, in which case the last Ajax response is kept for replay.
+     */
+    public static boolean isRetries(XFormsContainingDocument containingDocument) {
+        return getBooleanProperty(containingDocument, RETRY_ENABLED);
+    }
+
     public static boolean isSessionHeartbeat(XFormsContainingDocument containingDocument) {
         return getBooleanProperty(containingDocument, SESSION_HEARTBEAT_PROPERTY);
     }
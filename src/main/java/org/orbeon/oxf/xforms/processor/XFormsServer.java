@@ -31,6 +31,7 @@ import org.orbeon.oxf.util.NetUtils;
 import org.orbeon.oxf.xforms.*;
 import org.orbeon.oxf.xforms.action.XFormsAPI;
 import org.orbeon.oxf.xforms.analysis.ElementAnalysis;
+import org.orbeon.oxf.xforms.analytics.XFormsMetrics;
 import org.orbeon.oxf.xforms.control.XFormsControl;
 import org.orbeon.oxf.xforms.control.controls.XFormsRepeatControl;
 import org.orbeon.oxf.xforms.control.controls.XFormsUploadControl;
@@ -42,6 +43,7 @@ import org.orbeon.oxf.xforms.state.XFormsStateManager;
 import org.orbeon.oxf.xforms.submission.SubmissionResult;
 import org.orbeon.oxf.xforms.submission.XFormsModelSubmission;
 import org.orbeon.oxf.xml.ContentHandlerHelper;
+import org.orbeon.oxf.xml.ErrorIgnoringXMLReceiver;
 import org.orbeon.oxf.xml.SAXStore;
 import org.orbeon.oxf.xml.TeeXMLReceiver;
 import org.orbeon.oxf.xml.XMLUtils;
@@ -109,7 +111,6 @@ public class XFormsServer extends ProcessorImpl {
         final Document requestDocument = readInputAsDOM4J(pipelineContext, INPUT_REQUEST);
 
         // Request retry details
-        final boolean isRetries = true;
         final long requestSequenceNumber = XFormsStateManager.getRequestSequence(requestDocument);
 
         final boolean isAjaxRequest = request.getMethod() != null && request.getMethod().equals("POST") && XMLUtils.isXMLMediatype(NetUtils.getContentTypeMediaType(request.getContentType()));
@@ -152,6 +153,11 @@ public class XFormsServer extends ProcessorImpl {
         final XFormsStateLifecycle.RequestParameters parameters = XFormsStateManager.instance().extractParameters(requestDocument, false);
         Callable<SubmissionResult> replaceAllCallable = null;
 
+        // A retry of the previous request only replays the previous response, so handle it under the read lock if
+        // possible, without waiting for concurrent read-only requests
+        if (!isIgnoreSequenceNumber && xmlReceiver != null && replayPreviousResponse(parameters, requestSequenceNumber, xmlReceiver, indentedLogger))
+            return;
+
         // IMPORTANT: We now have a lock associated with the document
         final Lock lock = XFormsStateManager.instance().acquireDocumentLock(parameters);
         try {
@@ -246,50 +252,27 @@ public class XFormsServer extends ProcessorImpl {
                                     // This is an Ajax response
                                     indentedLogger.startHandleOperation("response", "handling regular Ajax response");
 
-                                    // Hook-up debug content handler if we must log the response document
-                                    final XMLReceiver responseReceiver;
-                                    final LocationSAXContentHandler debugContentHandler;
-                                    final SAXStore responseStore;
-
-                                    // Two receivers possible
-                                    final List<XMLReceiver> receivers = new ArrayList<XMLReceiver>();
-
-                                    // Buffer for retries
-                                    if (isRetries) {
-                                        responseStore = new SAXStore();
-                                        receivers.add(responseStore);
-                                    } else {
-                                        responseStore = null;
-                                        receivers.add(xmlReceiver);
-                                    }
-
-                                    // Debug output
-                                    if (logRequestResponse) {
-                                        debugContentHandler = new LocationSAXContentHandler();
-                                        receivers.add(debugContentHandler);
-                                    } else {
-                                        debugContentHandler = null;
-                                    }
-
-                                    responseReceiver = new TeeXMLReceiver(receivers);
+                                    final AjaxResponseReceivers receivers =
+                                        new AjaxResponseReceivers(xmlReceiver, XFormsProperties.isRetries(containingDocument),
+                                            XFormsProperties.isAjaxStreaming(), logRequestResponse);
 
                                     // Prepare and/or output response
                                     outputAjaxResponse(containingDocument, indentedLogger, valueChangeControlIds,
                                             clientFocusControlId, beforeFocusedControl,
-                                            requestDocument, responseReceiver, allEvents, false);
+                                            requestDocument, receivers.responseReceiver, allEvents, false);
 
                                     // Store response in to document
-                                    containingDocument.rememberLastAjaxResponse(responseStore);
-
-                                    // Actually output response
-                                    // If there is an error, we do not
-                                    try {
-                                        responseStore.replay(xmlReceiver);
-                                    } catch (Throwable t) {
-                                        indentedLogger.logDebug("retry", "got exception while sending response; ignoring and expecting client to retry", t);
-                                    }
+                                    // NOTE: Without retries, any previous response is cleared
+                                    containingDocument.rememberLastAjaxResponse(receivers.responseStore);
+                                    if (receivers.responseStore != null)
+                                        containingDocument.getRequestStats().addValue(XFormsMetrics.AjaxResponseSize(), receivers.responseStore.getApproximateSize());
+
+                                    // Actually output response if not already done
+                                    final Throwable sendError = receivers.send(xmlReceiver);
+                                    if (sendError != null)
+                                        indentedLogger.logDebug("retry", "got exception while sending response; ignoring and expecting client to retry", sendError);
 
-                                    indentedLogger.endHandleOperation("ajax response", (debugContentHandler != null) ? Dom4jUtils.domToPrettyString(debugContentHandler.getDocument()) : null);
+                                    indentedLogger.endHandleOperation("ajax response", (receivers.debugContentHandler != null) ? Dom4jUtils.domToPrettyString(receivers.debugContentHandler.getDocument()) : null);
                                 } else {
                                     // Noscript mode
                                     indentedLogger.startHandleOperation("response", "handling noscript response");
@@ -319,14 +302,12 @@ public class XFormsServer extends ProcessorImpl {
                         throw new OXFException(e);
                     }
 
-                } else if (requestSequenceNumber == expectedSequenceNumber - 1) {
-                    // This is a request for the previous response
+                } else if (requestSequenceNumber == expectedSequenceNumber - 1 && containingDocument.getLastAjaxResponse() != null) {
+                    // This is a request for the previous response, which is only kept if retries are enabled
 
                     // Whatever happens when replaying, keep the document around
                     keepDocument = true;
 
-                    assert containingDocument.getLastAjaxResponse() != null;
-
                     indentedLogger.startHandleOperation("retry", "replaying previous Ajax response");
                     boolean replaySuccess = false;
                     try {
@@ -364,6 +345,115 @@ public class XFormsServer extends ProcessorImpl {
         XFormsContainingDocument.checkAndRunDeferredSubmission(replaceAllCallable, response);
     }
 
+    /**
+     * Receivers of an Ajax response:
+     *
+     * - if retries are enabled, a buffer from which the response is replayed to the client when it retries
+     * - the client, if the response is streamed as it is produced, or if there is no buffer
+     * - optionally, a receiver for logging the response
+     */
+    static class AjaxResponseReceivers {
+
+        final SAXStore responseStore;
+        final ErrorIgnoringXMLReceiver streamingReceiver;
+        final LocationSAXContentHandler debugContentHandler;
+        final XMLReceiver responseReceiver;
+
+        AjaxResponseReceivers(XMLReceiver xmlReceiver, boolean isRetries, boolean isStreaming, boolean isDebug) {
+
+            final List<XMLReceiver> receivers = new ArrayList<XMLReceiver>();
+
+            // Buffer for retries
+            if (isRetries) {
+                responseStore = new SAXStore();
+                receivers.add(responseStore);
+            } else {
+                responseStore = null;
+            }
+
+            // Send the response as it is produced if requested, instead of replaying it from the buffer once complete.
+            // If sending fails, the buffer is still complete and the client retries.
+            if (isRetries && isStreaming) {
+                streamingReceiver = new ErrorIgnoringXMLReceiver(xmlReceiver);
+                receivers.add(streamingReceiver);
+            } else {
+                streamingReceiver = null;
+                if (! isRetries)
+                    receivers.add(xmlReceiver);
+            }
+
+            // Debug output
+            if (isDebug) {
+                debugContentHandler = new LocationSAXContentHandler();
+                receivers.add(debugContentHandler);
+            } else {
+                debugContentHandler = null;
+            }
+
+            responseReceiver = new TeeXMLReceiver(receivers);
+        }
+
+        /**
+         * Send the buffered response to the client once it is complete, unless it was already sent.
+         *
+         * @return the exception thrown while sending the response, if the client is expected to retry, or null
+         */
+        Throwable send(XMLReceiver xmlReceiver) {
+            if (responseStore == null) {
+                // Response already sent without buffer
+                return null;
+            } else if (streamingReceiver != null) {
+                // Response already sent while buffered
+                return streamingReceiver.getError();
+            } else {
+                try {
+                    responseStore.replay(xmlReceiver);
+                    return null;
+                } catch (Throwable t) {
+                    return t;
+                }
+            }
+        }
+    }
+
+    /**
+     * Replay the previous Ajax response if the request is a retry of the previous request and the document is in cache.
+     *
+     * @param parameters            incoming Ajax request
+     * @param requestSequenceNumber sequence number of the incoming request
+     * @param xmlReceiver           receiver for the response
+     * @param indentedLogger        logger
+     * @return                      true if the response was replayed
+     */
+    private boolean replayPreviousResponse(XFormsStateLifecycle.RequestParameters parameters, long requestSequenceNumber,
+                                           XMLReceiver xmlReceiver, IndentedLogger indentedLogger) {
+
+        final Lock readLock = XFormsStateManager.instance().acquireDocumentReadLock(parameters);
+        try {
+            // NOTE: The document stays in cache and must not be modified
+            final XFormsContainingDocument containingDocument = XFormsStateManager.instance().findCachedDocument(parameters);
+            if (containingDocument == null
+                    || requestSequenceNumber != containingDocument.getSequence() - 1
+                    || containingDocument.getLastAjaxResponse() == null)
+                return false;
+
+            indentedLogger.startHandleOperation("retry", "replaying previous Ajax response under read lock");
+            boolean replaySuccess = false;
+            try {
+                // Write last response
+                containingDocument.getLastAjaxResponse().replay(xmlReceiver);
+                replaySuccess = true;
+            } catch (Exception e) {
+                throw new OXFException(e);
+            } finally {
+                indentedLogger.endHandleOperation("success", Boolean.toString(replaySuccess));
+            }
+            return true;
+        } finally {
+            XFormsStateManager.instance().releaseDocumentLock(readLock);
+        }
+    }
+
     /**
      * Output an XHTML response for the noscript mode.
      *
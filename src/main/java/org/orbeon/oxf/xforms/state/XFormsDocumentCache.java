@@ -72,6 +72,17 @@ public class XFormsDocumentCache {
         return (XFormsContainingDocument) cache.takeValid(cacheKey, CONSTANT_VALIDITY);
     }
 
+    /**
+     * Find a document in the cache without removing it from the cache. If not found, return null.
+     *
+     * @param uuid                  UUID used to search cache
+     * @return                      document or null
+     */
+    public XFormsContainingDocument findDocument(String uuid) {
+        final InternalCacheKey cacheKey = createCacheKey(uuid);
+        return (XFormsContainingDocument) cache.findValid(cacheKey, CONSTANT_VALIDITY);
+    }
+
     /**
      * Remove a document from the cache. This does not cause the document state to be serialized to store.
      *
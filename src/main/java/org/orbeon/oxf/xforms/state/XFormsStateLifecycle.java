@@ -38,6 +38,8 @@ public interface XFormsStateLifecycle {
     XFormsContainingDocument findOrRestoreDocument(RequestParameters parameters, boolean isInitialState, boolean updates);
 
     Lock acquireDocumentLock(RequestParameters parameters);
+    Lock acquireDocumentReadLock(RequestParameters parameters);
+    XFormsContainingDocument findCachedDocument(RequestParameters parameters);
     XFormsContainingDocument beforeUpdate(RequestParameters parameters);
     void beforeUpdateResponse(XFormsContainingDocument containingDocument, boolean ignoreSequence);
     void afterUpdateResponse(XFormsContainingDocument containingDocument);
@@ -28,7 +28,8 @@ import org.orbeon.oxf.xforms.XFormsProperties;
 
 import java.util.Map;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * XForms state manager.
@@ -80,7 +81,10 @@ public class XFormsStateManager implements XFormsStateLifecycle {
      * Information about a document tied to the session.
      */
     private static class SessionDocument implements java.io.Serializable {
-        public final Lock lock = new ReentrantLock();
+        // Requests which modify the document take the write lock, requests which only read it take the read lock
+        private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+        public final Lock lock = readWriteLock.writeLock();
+        public final Lock readLock = readWriteLock.readLock();
         public final String uuid;
 
         private SessionDocument(String uuid) {
@@ -303,6 +307,38 @@ public class XFormsStateManager implements XFormsStateLifecycle {
         return lock;
     }
 
+    /**
+     * Return the locked document read lock, for requests which don't modify the document. Must be called instead of
+     * acquireDocumentLock() and released with releaseDocumentLock().
+     *
+     * @param parameters    incoming Ajax request
+     * @return              the document read lock, already locked
+     */
+    public Lock acquireDocumentReadLock(RequestParameters parameters) {
+        assert parameters.getUUID() != null;
+
+        // Same check as in acquireDocumentLock()
+        final SessionDocument sessionDocument = getSessionDocument(parameters.getUUID());
+        if (sessionDocument == null)
+            throw new OXFException("Session has expired. Unable to process incoming request.");
+
+        final Lock lock = sessionDocument.readLock;
+        lock.lock();
+
+        return lock;
+    }
+
+    /**
+     * Return the document if it is in cache, without removing it from the cache, or null. Must be called while holding
+     * the document read lock, and the document must not be modified.
+     *
+     * @param parameters    incoming Ajax request
+     * @return              document or null
+     */
+    public XFormsContainingDocument findCachedDocument(RequestParameters parameters) {
+        return XFormsProperties.isCacheDocument() ? XFormsDocumentCache.instance().findDocument(parameters.getUUID()) : null;
+    }
+
     /**
      * Release the given document lock. Must be called after afterUpdate() in a finally block.
      *
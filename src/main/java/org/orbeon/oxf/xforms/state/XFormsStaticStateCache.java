@@ -41,6 +41,16 @@ public class XFormsStaticStateCache {
      * @param staticState       state to store
      */
     public void storeDocument(XFormsStaticState staticState) {
+        storeDocumentInMemory(staticState);
+        StaticStateDiskCache.store(staticState);
+    }
+
+    /**
+     * Add a state to the memory cache only, for example when it was restored from the disk cache.
+     *
+     * @param staticState       state to store
+     */
+    void storeDocumentInMemory(XFormsStaticState staticState) {
         final InternalCacheKey cacheKey = createCacheKey(staticState.digest());
         cache.add(cacheKey, CONSTANT_VALIDITY, staticState);
     }
@@ -54,7 +64,13 @@ public class XFormsStaticStateCache {
      */
     public XFormsStaticState getDocument(String digest) {
         final InternalCacheKey cacheKey = createCacheKey(digest);
-        return (XFormsStaticState) cache.findValid(cacheKey, CONSTANT_VALIDITY);
+        final XFormsStaticState staticState = (XFormsStaticState) cache.findValid(cacheKey, CONSTANT_VALIDITY);
+
+        // Keep the disk cache entry of the state alive, including when the state was restored upon warm-up
+        if (staticState != null)
+            StaticStateDiskCache.touch(digest);
+
+        return staticState;
     }
 
     private InternalCacheKey createCacheKey(String digest) {
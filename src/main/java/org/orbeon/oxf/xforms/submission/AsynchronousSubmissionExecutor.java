@@ -0,0 +1,226 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.submission;
+
+import org.apache.log4j.Logger;
+import org.orbeon.oxf.util.LoggerFactory;
+import org.orbeon.oxf.xforms.XFormsProperties;
+import org.orbeon.oxf.xforms.analytics.Gauge;
+import org.orbeon.oxf.xforms.analytics.XFormsMetrics;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Global executor for asynchronous submissions.
+ *
+ * The number of threads and the number of queued submissions are bounded. When the queue is full, or when the session
+ * has reached its limit of running submissions, the submission runs on the calling thread: this slows down the request
+ * which makes the submission, which provides back-pressure without failing the submission or creating more threads.
+ *
+ * Threads are daemon threads. If enabled and the JVM supports them, virtual threads are used instead.
+ *
+ * The queue depth, the number of active threads, and the counts of submitted, rejected, completed and timed out
+ * submissions are exposed as XFormsMetrics gauges.
+ */
+public class AsynchronousSubmissionExecutor {
+
+    private static final Logger logger = LoggerFactory.createLogger(AsynchronousSubmissionExecutor.class);
+
+    private static final ThreadFactory threadFactory = createThreadFactory();
+    private static final ThreadPoolExecutor executor;
+
+    // Metrics
+    private static final AtomicLong submittedCount = new AtomicLong();
+    private static final AtomicLong rejectedCount = new AtomicLong();
+    private static final AtomicLong completedCount = new AtomicLong();
+    private static final AtomicLong timedOutCount = new AtomicLong();
+    private static final AtomicLong totalQueueTime = new AtomicLong();
+    private static final AtomicLong totalRunTime = new AtomicLong();
+    private static final AtomicLong maxRunTime = new AtomicLong();
+
+    static {
+        final int maxThreads = Math.max(1, XFormsProperties.getAsyncSubmissionMaxThreads());
+        final int queueSize = Math.max(1, XFormsProperties.getAsyncSubmissionQueueSize());
+
+        executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+
+        XFormsMetrics.registerGauge("asynchronous-submission.queue-depth", new Gauge() {
+            public long value() { return getQueueDepth(); }
+        });
+        XFormsMetrics.registerGauge("asynchronous-submission.active-count", new Gauge() {
+            public long value() { return getActiveCount(); }
+        });
+        XFormsMetrics.registerGauge("asynchronous-submission.submitted-count", new Gauge() {
+            public long value() { return getSubmittedCount(); }
+        });
+        XFormsMetrics.registerGauge("asynchronous-submission.rejected-count", new Gauge() {
+            public long value() { return getRejectedCount(); }
+        });
+        XFormsMetrics.registerGauge("asynchronous-submission.completed-count", new Gauge() {
+            public long value() { return getCompletedCount(); }
+        });
+        XFormsMetrics.registerGauge("asynchronous-submission.timed-out-count", new Gauge() {
+            public long value() { return getTimedOutCount(); }
+        });
+    }
+
+    private static ThreadFactory createThreadFactory() {
+
+        if (XFormsProperties.isAsyncSubmissionVirtualThreads()) {
+            // Use reflection as virtual threads are not available at compile time
+            try {
+                final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                final Object namedBuilder = Class.forName("java.lang.Thread$Builder").getMethod("name", String.class, long.class).invoke(builder, "xforms-async-submission-", 0L);
+                final ThreadFactory factory = (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(namedBuilder);
+                logger.info("Using virtual threads for asynchronous submissions");
+                return factory;
+            } catch (Exception e) {
+                logger.info("Virtual threads not supported by this JVM, using platform threads for asynchronous submissions");
+            }
+        }
+
+        return new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "xforms-async-submission-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Create a completion service running on this executor, which places completed tasks in the given queue.
+     */
+    public static <T> CompletionService<T> newCompletionService(BlockingQueue<Future<T>> completionQueue) {
+        return new ExecutorCompletionService<T>(executor, completionQueue);
+    }
+
+    /**
+     * Submit a task. If the executor is saturated, run the task on the current thread.
+     *
+     * @param completionService completion service for the document
+     * @param completionQueue   queue of the completion service, where the task is placed if it is rejected
+     * @param task              task to run
+     * @return                  future of the task
+     */
+    public static <T> Future<T> submit(CompletionService<T> completionService, BlockingQueue<Future<T>> completionQueue, Callable<T> task) {
+        submittedCount.incrementAndGet();
+
+        final Callable<T> instrumentedTask = instrument(task);
+        try {
+            return completionService.submit(instrumentedTask);
+        } catch (RejectedExecutionException e) {
+            return runRejected(completionQueue, instrumentedTask);
+        }
+    }
+
+    /**
+     * Run a task which can't be submitted to the executor, for example because a limit is reached, on the current
+     * thread, and make its result available through the given completion queue.
+     *
+     * @return future of the task, which is done
+     */
+    public static <T> Future<T> runRejected(final BlockingQueue<Future<T>> completionQueue, Callable<T> task) {
+        rejectedCount.incrementAndGet();
+
+        // Like with the completion service, the task is placed in the completion queue when done
+        final FutureTask<T> future = new FutureTask<T>(task) {
+            protected void done() {
+                completionQueue.add(this);
+            }
+        };
+
+        logger.debug("Running asynchronous submission on current thread");
+        future.run();
+        return future;
+    }
+
+    public static void timedOut() {
+        timedOutCount.incrementAndGet();
+    }
+
+    private static <T> Callable<T> instrument(final Callable<T> task) {
+        final long submitTime = System.nanoTime();
+        return new Callable<T>() {
+            public T call() throws Exception {
+                final long startTime = System.nanoTime();
+                totalQueueTime.addAndGet(startTime - submitTime);
+                try {
+                    return task.call();
+                } finally {
+                    final long runTime = System.nanoTime() - startTime;
+                    totalRunTime.addAndGet(runTime);
+                    completedCount.incrementAndGet();
+
+                    long currentMax = maxRunTime.get();
+                    while (runTime > currentMax && ! maxRunTime.compareAndSet(currentMax, runTime))
+                        currentMax = maxRunTime.get();
+                }
+            }
+        };
+    }
+
+    public static int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public static int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public static long getSubmittedCount() {
+        return submittedCount.get();
+    }
+
+    public static long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public static long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    public static long getTimedOutCount() {
+        return timedOutCount.get();
+    }
+
+    /**
+     * Average time between submission and start of execution, in milliseconds.
+     */
+    public static double getAverageQueueTime() {
+        final long count = completedCount.get();
+        return count == 0 ? 0 : totalQueueTime.get() / 1000000.0 / count;
+    }
+
+    /**
+     * Average execution time, in milliseconds.
+     */
+    public static double getAverageRunTime() {
+        final long count = completedCount.get();
+        return count == 0 ? 0 : totalRunTime.get() / 1000000.0 / count;
+    }
+
+    /**
+     * Maximum execution time, in milliseconds.
+     */
+    public static double getMaxRunTime() {
+        return maxRunTime.get() / 1000000.0;
+    }
+}
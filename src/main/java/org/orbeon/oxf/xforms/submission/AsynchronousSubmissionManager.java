@@ -26,6 +26,7 @@ import org.orbeon.oxf.xforms.event.XFormsEvents;
 
 import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Handle asynchronous submissions.
@@ -38,9 +39,7 @@ import java.util.concurrent.*;
 public class AsynchronousSubmissionManager {
 
     private static final String ASYNC_SUBMISSIONS_SESSION_KEY_PREFIX = "oxf.xforms.state.async-submissions.";
-
-    // Global thread pool
-    private static final ExecutorService threadPool = Executors.newCachedThreadPool();
+    private static final String ASYNC_SUBMISSIONS_SESSION_COUNT_KEY = "oxf.xforms.state.async-submissions-count";
 
     private final XFormsContainingDocument containingDocument;
 
@@ -76,7 +75,7 @@ public class AsynchronousSubmissionManager {
         if (existingAsynchronousSubmissions != null) {
             return existingAsynchronousSubmissions;
         } else if (create) {
-            final AsynchronousSubmissions asynchronousSubmissions = new AsynchronousSubmissions();
+            final AsynchronousSubmissions asynchronousSubmissions = new AsynchronousSubmissions(getSessionRunningCount(sessionMap));
             sessionMap.put(sessionKey, asynchronousSubmissions);
             return asynchronousSubmissions;
         } else {
@@ -84,6 +83,20 @@ public class AsynchronousSubmissionManager {
         }
     }
 
+    // Number of submissions running or queued for the whole session, shared by all the documents in the session
+    private static AtomicInteger getSessionRunningCount(Map<String, Object> sessionMap) {
+        synchronized (AsynchronousSubmissionManager.class) {
+            final AtomicInteger existingCount = (AtomicInteger) sessionMap.get(ASYNC_SUBMISSIONS_SESSION_COUNT_KEY);
+            if (existingCount != null) {
+                return existingCount;
+            } else {
+                final AtomicInteger count = new AtomicInteger();
+                sessionMap.put(ASYNC_SUBMISSIONS_SESSION_COUNT_KEY, count);
+                return count;
+            }
+        }
+    }
+
     public void addAsynchronousSubmission(final Callable<SubmissionResult> callable) {
 
         final AsynchronousSubmissions asynchronousSubmissions = getAsynchronousSubmissions(true, getSessionKey(containingDocument));
@@ -140,10 +153,19 @@ public class AsynchronousSubmissionManager {
             indentedLogger.startHandleOperation("", "processing all background asynchronous submissions");
             int processedCount = 0;
             try {
+                final int timeout = XFormsProperties.getAsyncSubmissionTimeout();
                 while (asynchronousSubmissions.getPendingCount() > 0) {
                     try {
                         // Handle next completed task
-                        final Future<SubmissionResult> future = asynchronousSubmissions.take();
+                        final Future<SubmissionResult> future = asynchronousSubmissions.take(timeout);
+                        if (future == null) {
+                            // Leave remaining submissions pending, they will be processed upon a subsequent poll
+                            AsynchronousSubmissionExecutor.timedOut();
+                            indentedLogger.logWarning("", "timeout while waiting for asynchronous submissions",
+                                    "timeout", Integer.toString(timeout),
+                                    "pending", Integer.toString(asynchronousSubmissions.getPendingCount()));
+                            break;
+                        }
                         final SubmissionResult result = future.get();
 
                         // Process response by dispatching an event to the submission
@@ -205,30 +227,56 @@ public class AsynchronousSubmissionManager {
     }
 
     private static class AsynchronousSubmissions {
-        private final CompletionService<SubmissionResult> completionService = new ExecutorCompletionService<SubmissionResult>(threadPool);
-        private int pendingCount = 0;
+        private final BlockingQueue<Future<SubmissionResult>> completionQueue = new LinkedBlockingQueue<Future<SubmissionResult>>();
+        private final CompletionService<SubmissionResult> completionService = AsynchronousSubmissionExecutor.newCompletionService(completionQueue);
+        private final AtomicInteger pendingCount = new AtomicInteger();
+        private final AtomicInteger sessionRunningCount;
 
-        public Future<SubmissionResult> submit(Callable<SubmissionResult> task) {
-            final Future<SubmissionResult> future = completionService.submit(task);
-            pendingCount++;
-            return future;
+        private AsynchronousSubmissions(AtomicInteger sessionRunningCount) {
+            this.sessionRunningCount = sessionRunningCount;
+        }
+
+        public Future<SubmissionResult> submit(final Callable<SubmissionResult> task) {
+            pendingCount.incrementAndGet();
+
+            // Limit the number of concurrent submissions per session, so that one user can't use all the threads
+            if (sessionRunningCount.incrementAndGet() > XFormsProperties.getAsyncSubmissionMaxPerSession()) {
+                sessionRunningCount.decrementAndGet();
+                return AsynchronousSubmissionExecutor.runRejected(completionQueue, task);
+            }
+
+            final Callable<SubmissionResult> countingTask = new Callable<SubmissionResult>() {
+                public SubmissionResult call() throws Exception {
+                    try {
+                        return task.call();
+                    } finally {
+                        sessionRunningCount.decrementAndGet();
+                    }
+                }
+            };
+
+            return AsynchronousSubmissionExecutor.submit(completionService, completionQueue, countingTask);
         }
 
         public Future<SubmissionResult> poll() {
             final Future<SubmissionResult> future = completionService.poll();
             if (future != null)
-                pendingCount--;
+                pendingCount.decrementAndGet();
             return future;
         }
 
-        public Future<SubmissionResult> take() throws InterruptedException {
-            final Future<SubmissionResult> future = completionService.take();
-            pendingCount--;
+        // Return null if the timeout, in milliseconds, expires
+        public Future<SubmissionResult> take(int timeout) throws InterruptedException {
+            final Future<SubmissionResult> future = timeout > 0
+                    ? completionService.poll(timeout, TimeUnit.MILLISECONDS)
+                    : completionService.take();
+            if (future != null)
+                pendingCount.decrementAndGet();
             return future;
         }
 
         public int getPendingCount() {
-            return pendingCount;
+            return pendingCount.get();
         }
     }
 }
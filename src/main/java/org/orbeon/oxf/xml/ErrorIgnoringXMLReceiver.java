@@ -0,0 +1,199 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xml;
+
+import org.orbeon.oxf.pipeline.api.XMLReceiver;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+
+/**
+ * XMLReceiver which stops forwarding events after the first exception thrown downstream, instead of propagating it.
+ *
+ * This is useful when the events are also sent somewhere else, e.g. a response which is streamed to the client and
+ * buffered at the same time, so that the client can retry if the response doesn't make it.
+ */
+public class ErrorIgnoringXMLReceiver extends ForwardingXMLReceiver {
+
+    private Exception error;
+
+    public ErrorIgnoringXMLReceiver(XMLReceiver xmlReceiver) {
+        super(xmlReceiver);
+    }
+
+    /**
+     * Return the first exception thrown downstream, or null if there was none.
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    private void failed(Exception e) {
+        if (error == null)
+            error = e;
+        setForward(false);
+    }
+
+    @Override
+    public void characters(char[] chars, int start, int length) throws SAXException {
+        try {
+            super.characters(chars, start, length);
+        } catch (Exception e) {
+            failed(e);
+        }
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+        try {
+            super.endDocument();
+        } catch (Exception e) {
+            failed(e);
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localname, String qName) throws SAXException {
+        try {
+            super.endElement(uri, localname, qName);
+        } catch (Exception e) {
+            failed(e);
+        }
+    }
+
+    @Override
+    public void endPrefixMapping(String s) throws SAXException {
+        try {
+            super.endPrefixMapping(s);
+        } catch (Exception e) {
+            failed(e);
+        }
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] chars, int start, int length) throws SAXException {
+        try {
+            super.ignorableWhitespace(chars, start, length);
+        } catch (Exception e) {
+            failed(e);
+        }
+    }
+
+    @Override
+    public void processingInstruction(String s, String s1) throws SAXException {
+        try {
+            super.processingInstruction(s, s1);
+        } catch (Exception e) {
+            failed(e);
+        }
+    }
+
+    @Override
+    public void skippedEntity(String s) throws SAXException {
+        try {
+            super.skippedEntity(s);
+        } catch (Exception e) {
+            failed(e);
+        }
+    }
+
+    @Override
+    public void startDocument() throws SAXException {
+        try {
+            super.startDocument();
+        } catch (Exception e) {
+            failed(e);
+        }
+    }
+
+    @Override
+    public void startElement(String uri, String localname, String qName, Attributes attributes) throws SAXException {
+        try {
+            super.startElement(uri, localname, qName, attributes);
+        } catch (Exception e) {
+            failed(e);
+        }
+    }
+
+    @Override
+    public void startPrefixMapping(String s, String s1) throws SAXException {
+        try {
+            super.startPrefixMapping(s, s1);
+        } catch (Exception e) {
+            failed(e);
+        }
+    }
+
+    @Override
+    public void startDTD(String name, String publicId, String systemId) throws SAXException {
+        try {
+            super.startDTD(name, publicId, systemId);
+        } catch (Exception e) {
+            failed(e);
+        }
+    }
+
+    @Override
+    public void endDTD() throws SAXException {
+        try {
+            super.endDTD();
+        } catch (Exception e) {
+            failed(e);
+        }
+    }
+
+    @Override
+    public void startEntity(String name) throws SAXException {
+        try {
+            super.startEntity(name);
+        } catch (Exception e) {
+            failed(e);
+        }
+    }
+
+    @Override
+    public void endEntity(String name) throws SAXException {
+        try {
+            super.endEntity(name);
+        } catch (Exception e) {
+            failed(e);
+        }
+    }
+
+    @Override
+    public void startCDATA() throws SAXException {
+        try {
+            super.startCDATA();
+        } catch (Exception e) {
+            failed(e);
+        }
+    }
+
+    @Override
+    public void endCDATA() throws SAXException {
+        try {
+            super.endCDATA();
+        } catch (Exception e) {
+            failed(e);
+        }
+    }
+
+    @Override
+    public void comment(char[] ch, int start, int length) throws SAXException {
+        try {
+            super.comment(ch, start, length);
+        } catch (Exception e) {
+            failed(e);
+        }
+    }
+}
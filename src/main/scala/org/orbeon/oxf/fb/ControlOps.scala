@@ -117,7 +117,7 @@ object ControlOps {
                 val namespaces = new NamespaceMapping(Dom4jUtils.getNamespaceContextNoDefault(unwrapElement(bind)))
 
                 // Evaluate path from instance root element
-                val instanceElements = eval(formInstanceRoot(inDoc), path, namespaces, null, containingDocument.getRequestStats.addXPathStat)
+                val instanceElements = eval(formInstanceRoot(inDoc), path, namespaces, null, containingDocument.getRequestStats.getReporter)
                 instanceElements.asInstanceOf[Seq[NodeInfo]]
             } getOrElse Seq()
         else
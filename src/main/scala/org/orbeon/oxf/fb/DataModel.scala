@@ -150,7 +150,7 @@ object DataModel {
     def isAllowedBindingExpression(control: XFormsControl, expr: String): Boolean = {
 
         def evaluateBoundItem(namespaces: NamespaceMapping) =
-            Option(evalOne(control.bindingContext.contextItem, expr, namespaces, null, containingDocument.getRequestStats.addXPathStat))
+            Option(evalOne(control.bindingContext.contextItem, expr, namespaces, null, containingDocument.getRequestStats.getReporter))
 
         try {
             control.bind flatMap
@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util
+
+import annotation.tailrec
+import java.util.concurrent.atomic.{AtomicLong, AtomicLongArray}
+
+/**
+ * Lock-free histogram of non-negative values, safe to update from multiple threads.
+ *
+ * Buckets are log-linear as in HdrHistogram: each power of 2 is split into 32 sub-buckets, so percentiles are exact for
+ * small values and within about 3% otherwise. Values larger than 2^40 are recorded as 2^40 - 1.
+ */
+class Histogram {
+
+    import Histogram._
+
+    private val buckets = new AtomicLongArray(BucketCount)
+    private val _count  = new AtomicLong
+    private val _sum    = new AtomicLong
+    private val _max    = new AtomicLong
+
+    def record(value: Long): Unit = {
+        val v = math.min(math.max(value, 0L), MaxValue)
+
+        buckets.incrementAndGet(bucketIndex(v))
+        _count.incrementAndGet()
+        _sum.addAndGet(v)
+
+        var currentMax = _max.get
+        while (v > currentMax && ! _max.compareAndSet(currentMax, v))
+            currentMax = _max.get
+    }
+
+    def count = _count.get
+    def sum   = _sum.get
+    def max   = _max.get
+    def mean  = { val c = count; if (c == 0) 0L else sum / c }
+
+    // Value below which the given percentage of recorded values fall
+    // NOTE: Concurrent updates are not atomic with respect to each other, so the result is approximate while values are
+    // being recorded.
+    def percentile(percent: Double): Long = {
+
+        val total = (0 until BucketCount).foldLeft(0L)(_ + buckets.get(_))
+        val rank  = math.max(1L, math.ceil(total * percent / 100).toLong)
+
+        @tailrec def find(index: Int, seen: Long): Long =
+            if (index == BucketCount)
+                max
+            else {
+                val newSeen = seen + buckets.get(index)
+                if (newSeen >= rank) math.min(bucketUpperBound(index), max) else find(index + 1, newSeen)
+            }
+
+        if (total == 0) 0L else find(0, 0L)
+    }
+}
+
+object Histogram {
+
+    private val SubBucketBits  = 5
+    private val SubBucketCount = 1 << SubBucketBits
+    private val MaxValueBits   = 40
+
+    val MaxValue = (1L << MaxValueBits) - 1
+
+    private val BucketCount = (MaxValueBits - SubBucketBits + 1) * SubBucketCount
+
+    // Values smaller than SubBucketCount have their own bucket, larger values keep their SubBucketBits + 1 most
+    // significant bits
+    def bucketIndex(value: Long): Int = {
+        val shift = math.max(0, 63 - java.lang.Long.numberOfLeadingZeros(value) - SubBucketBits)
+        shift * SubBucketCount + (value >>> shift).toInt
+    }
+
+    def bucketUpperBound(index: Int): Long =
+        if (index < SubBucketCount)
+            index
+        else {
+            val shift = index / SubBucketCount - 1
+            ((index - shift * SubBucketCount + 1).toLong << shift) - 1
+        }
+}
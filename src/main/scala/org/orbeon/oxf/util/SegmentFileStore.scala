@@ -0,0 +1,387 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util
+
+import java.io.{RandomAccessFile, File}
+import java.nio.ByteBuffer
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.{ReentrantLock, ReentrantReadWriteLock}
+import java.util.zip.CRC32
+import org.orbeon.oxf.common.OXFException
+import collection.JavaConverters._
+
+/**
+ * Store of byte values by string key, kept in append-only segment files.
+ *
+ * Only the index, which maps each key to the location of its latest record, is kept in the heap. Values are read from
+ * the files when needed, and are therefore cached by the operating system rather than by the JVM.
+ *
+ * Each record is checksummed. When the store is opened, all existing segments are scanned in order to rebuild the
+ * index. A record which is incomplete or fails its checksum, for example because of a crash during a write, ends the
+ * segment and the file is truncated there.
+ *
+ * Records which are overwritten, removed or expired remain in their segment until compact() runs. Compaction copies
+ * the remaining live records of sparse segments to the current segment, then deletes the sparse segments.
+ *
+ * Once the store is closed, it can't be written to anymore.
+ */
+class SegmentFileStore(directory: File, segmentSize: Long, timeToIdleMillis: Long, sync: Boolean) {
+
+    import SegmentFileStore._
+
+    private class Segment(val id: Int, val file: File) {
+        val channel = new RandomAccessFile(file, "rw").getChannel
+        @volatile var size = channel.size
+        val liveBytes = new AtomicLong
+    }
+
+    // The timestamp is the one of the record, while the last access is only kept in memory
+    private class Location(val segment: Segment, val offset: Long, val length: Int, val timestamp: Long) {
+        @volatile var lastAccess = timestamp
+    }
+
+    private val index = new ConcurrentHashMap[String, Location]
+
+    // Appends are serialized, while the read/write lock prevents deleting segments while they are being read
+    private val appendLock = new ReentrantLock
+    private val segmentsLock = new ReentrantReadWriteLock
+
+    // Segments, oldest first, the last one being the current segment
+    @volatile private var segments: List[Segment] = Nil
+
+    directory.mkdirs()
+    if (! directory.isDirectory)
+        throw new OXFException("Unable to create directory for segment files: " + directory)
+
+    recover()
+
+    def put(key: String, value: Array[Byte]): Unit = {
+        assert(value ne null)
+        withAppendLock {
+            val location = append(key, value, now)
+            updateIndex(key, location)
+            location.segment.liveBytes.addAndGet(location.length)
+        }
+    }
+
+    def get(key: String): Option[Array[Byte]] = {
+        segmentsLock.readLock.lock()
+        try {
+            Option(index.get(key)) flatMap { location ⇒
+                if (isExpired(location.lastAccess)) {
+                    if (index.remove(key, location))
+                        location.segment.liveBytes.addAndGet(-location.length)
+                    None
+                } else {
+                    location.lastAccess = now
+                    readRecord(location.segment, location.offset) map (_.value)
+                }
+            }
+        } finally
+            segmentsLock.readLock.unlock()
+    }
+
+    // Whether the key is present, without reading its value
+    // Like get(), this counts as an access of the entry.
+    def contains(key: String): Boolean =
+        Option(index.get(key)) exists { location ⇒
+            ! isExpired(location.lastAccess) && { location.lastAccess = now; true }
+        }
+
+    // Append a tombstone so that the key is not restored from an earlier record when the store is reopened
+    def remove(key: String): Unit =
+        if (index.containsKey(key))
+            withAppendLock {
+                append(key, null, now)
+                Option(index.remove(key)) foreach (previous ⇒ previous.segment.liveBytes.addAndGet(-previous.length))
+            }
+
+    // Persist the last access of the entry, by copying its record with the current time
+    // To limit writes, this only takes place if the record is older than the given age.
+    def touch(key: String, minAgeMillis: Long): Unit = {
+        val location = index.get(key)
+        if ((location ne null) && ! isExpired(location.lastAccess) && now - location.timestamp > minAgeMillis)
+            withAppendLock {
+                // The record might have been replaced or removed in the meantime
+                if (index.get(key) eq location)
+                    readRecord(location.segment, location.offset) foreach { record ⇒
+                        val newLocation = append(key, record.value, now)
+                        if (index.replace(key, location, newLocation)) {
+                            newLocation.segment.liveBytes.addAndGet(newLocation.length)
+                            location.segment.liveBytes.addAndGet(-location.length)
+                        }
+                    }
+            }
+    }
+
+    def size = index.size
+    def segmentCount = segments.size
+
+    // Keys, most recently accessed first
+    // NOTE: After the store is reopened, the last access of each entry is the time it was last written or touched.
+    def keysByLastAccess: List[String] =
+        index.asScala.toList sortBy (- _._2.lastAccess) map (_._1)
+
+    /**
+     * Drop expired entries and rewrite segments where less than the given ratio of bytes is live.
+     */
+    def compact(minLiveRatio: Double = 0.5): Unit = synchronized {
+
+        // Drop expired entries from the index
+        for ((key, location) ← index.asScala)
+            if (isExpired(location.lastAccess) && index.remove(key, location))
+                location.segment.liveBytes.addAndGet(-location.length)
+
+        // Compact sparse segments, oldest first
+        // There are no segments once the store is closed.
+        for (segment ← segments dropRight 1)
+            if (segment.liveBytes.get < segment.size * minLiveRatio) {
+
+                val hasOlderSegments = segments.head ne segment
+
+                // Copy live records, as well as tombstones which might still hide records in older segments
+                // Checks are done under the append lock, so that a concurrent put or remove always wins
+                scan(segment) { (record, offset, length) ⇒
+                    withAppendLock {
+                        if (record.value eq null) {
+                            if (hasOlderSegments && ! index.containsKey(record.key))
+                                append(record.key, null, record.timestamp)
+                        } else {
+                            val previous = index.get(record.key)
+                            if ((previous ne null) && (previous.segment eq segment) && previous.offset == offset) {
+                                val location = append(record.key, record.value, previous.lastAccess)
+                                if (index.replace(record.key, previous, location))
+                                    location.segment.liveBytes.addAndGet(location.length)
+                            }
+                        }
+                    }
+                }
+
+                // Delete the segment once no reader uses it
+                // Without sync, the copies are first written to disk, so that a crash can't lose both the copies and
+                // the originals. Copies in earlier segments were written when starting the next segment.
+                withAppendLock {
+                    if (! sync)
+                        segments.last.channel.force(false)
+
+                    segmentsLock.writeLock.lock()
+                    try {
+                        segments = segments filterNot (_ eq segment)
+                        segment.channel.close()
+                        segment.file.delete()
+                    } finally
+                        segmentsLock.writeLock.unlock()
+                }
+            }
+    }
+
+    // Wait for a running compaction and appends, so that segments are not closed while they are written
+    def close(): Unit = synchronized {
+        withAppendLock {
+            segmentsLock.writeLock.lock()
+            try {
+                segments.lastOption foreach (_.channel.force(false))
+                segments foreach (_.channel.close())
+                segments = Nil
+                index.clear()
+            } finally
+                segmentsLock.writeLock.unlock()
+        }
+    }
+
+    private def withAppendLock[T](body: ⇒ T): T = {
+        appendLock.lock()
+        try body
+        finally appendLock.unlock()
+    }
+
+    // Append a record to the current segment, and return its location
+    // A null value indicates a tombstone. Must be called with the append lock.
+    private def append(key: String, value: Array[Byte], timestamp: Long): Location = {
+
+        if (segments.isEmpty)
+            throw new OXFException("Segment file store is closed: " + directory)
+
+        val buffer = encodeRecord(key, value, timestamp)
+        val length = buffer.remaining
+
+        if (segments.last.size > 0 && segments.last.size + length > segmentSize)
+            newSegment()
+
+        val segment = segments.last
+        val offset = segment.size
+        var position = offset
+        while (buffer.hasRemaining)
+            position += segment.channel.write(buffer, position)
+        if (sync)
+            segment.channel.force(false)
+        segment.size = position
+
+        new Location(segment, offset, length, timestamp)
+    }
+
+    private def updateIndex(key: String, location: Location) =
+        Option(index.put(key, location)) foreach (previous ⇒ previous.segment.liveBytes.addAndGet(-previous.length))
+
+    private def newSegment(): Unit = {
+        val id = segments.lastOption map (_.id + 1) getOrElse 0
+        segments.lastOption foreach (_.channel.force(true))
+        segments :+= new Segment(id, new File(directory, SegmentPrefix + id + SegmentSuffix))
+    }
+
+    // Rebuild the index from existing segments, then start a new segment for appends
+    private def recover(): Unit = {
+
+        val existing =
+            Option(directory.listFiles).toList flatMap (_.toList) map (_.getName) collect {
+                case SegmentName(id) ⇒ id.toInt
+            }
+
+        for (id ← existing.sorted) {
+            val segment = new Segment(id, new File(directory, SegmentPrefix + id + SegmentSuffix))
+            segments :+= segment
+
+            val end =
+                scan(segment) { (record, offset, length) ⇒
+                    if ((record.value ne null) && ! isExpired(record.timestamp)) {
+                        updateIndex(record.key, new Location(segment, offset, length, record.timestamp))
+                        segment.liveBytes.addAndGet(length)
+                    } else
+                        Option(index.remove(record.key)) foreach (previous ⇒ previous.segment.liveBytes.addAndGet(-previous.length))
+                }
+
+            // Drop an incomplete or corrupted tail
+            if (end < segment.size) {
+                segment.channel.truncate(end)
+                segment.size = end
+            }
+        }
+
+        newSegment()
+    }
+
+    // Call the function for all valid records of the segment, and return the offset following the last valid record
+    private def scan(segment: Segment)(f: (Record, Long, Int) ⇒ Unit): Long = {
+        var offset = 0L
+        var done = false
+        while (! done) {
+            readRecord(segment, offset) match {
+                case Some(record) ⇒
+                    val length = HeaderLength + record.keyBytesLength + (if (record.value ne null) record.value.length else 0) + TrailerLength
+                    f(record, offset, length)
+                    offset += length
+                case None ⇒
+                    done = true
+            }
+        }
+        offset
+    }
+
+    // Read and check the record at the given offset, returning None if it is incomplete or invalid
+    private def readRecord(segment: Segment, offset: Long): Option[Record] = {
+
+        def readFully(buffer: ByteBuffer, position: Long) = {
+            var p = position
+            while (buffer.hasRemaining && p < segment.size) {
+                val count = segment.channel.read(buffer, p)
+                if (count < 0)
+                    p = segment.size
+                else
+                    p += count
+            }
+            buffer.flip()
+            buffer.limit == buffer.capacity
+        }
+
+        val header = ByteBuffer.allocate(HeaderLength)
+        if (! readFully(header, offset) || header.getInt != Magic)
+            None
+        else {
+            val timestamp   = header.getLong
+            val keyLength   = header.getInt
+            val valueLength = header.getInt
+
+            if (keyLength < 0 || valueLength < -1 || offset + HeaderLength + keyLength + math.max(valueLength, 0) + TrailerLength > segment.size)
+                None
+            else {
+                val body = ByteBuffer.allocate(keyLength + math.max(valueLength, 0) + TrailerLength)
+                if (! readFully(body, offset + HeaderLength))
+                    None
+                else {
+                    val crc = new CRC32
+                    crc.update(header.array, 4, HeaderLength - 4)
+                    crc.update(body.array, 0, body.capacity - TrailerLength)
+
+                    body.position(body.capacity - TrailerLength)
+                    if (body.getLong != crc.getValue)
+                        None
+                    else {
+                        val key = new String(body.array, 0, keyLength, "UTF-8")
+                        val value =
+                            if (valueLength == -1)
+                                null
+                            else {
+                                val bytes = new Array[Byte](valueLength)
+                                System.arraycopy(body.array, keyLength, bytes, 0, valueLength)
+                                bytes
+                            }
+                        Some(Record(key, keyLength, value, timestamp))
+                    }
+                }
+            }
+        }
+    }
+
+    private def isExpired(lastAccess: Long) = timeToIdleMillis > 0 && now - lastAccess > timeToIdleMillis
+}
+
+object SegmentFileStore {
+
+    private val Magic = 0x4F584653 // "OXFS"
+
+    // Magic, timestamp, key length, value length
+    private val HeaderLength = 4 + 8 + 4 + 4
+    // CRC32 of everything but the magic
+    private val TrailerLength = 8
+
+    private val SegmentPrefix = "segment-"
+    private val SegmentSuffix = ".dat"
+    private val SegmentName = """segment-(\d+)\.dat""".r
+
+    private case class Record(key: String, keyBytesLength: Int, value: Array[Byte], timestamp: Long)
+
+    private def now = System.currentTimeMillis
+
+    private def encodeRecord(key: String, value: Array[Byte], timestamp: Long) = {
+        val keyBytes = key.getBytes("UTF-8")
+        val valueLength = if (value ne null) value.length else 0
+
+        val buffer = ByteBuffer.allocate(HeaderLength + keyBytes.length + valueLength + TrailerLength)
+        buffer.putInt(Magic)
+        buffer.putLong(timestamp)
+        buffer.putInt(keyBytes.length)
+        buffer.putInt(if (value ne null) value.length else -1)
+        buffer.put(keyBytes)
+        if (value ne null)
+            buffer.put(value)
+
+        val crc = new CRC32
+        crc.update(buffer.array, 4, buffer.position - 4)
+        buffer.putLong(crc.getValue)
+
+        buffer.flip()
+        buffer
+    }
+}
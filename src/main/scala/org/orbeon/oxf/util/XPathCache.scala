@@ -15,9 +15,10 @@ package org.orbeon.oxf.util
 
 import collection.JavaConverters._
 import java.util.{List ⇒ JList, Map ⇒ JMap}
+import java.util.concurrent.atomic.AtomicLong
 import org.apache.commons.pool.{BasePoolableObjectFactory, ObjectPool}
-import org.orbeon.oxf.cache.InternalCacheKey
-import org.orbeon.oxf.cache.ObjectCache
+import org.orbeon.oxf.cache.{Weighable, ObjectCache}
+import org.orbeon.oxf.properties.Properties
 import org.orbeon.oxf.xml.dom4j.LocationData
 import org.orbeon.oxf.xml.NamespaceMapping
 import org.orbeon.saxon.Configuration
@@ -37,7 +38,32 @@ object XPathCache {
 
     private val XPathCacheName = "cache.xpath"
     private val XPathCacheDefaultSize = 200
-    
+
+    // Rough size of a compiled expression for weight-bounded caches
+    private val ExpressionBaseWeight = 1024L
+    private val ExpressionWeightPerChar = 64L
+
+    // How compiled expressions are pooled: "soft-reference" or "striped"
+    private val XPathPoolProperty = "oxf." + XPathCacheName + ".pool"
+    private[util] val SoftReferencePool = "soft-reference"
+    private[util] val StripedPool = "striped"
+
+    private lazy val configuredPoolType =
+        Properties.instance.getPropertySet.getString(XPathPoolProperty, SoftReferencePool)
+
+    // Overrides the configured pool type, so that benchmarks can compare both
+    @volatile private var poolTypeOverride: Option[String] = None
+
+    private def useStripedPool = (poolTypeOverride getOrElse configuredPoolType) == StripedPool
+
+    // Change the pool type and remove the expressions pooled so far
+    private[util] def setPoolType(poolType: String): Unit = {
+        poolTypeOverride = Some(poolType)
+        ObjectCache.instance(XPathCacheName, XPathCacheDefaultSize).removeAll()
+    }
+
+    private val compileCount = new AtomicLong
+
     private val Logger = LoggerFactory.createLogger(getClass)
     
     case class XPathContext(
@@ -355,50 +381,24 @@ object XPathCache {
             baseURI: String,
             isAvt: Boolean,
             locationData: LocationData): PooledXPathExpression = {
+
+        // The lookup key references the variable names, and is only copied if the expression is not in the cache
+        // NOTE: The key is not precomputed by the static analysis, as the variable names come from the runtime binding
+        // context, so a precomputed key would have to be checked against them on each evaluation anyway.
+        val variableNames = if ((variableToValueMap ne null) && ! variableToValueMap.isEmpty) variableToValueMap.keySet else null
+        val lookupKey = new XPathCacheKey.LookupKey(xpathString, namespaceMapping, variableNames, functionLibrary, isAvt)
+
         try {
             // Find pool from cache
+            // TODO: Add baseURI to cache key (currently, baseURI is pretty much unused)
             val validity = 0L
             val cache = ObjectCache.instance(XPathCacheName, XPathCacheDefaultSize)
-            val cacheKeyString = new StringBuilder(xpathString)
-
-            if (functionLibrary ne null) {// This is ok
-                cacheKeyString.append('|')
-                cacheKeyString.append(functionLibrary.hashCode.toString)
-            }
-            // NOTE: Mike Kay confirms on 2007-07-04 that compilation depends on the namespace context, so we need
-            // to use it as part of the cache key.
-            if (namespaceMapping ne null) {
-                // NOTE: Hash is mandatory in NamespaceMapping
-                cacheKeyString.append('|')
-                cacheKeyString.append(namespaceMapping.hash)
-            }
-
-            // NOTE: Make sure to copy the values in the key set, as the set returned by the map keeps a pointer to the
-            // Map! This can cause the XPath cache to keep a reference to variable values, which in turn can keep a
-            // reference all the way to e.g. an XFormsContainingDocument.
-            val variableNames = Option(variableToValueMap) map (_.keySet.asScala.toList) getOrElse List()
-
-            if (variableNames.size > 0) {
-                // There are some variables in scope. They must be part of the key
-                // TODO: Put this in static state as this can be determined statically once and for all
-                for (variableName ← variableNames) {
-                    cacheKeyString.append('|')
-                    cacheKeyString.append(variableName)
-                }
-            }
-
-            // Add this to the key as evaluating "name" as XPath or as AVT is very different!
-            cacheKeyString.append('|')
-            cacheKeyString.append(isAvt.toString)
-
-            // TODO: Add baseURI to cache key (currently, baseURI is pretty much unused)
 
             val pooledXPathExpression = {
-                val cacheKey = new InternalCacheKey("XPath Expression2", cacheKeyString.toString)
-                var pool = cache.findValid(cacheKey, validity).asInstanceOf[ObjectPool[PooledXPathExpression]]
+                var pool = cache.findValid(lookupKey, validity).asInstanceOf[ObjectPool[PooledXPathExpression]]
                 if (pool eq null) {
-                    pool = createXPathPool(configuration, xpathString, namespaceMapping, variableNames, functionLibrary, baseURI, isAvt, locationData)
-                    cache.add(cacheKey, validity, pool)
+                    pool = createXPathPool(configuration, xpathString, namespaceMapping, Option(variableNames) map (_.asScala.toList) getOrElse List(), functionLibrary, baseURI, isAvt, locationData)
+                    cache.add(lookupKey.toStored, validity, pool)
                 }
                 // Get object from pool
                 pool.borrowObject
@@ -426,15 +426,36 @@ object XPathCache {
             isAvt: Boolean,
             locationData: LocationData): ObjectPool[PooledXPathExpression] = {
 
-        // TODO: pool should have at least one hard reference
         val factory = new XPathCachePoolableObjectFactory(
             configurationOrDefault(xpathConfiguration), xpathString, namespaceMapping, variableNames,
             functionLibrary, baseURI, isAvt, locationData)
-        val pool = new SoftReferenceObjectPool(factory)
+
+        trait ExpressionWeight extends Weighable {
+            def getApproximateWeight = ExpressionBaseWeight + ExpressionWeightPerChar * xpathString.length
+        }
+
+        // The striped pool keeps hard references, so a full GC doesn't cause all expressions to be recompiled
+        // TODO: soft reference pool should have at least one hard reference
+        val pool: ObjectPool[PooledXPathExpression] =
+            if (useStripedPool)
+                new StripedObjectPool(factory) with ExpressionWeight
+            else
+                new SoftReferenceObjectPool(factory) with ExpressionWeight
+
         factory.pool = pool
         pool
     }
 
+    // Number of XPath expressions compiled through the cache so far
+    def expressionCompileCount = compileCount.get
+
+    // Number of times a compiled expression was reused, for the expressions currently in cache
+    // NOTE: Only available with the striped pool.
+    def expressionHitCount = {
+        val pools = ObjectCache.instance(XPathCacheName, XPathCacheDefaultSize).iterateCacheObjects.asScala
+        (pools collect { case pool: StripedObjectPool[_] ⇒ pool.getHitCount }).sum
+    }
+
     def createPoolableXPathExpression(
             independentContext: IndependentContext,
             xpathString: String,
@@ -466,6 +487,8 @@ object XPathCache {
         def makeObject: PooledXPathExpression = {
             if (Logger.isDebugEnabled)
                 Logger.debug("makeObject(" + xpathString + ")")
+
+            compileCount.incrementAndGet()
             
             // Create context
             val independentContext = new IndependentContext(xpathConfiguration)
@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util
+
+import java.util.{Arrays, Collection ⇒ JCollection}
+import org.orbeon.oxf.cache.CacheKey
+import org.orbeon.oxf.xml.{ContentHandlerHelper, NamespaceMapping}
+import org.orbeon.saxon.functions.FunctionLibrary
+import collection.JavaConverters._
+
+/**
+ * Key for compiled expressions in the XPath cache.
+ *
+ * The key depends on the expression, the function library, the namespace context, the names of in-scope variables,
+ * and on whether the expression is an AVT. It only keeps the names of variables, not their values.
+ *
+ * XPathCache looks up expressions with a LookupKey, which uses the names of the variables without copying them. Only
+ * when an expression is not found is a StoredKey created and added to the cache.
+ */
+sealed abstract class XPathCacheKey extends CacheKey {
+
+    setClazz(classOf[XPathCacheKey])
+
+    def xpathString: String
+    def functionLibraryHash: Int
+    def namespaceHash: String
+    def isAvt: Boolean
+
+    protected def hashVariableNames(hash: Int): Int
+
+    protected def computeHash = {
+        var hash = xpathString.hashCode
+        hash = 31 * hash + functionLibraryHash
+        hash = 31 * hash + (if (namespaceHash ne null) namespaceHash.hashCode else 0)
+        hash = hashVariableNames(hash)
+        31 * hash + (if (isAvt) 1 else 0)
+    }
+
+    import XPathCacheKey._
+
+    // Compare variable names in order, as the order in which they are declared is part of the compiled expression
+    private def sameVariableNames(that: XPathCacheKey) = this match {
+        case k1: StoredKey ⇒
+            that match {
+                case k2: StoredKey ⇒ Arrays.equals(k1.variableNames.asInstanceOf[Array[AnyRef]], k2.variableNames.asInstanceOf[Array[AnyRef]])
+                case k2: LookupKey ⇒ k2.sameVariableNames(k1.variableNames)
+            }
+        case k1: LookupKey ⇒
+            that match {
+                case k2: StoredKey ⇒ k1.sameVariableNames(k2.variableNames)
+                case k2: LookupKey ⇒ k1.sameVariableNames(k2.toStored.variableNames)
+            }
+    }
+
+    override def equals(other: Any) = other match {
+        case that: XPathCacheKey ⇒
+            (that eq this) || (
+                hashCode            == that.hashCode            &&
+                isAvt               == that.isAvt               &&
+                functionLibraryHash == that.functionLibraryHash &&
+                xpathString         == that.xpathString         &&
+                namespaceHash       == that.namespaceHash       &&
+                sameVariableNames(that)
+            )
+        case _ ⇒ false
+    }
+
+    def toXML(helper: ContentHandlerHelper, validities: AnyRef): Unit =
+        helper.element("xpath", Array("expression", xpathString, "avt", isAvt.toString))
+
+    override def toString = "XPathCacheKey[" + xpathString + "]"
+}
+
+object XPathCacheKey {
+
+    // Key used for a single lookup, which must never be stored in the cache
+    // NOTE: A new key is created for each lookup, as lookups can be nested, e.g. while a function library is compiled.
+    private[util] class LookupKey(
+            val xpathString: String,
+            namespaceMapping: NamespaceMapping,
+            variableNames: JCollection[String],
+            functionLibrary: FunctionLibrary,
+            val isAvt: Boolean)
+        extends XPathCacheKey {
+
+        val functionLibraryHash = XPathCacheKey.functionLibraryHash(functionLibrary)
+        val namespaceHash = XPathCacheKey.namespaceHash(namespaceMapping)
+
+        private def variableCount = if (variableNames eq null) 0 else variableNames.size
+
+        protected def hashVariableNames(hash: Int) = {
+            var result = hash
+            if (variableCount > 0) {
+                val i = variableNames.iterator
+                while (i.hasNext)
+                    result = 31 * result + i.next().hashCode
+            }
+            result
+        }
+
+        private val hash = computeHash
+        override def hashCode = hash
+
+        def sameVariableNames(names: Array[String]) =
+            variableCount == names.length && (names.length == 0 || {
+                val i = variableNames.iterator
+                var index = 0
+                while (index < names.length && i.next() == names(index))
+                    index += 1
+                index == names.length
+            })
+
+        // NOTE: Make sure to copy the variable names, as the collection might keep a pointer to a map of variable
+        // values. This can cause the XPath cache to keep a reference all the way to e.g. an XFormsContainingDocument.
+        def toStored: StoredKey =
+            new StoredKey(
+                xpathString,
+                functionLibraryHash,
+                namespaceHash,
+                if (variableCount > 0) variableNames.asScala.toArray else EmptyNames,
+                isAvt)
+    }
+
+    private[util] class StoredKey(
+            val xpathString: String,
+            val functionLibraryHash: Int,
+            val namespaceHash: String,
+            val variableNames: Array[String],
+            val isAvt: Boolean)
+        extends XPathCacheKey {
+
+        protected def hashVariableNames(hash: Int) = {
+            var result = hash
+            var index = 0
+            while (index < variableNames.length) {
+                result = 31 * result + variableNames(index).hashCode
+                index += 1
+            }
+            result
+        }
+
+        private val hash = computeHash
+        override def hashCode = hash
+    }
+
+    private val EmptyNames = Array[String]()
+
+    private def functionLibraryHash(functionLibrary: FunctionLibrary) =
+        if (functionLibrary ne null) functionLibrary.hashCode else 0
+
+    // NOTE: Mike Kay confirms on 2007-07-04 that compilation depends on the namespace context, so we need to use it as
+    // part of the cache key. Hash is mandatory in NamespaceMapping.
+    private def namespaceHash(namespaceMapping: NamespaceMapping) =
+        if (namespaceMapping ne null) namespaceMapping.hash else null
+}
@@ -19,6 +19,7 @@ import org.apache.commons.lang3.StringUtils
 import org.orbeon.oxf.common.{OXFException, Version}
 import org.orbeon.oxf.properties.Properties
 import org.orbeon.oxf.pipeline.InitUtils
+import org.orbeon.oxf.xforms.state.StaticStateDiskCache
 import collection.JavaConverters._
 
 // Orbeon web app initialization
@@ -35,6 +36,7 @@ object Orbeon {
     // - version check
     // - logger (based on properties)
     // - processor registry
+    // - XForms static state warm-up
     def initialize(context: WebAppContext) = {
         try {
             // Check whether logging initialization is disabled
@@ -79,6 +81,9 @@ object Orbeon {
 
             // 5. Register processor definitions with the default XML Processor Registry
             InitUtils.processorDefinitions
+
+            // 6. Preload XForms static states from the disk cache if enabled (in the background)
+            StaticStateDiskCache.warmUp(context)
         } catch {
             case e: Exception ⇒ throw new OXFException(e)
         }
@@ -24,6 +24,7 @@ import org.orbeon.oxf.xforms.xbl.{Scope, XBLBindings}
 
 trait PartAnalysis extends PartGlobalOps with PartStaticAnalysisOps {
 
+    val staticState: XFormsStaticState
     def locationData: LocationData
     def getIndentedLogger: IndentedLogger
 
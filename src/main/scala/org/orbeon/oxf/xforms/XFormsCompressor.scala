@@ -14,25 +14,66 @@
 package org.orbeon.oxf.xforms
 
 import org.apache.commons.pool.BasePoolableObjectFactory
+import org.orbeon.oxf.common.OXFException
+import org.orbeon.oxf.properties.Properties
 import org.orbeon.oxf.util._
 import java.io.ByteArrayInputStream
 import java.io.ByteArrayOutputStream
 import java.io.OutputStream
-import java.util.zip.Deflater
-import java.util.zip.GZIPInputStream
-import java.util.zip.GZIPOutputStream
+import java.nio.ByteBuffer
+import java.util.concurrent.{ThreadFactory, Executors, Callable}
+import java.util.zip.{Inflater, Deflater, GZIPInputStream, GZIPOutputStream}
+import collection.JavaConverters._
 
 object XFormsCompressor {
 
-    // Use a Deflater pool as creating deflaters is expensive
+    // Use pools as creating deflaters and inflaters is expensive
     private val deflaterPool = new SoftReferenceObjectPool(new DeflaterPoolableObjectFactory)
+    private val inflaterPool = new SoftReferenceObjectPool(new InflaterPoolableObjectFactory)
 
     private val BUFFER_SIZE = 1024 * 8
     private val TRAILER_SIZE = 8
 
-    def compressBytes(bytesToEncode: Array[Byte], level: Int) = {
+    private val CodecProperty     = "oxf.xforms.compression.codec"
+    private val BlockSizeProperty = "oxf.xforms.compression.block-size"
+
+    // Codec identifier written as the first byte of the compressed data
+    // A GZIP stream always starts with 0x1f, so data produced before codecs were introduced can still be read.
+    private val BlockDeflateCodec: Byte = 1
+
+    private lazy val codec = {
+        val name = Properties.instance.getPropertySet.getString(CodecProperty, "gzip")
+        if (name != "gzip" && name != "deflate")
+            throw new OXFException("Invalid value for property " + CodecProperty + ": " + name)
+        name
+    }
+
+    private lazy val blockSize = Properties.instance.getPropertySet.getInteger(BlockSizeProperty, 256 * 1024).intValue
+
+    // Threads for compressing and uncompressing blocks in parallel
+    private lazy val executor =
+        Executors.newFixedThreadPool(Runtime.getRuntime.availableProcessors, new ThreadFactory {
+            def newThread(runnable: Runnable) = {
+                val thread = new Thread(runnable, "XForms compressor")
+                thread.setDaemon(true)
+                thread
+            }
+        })
+
+    private def withDeflater[T](body: Deflater ⇒ T) = {
         val deflater = deflaterPool.borrowObject
-        try {
+        try body(deflater)
+        finally deflaterPool.returnObject(deflater)
+    }
+
+    private def withInflater[T](body: Inflater ⇒ T) = {
+        val inflater = inflaterPool.borrowObject
+        try body(inflater)
+        finally inflaterPool.returnObject(inflater)
+    }
+
+    def compressBytes(bytesToEncode: Array[Byte], level: Int) =
+        withDeflater { deflater ⇒
             deflater.setLevel(level)
             val os = new ByteArrayOutputStream
             val gzipOS = new DeflaterGZIPOutputStream(deflater, os, BUFFER_SIZE)
@@ -40,14 +81,108 @@ object XFormsCompressor {
             gzipOS.close()
 
             os.toByteArray
-        } finally {
-            deflaterPool.returnObject(deflater)
         }
-    }
 
     // Compress using BEST_SPEED as serializing state quickly has been determined to be more important than saving extra
     // memory. Even this way compression typically is more than 10X.
-    def compressBytes(bytesToEncode: Array[Byte]): Array[Byte] = compressBytes(bytesToEncode, Deflater.BEST_SPEED)
+    def compressBytes(bytesToEncode: Array[Byte]): Array[Byte] =
+        if (codec == "deflate")
+            compressBlocks(bytesToEncode, Deflater.BEST_SPEED, blockSize)
+        else
+            compressBytes(bytesToEncode, Deflater.BEST_SPEED)
+
+    // Compress with raw deflate and a preset dictionary, in independent blocks which are processed in parallel
+    //
+    // Format:
+    //
+    // - codec identifier (1 byte)
+    // - uncompressed length, block size, block count (3 x 4 bytes)
+    // - compressed length of each block (block count x 4 bytes)
+    // - compressed blocks
+    def compressBlocks(bytesToEncode: Array[Byte], level: Int, blockSize: Int): Array[Byte] = {
+
+        val blockCount = math.max(1, (bytesToEncode.length + blockSize - 1) / blockSize)
+
+        val blocks =
+            inParallel(blockCount) { i ⇒
+                val offset = i * blockSize
+                val length = math.min(blockSize, bytesToEncode.length - offset)
+
+                withDeflater { deflater ⇒
+                    deflater.setLevel(level)
+                    deflater.setDictionary(Dictionary)
+                    deflater.setInput(bytesToEncode, offset, length)
+                    deflater.finish()
+
+                    // Deflate at most expands by a few bytes per 16 KB
+                    val buffer = new Array[Byte](length + length / 1000 + 64)
+                    var count = 0
+                    while (! deflater.finished)
+                        count += deflater.deflate(buffer, count, buffer.length - count)
+
+                    ByteBuffer.wrap(buffer, 0, count)
+                }
+            }
+
+        val headerLength = 1 + 3 * 4 + blockCount * 4
+        val result = ByteBuffer.allocate(headerLength + (blocks map (_.remaining) sum))
+
+        result.put(BlockDeflateCodec)
+        result.putInt(bytesToEncode.length)
+        result.putInt(blockSize)
+        result.putInt(blockCount)
+        blocks foreach (block ⇒ result.putInt(block.remaining))
+        blocks foreach (block ⇒ result.put(block))
+
+        result.array
+    }
+
+    private def uncompressBlocks(bytesToDecode: Array[Byte]): Array[Byte] = {
+
+        val header = ByteBuffer.wrap(bytesToDecode)
+        header.get // codec
+
+        val uncompressedLength = header.getInt
+        val blockSize          = header.getInt
+        val blockCount         = header.getInt
+        val compressedLengths  = Array.fill(blockCount)(header.getInt)
+        val compressedOffsets  = compressedLengths.scanLeft(header.position)(_ + _)
+
+        // Blocks are uncompressed directly into the result
+        val result = new Array[Byte](uncompressedLength)
+
+        inParallel(blockCount) { i ⇒
+            val offset = i * blockSize
+            val length = math.min(blockSize, uncompressedLength - offset)
+
+            withInflater { inflater ⇒
+                inflater.setDictionary(Dictionary)
+                inflater.setInput(bytesToDecode, compressedOffsets(i), compressedLengths(i))
+
+                var count = 0
+                while (count < length) {
+                    val inflated = inflater.inflate(result, offset + count, length - count)
+                    if (inflated == 0 && (inflater.finished || inflater.needsInput))
+                        throw new OXFException("Truncated compressed block")
+                    count += inflated
+                }
+            }
+        }
+
+        result
+    }
+
+    // Run the function for all indexes, on the current thread if there is a single one
+    private def inParallel[T](count: Int)(f: Int ⇒ T): Seq[T] =
+        if (count == 1)
+            Seq(f(0))
+        else {
+            val tasks =
+                for (i ← 0 until count)
+                    yield new Callable[T] { def call() = f(i) }
+
+            executor.invokeAll(tasks.asJava).asScala map (_.get)
+        }
 
     // Example of effective compression ratios and speeds for XML inputs:
     //
@@ -87,12 +222,16 @@ object XFormsCompressor {
         compressBytes(bytesToEncode, Deflater.BEST_SPEED)
     }
 
-    def uncompressBytes(bytesToDecode: Array[Byte]) = {
-        val is = new GZIPInputStream(new ByteArrayInputStream(bytesToDecode))
-        val os = new ByteArrayOutputStream(BUFFER_SIZE)
-        NetUtils.copyStream(is, os)
-        os.toByteArray
-    }
+    // The codec is found from the first byte
+    def uncompressBytes(bytesToDecode: Array[Byte]) =
+        if (bytesToDecode.length > 0 && bytesToDecode(0) == BlockDeflateCodec)
+            uncompressBlocks(bytesToDecode)
+        else {
+            val is = new GZIPInputStream(new ByteArrayInputStream(bytesToDecode))
+            val os = new ByteArrayOutputStream(BUFFER_SIZE)
+            NetUtils.copyStream(is, os)
+            os.toByteArray
+        }
 
     private class DeflaterPoolableObjectFactory extends BasePoolableObjectFactory[Deflater] {
 
@@ -109,6 +248,40 @@ object XFormsCompressor {
             }
     }
 
+    private class InflaterPoolableObjectFactory extends BasePoolableObjectFactory[Inflater] {
+
+        def makeObject = new Inflater(true)
+
+        override def passivateObject(o: Inflater): Unit =
+            try o.reset()
+            catch {
+                case t: Throwable ⇒ XFormsUtils.indentedLogger.logError("compressor", "exception while passivating Inflater", t)
+            }
+    }
+
+    // Preset dictionary for the block codec, with strings frequently found in the static and dynamic state
+    // NOTE: The dictionary must never be modified, as existing compressed data depends on it. Use a new codec
+    // identifier with a new dictionary instead.
+    private val Dictionary = (
+        "java.lang.String;java.lang.Object;scala.collection.immutable.List;scala.collection.immutable.$colon$colon;" +
+        "scala.collection.immutable.Nil$;scala.collection.mutable.WrappedArray$ofByte;scala.Some;scala.None$;" +
+        "org.orbeon.oxf.xforms.state.DynamicState;org.orbeon.oxf.xml.SAXStore;" +
+        "<static-state xmlns:xh=\"http://www.w3.org/1999/xhtml\" xmlns:xf=\"http://www.w3.org/2002/xforms\" " +
+        "xmlns:xxf=\"http://orbeon.org/oxf/xml/xforms\" xmlns:ev=\"http://www.w3.org/2001/xml-events\" " +
+        "xmlns:xbl=\"http://www.w3.org/ns/xbl\" xmlns:fr=\"http://orbeon.org/oxf/xml/form-runner\" " +
+        "xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">" +
+        "<properties xxf:noscript-support=\"true\" xxf:readonly-appearance=\"static\"/>" +
+        "<xf:model id=\"\"><xf:instance id=\"\"><xf:bind id=\"\" ref=\"\" relevant=\"\" readonly=\"\" required=\"\" " +
+        "constraint=\"\" calculate=\"\" type=\"xs:string\"/><xf:submission id=\"\" method=\"post\" " +
+        "replace=\"instance\"/><xf:action ev:event=\"xforms-value-changed\"><xf:setvalue ref=\"\" value=\"\"/>" +
+        "<xf:input id=\"\" ref=\"\"><xf:label ref=\"\"/><xf:hint/><xf:help/><xf:alert/></xf:input>" +
+        "<xf:select1 appearance=\"minimal\"><xf:itemset ref=\"\"><xf:value ref=\"\"/></xf:itemset></xf:select1>" +
+        "<xf:repeat id=\"\" ref=\"\"/><xf:group id=\"\" ref=\"\"/><xf:trigger id=\"\"><xf:output value=\"\"/>" +
+        "<xh:div class=\"\"><xh:span class=\"\"/><xh:table><xh:tr><xh:td/></xh:tr></xh:table></xh:div>" +
+        "xmlns=\"\" xml:space=\"preserve\" xxf:element=\"\" xxf:attribute=\"\" " +
+        "xxf:instance('fr-form-instance')instance('fr-form-resources')"
+    ).getBytes("UTF-8")
+
     // GZIPOutputStream which uses a custom Deflater
     private class DeflaterGZIPOutputStream(deflater: Deflater, out: OutputStream, size: Int) extends GZIPOutputStream(out, size) {
 
@@ -31,7 +31,7 @@ import org.orbeon.oxf.common.OXFException
 import org.orbeon.oxf.xforms.XFormsServerSharedInstancesCache.Loader
 import org.orbeon.saxon.om.{NodeInfo, VirtualNode, DocumentInfo}
 import org.orbeon.oxf.util._
-import org.orbeon.oxf.xforms.state.InstanceState
+import org.orbeon.oxf.xforms.state.{DeltaStateTracking, InstanceState}
 
 // Caching information associated with an instance loaded with xxf:cache="true"
 case class InstanceCaching(
@@ -88,10 +88,11 @@ class XFormsInstance(
         private var _documentInfo: DocumentInfo,                // fully wrapped document
         private var _readonly: Boolean,                         // whether the instance is readonly (can change upon submission)
         private var _modified: Boolean,                         // whether the instance was modified
-        var valid: Boolean)                                     // whether the instance was valid as of the last revalidation
+        private var _valid: Boolean)                            // whether the instance was valid as of the last revalidation
     extends ListenersTrait
     with XFormsInstanceIndex
     with XFormsEventObserver
+    with DeltaStateTracking
     with Logging {
 
     require(! (_readonly && _documentInfo.isInstanceOf[VirtualNode]))
@@ -105,12 +106,21 @@ class XFormsInstance(
     def documentInfo = _documentInfo
     def readonly = _readonly
     def modified = _modified
+    def valid = _valid
 
+    def valid_=(valid: Boolean): Unit =
+        if (valid != _valid) {
+            _valid = valid
+            markStateChanged()
+        }
 
     // Mark the instance as modified
     // This is used so we can optimize serialization: if an instance is inline and not modified, we don't need to
     // serialize its content
-    def markModified() = _modified = true
+    def markModified() = {
+        _modified = true
+        markStateChanged()
+    }
 
     // Update the instance upon submission with instance replacement
     def update(instanceCaching: Option[InstanceCaching], documentInfo: DocumentInfo, readonly: Boolean): Unit = {
@@ -345,15 +355,20 @@ class XFormsInstance(
 }
 
 // For instances which declare xxf:index="id", keep up-to-date an index of ids to elements. The index is set on
-// DocumentWrapper, so that the XPath id() function works out of the box.
+// DocumentWrapper, so that the XPath id() function works out of the box. Instances can also declare attribute keys,
+// as in xxf:index="@code", in which case the index also maps values of these attributes to elements. This secondary
+// index is queried with xxf:key().
 //
 // Implementation notes:
 //
 // - set an IdGetter on DocumentWrapper when a new Dom4j DocumentWrapper is set on the instance
-// - index all elements with an attribute whose local name is "id"
-// - initial index is created the first time an id is required
-// - upon subsequent document updates (insert, delete, setvalue), the index is incrementally updated
-// - keep reference to all elements which have a given id so that we support insert/delete in any order
+// - index all elements with an attribute whose local name is "id" or one of the declared keys
+// - initial index is created the first time it is queried
+// - upon subsequent document updates (insert, delete, setvalue), changes are queued and the index is incrementally
+//   updated upon the next query, so that updates between queries, e.g. within a large repeat, don't each walk the
+//   changed subtrees
+// - if too many changes are queued, drop the index instead, as creating it again upon the next query is cheaper
+// - keep reference to all elements which have a given value so that we support insert/delete in any order
 // - sort the elements in case there is more than one possible result; this is not very efficient so it's better to
 //   make sure that every id is unique
 //
@@ -368,17 +383,40 @@ trait XFormsInstanceIndex {
     import org.orbeon.scaxon.XML._
     import collection.{mutable ⇒ m}
     import org.w3c.dom.Node.{ATTRIBUTE_NODE, ELEMENT_NODE}
+    import XFormsInstanceIndex._
+
+    // Attribute name → attribute value → elements
+    private var index: m.Map[String, m.Map[String, List[Element]]] = _
 
-    private var idIndex: m.Map[String, List[Element]] = _
+    // Changes not yet applied to the index
+    private val pendingChanges = m.ArrayBuffer[() ⇒ Unit]()
+
+    private lazy val indexedAttributes = instance.indexKeys + "id"
 
     // Iterator over all ids
     def idsIterator = {
-        createIndexIfNeeded()
-        if (idIndex ne null) idIndex.keysIterator else Iterator.empty
+        updateIndexIfNeeded()
+        index.get("id").iterator flatMap (_.keysIterator)
     }
 
+    // Elements with the given value for the given attribute key, in document order
+    def elementsForKey(attributeName: String, value: String): Seq[NodeInfo] =
+        self.documentInfo match {
+            case wrapper: DocumentWrapper if indexedAttributes(attributeName) ⇒
+                updateIndexIfNeeded()
+                index.get(attributeName) flatMap (_.get(value)) match {
+                    case Some(list) if list.size > 1 ⇒ list map wrapper.wrap sortWith (_.compareOrder(_) < 0)
+                    case Some(list)                  ⇒ list map wrapper.wrap
+                    case None                        ⇒ Nil
+                }
+            case _ ⇒
+                // Not indexed
+                self.documentInfo descendant * filter (e ⇒ (e att attributeName) exists (_.getStringValue == value))
+        }
+
     def requireNewIndex() = {
-        idIndex = null
+        index = null
+        pendingChanges.clear()
         if (instance.indexIds && self.documentInfo.isInstanceOf[DocumentWrapper]) {
             val wrapper = self.documentInfo.asInstanceOf[DocumentWrapper]
             wrapper.setIdGetter(new DocumentWrapper.IdGetter {
@@ -389,11 +427,11 @@ trait XFormsInstanceIndex {
                 }
 
                 def apply(id: String) = {
-                    // Lazily create index the first time if needed
-                    createIndexIfNeeded()
+                    // Lazily create or update index if needed
+                    updateIndexIfNeeded()
 
                     // Query index
-                    idIndex.get(id) match {
+                    index.get("id") flatMap (_.get(id)) match {
                         case Some(list) if list.size > 1 ⇒ list.min(ElementOrdering) // get first in document order
                         case Some(list)                  ⇒ list.head                 // empty list not allowed in the map
                         case None                        ⇒ null
@@ -403,63 +441,91 @@ trait XFormsInstanceIndex {
         }
     }
 
-    private def createIndexIfNeeded() =
-        if (idIndex eq null) {
-            idIndex = m.Map()
+    private def updateIndexIfNeeded() =
+        if (index eq null) {
+            pendingChanges.clear()
+            index = m.Map()
             combineMappings(mappingsInSubtree(self.documentInfo))
+        } else if (pendingChanges.nonEmpty) {
+            pendingChanges foreach (_.apply())
+            pendingChanges.clear()
+        }
+
+    // Queue a change if there is an index, or drop the index if too many changes are queued
+    private def queueChange(change: ⇒ Unit) =
+        if (index ne null) {
+            if (pendingChanges.size < MaxPendingChanges)
+                pendingChanges += (() ⇒ change)
+            else {
+                index = null
+                pendingChanges.clear()
+            }
         }
 
+    // NOTE: Subtrees are walked when the change is applied, and they might have changed in the meanwhile. This is
+    // fine as later changes are queued as well, and adding or removing a mapping is idempotent.
     def updateIndexForInsert(nodes: Seq[NodeInfo]) =
-        if (idIndex ne null)
+        queueChange {
             for (node ← nodes)
                 combineMappings(mappingsInSubtree(node))
+        }
 
     def updateIndexForDelete(nodes: Seq[NodeInfo]) =
-        if (idIndex ne null)
-            for (node ← nodes; (id, element) ← mappingsInSubtree(node))
-                removeId(id, element)
+        queueChange {
+            for (node ← nodes; (name, value, element) ← mappingsInSubtree(node))
+                removeMapping(name, value, element)
+        }
 
     def updateIndexForReplace(formerNode: NodeInfo, currentNode: NodeInfo) =
-        if (idIndex ne null) {
-            if (currentNode.getNodeKind == ATTRIBUTE_NODE && currentNode.getLocalPart == "id")
+        if (index ne null) {
+            if (currentNode.getNodeKind == ATTRIBUTE_NODE && indexedAttributes(currentNode.getLocalPart)) {
                 // Don't use updateIndexForDelete, because formerNode.getParent will fail
-                removeId(formerNode.stringValue, unwrapElement(currentNode.getParent))
-            else if (currentNode.getNodeKind == ELEMENT_NODE)
+                val (name, value, parentElement) = (currentNode.getLocalPart, formerNode.stringValue, unwrapElement(currentNode.getParent))
+                queueChange(removeMapping(name, value, parentElement))
+            } else if (currentNode.getNodeKind == ELEMENT_NODE)
                 updateIndexForDelete(Seq(formerNode))
 
             updateIndexForInsert(Seq(currentNode))
         }
 
     def updateIndexForValueChange(valueChangeEvent: XXFormsValueChangedEvent) =
-        if ((idIndex ne null) && valueChangeEvent.node.getLocalPart == "id") {
+        if ((index ne null) && valueChangeEvent.node.getNodeKind == ATTRIBUTE_NODE && indexedAttributes(valueChangeEvent.node.getLocalPart)) {
 
+            val name          = valueChangeEvent.node.getLocalPart
+            val oldValue      = valueChangeEvent.oldValue
+            val newValue      = valueChangeEvent.newValue
             val parentElement = unwrapElement(valueChangeEvent.node.getParent)
 
-            removeId(valueChangeEvent.oldValue, parentElement)
-            addId(valueChangeEvent.newValue, parentElement)
+            queueChange {
+                removeMapping(name, oldValue, parentElement)
+                addMapping(name, newValue, parentElement)
+            }
         }
 
-    private def idsInSubtree(start: NodeInfo) =
+    private def keysInSubtree(start: NodeInfo) =
         if (start.getNodeKind == ATTRIBUTE_NODE)
-            start self "id"
+            indexedAttributes.toList flatMap (start self _)
         else
-            start descendantOrSelf * att "id"
-
-    private def mappingsInSubtree(start: NodeInfo) = idsInSubtree(start) map (id ⇒ id.getStringValue → unwrapElement(id.getParent))
-
-    private def removeId(id: String, parentElement: Element) = {
-        idIndex.get(id) match {
-            case Some(list) if list.size > 1 ⇒
-                idIndex(id) = list filter (_ ne parentElement)
-                assert(idIndex(id).nonEmpty)
-            case Some(list)                  ⇒ idIndex -= id // don't leave an empty list in the map
-            case None                        ⇒ // NOP
+            indexedAttributes.toList flatMap (start descendantOrSelf * att _)
+
+    private def mappingsInSubtree(start: NodeInfo) =
+        keysInSubtree(start) map (key ⇒ (key.getLocalPart, key.getStringValue, unwrapElement(key.getParent)))
+
+    private def removeMapping(name: String, value: String, parentElement: Element) =
+        index.get(name) foreach { values ⇒
+            values.get(value) match {
+                case Some(list) if list.size > 1 ⇒
+                    values(value) = list filter (_ ne parentElement)
+                    assert(values(value).nonEmpty)
+                case Some(list)                  ⇒ values -= value // don't leave an empty list in the map
+                case None                        ⇒ // NOP
+            }
         }
-    }
 
-    private def addId(id: String, element: Element) =
-        idIndex(id) = element :: (
-            idIndex.get(id) match {
+    private def addMapping(name: String, value: String, element: Element) = {
+        val values = index.getOrElseUpdate(name, m.Map())
+        values(value) = element :: (
+            values.get(value) match {
                 case Some(list) ⇒
                     // We should enable the assert below, but first we need to make sure we skip xforms-insert
                     // processing for an attribute replacement, because xxforms-replace has already handled the updated
@@ -469,10 +535,16 @@ trait XFormsInstanceIndex {
                 case None       ⇒ Nil
             }
         )
+    }
+
+    private def combineMappings(mappings: Seq[(String, String, Element)]) =
+        for ((name, value, element) ← mappings)
+            addMapping(name, value, element)
+}
 
-    private def combineMappings(mappings: Seq[(String, Element)]) =
-        for ((id, element) ← mappings)
-            addId(id, element)
+object XFormsInstanceIndex {
+    // Beyond this number of queued changes, creating the index again is likely cheaper than applying them
+    val MaxPendingChanges = 100
 }
 
 object XFormsInstance extends Logging {
@@ -535,7 +607,10 @@ object XFormsInstance extends Logging {
                 case Right(content) ⇒
                     debug("using initialized instance from state", Seq("id" → instanceState.effectiveId))
                     (None,
-                        createDocumentInfo(content, instanceState.readonly, instance.exposeXPathTypes))
+                        if (instanceState.readonly)
+                            content.toTinyTree(XPathCache.getGlobalConfiguration)
+                        else
+                            wrapDocument(content.toDom4j, instance.exposeXPathTypes))
             }
 
         model.indexInstance(
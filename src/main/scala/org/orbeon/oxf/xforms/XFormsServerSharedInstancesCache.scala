@@ -14,10 +14,11 @@
 package org.orbeon.oxf.xforms
 
 import analysis.model.Instance
-import org.orbeon.oxf.cache.InternalCacheKey
-import org.orbeon.oxf.cache.ObjectCache
+import org.orbeon.oxf.cache.{Weighable, CacheWeigher, InternalCacheKey, ObjectCache}
+import org.orbeon.oxf.properties.Properties
 import org.orbeon.oxf.util.IndentedLogger
 import org.orbeon.saxon.om.{VirtualNode, DocumentInfo}
+import java.util.concurrent.{TimeUnit, CountDownLatch, ConcurrentHashMap}
 import XFormsInstance._
 
 /**
@@ -30,13 +31,35 @@ object XFormsServerSharedInstancesCache {
     private val ConstantValidity = 0L
     private val SharedInstanceKeyType = XFormsSharedInstancesCacheName
 
+    private val LoadTimeoutProperty = "oxf." + XFormsSharedInstancesCacheName + ".load-timeout"
+    private val RefreshAheadProperty = "oxf." + XFormsSharedInstancesCacheName + ".refresh-ahead-percent"
+
     // Equivalent to load: (String, Boolean) ⇒ DocumentInfo
     trait Loader {
         def load(instanceSourceURI: String, handleXInclude: Boolean): DocumentInfo
     }
 
     private case class InstanceContent(documentInfo: DocumentInfo) { require(! documentInfo.isInstanceOf[VirtualNode]) }
-    private case class CacheEntry(instanceContent: InstanceContent, timeToLive: Long, timestamp: Long = System.currentTimeMillis)
+    private case class CacheEntry(instanceContent: InstanceContent, timeToLive: Long, timestamp: Long = System.currentTimeMillis) extends Weighable {
+        def getApproximateWeight = CacheWeigher.weigh(instanceContent.documentInfo)
+    }
+
+    // Load in progress for a given key
+    private class Load {
+        val thread = Thread.currentThread
+        val latch = new CountDownLatch(1)
+        @volatile var result: Option[DocumentInfo] = None
+    }
+
+    private val loadsInProgress = new ConcurrentHashMap[InternalCacheKey, Load]
+
+    private def propertySet = Properties.instance.getPropertySet
+
+    // How long a request waits for another request loading the same instance before loading it itself
+    private def loadTimeout = propertySet.getInteger(LoadTimeoutProperty, 10000).longValue
+
+    // Percentage of the time to live after which the instance is reloaded, or 0 to disable refresh-ahead
+    private def refreshAheadPercent = propertySet.getInteger(RefreshAheadProperty, 0).longValue
 
     // Try to find instance content in the cache but do not attempt to load it if not found
     def findContentOrNull(
@@ -44,7 +67,7 @@ object XFormsServerSharedInstancesCache {
             instance: Instance,
             instanceCaching: InstanceCaching,
             readonly: Boolean) =
-        find(instanceCaching)(indentedLogger) map (wrapDocumentInfo(_, readonly, instance.exposeXPathTypes)) orNull
+        find(instanceCaching)(indentedLogger) map (e ⇒ wrapDocumentInfo(e.instanceContent.documentInfo, readonly, instance.exposeXPathTypes)) orNull
 
     // Try to find instance content in the cache or load it
     def findContentOrLoad(
@@ -56,25 +79,19 @@ object XFormsServerSharedInstancesCache {
 
         implicit val logger = indentedLogger
 
+        val cacheKey = createCacheKey(instanceCaching)
+
         // Add an entry to the cache
         def add(instanceContent: InstanceContent, timeToLive: Long) = {
 
             debug("adding instance", instanceCaching.debugPairs)
 
             val cache = ObjectCache.instance(XFormsSharedInstancesCacheName, XFormsSharedInstancesCacheDefaultSize)
-            val cacheKey = createCacheKey(instanceCaching)
-
             cache.add(cacheKey, ConstantValidity, CacheEntry(instanceContent, timeToLive))
         }
 
         // Load and cache new instance content
         def loadAndCache() = {
-            // Note that this method is not synchronized. Scenario: if the method is synchronized, the resource URI may
-            // reach an XForms page which itself needs to load a shared resource. The result would be a deadlock.
-            // Without synchronization, what can happen is that two concurrent requests load the same URI at the same
-            // time. In the worst case scenario, the results will be different, and the two requesting XForms instances
-            // will be different. The instance that is retrieved first will be stored in the cache for a very short
-            // amount of time, and the one retrieved last will win and be stored in the cache for a longer time.
             debug("loading instance into cache", instanceCaching.debugPairs)
 
             val instanceContent = loader.load(instanceCaching.sourceURI, instanceCaching.handleXInclude)
@@ -82,10 +99,75 @@ object XFormsServerSharedInstancesCache {
             assert(! instanceContent.isInstanceOf[VirtualNode], "load() must return a TinyTree")
 
             add(InstanceContent(instanceContent), instanceCaching.timeToLive)
-            Some(instanceContent)
+            instanceContent
+        }
+
+        // Load with a single loader per key: concurrent requests for the same key wait for the result of the first one.
+        //
+        // NOTE: The resource URI may reach an XForms page which itself needs to load the same shared resource. On the
+        // same thread, we just load again. On another thread (e.g. a request to this server), the waiting request times
+        // out and loads the instance itself, so in the worst case scenario we get the same behavior as without
+        // coalescing: two requests load the same URI at the same time, and the last one wins in the cache.
+        def loadSingleFlight(): DocumentInfo = {
+            val newLoad = new Load
+            Option(loadsInProgress.putIfAbsent(cacheKey, newLoad)) match {
+                case None ⇒
+                    try {
+                        val documentInfo = loadAndCache()
+                        newLoad.result = Some(documentInfo)
+                        documentInfo
+                    } finally {
+                        loadsInProgress.remove(cacheKey, newLoad)
+                        newLoad.latch.countDown()
+                    }
+                case Some(existingLoad) if existingLoad.thread eq Thread.currentThread ⇒
+                    loadAndCache()
+                case Some(existingLoad) ⇒
+                    debug("waiting for instance being loaded by another request", instanceCaching.debugPairs)
+                    if (existingLoad.latch.await(loadTimeout, TimeUnit.MILLISECONDS))
+                        existingLoad.result getOrElse {
+                            // The other request failed to load the instance, so try again
+                            debug("instance failed to load in other request", instanceCaching.debugPairs)
+                            loadSingleFlight()
+                        }
+                    else {
+                        debug("timeout waiting for instance being loaded by another request", instanceCaching.debugPairs)
+                        loadAndCache()
+                    }
+            }
+        }
+
+        // Reload if the entry is about to expire, but only if no other request is already doing so. Other requests
+        // keep using the existing content in the meanwhile.
+        def refreshOrExisting(cacheEntry: CacheEntry): DocumentInfo = {
+            val newLoad = new Load
+            if (loadsInProgress.putIfAbsent(cacheKey, newLoad) eq null) {
+                debug("refreshing cached instance ahead of expiration", instanceCaching.debugPairs)
+                try {
+                    val documentInfo = loadAndCache()
+                    newLoad.result = Some(documentInfo)
+                    documentInfo
+                } catch {
+                    case e: Exception ⇒
+                        // Keep serving the existing content until it actually expires
+                        logger.logWarning("", "failed to refresh cached instance, using existing content", e)
+                        cacheEntry.instanceContent.documentInfo
+                } finally {
+                    loadsInProgress.remove(cacheKey, newLoad)
+                    newLoad.latch.countDown()
+                }
+            } else
+                cacheEntry.instanceContent.documentInfo
         }
 
-        find(instanceCaching) orElse loadAndCache map (wrapDocumentInfo(_, readonly, instance.exposeXPathTypes)) get
+        val documentInfo =
+            find(instanceCaching) match {
+                case Some(cacheEntry) if isRefreshNeeded(cacheEntry) ⇒ refreshOrExisting(cacheEntry)
+                case Some(cacheEntry)                                ⇒ cacheEntry.instanceContent.documentInfo
+                case None                                            ⇒ loadSingleFlight()
+            }
+
+        wrapDocumentInfo(documentInfo, readonly, instance.exposeXPathTypes)
     }
 
     // Remove the given entry from the cache if present
@@ -113,19 +195,16 @@ object XFormsServerSharedInstancesCache {
         val cache = ObjectCache.instance(XFormsSharedInstancesCacheName, XFormsSharedInstancesCacheDefaultSize)
         val cacheKey = createCacheKey(instanceCaching)
 
-        def isExpired(cacheEntry: CacheEntry) =
-            cacheEntry.timeToLive >= 0 && ((cacheEntry.timestamp + cacheEntry.timeToLive) < System.currentTimeMillis)
-
         Option(cache.findValid(cacheKey, ConstantValidity).asInstanceOf[CacheEntry]) match {
             case Some(cacheEntry) if isExpired(cacheEntry) ⇒
                 // Remove expired entry
                 debug("expiring cached instance", instanceCaching.debugPairs)
                 cache.remove(cacheKey)
                 None
-            case Some(cacheEntry) ⇒
+            case some @ Some(cacheEntry) ⇒
                 // Instance was found
                 debug("found cached instance", instanceCaching.debugPairs)
-                Some(cacheEntry.instanceContent.documentInfo)
+                some
             case _ ⇒
                 // Not found
                 debug("cached instance not found", instanceCaching.debugPairs)
@@ -133,6 +212,14 @@ object XFormsServerSharedInstancesCache {
         }
     }
 
+    private def isExpired(cacheEntry: CacheEntry) =
+        cacheEntry.timeToLive >= 0 && ((cacheEntry.timestamp + cacheEntry.timeToLive) < System.currentTimeMillis)
+
+    // Whether the entry has reached the refresh-ahead portion of its time to live
+    private def isRefreshNeeded(cacheEntry: CacheEntry) =
+        cacheEntry.timeToLive >= 0 && refreshAheadPercent > 0 &&
+            cacheEntry.timestamp + cacheEntry.timeToLive * refreshAheadPercent / 100 < System.currentTimeMillis
+
     // Make key also depend on handleXInclude and on request body hash if present
     private def createCacheKey(instanceCaching: InstanceCaching): InternalCacheKey =
         createCacheKey(instanceCaching.sourceURI, instanceCaching.handleXInclude, instanceCaching.requestBodyHash)
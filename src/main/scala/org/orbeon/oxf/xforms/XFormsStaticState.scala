@@ -15,6 +15,7 @@ package org.orbeon.oxf.xforms
 
 import java.util.Set
 import org.orbeon.oxf.util.IndentedLogger
+import org.orbeon.oxf.xforms.analysis.PathIds
 import org.orbeon.oxf.xml.dom4j.LocationData
 import state.AnnotatedTemplate
 import org.orbeon.oxf.xml.ContentHandlerHelper
@@ -39,6 +40,7 @@ trait XFormsStaticState {
     def isHTMLDocument: Boolean
 
     def isXPathAnalysis: Boolean
+    def pathIds: PathIds
     def sanitizeInput: String ⇒ String
 
     def getNonDefaultProperties: Map[String, AnyRef]
@@ -47,6 +47,9 @@ class XFormsStaticStateImpl(
     val getIndentedLogger = Loggers.getIndentedLogger("analysis")
     val locationData = staticStateDocument.locationData
 
+    // Ids of the instance paths found by the XPath analysis, shared by all parts
+    val pathIds = new PathIds
+
     // Create top-level part once vals are all initialized
     val topLevelPart = new PartAnalysisImpl(this, None, startScope, metadata, staticStateDocument)
 
@@ -137,7 +137,7 @@ object XFormsAction {
                             contextStack.getFunctionContext(actionInterpreter.getSourceEffectiveId(element)),
                             null,
                             element.getData.asInstanceOf[LocationData],
-                            actionInterpreter.containingDocument().getRequestStats.addXPathStat).asScala)
+                            actionInterpreter.containingDocument().getRequestStats.getReporter).asScala)
 
                         contextStack.returnFunctionContext()
                         contextStack.popBinding()
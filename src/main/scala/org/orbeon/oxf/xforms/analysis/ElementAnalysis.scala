@@ -149,19 +149,42 @@ abstract class ElementAnalysis(
     final lazy val nonRelevantExtensionAttributes = extensionAttributes map { case (k, v) ⇒ k → (if (maybeAVT(v)) "" else v) } // all blank values for AVTs
 
     // XPath analysis
+    // The analysis of an element depends on the analysis of other elements, such as ancestors and variables in scope. If
+    // one of these is not analyzed yet, it is analyzed first, which allows analyzing elements in any order, including in
+    // parallel (see PartControlsAnalysis). Flags are volatile so that analyses done by another thread are visible.
     private var contextAnalysis: Option[XPathAnalysis] = None
-    private var _contextAnalyzed = false
+    @volatile private var _contextAnalyzed = false
     private var bindingAnalysis: Option[XPathAnalysis] = None
-    private var _bindingAnalyzed = false
+    @volatile private var _bindingAnalyzed = false
     private var valueAnalysis: Option[XPathAnalysis] = None
-    private var _valueAnalyzed = false
+    @volatile private var _valueAnalyzed = false
+    private var xpathAnalysisStarted = false
     def valueAnalyzed = _valueAnalyzed
 
-    final def getContextAnalysis = { assert(_contextAnalyzed); contextAnalysis }
-    final def getBindingAnalysis = { assert(_bindingAnalyzed); bindingAnalysis }
-    final def getValueAnalysis = { assert(_valueAnalyzed); valueAnalysis }
+    final def getContextAnalysis = { if (! _contextAnalyzed) ensureXPathAnalyzed(); assert(_contextAnalyzed); contextAnalysis }
+    final def getBindingAnalysis = { if (! _bindingAnalyzed) ensureXPathAnalyzed(); assert(_bindingAnalyzed); bindingAnalysis }
+    final def getValueAnalysis   = { if (! _valueAnalyzed)   ensureXPathAnalyzed(); assert(_valueAnalyzed);   valueAnalysis }
+
+    // Analyze unless the analysis is already done or in progress, waiting for another thread to complete it if needed
+    // Nested elements which depend on this element, such as local LHHA, are analyzed once this element's lock is
+    // released, so that an element's lock is only held while waiting for the elements it depends on. This is the only
+    // way to start the analysis of an element, so that it only takes place once.
+    final def ensureXPathAnalyzed(): Unit = {
+        val started =
+            synchronized {
+                if (! xpathAnalysisStarted) {
+                    xpathAnalysisStarted = true
+                    analyzeXPath()
+                    true
+                } else
+                    false
+            }
+
+        if (started)
+            analyzeNestedXPath()
+    }
 
-    def analyzeXPath(): Unit = {
+    protected def analyzeXPath(): Unit = {
         contextAnalysis = computeContextAnalysis
         _contextAnalyzed = true
         bindingAnalysis = computeBindingAnalysis
@@ -170,6 +193,9 @@ abstract class ElementAnalysis(
         _valueAnalyzed = true
     }
 
+    // Analyze nested elements with ensureXPathAnalyzed()
+    protected def analyzeNestedXPath(): Unit = ()
+
     // To implement in subclasses
     protected def computeContextAnalysis: Option[XPathAnalysis]
     protected def computeBindingAnalysis: Option[XPathAnalysis]
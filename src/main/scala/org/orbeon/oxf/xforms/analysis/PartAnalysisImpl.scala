@@ -236,7 +236,7 @@ class PartAnalysisImpl(
             // NOTE: For now, we don't analyze the XPath of nested (dynamic) parts
             if (isTopLevel && staticState.isXPathAnalysis) {
                 // Analyze root control XPath first as nested models might ask for its context
-                rootControlAnalysis.analyzeXPath()
+                rootControlAnalysis.ensureXPathAnalyzed()
                 // Analyze all models XPath
                 analyzeModelsXPath()
                 // Analyze controls XPath
@@ -20,6 +20,10 @@ import org.dom4j.QName
 import org.orbeon.oxf.xforms.XFormsConstants._
 import collection.mutable.{Buffer, HashMap, HashSet, LinkedHashMap}
 import org.orbeon.oxf.xforms.event.EventHandlerImpl
+import org.orbeon.oxf.xforms.XFormsProperties
+import org.orbeon.oxf.util.DynamicVariable
+import scala.collection.parallel.ForkJoinTaskSupport
+import scala.concurrent.forkjoin.ForkJoinPool
 
 trait PartControlsAnalysis extends TransientState {
 
@@ -111,9 +115,21 @@ trait PartControlsAnalysis extends TransientState {
         }
     }
 
-    protected def analyzeControlsXPath() =
-        for (control ← controlAnalysisMap.values)
-            control.analyzeXPath()
+    // Analyze the XPath of all controls, in parallel if configured and if the form is large enough
+    // NOTE: Elements analyze the elements they depend on first if needed, so the result doesn't depend on the order.
+    // The IndentedLogger is not thread-safe, so stay sequential when debugging.
+    protected def analyzeControlsXPath() = {
+        val controls = controlAnalysisMap.values.toVector
+
+        val parallelism = PartControlsAnalysis.Parallelism.value.get
+
+        if (parallelism > 1 && controls.size >= PartControlsAnalysis.ParallelThreshold && ! getIndentedLogger.isDebugEnabled) {
+            val parallelControls = controls.par
+            parallelControls.tasksupport = PartControlsAnalysis.taskSupport(parallelism)
+            parallelControls foreach (_.ensureXPathAnalyzed())
+        } else
+            controls foreach (_.ensureXPathAnalyzed())
+    }
 
     def getControlAnalysis(prefixedId: String) = controlAnalysisMap.get(prefixedId) orNull
 
@@ -205,4 +221,20 @@ trait PartControlsAnalysis extends TransientState {
             case _ ⇒
         }
     }
-}
\ No newline at end of file
+}
+
+object PartControlsAnalysis {
+
+    // Below this number of controls, the overhead of going parallel is not worth it
+    private val ParallelThreshold = 200
+
+    // Number of threads, from the oxf.xforms.analysis.parallelism property unless set for the current thread
+    val Parallelism = new DynamicVariable[Int](Some(XFormsProperties.getAnalysisParallelism), isInheritable = false)
+
+    // Pools shared by all analyses, by number of threads
+    private val TaskSupports = HashMap[Int, ForkJoinTaskSupport]()
+
+    private def taskSupport(parallelism: Int) = TaskSupports synchronized {
+        TaskSupports.getOrElseUpdate(parallelism, new ForkJoinTaskSupport(new ForkJoinPool(parallelism)))
+    }
+}
@@ -82,7 +82,7 @@ trait PartModelAnalysis extends TransientState {
             (scope, models) ← modelsByScope
             model ← models
         } yield
-            model.analyzeXPath()
+            model.ensureXPathAnalyzed()
 
     override def freeTransientState() = {
         super.freeTransientState()
@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.analysis
+
+import java.util.BitSet
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import org.orbeon.oxf.xforms.MapSet
+
+/**
+ * Intern instance paths as small integer ids, so that runtime changesets can be BitSets and checking whether an
+ * analysis depends on a changeset doesn't hash any strings.
+ *
+ * Ids are assigned during static analysis, possibly from multiple threads. A path which doesn't have an id at runtime
+ * is not a dependency of any analysis.
+ */
+class PathIds {
+
+    private val ids    = new ConcurrentHashMap[String, Integer]
+    private val nextId = new AtomicInteger
+
+    // NOTE: A space can't appear in an id or in an internal path
+    private def key(instancePrefixedId: String, path: String) = instancePrefixedId + ' ' + path
+
+    // Return the id of the given path, assigning a new id if needed
+    def intern(instancePrefixedId: String, path: String): Int = {
+        val k = key(instancePrefixedId, path)
+        Option(ids.get(k)) getOrElse {
+            val newId = Integer.valueOf(nextId.getAndIncrement)
+            Option(ids.putIfAbsent(k, newId)) getOrElse newId
+        }
+    }
+
+    // Return the sorted ids of the given paths
+    def intern(paths: MapSet[String, String]): Array[Int] =
+        if (paths.isEmpty)
+            PathIds.NoIds
+        else
+            (paths map { case (instancePrefixedId, path) ⇒ intern(instancePrefixedId, path) }).toArray.distinct.sorted
+
+    // Return the id of the given path, or -1 if the path was never interned
+    def id(instancePrefixedId: String, path: String): Int = {
+        val existing = ids.get(key(instancePrefixedId, path))
+        if (existing eq null) -1 else existing.intValue
+    }
+
+    def size = ids.size
+}
+
+object PathIds {
+
+    val NoIds = new Array[Int](0)
+
+    // Whether any of the given ids is in the set
+    // NOTE: This is called for each control upon refresh, so don't allocate.
+    def intersects(ids: Array[Int], set: BitSet): Boolean = {
+        if (set.isEmpty)
+            return false
+
+        var i = 0
+        while (i < ids.length) {
+            if (set.get(ids(i)))
+                return true
+            i += 1
+        }
+        false
+    }
+}
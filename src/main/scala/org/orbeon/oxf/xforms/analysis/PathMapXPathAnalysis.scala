@@ -40,9 +40,13 @@ class PathMapXPathAnalysis(val xpathString: String,
                            val valueDependentPaths: MapSet[String, String],
                            val returnablePaths: MapSet[String, String],
                            val dependentModels: collection.Set[String],
-                           val dependentInstances: collection.Set[String])
+                           val dependentInstances: collection.Set[String],
+                           pathIds: PathIds)
         extends XPathAnalysis {
 
+    val valueDependentPathIds = pathIds.intern(valueDependentPaths)
+    val returnablePathIds     = pathIds.intern(returnablePaths)
+
     // If `values` is false, the other analysis just adds to the dependencies of the current analysis, but no new
     // returnable values are added.
     def combine(other: XPathAnalysis): XPathAnalysis =
@@ -67,7 +71,8 @@ class PathMapXPathAnalysis(val xpathString: String,
                         valueDependentPaths combine other.valueDependentPaths,
                         returnablePaths combine other.returnablePaths,
                         dependentModels ++ other.dependentModels,
-                        dependentInstances ++ other.dependentInstances)
+                        dependentInstances ++ other.dependentInstances,
+                        pathIds)
                 case _ ⇒
                     throw new IllegalStateException // should not happen
             }
@@ -80,7 +85,8 @@ class PathMapXPathAnalysis(val xpathString: String,
             valueDependentPaths combine returnablePaths,
             MapSet.empty[String, String],
             dependentModels,
-            dependentInstances)
+            dependentInstances,
+            pathIds)
 
     def toXML(helper: ContentHandlerHelper) {
 
@@ -276,7 +282,7 @@ object PathMapXPathAnalysis {
 
                     if (processPaths())
                         // Success
-                        new PathMapXPathAnalysis(xpathString, Some(pathmap), true, valueDependentPaths, returnablePaths, dependentModels, dependentInstances)
+                        new PathMapXPathAnalysis(xpathString, Some(pathmap), true, valueDependentPaths, returnablePaths, dependentModels, dependentInstances, partAnalysis.staticState.pathIds)
                     else
                         // Failure
                         NegativeAnalysis(xpathString)
@@ -19,7 +19,7 @@ import org.orbeon.oxf.xforms._
 import analysis.controls._
 import org.w3c.dom.Node._
 import org.orbeon.oxf.common.OXFException
-import java.util.{Map ⇒ JMap}
+import java.util.{BitSet, Map ⇒ JMap}
 import java.lang.String
 import collection.immutable.Nil
 import org.orbeon.saxon.om.{VirtualNode, NodeInfo}
@@ -30,6 +30,9 @@ class PathMapXPathDependencies(private val containingDocument: XFormsContainingD
         case controls: XFormsControls ⇒ controls.getIndentedLogger
         case _ ⇒ containingDocument.indentedLogger
     }
+
+    // Changesets contain the ids of the modified paths, as interned during static analysis
+    private lazy val pathIds = containingDocument.getStaticState.pathIds
     
     // Represent the state of changes to a model
     private class ModelState(private val modelPrefixedId: String) {
@@ -40,7 +43,7 @@ class PathMapXPathDependencies(private val containingDocument: XFormsContainingD
         var validateMIPsEvaluatedOnce  = false  // start dirty
 
         // Meaning of a change: "the string value of the node has changed"
-        var recalculateChangeset = new MapSet[String, String]   // changeset for recalculate MIPs
+        var recalculateChangeset = new BitSet                   // changeset for recalculate MIPs
         var revalidateChangeset  = recalculateChangeset         // changeset for revalidate MIPs
 
         def markValueChanged(node: NodeInfo) {
@@ -56,14 +59,16 @@ class PathMapXPathDependencies(private val containingDocument: XFormsContainingD
                 def processNode(n: NodeInfo) {
                     val path = PathMapXPathDependencies.createFingerprintedPath(n)
 
-                    val instancePath = instancePrefixedId → path
-
-                    // Update model and view changesets
-                    recalculateChangeset += instancePath
-                    if (revalidateChangeset ne recalculateChangeset)
-                        revalidateChangeset += instancePath // also add to revalidate changeset if it is different
+                    // A path without an id is not a dependency of any expression, so it can't impact anything
+                    val pathId = pathIds.id(instancePrefixedId, path)
+                    if (pathId != -1) {
+                        // Update model and view changesets
+                        recalculateChangeset.set(pathId)
+                        if (revalidateChangeset ne recalculateChangeset)
+                            revalidateChangeset.set(pathId) // also add to revalidate changeset if it is different
 
-                    RefreshState.changeset += instancePath
+                        RefreshState.changeset.set(pathId)
+                    }
 
                     // Add parent elements as well. The idea is that if the string value of /a/b/c changed, then the
                     // string value of /a/b did as well, and so did /a's.
@@ -116,10 +121,10 @@ class PathMapXPathDependencies(private val containingDocument: XFormsContainingD
 
         // Return an empty changeset, trying to point to the empty right changeset if possible
         // This is so that we can try to avoid adding changes to both changesets later
-        private def clearChangeset(left: MapSet[String, String], right: MapSet[String, String]) =
-            if (right isEmpty) right
+        private def clearChangeset(left: BitSet, right: BitSet) =
+            if (right.isEmpty) right
             else if (left ne right) { left.clear(); left }
-            else new MapSet[String, String]
+            else new BitSet
 
         def refreshDone() = ()
 
@@ -146,8 +151,8 @@ class PathMapXPathDependencies(private val containingDocument: XFormsContainingD
         // Structural changes
         val structuralChangeModels = new HashSet[String]
 
-        // Modified paths by instance
-        val changeset = new MapSet[String, String]
+        // Ids of modified paths
+        val changeset = new BitSet
 
         // Caches to speedup checks on repeated items
         val modifiedBindingCache = new HashMap[String, UpdateResult]
@@ -312,7 +317,7 @@ class PathMapXPathDependencies(private val containingDocument: XFormsContainingD
     def setModifiedPathTest(instance: String, namespaces: JMap[String, String], path: String) {
         assert(RefreshState.changeset.isEmpty)
 
-        RefreshState.changeset += instance → PathMapXPathAnalysis.getInternalPath(namespaces, path)
+        RefreshState.changeset.set(pathIds.intern(instance, PathMapXPathAnalysis.getInternalPath(namespaces, path)))
     }
 
     private case class UpdateResult(requireUpdate: Boolean, savedEvaluations: Int)
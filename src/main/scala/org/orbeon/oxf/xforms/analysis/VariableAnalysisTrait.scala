@@ -77,7 +77,7 @@ trait VariableAnalysisTrait extends SimpleElementAnalysis with VariableTrait {
         sequenceAnalysis match {
             case Some(sequenceAnalysis) ⇒
                 // Value is provided by nested xxf:sequence/@value
-                sequenceAnalysis.analyzeXPath()
+                sequenceAnalysis.ensureXPathAnalyzed()
                 sequenceAnalysis.getValueAnalysis
             case None ⇒
                 // No nested xxf:sequence element
@@ -13,6 +13,7 @@
  */
 package org.orbeon.oxf.xforms.analysis
 
+import java.util.BitSet
 import org.orbeon.oxf.xforms.MapSet
 import org.orbeon.oxf.xml.XMLUtils.DebugXML
 import org.orbeon.oxf.xml.ContentHandlerHelper
@@ -31,6 +32,10 @@ abstract class XPathAnalysis extends DebugXML  {
     val dependentModels: collection.Set[String]
     val dependentInstances: collection.Set[String]
 
+    // Sorted ids of the paths above, interned during static analysis
+    def valueDependentPathIds: Array[Int]
+    def returnablePathIds: Array[Int]
+
     def returnableInstances = returnablePaths.keys
 
     // For all those, return true if any path matches
@@ -40,6 +45,10 @@ abstract class XPathAnalysis extends DebugXML  {
     def intersectsModels (touchedModels: collection.Set[String]) = dependentModels exists (touchedModels contains _)
     def intersectsValue  (touchedPaths:  MapSet[String, String]) = intersectsBinding(touchedPaths) || (returnablePaths intersects touchedPaths)
 
+    // Same as above for the runtime changesets, which contain path ids
+    def intersectsBinding(touchedPathIds: BitSet) = PathIds.intersects(valueDependentPathIds, touchedPathIds)
+    def intersectsValue  (touchedPathIds: BitSet) = intersectsBinding(touchedPathIds) || PathIds.intersects(returnablePathIds, touchedPathIds)
+
     // Combine this analysis with another one and return a new analysis
     def combine(other: XPathAnalysis): XPathAnalysis
 
@@ -68,6 +77,9 @@ object XPathAnalysis {
         val returnablePaths = MapSet.empty[String, String]
         val valueDependentPaths = MapSet.empty[String, String]
 
+        def valueDependentPathIds = PathIds.NoIds
+        def returnablePathIds = PathIds.NoIds
+
         def makeValuesDependencies = this
 
         def toXML(helper: ContentHandlerHelper) =
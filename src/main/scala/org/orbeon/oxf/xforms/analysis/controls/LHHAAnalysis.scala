@@ -80,7 +80,7 @@ class LHHAAnalysis(staticStateContext: StaticStateContext, element: Element, par
                 new SimpleElementAnalysis(staticStateContext, element, parent, preceding, scope)
                     with ValueTrait with OptionalSingleNode with ViewTrait
 
-            delegateAnalysis.analyzeXPath()
+            delegateAnalysis.ensureXPathAnalyzed()
 
             if (ref.isDefined || value.isDefined) {
                 // 1. E.g. <xf:label model="…" context="…" value|ref="…"/>
@@ -104,7 +104,7 @@ class LHHAAnalysis(staticStateContext: StaticStateContext, element: Element, par
                             val outputAnalysis =
                                 new SimpleElementAnalysis(staticStateContext, element, Some(delegateAnalysis), None, delegateAnalysis.getChildElementScope(element))
                                     with ValueTrait with OptionalSingleNode with ViewTrait
-                            outputAnalysis.analyzeXPath()
+                            outputAnalysis.ensureXPathAnalyzed()
                             if (outputAnalysis.getValueAnalysis.isDefined)
                                 combinedAnalysis = combinedAnalysis combine outputAnalysis.getValueAnalysis.get
                         } else if (hostLanguageAVTs) {
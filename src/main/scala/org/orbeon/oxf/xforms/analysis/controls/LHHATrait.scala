@@ -39,10 +39,10 @@ trait LHHATrait extends SimpleElementAnalysis {
 
     def getLHHAValueAnalysis(lhhaType: String) = lhha.get(lhhaType) flatMap (_.getValueAnalysis)
 
-    override def analyzeXPath() = {
-        super.analyzeXPath()
+    override protected def analyzeNestedXPath() = {
+        super.analyzeNestedXPath()
         // Only analyze local LHHA as external LHHA are analyzed like controls
-        getAllLHHA filter (_.isLocal) foreach (_.analyzeXPath())
+        getAllLHHA filter (_.isLocal) foreach (_.ensureXPathAnalyzed())
     }
 
     override def freeTransientState() {
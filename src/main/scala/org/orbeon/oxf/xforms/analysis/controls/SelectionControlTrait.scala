@@ -53,7 +53,7 @@ trait SelectionControlTrait extends InputValueControl with SelectAppearanceTrait
 
     final def getItemsetAnalysis = { assert(_itemsetAnalyzed); itemsetAnalysis }
 
-    override def analyzeXPath() = {
+    override protected def analyzeXPath() = {
         super.analyzeXPath()
         itemsetAnalysis = computeItemsetAnalysis()
         _itemsetAnalyzed = true
@@ -84,7 +84,7 @@ trait SelectionControlTrait extends InputValueControl with SelectAppearanceTrait
 
                     if (nestedElement ne null) {
                         val nestedAnalysis = new LHHAAnalysis(staticStateContext, nestedElement, Some(itemElementAnalysis), None, itemElementAnalysis.getChildElementScope(nestedElement))
-                        nestedAnalysis.analyzeXPath()
+                        nestedAnalysis.ensureXPathAnalyzed()
                         combinedAnalysis = combinedAnalysis combine nestedAnalysis.getValueAnalysis.get
                     }
                 }
@@ -107,7 +107,7 @@ trait SelectionControlTrait extends InputValueControl with SelectAppearanceTrait
                         // expressions, but it must be done for itemsets.
                         //
                         // See also #289 https://github.com/orbeon/orbeon-forms/issues/289 (closed)
-                        itemElementAnalysis.analyzeXPath()
+                        itemElementAnalysis.ensureXPathAnalyzed()
                         combinedAnalysis = combinedAnalysis combine itemElementAnalysis.getBindingAnalysis.get.makeValuesDependencies
 
                         processElement(LABEL_QNAME, required = true)
@@ -116,7 +116,7 @@ trait SelectionControlTrait extends InputValueControl with SelectAppearanceTrait
                     case XFORMS_CHOICES_QNAME ⇒
 
                         // Analyze container and add as a value dependency (see above)
-                        itemElementAnalysis.analyzeXPath()
+                        itemElementAnalysis.ensureXPathAnalyzed()
                         combinedAnalysis = combinedAnalysis combine itemElementAnalysis.getBindingAnalysis.get.makeValuesDependencies
 
                         processElement(LABEL_QNAME, required = false) // label is optional on xf:choices
@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.analysis.model
+
+import collection.mutable
+import org.orbeon.oxf.xforms.MapSet
+import org.orbeon.saxon.expr.{ContextItemExpression, PathMap}
+import org.orbeon.saxon.om.Axis
+
+/**
+ * Dependency graph between the calculate binds of a model, in the spirit of the XForms 1.1 master dependency graph.
+ *
+ * Bind B depends on bind A if the calculate expression of B depends on a path written by the calculate of A, that is
+ * a path returned by the binding of A. Dependencies are known statically by path only, so the graph has one vertex per
+ * static bind and not one per bind iteration.
+ *
+ * Within a bind, the iterations which must be recalculated are found at runtime, see ancestorLevel().
+ */
+object BindDependencyGraph {
+
+    // Return the calculate binds ordered so that each bind follows the binds it depends on, or None if the dependencies
+    // are not all known or if they are circular
+    def calculateOrder(binds: Seq[Model#Bind]): Option[Seq[Model#Bind]] = {
+
+        val calculateBinds = binds filter (_.getCalculate ne null)
+
+        // Paths written by each calculate bind
+        val writtenPaths =
+            calculateBinds map { bind ⇒
+                bind → (bind.getBindingAnalysis filter (_.figuredOutDependencies) map (a ⇒ withAncestors(a.returnablePaths)))
+            }
+
+        val allFiguredOut =
+            (writtenPaths forall (_._2.isDefined)) && (calculateBinds forall (_.getCalculate.analysis.figuredOutDependencies))
+
+        if (! allFiguredOut)
+            None
+        else {
+            val written = writtenPaths map { case (bind, paths) ⇒ bind → paths.get }
+
+            // A calculate which depends on its own node doesn't introduce a cycle, as it only reads the previous value
+            def dependencies(bind: Model#Bind) =
+                written collect {
+                    case (other, paths) if (other ne bind) && bind.getCalculate.analysis.intersectsValue(paths) ⇒ other
+                }
+
+            // Depth-first topological sort, visiting binds in document order so that independent binds keep that order
+            val done   = mutable.Map[Model#Bind, Boolean]() // false while visiting, true once visited
+            val result = mutable.ListBuffer[Model#Bind]()
+
+            def visit(bind: Model#Bind): Boolean =
+                done.get(bind) match {
+                    case Some(isDone) ⇒
+                        isDone // not done means a cycle
+                    case None ⇒
+                        done += bind → false
+                        val acyclic = dependencies(bind) forall visit
+                        if (acyclic) {
+                            done += bind → true
+                            result += bind
+                        }
+                        acyclic
+                }
+
+            if (calculateBinds forall visit) Some(result.toList) else None
+        }
+    }
+
+    // Add the ancestors of the given paths, as changing the value of a node also changes the string value of its
+    // ancestors (see PathMapXPathDependencies)
+    def withAncestors(paths: MapSet[String, String]): MapSet[String, String] = {
+        val result = new MapSet[String, String]
+        for ((instance, path) ← paths) {
+            val steps = path split '/' filter (_.nonEmpty)
+            for (i ← 0 to steps.length)
+                result.put(instance, steps take i mkString "/")
+        }
+        result
+    }
+
+    // Number of levels above the context item up to which an expression reads, if the expression only reads nodes under
+    // the ancestor at that level. None if the expression reads any other node, e.g. with an absolute path, instance(), a
+    // variable, or a sibling axis. For example, this is 1 for ../price * ../units, and 2 for sum(../../item/price).
+    def ancestorLevel(pathmap: PathMap): Option[Int] = {
+
+        def stepDepth(axis: Byte) = axis match {
+            case Axis.PARENT                                                ⇒ Some(-1)
+            case Axis.SELF | Axis.DESCENDANT_OR_SELF                        ⇒ Some(0)
+            case Axis.CHILD | Axis.ATTRIBUTE | Axis.NAMESPACE | Axis.DESCENDANT ⇒ Some(1)
+            case _                                                          ⇒ None
+        }
+
+        // Highest level reached from the given node, at the given depth relative to the context item
+        // After a descendant step, the depth is at least one more, which is enough to find the highest level.
+        def highestLevel(node: PathMap.PathMapNode, depth: Int): Option[Int] = {
+            val levels =
+                node.getArcs.toList map { arc ⇒
+                    stepDepth(arc.getStep.getAxis) flatMap { delta ⇒
+                        val newDepth = depth + delta
+                        highestLevel(arc.getTarget, newDepth) map (_ max -newDepth)
+                    }
+                }
+
+            if (levels forall (_.isDefined)) Some((0 :: levels.flatten).max) else None
+        }
+
+        val roots = pathmap.getPathMapRoots.toList
+
+        if (pathmap.isInvalidated || ! (roots forall (_.getRootExpression.isInstanceOf[ContextItemExpression])))
+            None
+        else {
+            val levels = roots map (highestLevel(_, 0))
+            if (levels forall (_.isDefined)) Some((0 :: levels.flatten).max) else None
+        }
+    }
+}
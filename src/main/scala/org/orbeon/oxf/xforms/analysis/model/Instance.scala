@@ -97,9 +97,10 @@ trait InstanceMetadata {
 
     val exposeXPathTypes = Option(element.attributeValue(XXFORMS_EXPOSE_XPATH_TYPES_QNAME)) map (_ == "true") getOrElse ! readonly && partExposeXPathTypes
 
-    val (indexIds, indexClasses) = {
+    // xxf:index="id class @code" indexes ids, classes, and values of the attributes listed with a leading "@"
+    val (indexIds, indexClasses, indexKeys) = {
         val tokens = attSet(element, XXFORMS_INDEX_QNAME)
-        (tokens("id"), tokens("class"))
+        (tokens("id"), tokens("class"), tokens collect { case token if token.startsWith("@") ⇒ token.substring(1) })
     }
 
     private val validation = element.attributeValue(XXFORMS_VALIDATION_QNAME)
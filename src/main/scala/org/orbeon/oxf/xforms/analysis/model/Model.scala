@@ -31,6 +31,8 @@ import org.orbeon.oxf.xml.dom4j.Dom4jUtils
 import org.orbeon.oxf.util.{XPath ⇒ OrbeonXPath}
 import org.orbeon.oxf.xforms.library.XFormsFunctionLibrary
 import org.orbeon.oxf.common.ValidationException
+import org.orbeon.saxon.expr.PathMap
+import scala.util.control.NonFatal
 
 /**
  * Static analysis of an XForms model <xf:model> element.
@@ -73,9 +75,8 @@ class Model(val staticStateContext: StaticStateContext, elem: Element, parent: O
     // Above we only create actions, submissions and instances as children. But binds are also indexed so add them.
     override def indexedElements = super.indexedElements ++ bindsById.values
 
-    override def analyzeXPath() {
-        // Analyze this
-        super.analyzeXPath()
+    override protected def analyzeNestedXPath() {
+        super.analyzeNestedXPath()
 
         analyzeVariablesXPath()
         analyzeBindsXPath()
@@ -174,7 +175,7 @@ trait ModelVariables {
 
     def analyzeVariablesXPath(): Unit =
         for (variable ← variablesSeq)
-            variable.analyzeXPath()
+            variable.ensureXPathAnalyzed()
 
     def variablesToXML(helper: ContentHandlerHelper): Unit =
         // Output variable information
@@ -427,6 +428,17 @@ class BindTree(model: Model, bindElements: Seq[Element], isCustomMIP: QName ⇒
         def hasCustomMIPs = customMIPNameToXPathMIP.nonEmpty
         def hasMIPs = hasCalculateComputedMIPs || hasValidateMIPs || hasCustomMIPs
 
+        // Number of levels above the bound node under which the calculate expression reads, or -1 if unknown, so that
+        // an iteration of the bind is recalculated only if nodes changed under its ancestor at that level
+        lazy val calculateAncestorLevel: Int =
+            Option(getCalculate) flatMap { mip ⇒
+                val pathmap =
+                    try Some(new PathMap(mip.compiledExpression.expression.getInternalExpression, Predef.Map[String, PathMap]().asJava, new SimplePathMapContext))
+                    catch { case NonFatal(_) ⇒ None }
+
+                pathmap flatMap BindDependencyGraph.ancestorLevel
+            } getOrElse -1
+
         // Globally remember if we have seen these categories of binds
         bindTree.hasDefaultValueBind ||= getDefaultValue ne null
         bindTree.hasCalculateBind ||= getCalculate ne null
@@ -447,7 +459,7 @@ class BindTree(model: Model, bindElements: Seq[Element], isCustomMIP: QName ⇒
         def analyzeXPathGather: Boolean = {
 
             // Analyze context/binding
-            analyzeXPath()
+            ensureXPathAnalyzed()
 
             // If successful, gather derived information
             val refSucceeded =
@@ -550,6 +562,11 @@ class BindTree(model: Model, bindElements: Seq[Element], isCustomMIP: QName ⇒
         }
     }
 
+    // Calculate binds in dependency order, if all dependencies are known
+    // NOTE: Binds added later with addBind() are not part of the graph, but XPath analysis is not used in that case
+    lazy val calculateBindsInDependencyOrder: Option[Seq[Bind]] =
+        if (figuredAllBindRefAnalysis) BindDependencyGraph.calculateOrder(bindsById.values.toList) else None
+
     def bindsToXML(helper: ContentHandlerHelper): Unit =
         // Output binds information
         if (topLevelBinds.nonEmpty) {
@@ -646,6 +663,9 @@ trait ModelBinds {
 
     def figuredAllBindRefAnalysis = bindTree().figuredAllBindRefAnalysis
 
+    // For Java callers (can return null)
+    def jCalculateBindsInDependencyOrder = bindTree().calculateBindsInDependencyOrder map (_.asJava) orNull
+
     def analyzeBindsXPath() = bindTree().analyzeBindsXPath()
     def bindsToXML(helper: ContentHandlerHelper) = bindTree().bindsToXML(helper)
     def freeBindsTransientState() = bindTree().freeBindsTransientState()
@@ -14,21 +14,32 @@
 package org.orbeon.oxf.xforms.analytics
 
 import collection.mutable
-import org.orbeon.oxf.xforms.XFormsProperties
+import java.util.concurrent.atomic.AtomicLong
+import org.orbeon.oxf.util.LoggerFactory
+import org.orbeon.oxf.xforms.{XFormsContainingDocument, XFormsProperties}
 
 // Gather request statistics
-// For now, only support XPath statistics
+// Values are aggregated into XFormsMetrics after each response. When the request is not sampled, NOPRequestStats is
+// used so that the instrumentation costs next to nothing.
 trait RequestStats {
     def afterInitialResponse()
     def afterUpdateResponse()
     def addXPathStat(expr: String, time: Long)
     def withXPath[T](expr: ⇒ String)(body: ⇒ T): T
+    def addBindStats(evaluations: Int, skippedIterations: Int)
+
+    // Add to the value of a metric for this request (see XFormsMetrics)
+    def addValue(metric: String, value: Long)
+    def withTimer[T](metric: String)(body: ⇒ T): T
 
     // For Java callers
     def getReporter: (String, Long) ⇒ Unit = addXPathStat
+    def startTimer: Long
+    def addTime(metric: String, startTime: Long)
 }
 
-class RequestStatsImpl extends RequestStats {
+// NOTE: State stored after the response is sent is reported along with the next request on the same document.
+class RequestStatsImpl(document: XFormsContainingDocument, logDetails: Boolean) extends RequestStats {
 
     private class XPathStats(val expr: String) {
         private var _count = 0
@@ -47,29 +58,76 @@ class RequestStatsImpl extends RequestStats {
             "expr: " + expr + ", count: " + count + ", total time: " + totalTime+ ", mean time: " + meanTime
     }
 
+    private val values = mutable.Map[String, Long]()
+
+    // Per-expression statistics are only kept when logging them
     private val xpathStats = mutable.Map[String, XPathStats]()
+    private var bindSkippedIterations = 0
+
+    def addValue(metric: String, value: Long): Unit =
+        values(metric) = values.getOrElse(metric, 0L) + value
+
+    def addXPathStat(expr: String, time: Long): Unit = {
+        addValue(XFormsMetrics.XPath, time)
+        addValue(XFormsMetrics.XPathEvaluations, 1)
+        if (logDetails)
+            xpathStats.getOrElseUpdate(expr, new XPathStats(expr)).addStat(time)
+    }
+
+    def addBindStats(evaluations: Int, skippedIterations: Int): Unit = {
+        addValue(XFormsMetrics.BindEvaluations, evaluations)
+        bindSkippedIterations += skippedIterations
+    }
 
-    def addXPathStat(expr: String, time: Long) =
-        xpathStats.getOrElseUpdate(expr, new XPathStats(expr)).addStat(time)
+    def startTimer = System.nanoTime
+
+    def addTime(metric: String, startTime: Long): Unit =
+        addValue(metric, (System.nanoTime - startTime) / 1000)
+
+    def withTimer[T](metric: String)(body: ⇒ T): T = {
+        val startTime = startTimer
+        try body
+        finally addTime(metric, startTime)
+    }
 
     private def topXPath(n: Int, f: XPathStats ⇒ Long) =
         xpathStats.values.toSeq sortBy f takeRight n reverse
 
-    private def distinctXPath = xpathStats.size
-
     def afterInitialResponse(): Unit =
         afterUpdateResponse()
 
     def afterUpdateResponse(): Unit = {
-        println("afterResponse:")
-        println(" distinct XPath: " + distinctXPath)
-        println(" total time in XPath: " + (xpathStats.values map (_.totalTime) sum))
-        println(" top XPath by mean time: ")
+
+        if (logDetails)
+            RequestStatsImpl.logger.info(details)
+
+        val digest = Option(document.getStaticState) map (_.digest)
+        XFormsMetrics.record(digest.orNull, values)
+        values.clear()
+        xpathStats.clear()
+        bindSkippedIterations = 0
+    }
+
+    private def details = {
+        val sb = new StringBuilder
+
+        def line(s: String) = sb.append(s).append('\n')
+
+        line("afterResponse:")
+        line(" distinct XPath: " + xpathStats.size)
+        line(" total time in XPath: " + values.getOrElse(XFormsMetrics.XPath, 0L))
+        line(" top XPath by mean time: ")
         for ((topXPath, i) ← topXPath(10, _.meanTime).zipWithIndex)
-            println("  " + (i + 1) + ": " + topXPath.toString)
-        println(" top XPath by total time: ")
+            line("  " + (i + 1) + ": " + topXPath.toString)
+        line(" top XPath by total time: ")
         for ((topXPath, i) ← topXPath(10, _.totalTime).zipWithIndex)
-            println("  " + (i + 1) + ": " + topXPath.toString)
+            line("  " + (i + 1) + ": " + topXPath.toString)
+        line(" bind MIP evaluations: " + values.getOrElse(XFormsMetrics.BindEvaluations, 0L))
+        line(" bind iterations skipped: " + bindSkippedIterations)
+        for (metric ← XFormsMetrics.AllMetrics; value ← values.get(metric))
+            line(" " + metric + ": " + value)
+
+        sb.toString
     }
 
     def withXPath[T](expr: ⇒ String)(body: ⇒ T): T = {
@@ -90,12 +148,33 @@ object NOPRequestStats extends RequestStats {
     def afterUpdateResponse() = ()
     def addXPathStat(expr: String, time: Long) = ()
     def withXPath[T](expr: ⇒ String)(body: ⇒ T) = body
+    def addBindStats(evaluations: Int, skippedIterations: Int) = ()
+    def addValue(metric: String, value: Long) = ()
+    def withTimer[T](metric: String)(body: ⇒ T) = body
+    def startTimer = 0L
+    def addTime(metric: String, startTime: Long) = ()
+
+    // No reporter so that XPath evaluations are not timed
+    override def getReporter: (String, Long) ⇒ Unit = null
 }
 
 object RequestStatsImpl {
-    def apply(): RequestStats =
-        if (XFormsProperties.isRequestStats)
-            new RequestStatsImpl()
+
+    private val logger = LoggerFactory.createLogger(classOf[RequestStatsImpl])
+
+    private val requestCounter = new AtomicLong
+
+    // All requests are instrumented when logging request stats, otherwise one request out of the sample interval
+    def apply(document: XFormsContainingDocument): RequestStats = {
+        val logDetails = XFormsProperties.isRequestStats
+        if (logDetails || isSampled)
+            new RequestStatsImpl(document, logDetails)
         else
             NOPRequestStats
-}
\ No newline at end of file
+    }
+
+    private def isSampled = {
+        val interval = XFormsProperties.getMetricsSampleInterval
+        interval > 0 && requestCounter.incrementAndGet % interval == 0
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.analytics
+
+import collection.JavaConverters._
+import java.lang.management.ManagementFactory
+import java.util.concurrent.ConcurrentHashMap
+import javax.management._
+import org.orbeon.oxf.util.{LoggerFactory, Histogram}
+
+// Current value of a metric which is not recorded per request, such as the size of a queue
+trait Gauge {
+    def value: Long
+}
+
+/**
+ * Metrics aggregated across sampled requests.
+ *
+ * Each metric is a histogram of per-request values, kept globally and per form, where forms are identified by their
+ * static state digest. Metrics are exposed through JMX and through the oxf:xforms-metrics processor.
+ *
+ * Other components, like the executor for asynchronous submissions, also expose gauges through JMX.
+ */
+object XFormsMetrics {
+
+    private val logger = LoggerFactory.createLogger(XFormsMetrics.getClass)
+
+    // Metric names
+    val XPath              = "xpath"                // time spent evaluating XPath expressions, in microseconds
+    val XPathEvaluations   = "xpath-evaluations"    // number of XPath evaluations
+    val Recalculate        = "recalculate"          // time spent in bind recalculate, in microseconds
+    val Revalidate         = "revalidate"           // time spent in bind revalidate, in microseconds
+    val BindEvaluations    = "bind-evaluations"     // number of MIP evaluations
+    val Refresh            = "refresh"              // time spent in refresh, in microseconds
+    val ControlBindings    = "control-bindings"     // time spent updating the control tree bindings, in microseconds
+    val StateSerialization = "state-serialization"  // time spent serializing the dynamic state, in microseconds
+    val StateEncoding      = "state-encoding"       // time spent compressing and encrypting the dynamic state, in microseconds
+    val AjaxResponseSize   = "ajax-response-size"   // approximate size of the Ajax response, in bytes
+
+    val AllMetrics = Seq(
+        XPath, XPathEvaluations, Recalculate, Revalidate, BindEvaluations,
+        Refresh, ControlBindings, StateSerialization, StateEncoding, AjaxResponseSize
+    )
+
+    // Stats computed from each histogram
+    val AllStats = Seq("count", "mean", "p50", "p90", "p99", "max")
+
+    def stat(histogram: Histogram, name: String): Long = name match {
+        case "count" ⇒ histogram.count
+        case "mean"  ⇒ histogram.mean
+        case "p50"   ⇒ histogram.percentile(50)
+        case "p90"   ⇒ histogram.percentile(90)
+        case "p99"   ⇒ histogram.percentile(99)
+        case "max"   ⇒ histogram.max
+    }
+
+    // Limit the number of forms tracked individually, as each form holds its own histograms
+    private val MaxForms = 200
+
+    private def newHistograms = (AllMetrics map (_ → new Histogram)).toMap
+
+    val global = newHistograms
+    private val forms = new ConcurrentHashMap[String, Map[String, Histogram]]
+
+    // Record the values gathered during one request
+    def record(staticStateDigest: String, values: collection.Map[String, Long]): Unit = {
+
+        val histogramsForForm =
+            Option(staticStateDigest) flatMap { digest ⇒
+                Option(forms.get(digest)) orElse {
+                    if (forms.size < MaxForms) {
+                        forms.putIfAbsent(digest, newHistograms)
+                        Option(forms.get(digest))
+                    } else
+                        None
+                }
+            }
+
+        for ((metric, value) ← values) {
+            global(metric).record(value)
+            histogramsForForm foreach (_(metric).record(value))
+        }
+    }
+
+    // Histograms for each form, by static state digest
+    def formHistograms: Map[String, Map[String, Histogram]] = forms.asScala.toMap
+
+    private val gauges = new ConcurrentHashMap[String, Gauge]
+
+    // Register a gauge, which replaces any gauge with the same name
+    def registerGauge(name: String, gauge: Gauge): Unit =
+        gauges.put(name, gauge)
+
+    def gaugeValues: Map[String, Long] = gauges.asScala.toMap map { case (name, gauge) ⇒ name → gauge.value }
+
+    // Register with the platform MBean server upon initialization
+    private val ObjectNameString = "org.orbeon.oxf.xforms:type=Metrics"
+
+    try {
+        val server = ManagementFactory.getPlatformMBeanServer
+        val name   = new ObjectName(ObjectNameString)
+        if (! server.isRegistered(name))
+            server.registerMBean(new MetricsMBean, name)
+    } catch {
+        case e: Exception ⇒
+            logger.warn("unable to register " + ObjectNameString + " with the platform MBean server", e)
+    }
+
+    // Expose global metrics as read-only attributes called metric.stat, e.g. refresh.p99, and gauges by name
+    private class MetricsMBean extends DynamicMBean {
+
+        private def attributeNames = (for (metric ← AllMetrics; stat ← AllStats) yield metric + '.' + stat) ++ gauges.keySet.asScala.toList.sorted
+
+        def getAttribute(attribute: String): AnyRef =
+            Option(gauges.get(attribute)) map (gauge ⇒ java.lang.Long.valueOf(gauge.value)) getOrElse {
+                attribute.lastIndexOf('.') match {
+                    case -1 ⇒
+                        throw new AttributeNotFoundException(attribute)
+                    case index ⇒
+                        val (metric, stat) = (attribute.substring(0, index), attribute.substring(index + 1))
+                        if (! global.contains(metric) || ! AllStats.contains(stat))
+                            throw new AttributeNotFoundException(attribute)
+                        java.lang.Long.valueOf(XFormsMetrics.stat(global(metric), stat))
+                }
+            }
+
+        def getAttributes(attributes: Array[String]): AttributeList = {
+            val result = new AttributeList
+            for (attribute ← attributes if attributeNames.contains(attribute))
+                result.add(new Attribute(attribute, getAttribute(attribute)))
+            result
+        }
+
+        def getMBeanInfo =
+            new MBeanInfo(
+                getClass.getName,
+                "XForms metrics aggregated across sampled requests",
+                (attributeNames map (new MBeanAttributeInfo(_, "java.lang.Long", null, true, false, false))).toArray,
+                null, null, null)
+
+        def setAttribute(attribute: Attribute): Unit =
+            throw new AttributeNotFoundException(attribute.getName)
+
+        def setAttributes(attributes: AttributeList) = new AttributeList
+
+        def invoke(actionName: String, params: Array[AnyRef], signature: Array[String]): AnyRef =
+            throw new ReflectionException(new NoSuchMethodException(actionName))
+    }
+}
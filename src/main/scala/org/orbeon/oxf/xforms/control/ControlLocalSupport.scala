@@ -16,10 +16,10 @@ package org.orbeon.oxf.xforms.control
 import org.orbeon.oxf.common.OXFException
 import java.util.{Collections ⇒ JCollections}
 import ControlLocalSupport._
-import org.orbeon.oxf.xforms.state.ControlState
+import org.orbeon.oxf.xforms.state.{DeltaStateTracking, ControlState}
 import collection.JavaConverters._
 
-trait ControlLocalSupport {
+trait ControlLocalSupport extends DeltaStateTracking {
 
     self: XFormsControl ⇒
 
@@ -59,9 +59,13 @@ trait ControlLocalSupport {
     final def setLocal(local: XFormsControlLocal) {
         this.initialLocal = local
         this.currentLocal = local
+        markStateChanged()
     }
 
+    // The local data is updated by the caller, so it is considered changed
     final def getLocalForUpdate = {
+        markStateChanged()
+
         if (containingDocument.isHandleDifferences) {
             // Happening during a client request where we need to handle diffs
             val controls = containingDocument.getControls
@@ -56,7 +56,7 @@ trait ControlXPathSupport {
                 try
                     XPathCache.evaluateAsAvt(contextNodeset, bc.getPosition, attributeValue, getNamespaceMappings,
                         bc.getInScopeVariables, XFormsContainingDocument.getFunctionLibrary, getFunctionContext, null, getLocationData,
-                        containingDocument.getRequestStats.addXPathStat)
+                        containingDocument.getRequestStats.getReporter)
                 catch {
                     case e: Exception ⇒
                         // Don't consider this as fatal
@@ -85,7 +85,7 @@ trait ControlXPathSupport {
             try
                 Option(XPathCache.evaluateAsString(contextItems.asJava, contextPosition, xpathString, getNamespaceMappings,
                     bc.getInScopeVariables, XFormsContainingDocument.getFunctionLibrary, getFunctionContext, null, getLocationData,
-                    containingDocument.getRequestStats.addXPathStat))
+                    containingDocument.getRequestStats.getReporter))
             catch {
                 case e: Exception ⇒
                     // Don't consider this as fatal
@@ -108,7 +108,7 @@ trait ControlXPathSupport {
                 try
                     Option(XPathCache.evaluateAsString(contextItem, xpathString, namespaceMapping, variableToValueMap,
                         XFormsContainingDocument.getFunctionLibrary, getFunctionContext, null, getLocationData,
-                        containingDocument.getRequestStats.addXPathStat _))
+                        containingDocument.getRequestStats.getReporter))
                 catch {
                     case e: Exception ⇒
                         // Don't consider this as fatal
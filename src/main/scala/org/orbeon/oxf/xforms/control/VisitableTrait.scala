@@ -38,6 +38,7 @@ trait VisitableTrait extends XFormsControl {
             containingDocument.getControls.cloneInitialStateIfNeeded()
             containingDocument.requireRefresh()
             _visited = visited
+            markStateChanged()
         }
 
     override def onCreate() = {
@@ -76,7 +76,7 @@ private object SubmitResponseEvent {
             EMPTY_MAPPING,
             null, null, null, null,
             e.locationData,
-            e.containingDocument.getRequestStats.addXPathStat).asScala
+            e.containingDocument.getRequestStats.getReporter).asScala
     }
 
     def body(e: SubmitResponseEvent): Option[AnyRef] = {
@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.function.xxforms
+
+import collection.JavaConverters._
+import org.orbeon.oxf.xforms.function.{FunctionSupport, XFormsFunction}
+import org.orbeon.saxon.expr.XPathContext
+import org.orbeon.saxon.om._
+
+/**
+ * xxf:key($instance-id as xs:string, $key as xs:string, $value as xs:string) as element()*
+ *
+ * Return the elements of the given instance which have the given value for the given key, in document order. Keys are
+ * attribute names such as "@code". If the key is declared on the instance, as in xxf:index="@code", the lookup uses
+ * the instance index instead of searching the instance.
+ */
+class XXFormsKey extends XFormsFunction with FunctionSupport {
+
+    override def iterate(xpathContext: XPathContext): SequenceIterator = {
+
+        implicit val ctx = xpathContext
+
+        val instanceId = stringArgument(0)
+        val key        = stringArgument(1)
+        val value      = stringArgument(2)
+
+        val attributeName = if (key.startsWith("@")) key.substring(1) else key
+
+        // Search ancestor-or-self containers, as xxf:instance() does
+        val containers = Iterator.iterate(context.container)(_.getParentXBLContainer) takeWhile (_ ne null)
+        val instances  = containers flatMap (_.findInstance(instanceId))
+
+        if (instances.hasNext)
+            new ListIterator(instances.next().elementsForKey(attributeName, value).asJava)
+        else
+            EmptyIterator.getInstance
+    }
+
+    // NOTE: Keep the default addToPathMap(), which invalidates the PathMap, as the result depends on the key values
+}
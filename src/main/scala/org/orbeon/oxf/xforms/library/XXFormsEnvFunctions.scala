@@ -135,6 +135,13 @@ trait XXFormsEnvFunctions extends OrbeonFunctionLibrary {
             Arg(BOOLEAN, EXACTLY_ONE)
         )
     
+        // xxf:key
+        Fun("key", classOf[XXFormsKey], 0, 3, Type.NODE_TYPE, ALLOWS_ZERO_OR_MORE,
+            Arg(STRING, EXACTLY_ONE),
+            Arg(STRING, EXACTLY_ONE),
+            Arg(STRING, EXACTLY_ONE)
+        )
+
         // xxf:index
         Fun("index", classOf[XXFormsIndex], 0, 0, INTEGER, EXACTLY_ONE,
             Arg(STRING, ALLOWS_ZERO_OR_ONE)
@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.processor
+
+import org.orbeon.oxf.pipeline.api.{XMLReceiver, PipelineContext}
+import org.orbeon.oxf.processor.{ProcessorOutputImpl, ProcessorInputOutputInfo, ProcessorImpl}
+import org.orbeon.oxf.util.Histogram
+import org.orbeon.oxf.xforms.analytics.XFormsMetrics
+import org.orbeon.oxf.xml.ContentHandlerHelper
+
+/**
+ * Output the XForms metrics gathered so far, globally and for each form, e.g.:
+ *
+ * <metrics>
+ *     <global>
+ *         <metric name="refresh" count="12" mean="830" p50="790" p90="1215" p99="2047" max="2112"/>
+ *     </global>
+ *     <gauges>
+ *         <gauge name="asynchronous-submission.queue-depth" value="0"/>
+ *     </gauges>
+ *     <form digest="...">
+ *         <metric name="refresh" .../>
+ *     </form>
+ * </metrics>
+ */
+class XFormsMetricsProcessor extends ProcessorImpl {
+
+    self ⇒
+
+    addOutputInfo(new ProcessorInputOutputInfo(ProcessorImpl.OUTPUT_DATA))
+
+    override def createOutput(name: String) =
+        addOutput(name, new ProcessorOutputImpl(self, name) {
+            def readImpl(pipelineContext: PipelineContext, xmlReceiver: XMLReceiver): Unit = {
+
+                val helper = new ContentHandlerHelper(xmlReceiver)
+
+                def outputMetrics(histograms: Map[String, Histogram], includeEmpty: Boolean): Unit =
+                    for {
+                        metric    ← XFormsMetrics.AllMetrics
+                        histogram = histograms(metric)
+                        if includeEmpty || histogram.count > 0
+                    } {
+                        val stats = XFormsMetrics.AllStats flatMap (stat ⇒ Seq(stat, XFormsMetrics.stat(histogram, stat).toString))
+                        helper.element("metric", (Seq("name", metric) ++ stats).toArray)
+                    }
+
+                helper.startDocument()
+                helper.startElement("metrics")
+
+                helper.startElement("global")
+                outputMetrics(XFormsMetrics.global, includeEmpty = true)
+                helper.endElement()
+
+                helper.startElement("gauges")
+                for ((name, value) ← XFormsMetrics.gaugeValues.toList.sortBy(_._1))
+                    helper.element("gauge", Array("name", name, "value", value.toString))
+                helper.endElement()
+
+                for ((digest, histograms) ← XFormsMetrics.formHistograms) {
+                    helper.startElement("form", Array("digest", digest))
+                    outputMetrics(histograms, includeEmpty = false)
+                    helper.endElement()
+                }
+
+                helper.endElement()
+                helper.endDocument()
+            }
+        })
+}
@@ -0,0 +1,37 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state
+
+// Whether the part of the dynamic state held by an instance or control changed since it was last stored in delta mode
+// A new object, including one restored from the state, is considered changed, so that it is always part of the next
+// delta. See DynamicStateLog.
+trait DeltaStateTracking {
+
+    private var _stateChanged = true
+    private var _storedEffectiveId: String = null
+
+    def markStateChanged(): Unit = _stateChanged = true
+
+    // Whether the state must be part of the next delta, which is also the case if the object's effective id changed
+    def mustStoreState(effectiveId: String) = _stateChanged || _storedEffectiveId != effectiveId
+
+    // Remember that the state is stored under the given effective id, or that it is not part of the stored state
+    def markStateStored(effectiveId: Option[String]): Unit = effectiveId match {
+        case Some(id) ⇒
+            _stateChanged = false
+            _storedEffectiveId = id
+        case None ⇒
+            _storedEffectiveId = null
+    }
+}
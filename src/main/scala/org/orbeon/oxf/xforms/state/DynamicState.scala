@@ -26,6 +26,8 @@ import org.orbeon.oxf.xml.dom4j.Dom4jUtils
 import org.orbeon.oxf.xml.{TransformerUtils, SAXStore}
 import org.dom4j.Element
 import org.orbeon.oxf.xforms.control.{XFormsComponentControl, XFormsControl}
+import org.orbeon.oxf.xforms.analytics.XFormsMetrics
+import org.orbeon.oxf.xforms.xbl.XBLContainer
 
 // Immutable representation of the dynamic state
 case class DynamicState(
@@ -123,7 +125,7 @@ case class DynamicState(
 
                     instanceState.cachingOrContent match {
                         case Left(caching)  ⇒ caching.writeAttributes(att)
-                        case Right(content) ⇒ instanceElement.addText(content)
+                        case Right(content) ⇒ instanceElement.addText(content.toXMLString)
 
                     }
 
@@ -195,7 +197,7 @@ case class ControlState(effectiveId: String, visited: Boolean, keyValues: Map[St
 case class InstanceState(
         effectiveId: String,
         modelEffectiveId: String,
-        cachingOrContent: InstanceCaching Either String,
+        cachingOrContent: InstanceCaching Either InstanceContent,
         readonly: Boolean,
         modified: Boolean,
         valid: Boolean) {
@@ -204,7 +206,7 @@ case class InstanceState(
         this(
             instance.getEffectiveId,
             instance.parent.getEffectiveId,
-            instance.instanceCaching.toLeft(instance.contentAsString),
+            instance.instanceCaching.toLeft(InstanceContent(instance.documentInfo)),
             instance.readonly,
             instance.modified,
             instance.valid)
@@ -221,7 +223,17 @@ object DynamicState {
         apply(document, Option(document.getControls.getCurrentControlTree.getRoot))
 
     // Create a DynamicState from a control
-    def apply(document: XFormsContainingDocument, startOpt: Option[XFormsControl]): DynamicState = {
+    def apply(document: XFormsContainingDocument, startOpt: Option[XFormsControl]): DynamicState =
+        document.getRequestStats.withTimer(XFormsMetrics.StateSerialization) {
+            create(document, startOpt)
+        }
+
+    // Create a DynamicState for the whole document from the given instances and controls
+    // This allows the caller to serialize only part of the instances and controls, see DynamicStateLog.
+    def apply(document: XFormsContainingDocument, instances: List[InstanceState], controls: List[ControlState]): DynamicState =
+        create(document, instances, controls)
+
+    private def create(document: XFormsContainingDocument, startOpt: Option[XFormsControl]): DynamicState = {
 
         val startContainer = startOpt match {
             case Some(componentControl: XFormsComponentControl) ⇒ componentControl.nestedContainer
@@ -229,24 +241,32 @@ object DynamicState {
             case None                                           ⇒ document
         }
 
-        // Serialize relevant controls that have data
-        // NOTE: As of 2012-02-02, only repeat, switch and dialogs controls serialize state. The state of all the other
-        // controls is rebuilt from model data. This way we minimize the size of serialized controls. In the future,
-        // more information might be serialized.
-        // TODO: What about about visited state? right now only for controls which have other data to serialize.
-        def controlsToSerialize = {
-            val iterator =
-                for {
-                    start ← startOpt.toList
-                    control ← ControlsIterator(start, includeSelf = false)
-                    if control.isRelevant
-                    controlState ← control.controlState
-                } yield
-                    controlState
-
-            iterator.toList
-        }
+        create(document, instancesToSerialize(startContainer), controlsToSerialize(startOpt))
+    }
 
+    // Instances of the container and its descendants which must be serialized
+    def instancesToSerialize(startContainer: XBLContainer): List[InstanceState] =
+        startContainer.allModels flatMap (_.getInstances.asScala) filter (_.mustSerialize) map (new InstanceState(_)) toList
+
+    // Serialize relevant controls that have data
+    // NOTE: As of 2012-02-02, only repeat, switch and dialogs controls serialize state. The state of all the other
+    // controls is rebuilt from model data. This way we minimize the size of serialized controls. In the future,
+    // more information might be serialized.
+    // TODO: What about about visited state? right now only for controls which have other data to serialize.
+    def controlsToSerialize(startOpt: Option[XFormsControl]): List[ControlState] = {
+        val iterator =
+            for {
+                start ← startOpt.toList
+                control ← ControlsIterator(start, includeSelf = false)
+                if control.isRelevant
+                controlState ← control.controlState
+            } yield
+                controlState
+
+        iterator.toList
+    }
+
+    private def create(document: XFormsContainingDocument, instances: List[InstanceState], controls: List[ControlState]): DynamicState =
         // Create the dynamic state object. A snapshot of the state is taken, whereby mutable parts of the state, such
         // as instances, controls, HTML template, Ajax response, are first serialized to Seq[Byte]. A couple of notes:
         //
@@ -274,10 +294,9 @@ object DynamicState {
             toByteSeq(document.getPendingUploads.asScala.toSet),
             Option(document.getTemplate) map (_.asByteSeq), // template returns its own serialization
             toByteSeq(Option(document.getLastAjaxResponse)),
-            toByteSeq(startContainer.allModels flatMap (_.getInstances.asScala) filter (_.mustSerialize) map (new InstanceState(_)) toList),
-            toByteSeq(controlsToSerialize)
+            toByteSeq(instances),
+            toByteSeq(controls)
         )
-    }
 
     // Create a DynamicState from an encoded string representation
     def apply(encoded: String): DynamicState = {
@@ -286,6 +305,10 @@ object DynamicState {
     }
 
     // Encode the given document to a string representation
-    def encodeDocumentToString(document: XFormsContainingDocument, compress: Boolean, isForceEncryption: Boolean): String =
-        DynamicState(document).encodeToString(compress, isForceEncryption || XFormsProperties.isClientStateHandling(document))
+    def encodeDocumentToString(document: XFormsContainingDocument, compress: Boolean, isForceEncryption: Boolean): String = {
+        val dynamicState = DynamicState(document)
+        document.getRequestStats.withTimer(XFormsMetrics.StateEncoding) {
+            dynamicState.encodeToString(compress, isForceEncryption || XFormsProperties.isClientStateHandling(document))
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state
+
+import XFormsOperations._
+import XFormsProtocols._
+import collection.JavaConverters._
+import org.orbeon.oxf.xforms.XFormsContainingDocument
+import org.orbeon.oxf.xforms.analytics.XFormsMetrics
+import org.orbeon.oxf.xforms.control.Controls.ControlsIterator
+
+// Changes to the dynamic state of a document since the previous stored state
+// The state only contains the instances and controls which have changed, but the ids of all the instances and controls
+// are kept in order, so that removed parts are implicitly dropped.
+case class DynamicStateDelta(state: DynamicState, instanceIds: List[String], controlIds: List[String]) {
+    def size = DynamicStateLog.size(state)
+}
+
+// Head of the dynamic state of a document stored in delta mode
+// The base snapshot and the deltas are stored as separate records, with sequence numbers from `first` (the base) to
+// `last`, so that storing a delta only adds a record and replaces this small head. The head is stored after the
+// records it refers to.
+case class DynamicStateLog(first: Int, last: Int, baseSize: Long, deltasSize: Long) {
+
+    def deltasCount = last - first
+
+    // Compact when there are too many deltas, or when replaying the deltas costs more than replaying the base
+    def mustCompact(maxDeltas: Int) = deltasCount >= maxDeltas || deltasSize >= baseSize
+
+    // Log with the given delta appended
+    def append(delta: DynamicStateDelta) = copy(last = last + 1, deltasSize = deltasSize + delta.size)
+
+    // New log with the given base, which doesn't reuse the sequence numbers of this log
+    def compact(base: DynamicState) = DynamicStateLog(last + 1, last + 1, DynamicStateLog.size(base), 0L)
+
+    // Keys of the records, the base first
+    def recordKeys(key: String) = first to last map (DynamicStateLog.recordKey(key, _))
+}
+
+object DynamicStateLog {
+
+    // Create a new log with the given state as base snapshot
+    def apply(base: DynamicState): DynamicStateLog = DynamicStateLog(0, 0, size(base), 0L)
+
+    def recordKey(key: String, sequence: Int) = key + "#" + sequence
+
+    // Full state of the document, to store as base snapshot
+    // The returned function must be called once the state is stored.
+    def base(document: XFormsContainingDocument): (DynamicState, () ⇒ Unit) =
+        document.getRequestStats.withTimer(XFormsMetrics.StateSerialization) {
+            val changes = new Changes(document, all = true)
+            (DynamicState(document, changes.instances, changes.controls), changes.stored _)
+        }
+
+    // Changes to the state of the document since the previous base or delta
+    // Only the instances and controls which were marked changed since then are serialized, so the full state of the
+    // document is not built. The returned function must be called once the delta is stored.
+    def delta(document: XFormsContainingDocument): (DynamicStateDelta, () ⇒ Unit) =
+        document.getRequestStats.withTimer(XFormsMetrics.StateSerialization) {
+            val changes = new Changes(document, all = false)
+            val state   = DynamicState(document, changes.instances, changes.controls)
+            (DynamicStateDelta(state, changes.instanceIds, changes.controlIds), changes.stored _)
+        }
+
+    // Instances and controls which are part of the state, in the same order as in DynamicState(document), and the
+    // states of those which must be stored
+    private class Changes(document: XFormsContainingDocument, all: Boolean) {
+
+        private val allInstances = (document.allModels flatMap (_.getInstances.asScala)).toList
+        private val allControls  = Option(document.getControls.getCurrentControlTree.getRoot).toList flatMap (ControlsIterator(_, includeSelf = false))
+
+        private val storedInstances =
+            for (instance ← allInstances)
+            yield instance → (if (instance.mustSerialize) Some(instance.getEffectiveId) else None)
+
+        private val storedControls =
+            for (control ← allControls)
+            yield control → (if (control.isRelevant) control.controlState else None)
+
+        val instanceIds = storedInstances collect { case (_, Some(effectiveId)) ⇒ effectiveId }
+        val controlIds  = storedControls  collect { case (_, Some(controlState)) ⇒ controlState.effectiveId }
+
+        val instances =
+            for ((instance, Some(effectiveId)) ← storedInstances if all || instance.mustStoreState(effectiveId))
+            yield new InstanceState(instance)
+
+        val controls =
+            for ((control, Some(controlState)) ← storedControls if all || control.mustStoreState(controlState.effectiveId))
+            yield controlState
+
+        def stored(): Unit = {
+            for ((instance, effectiveId) ← storedInstances)
+                instance.markStateStored(effectiveId)
+            for ((control, controlState) ← storedControls)
+                control.markStateStored(controlState map (_.effectiveId))
+        }
+    }
+
+    // Rebuild the current state from the base snapshot and the deltas
+    def replay(base: DynamicState, deltas: Seq[DynamicStateDelta]): DynamicState =
+        if (deltas.isEmpty)
+            base
+        else {
+            var instances = base.decodeInstances map (i ⇒ i.effectiveId → i) toMap
+            var controls  = base.decodeControls  map (c ⇒ c.effectiveId → c) toMap
+
+            for (delta ← deltas) {
+                instances ++= delta.state.decodeInstances map (i ⇒ i.effectiveId → i)
+                controls  ++= delta.state.decodeControls  map (c ⇒ c.effectiveId → c)
+            }
+
+            val last = deltas.last
+            last.state.copy(
+                instances = toByteSeq(last.instanceIds map instances),
+                controls  = toByteSeq(last.controlIds  map controls))
+        }
+
+    // Approximate size of the state, based on its largest parts
+    def size(state: DynamicState): Long =
+        state.instances.size + state.controls.size + state.lastAjaxResponse.size + state.pendingUploads.size +
+            state.pathMatchers.size + (state.annotatedTemplate map (_.size) getOrElse 0)
+}
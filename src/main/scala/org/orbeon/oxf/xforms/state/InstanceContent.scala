@@ -0,0 +1,343 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state
+
+import java.io.{DataOutputStream, ByteArrayOutputStream}
+import java.nio.ByteBuffer
+import java.nio.charset.Charset
+import org.dom4j.Document
+import org.orbeon.oxf.common.OXFException
+import org.orbeon.oxf.pipeline.api.XMLReceiver
+import org.orbeon.oxf.util.XPathCache
+import org.orbeon.oxf.xml.dom4j.NonLazySAXContentHandler
+import org.orbeon.oxf.xml.{XMLReceiverAdapter, TransformerUtils}
+import org.orbeon.saxon.Configuration
+import org.orbeon.saxon.om.DocumentInfo
+import org.orbeon.saxon.tinytree.TinyBuilder
+import org.xml.sax.Attributes
+import org.xml.sax.helpers.AttributesImpl
+import scala.collection.mutable
+
+/**
+ * Binary representation of an instance document, used to store instances in the dynamic state.
+ *
+ * Like the TinyTree, the encoding consists of a pool of distinct names, a table of nodes in document order, and a
+ * single character buffer holding the values of text nodes, attributes, comments and processing instructions. Names
+ * are stored only once and referred to by index, and node values are not delimited: their offset in the character
+ * buffer follows from the lengths of the preceding values.
+ *
+ * Restoring an instance replays the nodes as SAX events into a dom4j or TinyTree builder, so no XML parsing is
+ * needed. The bytes are held in a ByteBuffer which, when read from the dynamic state, is a view on the serialized
+ * state rather than a copy.
+ */
+class InstanceContent private (private val buffer: ByteBuffer) {
+
+    import InstanceContent._
+
+    def size = buffer.remaining
+
+    // Write the encoded bytes (without length header)
+    def writeTo(output: sbinary.Output): Unit =
+        if (buffer.hasArray)
+            output.writeAll(buffer.array, buffer.arrayOffset + buffer.position, buffer.remaining)
+        else {
+            val bytes = new Array[Byte](buffer.remaining)
+            buffer.duplicate.get(bytes)
+            output.writeAll(bytes)
+        }
+
+    // Replay the document as SAX events
+    def replay(receiver: XMLReceiver): Unit = {
+
+        // Work on a duplicate so that the content can be replayed any number of times, possibly concurrently
+        val in = buffer.duplicate
+
+        if (in.get != Version)
+            throw new OXFException("Unsupported instance encoding")
+
+        val names = Array.fill(readVarInt(in)) {
+            val uri = readString(in)
+            val localname = readString(in)
+            Name(uri, localname, readString(in))
+        }
+
+        val chars = {
+            val length = readVarInt(in)
+            val slice = in.slice
+            slice.limit(length)
+            in.position(in.position + length)
+            UTF8.decode(slice)
+        }
+
+        // Current offset in the character buffer
+        def nextValue(length: Int) = {
+            val start = chars.position
+            chars.position(start + length)
+            start
+        }
+
+        def nextString(length: Int) = {
+            val start = nextValue(length)
+            new String(chars.array, chars.arrayOffset + start, length)
+        }
+
+        val attributes = new AttributesImpl
+        val openElements = new mutable.ArrayStack[Name]
+        val openPrefixes = new mutable.ArrayStack[List[String]]
+        var pendingPrefixes: List[String] = Nil
+
+        receiver.startDocument()
+
+        var nodeCount = readVarInt(in)
+        while (nodeCount > 0) {
+            in.get match {
+                case NamespaceNode ⇒
+                    val name = names(readVarInt(in))
+                    receiver.startPrefixMapping(name.localname, name.uri)
+                    pendingPrefixes ::= name.localname
+                case ElementNode ⇒
+                    val name = names(readVarInt(in))
+                    attributes.clear()
+                    var attributeCount = readVarInt(in)
+                    while (attributeCount > 0) {
+                        val attributeName = names(readVarInt(in))
+                        attributes.addAttribute(attributeName.uri, attributeName.localname, attributeName.qName, "CDATA", nextString(readVarInt(in)))
+                        attributeCount -= 1
+                    }
+                    receiver.startElement(name.uri, name.localname, name.qName, attributes)
+                    openElements.push(name)
+                    openPrefixes.push(pendingPrefixes)
+                    pendingPrefixes = Nil
+                case EndElementNode ⇒
+                    val name = openElements.pop()
+                    receiver.endElement(name.uri, name.localname, name.qName)
+                    openPrefixes.pop() foreach (receiver.endPrefixMapping(_))
+                case TextNode ⇒
+                    val length = readVarInt(in)
+                    receiver.characters(chars.array, chars.arrayOffset + nextValue(length), length)
+                case CommentNode ⇒
+                    val length = readVarInt(in)
+                    receiver.comment(chars.array, chars.arrayOffset + nextValue(length), length)
+                case ProcessingInstructionNode ⇒
+                    val target = names(readVarInt(in)).localname
+                    receiver.processingInstruction(target, nextString(readVarInt(in)))
+                case other ⇒
+                    throw new OXFException("Invalid node kind in instance encoding: " + other)
+            }
+            nodeCount -= 1
+        }
+
+        receiver.endDocument()
+    }
+
+    // Rebuild a mutable dom4j document
+    def toDom4j: Document = {
+        val result = new NonLazySAXContentHandler
+        replay(result)
+        result.getDocument
+    }
+
+    // Rebuild a readonly TinyTree
+    def toTinyTree(configuration: Configuration): DocumentInfo = {
+        val treeBuilder = new TinyBuilder
+        val identity = TransformerUtils.getIdentityTransformerHandler(configuration)
+        identity.setResult(treeBuilder)
+        replay(identity)
+        treeBuilder.getCurrentRoot.asInstanceOf[DocumentInfo]
+    }
+
+    // Serialize to XML, e.g. for the XML representation of the dynamic state
+    def toXMLString = TransformerUtils.tinyTreeToString(toTinyTree(XPathCache.getGlobalConfiguration))
+
+    // Compare the encoded bytes, irrespective of the buffer position
+    override def equals(other: Any) = other match {
+        case that: InstanceContent ⇒ buffer == that.buffer
+        case _ ⇒ false
+    }
+
+    override def hashCode = buffer.hashCode
+    override def toString = "InstanceContent(" + size + " bytes)"
+}
+
+object InstanceContent {
+
+    private val Version: Byte = 1
+
+    private val NamespaceNode: Byte             = 1
+    private val ElementNode: Byte               = 2
+    private val EndElementNode: Byte            = 3
+    private val TextNode: Byte                  = 4
+    private val CommentNode: Byte               = 5
+    private val ProcessingInstructionNode: Byte = 6
+
+    private val UTF8 = Charset.forName("UTF-8")
+
+    // Entry in the name pool
+    // For namespace nodes, the localname is the prefix, and for processing instructions it is the target.
+    private case class Name(uri: String, localname: String, qName: String)
+
+    // Encode the given document or element
+    def apply(documentInfo: DocumentInfo): InstanceContent = {
+        val encoder = new Encoder
+        TransformerUtils.sourceToSAX(documentInfo, encoder)
+        encoder.result
+    }
+
+    // Wrap already encoded bytes, e.g. read from the dynamic state
+    def apply(buffer: ByteBuffer): InstanceContent = new InstanceContent(buffer.slice)
+
+    // Encode an XML string, e.g. content stored with an earlier version of the dynamic state
+    def fromXMLString(xmlString: String): InstanceContent =
+        apply(TransformerUtils.stringToTinyTree(XPathCache.getGlobalConfiguration, xmlString, false, true))
+
+    private class Encoder extends XMLReceiverAdapter {
+
+        private val names = mutable.LinkedHashMap[Name, Int]()
+        private val chars = new java.lang.StringBuilder
+        private val nodesBytes = new ByteArrayOutputStream
+        private val nodes = new DataOutputStream(nodesBytes)
+        private var nodeCount = 0
+        private var textStart = -1
+
+        private def nameIndex(name: Name) = names.getOrElseUpdate(name, names.size)
+
+        private def node(kind: Byte): Unit = {
+            flushText()
+            nodes.writeByte(kind)
+            nodeCount += 1
+        }
+
+        private def value(s: String): Unit = {
+            writeVarInt(nodes, s.length)
+            chars.append(s)
+        }
+
+        // Adjacent character events are coalesced into a single text node
+        private def flushText(): Unit =
+            if (textStart != -1) {
+                nodes.writeByte(TextNode)
+                nodeCount += 1
+                writeVarInt(nodes, chars.length - textStart)
+                textStart = -1
+            }
+
+        override def startPrefixMapping(prefix: String, uri: String): Unit = {
+            node(NamespaceNode)
+            writeVarInt(nodes, nameIndex(Name(uri, prefix, prefix)))
+        }
+
+        override def startElement(uri: String, localname: String, qName: String, attributes: Attributes): Unit = {
+            node(ElementNode)
+            writeVarInt(nodes, nameIndex(Name(uri, localname, qName)))
+            writeVarInt(nodes, attributes.getLength)
+            for (i ← 0 until attributes.getLength) {
+                writeVarInt(nodes, nameIndex(Name(attributes.getURI(i), attributes.getLocalName(i), attributes.getQName(i))))
+                value(attributes.getValue(i))
+            }
+        }
+
+        override def endElement(uri: String, localname: String, qName: String): Unit =
+            node(EndElementNode)
+
+        override def characters(ch: Array[Char], start: Int, length: Int): Unit = {
+            if (textStart == -1)
+                textStart = chars.length
+            chars.append(ch, start, length)
+        }
+
+        override def ignorableWhitespace(ch: Array[Char], start: Int, length: Int): Unit =
+            characters(ch, start, length)
+
+        override def comment(ch: Array[Char], start: Int, length: Int): Unit = {
+            node(CommentNode)
+            writeVarInt(nodes, length)
+            chars.append(ch, start, length)
+        }
+
+        override def processingInstruction(target: String, data: String): Unit = {
+            node(ProcessingInstructionNode)
+            writeVarInt(nodes, nameIndex(Name("", target, target)))
+            value(data)
+        }
+
+        override def endDocument(): Unit = flushText()
+
+        def result = {
+            val bytes = new ByteArrayOutputStream(nodesBytes.size + chars.length + 64)
+            val out = new DataOutputStream(bytes)
+
+            out.writeByte(Version)
+
+            writeVarInt(out, names.size)
+            for (name ← names.keys) {
+                writeString(out, name.uri)
+                writeString(out, name.localname)
+                writeString(out, name.qName)
+            }
+
+            val charBytes = chars.toString.getBytes("UTF-8")
+            writeVarInt(out, charBytes.length)
+            out.write(charBytes)
+
+            writeVarInt(out, nodeCount)
+            nodesBytes.writeTo(out)
+
+            out.flush()
+            new InstanceContent(ByteBuffer.wrap(bytes.toByteArray))
+        }
+    }
+
+    // Variable-length encoding of non-negative integers, 7 bits per byte
+    private def writeVarInt(out: DataOutputStream, value: Int): Unit = {
+        var v = value
+        while ((v & ~0x7F) != 0) {
+            out.writeByte((v & 0x7F) | 0x80)
+            v >>>= 7
+        }
+        out.writeByte(v)
+    }
+
+    private def readVarInt(in: ByteBuffer): Int = {
+        var result = 0
+        var shift = 0
+        var b = 0
+        do {
+            b = in.get
+            result |= (b & 0x7F) << shift
+            shift += 7
+        } while ((b & 0x80) != 0)
+        result
+    }
+
+    // Names are short, so they use a simple length-prefixed encoding
+    private def writeString(out: DataOutputStream, s: String): Unit = {
+        val bytes = (if (s eq null) "" else s).getBytes("UTF-8")
+        writeVarInt(out, bytes.length)
+        out.write(bytes)
+    }
+
+    private def readString(in: ByteBuffer): String = {
+        val length = readVarInt(in)
+        val result =
+            if (in.hasArray)
+                new String(in.array, in.arrayOffset + in.position, length, "UTF-8")
+            else {
+                val bytes = new Array[Byte](length)
+                in.duplicate.get(bytes)
+                new String(bytes, "UTF-8")
+            }
+        in.position(in.position + length)
+        result
+    }
+}
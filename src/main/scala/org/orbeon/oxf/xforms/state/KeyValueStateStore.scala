@@ -0,0 +1,153 @@
+/**
+ *  Copyright (C) 2013 Orbeon, Inc.
+ *
+ *  This program is free software; you can redistribute it and/or modify it under the terms of the
+ *  GNU Lesser General Public License as published by the Free Software Foundation; either version
+ *  2.1 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ *  without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU Lesser General Public License for more details.
+ *
+ *  The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state
+
+import org.orbeon.oxf.pipeline.api.ExternalContext
+import org.orbeon.oxf.xforms._
+import org.orbeon.oxf.util.SecureUtils
+
+/**
+ * XForms state store based on a store of serializable values by string key.
+ *
+ * Each document uses a mapping from its UUID to the keys of its static and dynamic states. The static state is stored
+ * by digest, so that it is shared between documents.
+ */
+trait KeyValueStateStore extends XFormsStateStore {
+
+    protected def storeDebugName: String
+
+    protected def addOrReplaceOne(key: String, value: java.io.Serializable): Unit
+    protected def findOne(key: String): AnyRef
+    protected def removeOne(key: String): Unit
+
+    // Whether a value is present, which stores can implement without reading the value
+    protected def containsOne(key: String): Boolean = findOne(key) ne null
+
+    def storeDocumentState(document: XFormsContainingDocument, session: ExternalContext.Session, isInitialState: Boolean) = {
+
+        assert(document.getStaticState.isServerStateHandling)
+
+        if (isDebugEnabled)
+            debug("store size before storing: " + getCurrentSize + " entries.")
+
+        val documentUUID = document.getUUID
+        val staticStateDigest = document.getStaticState.digest
+        val dynamicStateKey = getDynamicStateKey(documentUUID, isInitialState)
+
+        // Mapping (UUID → static state key : dynamic state key
+        addOrReplaceOne(documentUUID, staticStateDigest + ":" + dynamicStateKey)
+
+        // Static and dynamic states
+        // The static state is stored by digest, so it only needs to be stored if it's not already present
+        if (! containsOne(staticStateDigest))
+            addOrReplaceOne(staticStateDigest, document.getStaticState.encodedState)
+
+        // The initial state is always stored in full as it doesn't change
+        if (isInitialState || ! XFormsProperties.isDeltaState)
+            addOrReplaceOne(dynamicStateKey, DynamicState(document))
+        else
+            storeLog(document, dynamicStateKey)
+    }
+
+    // Store the dynamic state as a delta against the previous stored state, or as a new base snapshot
+    // Each delta is stored as its own record, followed by the small head of the log, so the previous records are not
+    // rewritten. If the head or any of its records is missing, the state is stored again in full. Checking the records
+    // also counts as an access to them, so they don't expire before the head in stores with a time to idle.
+    private def storeLog(document: XFormsContainingDocument, dynamicStateKey: String) = {
+
+        def canAppend(log: DynamicStateLog) =
+            ! log.mustCompact(XFormsProperties.getDeltaStateCompactAfter) && (log.recordKeys(dynamicStateKey) forall containsOne)
+
+        findOne(dynamicStateKey) match {
+            case log: DynamicStateLog if canAppend(log) ⇒
+                val (delta, stored) = DynamicStateLog.delta(document)
+                val newLog = log.append(delta)
+
+                if (isDebugEnabled)
+                    debug("storing delta " + newLog.deltasCount + " of size " + delta.size + " for document " + document.getUUID)
+
+                addOrReplaceOne(DynamicStateLog.recordKey(dynamicStateKey, newLog.last), delta)
+                addOrReplaceOne(dynamicStateKey, newLog)
+                stored()
+            case previous ⇒
+                val (base, stored) = DynamicStateLog.base(document)
+                val previousLog = Option(previous) collect { case log: DynamicStateLog ⇒ log }
+                val newLog = previousLog map (_.compact(base)) getOrElse DynamicStateLog(base)
+
+                if (isDebugEnabled)
+                    debug("storing base state of size " + newLog.baseSize + " for document " + document.getUUID)
+
+                addOrReplaceOne(DynamicStateLog.recordKey(dynamicStateKey, newLog.first), base)
+                addOrReplaceOne(dynamicStateKey, newLog)
+                stored()
+
+                // The records of the previous log are no longer referenced
+                previousLog foreach (_.recordKeys(dynamicStateKey) foreach removeOne)
+        }
+    }
+
+    // Current state from the head of the log and its records, unless a record is missing
+    private def findLog(dynamicStateKey: String, log: DynamicStateLog): Option[DynamicState] = {
+        val records = log.recordKeys(dynamicStateKey) map findOne
+        val deltas  = records.tail collect { case delta: DynamicStateDelta ⇒ delta }
+
+        records.head match {
+            case base: DynamicState if deltas.size == log.deltasCount ⇒ Some(DynamicStateLog.replay(base, deltas))
+            case _ ⇒ None
+        }
+    }
+
+    def findState(session: ExternalContext.Session, documentUUID: String, isInitialState: Boolean): XFormsState = {
+
+        if (isDebugEnabled)
+            debug("store size before finding: " + getCurrentSize + " entries.")
+
+        findOne(documentUUID) match {
+            case keyString: String ⇒
+                // Found the keys, split into parts
+                val parts = keyString split ':'
+
+                assert(parts.size == 2)
+                assert(parts(0).length == SecureUtils.HexIdLength)   // static state key is an hex hash
+
+                // If isInitialState == true, force finding the initial state. Otherwise, use current state stored in mapping.
+                val dynamicStateKey = if (isInitialState) getDynamicStateKey(documentUUID, true) else parts(1)
+
+                // Gather values from cache for both keys and return state only if both are non-null
+                Stream(parts(0), dynamicStateKey) map findOne filter (_ ne null) match {
+                    case Stream(staticState: String, dynamicState: DynamicState) ⇒
+                        XFormsState(Some(parts(0)), staticState, dynamicState)
+                    case Stream(staticState: String, log: DynamicStateLog) ⇒
+                        findLog(dynamicStateKey, log) match {
+                            case Some(dynamicState) ⇒ XFormsState(Some(parts(0)), staticState, dynamicState)
+                            case None               ⇒ null
+                        }
+                    case _ ⇒ null
+                }
+
+            case _ ⇒ null
+        }
+    }
+
+    def findStateCombined(staticStateDigest: String, dynamicStateUUID: String) = null
+    def addStateCombined(staticStateDigest: String, dynamicStateUUID: String, xformsState: XFormsState, sessionId: String) = ()
+
+    private def getDynamicStateKey(documentUUID: String, isInitialState: Boolean) =
+        documentUUID + (if (isInitialState) "-I" else "-C") // key is different for initial vs. subsequent state
+
+    protected def isDebugEnabled = XFormsStateManager.getIndentedLogger.isDebugEnabled
+
+    protected def debug(message: String) =
+        XFormsStateManager.getIndentedLogger.logDebug("", storeDebugName + " store: " + message)
+}
\ No newline at end of file
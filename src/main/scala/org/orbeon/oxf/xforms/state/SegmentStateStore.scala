@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state
+
+import java.io._
+import java.util.{TimerTask, Timer}
+import org.orbeon.oxf.properties.Properties
+import org.orbeon.oxf.util.{NetUtils, SystemUtils, SegmentFileStore}
+import org.orbeon.oxf.webapp.WebAppListener
+
+/**
+ * XForms state store based on segment files.
+ *
+ * Unlike with the Ehcache store, the state of inactive documents doesn't use heap memory, and survives a restart.
+ * Segments are compacted in the background.
+ */
+object SegmentStateStore extends KeyValueStateStore {
+
+    protected val storeDebugName = "Segment"
+
+    private val PropertyPrefix          = "oxf.xforms.state.store.segment."
+    private val DirectoryProperty       = PropertyPrefix + "directory"
+    private val SegmentSizeProperty     = PropertyPrefix + "segment-size"
+    private val TimeToIdleProperty      = PropertyPrefix + "time-to-idle"
+    private val SyncProperty            = PropertyPrefix + "sync"
+    private val CompactIntervalProperty = PropertyPrefix + "compact-interval"
+
+    // The store and the timer which compacts it, once the store is opened
+    @volatile private var opened: Option[(SegmentFileStore, Timer)] = None
+
+    private def store = opened match {
+        case Some((store, _)) ⇒ store
+        case None             ⇒ open()
+    }
+
+    private def open(): SegmentFileStore = synchronized {
+        opened match {
+            case Some((store, _)) ⇒ store
+            case None ⇒
+                val propertySet = Properties.instance.getPropertySet
+
+                val directory =
+                    Option(propertySet.getString(DirectoryProperty)) map (new File(_)) getOrElse
+                        new File(SystemUtils.getTemporaryDirectory, "orbeon-xforms-state")
+
+                val store =
+                    new SegmentFileStore(
+                        directory,
+                        propertySet.getInteger(SegmentSizeProperty, 64).longValue * 1024 * 1024,
+                        propertySet.getInteger(TimeToIdleProperty, 1800).longValue * 1000,
+                        propertySet.getBoolean(SyncProperty, false))
+
+                if (isDebugEnabled)
+                    debug("opened store in " + directory + " with " + store.size + " entries.")
+
+                // Compact in the background
+                val interval = propertySet.getInteger(CompactIntervalProperty, 120).longValue * 1000
+                val timer = new Timer("XForms state store compaction", true)
+                timer.schedule(new TimerTask {
+                    def run() =
+                        try store.compact()
+                        catch {
+                            case e: Exception ⇒
+                                XFormsStateManager.getIndentedLogger.logWarning("", "error while compacting state store", e)
+                        }
+                }, interval, interval)
+
+                opened = Some((store, timer))
+
+                // Stop compacting and close the store when the web app is destroyed
+                Option(NetUtils.getExternalContext) foreach (_.getWebAppContext.addListener(new WebAppListener {
+                    def webAppDestroyed() = shutdown()
+                }))
+
+                store
+        }
+    }
+
+    // Cancel the compaction and close the store, which is opened again if used later
+    def shutdown(): Unit = synchronized {
+        opened foreach { case (store, timer) ⇒
+            timer.cancel()
+            store.close()
+
+            if (isDebugEnabled)
+                debug("closed store.")
+        }
+        opened = None
+    }
+
+    protected def addOrReplaceOne(key: String, value: java.io.Serializable): Unit = {
+        val bytes = new ByteArrayOutputStream
+        val out = new ObjectOutputStream(bytes)
+        out.writeObject(value)
+        out.close()
+        store.put(key, bytes.toByteArray)
+    }
+
+    protected def findOne(key: String): AnyRef =
+        store.get(key) map (bytes ⇒ new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject) orNull
+
+    protected def removeOne(key: String): Unit =
+        store.remove(key)
+
+    override protected def containsOne(key: String): Boolean =
+        store.contains(key)
+
+    // The store is bounded by disk space only
+    def getMaxSize = Long.MaxValue
+    def getCurrentSize: Long = store.size
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state
+
+import java.io._
+import java.util.concurrent.{ThreadFactory, Executors}
+import org.orbeon.oxf.util.{NetUtils, LoggerFactory, SystemUtils, SegmentFileStore}
+import org.orbeon.oxf.util.ScalaUtils._
+import org.orbeon.oxf.webapp.{WebAppListener, WebAppContext}
+import org.orbeon.oxf.xforms.{XFormsStaticStateImpl, XFormsProperties, XFormsStaticState}
+
+/**
+ * Second-level static state cache on disk, which survives restarts.
+ *
+ * The analyzed static state refers to dom4j elements and compiled XPath expressions and can't be serialized as such.
+ * Instead, entries hold the encoded static state, which is the result of annotation, extraction and XBL processing,
+ * along with the XBL binding includes needed to check whether the state is up to date. Upon startup, the most recently
+ * used static states are restored and analyzed in parallel in the background, so that they are in the memory cache
+ * by the time the first users request them. Using a static state from the memory cache counts as an access of its entry,
+ * so that entries are ranked by use, and don't expire while they are used.
+ */
+object StaticStateDiskCache {
+
+    private val logger = LoggerFactory.createLogger(StaticStateDiskCache.getClass)
+
+    private val SegmentSize = 16L * 1024 * 1024
+    private val TimeToIdle  = 30L * 24 * 60 * 60 * 1000
+    private val TouchAge    = 24L * 60 * 60 * 1000      // the access time of an entry is written at most once a day
+
+    @volatile private var opened: Option[SegmentFileStore] = None
+
+    private def segmentStore =
+        XFormsProperties.isStaticStateDiskCache option (opened getOrElse open(Option(NetUtils.getExternalContext) map (_.getWebAppContext)))
+
+    private def open(webAppContext: Option[WebAppContext]): SegmentFileStore = synchronized {
+        opened match {
+            case Some(store) ⇒ store
+            case None ⇒
+                val directory =
+                    Option(XFormsProperties.getStaticStateDiskCacheDirectory) map (new File(_)) getOrElse
+                        new File(SystemUtils.getTemporaryDirectory, "orbeon-xforms-static-state")
+
+                val store = new SegmentFileStore(directory, SegmentSize, TimeToIdle, false)
+                store.compact()
+
+                logger.info("opened static state disk cache in " + directory + " with " + store.size + " entries")
+
+                opened = Some(store)
+
+                // Close the store when the web app is destroyed
+                webAppContext foreach (_.addListener(new WebAppListener {
+                    def webAppDestroyed() = shutdown()
+                }))
+
+                store
+        }
+    }
+
+    // Close the store, which is opened again if used later
+    def shutdown(): Unit = synchronized {
+        opened foreach (_.close())
+        opened = None
+    }
+
+    // Store the given static state, replacing any existing entry
+    def store(staticState: XFormsStaticState): Unit =
+        segmentStore foreach { store ⇒
+            try store.put(staticState.digest, serialize(staticState))
+            catch {
+                case e: Exception ⇒ logger.warn("unable to store static state " + staticState.digest, e)
+            }
+        }
+
+    // Record that the static state is used
+    def touch(digest: String): Unit =
+        segmentStore foreach { store ⇒
+            try store.touch(digest, TouchAge)
+            catch {
+                case e: Exception ⇒ logger.warn("unable to update access time of static state " + digest, e)
+            }
+        }
+
+    // Restore and analyze the most recently used static states in the background, and add them to the memory cache
+    def warmUp(webAppContext: WebAppContext): Unit = {
+        val count = XFormsProperties.getStaticStateWarmUp
+        for (store ← XFormsProperties.isStaticStateDiskCache option open(Some(webAppContext)) if count > 0) {
+
+            val digests = store.keysByLastAccess take count
+            if (digests.nonEmpty) {
+
+                logger.info("warming up static state cache with " + digests.size + " forms")
+
+                val executor = Executors.newFixedThreadPool(math.min(digests.size, Runtime.getRuntime.availableProcessors), new ThreadFactory {
+                    def newThread(runnable: Runnable) = {
+                        val thread = new Thread(runnable, "xforms-static-state-warm-up")
+                        thread.setDaemon(true)
+                        thread
+                    }
+                })
+
+                for (digest ← digests)
+                    executor.execute(new Runnable {
+                        def run(): Unit =
+                            try store.get(digest) foreach { bytes ⇒
+                                XFormsStaticStateCache.instance.storeDocumentInMemory(deserialize(digest, bytes))
+                            } catch {
+                                case e: Exception ⇒ logger.warn("unable to restore static state " + digest, e)
+                            }
+                    })
+
+                executor.shutdown()
+            }
+        }
+    }
+
+    private def serialize(staticState: XFormsStaticState) = {
+        val metadata = staticState.topLevelPart.metadata
+        val encodedState = staticState.encodedState.getBytes("UTF-8")
+
+        val bytes = new ByteArrayOutputStream
+        val out = new DataOutputStream(bytes)
+
+        out.writeLong(metadata.bindingsLastModified)
+        out.writeInt(metadata.bindingIncludes.size)
+        metadata.bindingIncludes foreach out.writeUTF
+        out.writeInt(encodedState.length)
+        out.write(encodedState)
+        out.close()
+
+        bytes.toByteArray
+    }
+
+    private def deserialize(digest: String, bytes: Array[Byte]) = {
+        val in = new DataInputStream(new ByteArrayInputStream(bytes))
+
+        val bindingsLastModified = in.readLong
+        val bindingIncludes = List.fill(in.readInt)(in.readUTF)
+        val encodedState = new Array[Byte](in.readInt)
+        in.readFully(encodedState)
+
+        val staticState = XFormsStaticStateImpl.restore(Some(digest), new String(encodedState, "UTF-8"))
+
+        // Restore what's needed to check whether bindings are up to date
+        val metadata = staticState.topLevelPart.metadata
+        metadata.bindingIncludes ++= bindingIncludes
+        metadata.updateBindingsLastModified(bindingsLastModified)
+
+        staticState
+    }
+}
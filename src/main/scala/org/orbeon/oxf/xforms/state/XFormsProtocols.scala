@@ -24,6 +24,8 @@ import sbinary._
 import org.dom4j.{Namespace, QName, Document}
 import sbinary.Operations._
 import org.orbeon.oxf.xforms.InstanceCaching
+import java.nio.ByteBuffer
+import collection.mutable.WrappedArray
 
 object XFormsOperations {
 
@@ -32,8 +34,40 @@ object XFormsOperations {
     def toByteSeq[T: Writes](t: T): Seq[Byte] =
         toByteArray(t).toSeq
 
-    def fromByteSeq[T: Reads](bytes: Seq[Byte]): T =
-        fromByteArray(bytes.toArray) // TODO: inefficient copy to array → implement Input instead
+    // Read directly from the underlying array when possible, which is the case for sequences created by toByteSeq
+    def fromByteSeq[T: Reads](bytes: Seq[Byte]): T = bytes match {
+        case wrapped: WrappedArray.ofByte ⇒ read[T](new ByteBufferInput(ByteBuffer.wrap(wrapped.array)))
+        case _                            ⇒ fromByteArray(bytes.toArray)
+    }
+}
+
+// Input over a ByteBuffer
+// Formats can check for this type and obtain views on the buffer with slice() instead of copying bytes.
+class ByteBufferInput(buffer: ByteBuffer) extends Input {
+
+    def readByte =
+        if (buffer.hasRemaining)
+            buffer.get
+        else
+            throw new EOFException
+
+    def readTo(target: Array[Byte], offset: Int, length: Int) =
+        if (buffer.hasRemaining) {
+            val count = math.min(length, buffer.remaining)
+            buffer.get(target, offset, count)
+            count
+        } else
+            -1
+
+    // Return a view on the next length bytes and skip them
+    def slice(length: Int) = {
+        if (buffer.remaining < length)
+            throw new EOFException
+        val result = buffer.slice
+        result.limit(length)
+        buffer.position(buffer.position + length)
+        result
+    }
 }
 
 object XFormsProtocols extends StandardTypes with StandardPrimitives with JavaLongUTF {
@@ -102,6 +136,26 @@ object XFormsProtocols extends StandardTypes with StandardPrimitives with JavaLo
             )
     }
 
+    implicit object InstanceContentFormat extends Format[InstanceContent] {
+
+        def writes(output: Output, content: InstanceContent) {
+            write(output, content.size)
+            content.writeTo(output)
+        }
+
+        def reads(in: Input) = {
+            val size = read[Int](in)
+            in match {
+                case byteBufferInput: ByteBufferInput ⇒
+                    InstanceContent(byteBufferInput.slice(size))
+                case _ ⇒
+                    val bytes = new Array[Byte](size)
+                    in.readFully(bytes)
+                    InstanceContent(ByteBuffer.wrap(bytes))
+            }
+        }
+    }
+
     implicit object InstanceFormat extends Format[InstanceState] {
         
         def writes(output: Output, instance: InstanceState) {
@@ -109,7 +163,7 @@ object XFormsProtocols extends StandardTypes with StandardPrimitives with JavaLo
             write(output, instance.modelEffectiveId)
             instance.cachingOrContent match {
                 case Left(caching)  ⇒ write[Byte](output, 0); write(output, caching)
-                case Right(content) ⇒ write[Byte](output, 1); write(output, content)
+                case Right(content) ⇒ write[Byte](output, 2); write(output, content)
             }
             write(output, instance.readonly)
             write(output, instance.modified)
@@ -120,7 +174,8 @@ object XFormsProtocols extends StandardTypes with StandardPrimitives with JavaLo
 
             def readCachingOrContent = read[Byte](in) match {
                 case 0 ⇒ Left(read[InstanceCaching](in))
-                case 1 ⇒ Right(read[String](in))
+                case 1 ⇒ Right(InstanceContent.fromXMLString(read[String](in))) // content as XML, as stored by earlier versions
+                case 2 ⇒ Right(read[InstanceContent](in))
             }
 
             InstanceState(
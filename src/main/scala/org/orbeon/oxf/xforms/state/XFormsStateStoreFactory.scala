@@ -14,9 +14,21 @@
 package org.orbeon.oxf.xforms.state
 
 import org.orbeon.oxf.pipeline.api.ExternalContext
+import org.orbeon.oxf.properties.Properties
+import org.orbeon.oxf.common.OXFException
 
 
 object XFormsStateStoreFactory {
-    // Use Ehcache state store
-    def instance(externalContext: ExternalContext): XFormsStateStore = EhcacheStateStore
+
+    private val StoreProperty = "oxf.xforms.state.store"
+
+    // Use the Ehcache state store unless another store is configured
+    private lazy val store =
+        Properties.instance.getPropertySet.getString(StoreProperty, "ehcache") match {
+            case "ehcache" ⇒ EhcacheStateStore
+            case "segment" ⇒ SegmentStateStore
+            case other     ⇒ throw new OXFException("Invalid value for property " + StoreProperty + ": " + other)
+        }
+
+    def instance(externalContext: ExternalContext): XFormsStateStore = store
 }
\ No newline at end of file
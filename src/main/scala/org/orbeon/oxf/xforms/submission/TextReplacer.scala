@@ -65,7 +65,7 @@ class TextReplacer(submission: XFormsModelSubmission, containingDocument: XForms
         val destinationNodeInfo =
             if (submission.getTargetref ne null) {
                 // Evaluate destination node
-                XPathCache.evaluateSingle(p.xpathContext, p.refNodeInfo, submission.getTargetref, containingDocument.getRequestStats.addXPathStat) match {
+                XPathCache.evaluateSingle(p.xpathContext, p.refNodeInfo, submission.getTargetref, containingDocument.getRequestStats.getReporter) match {
                     case nodeInfo: NodeInfo ⇒ nodeInfo
                     case _ ⇒ throwSubmissionException("""targetref attribute doesn't point to a node for replace="text".""")
                 }
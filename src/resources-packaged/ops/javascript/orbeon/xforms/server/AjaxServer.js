@@ -567,6 +567,11 @@
             var body = ORBEON.util.Dom.getElementsByName(o.responseXML.documentElement, "body", null)[0];
             var detailsFromBody = body != null ? ORBEON.util.Dom.getStringValue(body) : null;
             AjaxServer.showError(title, detailsFromBody, formID);
+        } else if (! ORBEON.util.Properties.retryEnabled.get()) {
+            // The server doesn't keep the response for a retry
+            ORBEON.xforms.Globals.requestInProgress = false;
+            ORBEON.xforms.Globals.requestDocument = "";
+            AjaxServer.showError("Error while communicating with the server", "The request failed with status " + o.status + ".", ORBEON.xforms.Globals.requestForm.id);
         } else {
             AjaxServer.retryRequestAfterDelay(AjaxServer.asyncAjaxRequest);
         }
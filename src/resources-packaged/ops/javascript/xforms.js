@@ -918,6 +918,7 @@ var DEFAULT_LOADING_TEXT = "Loading...";
                 this.clientEventsFilter = new ORBEON.util.Property("client.events.filter", "");
                 this.resourcesVersioned = new ORBEON.util.Property("oxf.resources.versioned", false);
                 this.resourcesVersionNumber = new ORBEON.util.Property("oxf.resources.version-number", "");
+                this.retryEnabled = new ORBEON.util.Property("retry.enabled", true);
                 this.retryDelayIncrement = new ORBEON.util.Property("retry.delay-increment", 5000);
                 this.retryMaxDelay = new ORBEON.util.Property("retry.max-delay", 30000);
                 this.useARIA = new ORBEON.util.Property("use-aria", false);
@@ -91,6 +91,7 @@ public class XFormsStaticStateTest extends ResourceManagerTestBase {
         final XFormsControls mockControls = Mockito.mock(XFormsControls.class);
 
         Mockito.when(mockDocument.indentedLogger()).thenReturn(staticState.getIndentedLogger());
+        Mockito.when(mockDocument.getStaticState()).thenReturn(staticState);
 
         final StaticStateGlobalOps ops = new StaticStateGlobalOps(staticState.topLevelPart());
         Mockito.when(mockDocument.getStaticOps()).thenReturn(ops);
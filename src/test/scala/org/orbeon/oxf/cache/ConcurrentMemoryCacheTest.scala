@@ -0,0 +1,192 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.cache
+
+import org.scalatest.junit.AssertionsForJUnit
+import org.junit.Test
+import java.util.concurrent.locks.{ReentrantLock, Lock}
+import collection.JavaConversions._
+import concurrent.{Await, Future}
+import concurrent.duration._
+import concurrent.ExecutionContext.Implicits.global
+
+class ConcurrentMemoryCacheTest extends AssertionsForJUnit {
+
+    class MyCacheable(val getEvictionLock: Lock) extends Cacheable {
+
+        @volatile var wasAdded = false
+        @volatile var wasEvicted = false
+        @volatile var wasRemoved = false
+
+        def evicted() { wasEvicted = true }
+        def removed() { wasRemoved = true }
+        def added() { wasAdded = true }
+    }
+
+    case class Key(key: String) extends InternalCacheKey("test", key)
+    val VALIDITY = 0L
+
+    @Test def testFindKeepsInCache() {
+        val cache = new ConcurrentMemoryCacheImpl("test", 1)
+
+        val o1 = new MyCacheable(null)
+        val key1 = Key("o1")
+        cache.add(key1, VALIDITY, o1)
+
+        assert(cache.findValid(key1, VALIDITY) eq o1)
+        assert(cache.findValid(key1, VALIDITY + 1) eq null)
+        assert(o1.wasAdded)
+        assert(!o1.wasEvicted)
+        assert(!o1.wasRemoved)
+        assert(cache.getCurrentSize === 1)
+    }
+
+    @Test def testTakeRemovesFromCache() {
+        val cache = new ConcurrentMemoryCacheImpl("test", 1)
+
+        val o1 = new MyCacheable(null)
+        val key1 = Key("o1")
+        cache.add(key1, VALIDITY, o1)
+
+        assert(cache.takeValid(key1, VALIDITY) eq o1)
+        assert(cache.takeValid(key1, VALIDITY) eq null)
+        assert(!o1.wasEvicted)
+        assert(o1.wasRemoved)
+        assert(cache.getCurrentSize === 0)
+    }
+
+    @Test def testRemoveAllNotifies() {
+        val cache = new ConcurrentMemoryCacheImpl("test", 2)
+
+        val o1 = new MyCacheable(null)
+        val o2 = new MyCacheable(null)
+        cache.add(Key("o1"), VALIDITY, o1)
+        cache.add(Key("o2"), VALIDITY, o2)
+
+        assert(cache.removeAll() === 2)
+
+        assert(o1.wasRemoved && o2.wasRemoved)
+        assert(cache.getCurrentSize === 0)
+        assert(! cache.iterateCacheKeys.hasNext)
+    }
+
+    @Test def testReduceSizeWithLock() {
+        val cache = new ConcurrentMemoryCacheImpl("test", 1)
+        val lock = new ReentrantLock
+
+        val o1 = new MyCacheable(lock)
+        cache.add(Key("o1"), VALIDITY, o1)
+
+        // Reduce size in other thread
+        lock.lock()
+        Await.ready(Future(cache.setMaxSize(0)), Duration.Inf)
+        lock.unlock()
+
+        assert(!o1.wasEvicted)
+        assert(!o1.wasRemoved)
+        assert(cache.getCurrentSize === 1)
+    }
+
+    @Test def testNextToLastEvicted() {
+        val cache = new ConcurrentMemoryCacheImpl("test", 2)
+        val lock = new ReentrantLock
+
+        // First object will be last and has a lock. It must not be evicted.
+        val o1 = new MyCacheable(lock)
+
+        // Second object will be next-to-last and doesn't have a lock. It must be evicted.
+        val o2 = new MyCacheable(null)
+
+        cache.add(Key("o1"), VALIDITY, o1)
+        cache.add(Key("o2"), VALIDITY, o2)
+
+        // Run in separate thread and wait
+        lock.lock()
+        Await.ready(Future(cache.add(Key("o3"), VALIDITY, new AnyRef)), Duration.Inf)
+        lock.unlock()
+
+        assert(!o1.wasEvicted)
+        assert(o2.wasEvicted)
+        assert(!o2.wasRemoved)
+        assert(cache.getCurrentSize === 2)
+    }
+
+    @Test def testReadsUpdateRecency() {
+        val cache = new ConcurrentMemoryCacheImpl("test", 2)
+
+        val o1 = new MyCacheable(null)
+        val o2 = new MyCacheable(null)
+
+        cache.add(Key("o1"), VALIDITY, o1)
+        cache.add(Key("o2"), VALIDITY, o2)
+
+        // Reading o1 makes o2 the least recently used entry
+        cache.findValid(Key("o1"), VALIDITY)
+        cache.add(Key("o3"), VALIDITY, new AnyRef)
+
+        assert(!o1.wasEvicted)
+        assert(o2.wasEvicted)
+        assert(cache.iterateCacheKeys.toList === List(Key("o3"), Key("o1")))
+    }
+
+    @Test def testConcurrentAccess() {
+        val size = 50
+        val cache = new ConcurrentMemoryCacheImpl("test", size)
+
+        val futures =
+            for (thread ← 1 to 8)
+            yield Future {
+                for (i ← 1 to 10000) {
+                    val key = Key("o" + (i * thread % (size * 2)))
+                    if (cache.findValid(key, VALIDITY) eq null)
+                        cache.add(key, VALIDITY, new MyCacheable(null))
+                }
+            }
+
+        Await.result(Future.sequence(futures), Duration.Inf)
+
+        assert(cache.getCurrentSize <= size)
+        assert(cache.getCurrentSize === cache.iterateCacheKeys.size)
+    }
+
+    @Test def testWeightBoundEvicts() {
+        val cache = new ConcurrentMemoryCacheImpl("test", 100, 1000)
+
+        class MyWeighable(val getApproximateWeight: Long) extends MyCacheable(null) with Weighable
+
+        val o1 = new MyWeighable(400)
+        val o2 = new MyWeighable(400)
+        val o3 = new MyWeighable(700)
+
+        cache.add(Key("o1"), VALIDITY, o1)
+        cache.add(Key("o2"), VALIDITY, o2)
+        assert(cache.getCurrentWeight === 800)
+
+        // Both previous objects must go to make room for the third one
+        cache.add(Key("o3"), VALIDITY, o3)
+        assert(o1.wasEvicted)
+        assert(o2.wasEvicted)
+        assert(!o3.wasEvicted)
+        assert(cache.getCurrentSize === 1)
+        assert(cache.getCurrentWeight === 700)
+
+        // Object larger than the whole budget is not cached
+        cache.add(Key("o4"), VALIDITY, new MyWeighable(2000))
+        assert(cache.findValid(Key("o4"), VALIDITY) eq null)
+        assert(cache.getCurrentWeight === 700)
+
+        cache.remove(Key("o3"))
+        assert(cache.getCurrentWeight === 0)
+    }
+}
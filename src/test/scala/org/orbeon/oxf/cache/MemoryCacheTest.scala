@@ -219,4 +219,34 @@ class MemoryCacheTest extends AssertionsForJUnit {
         assert(range === keysAsInts)
         assert(range === values)
     }
+
+    @Test def testWeightBoundEvicts() {
+        val cache = new MemoryCacheImpl("test", 100, 1000)
+
+        class MyWeighable(val getApproximateWeight: Long) extends MyCacheable(null) with Weighable
+
+        val o1 = new MyWeighable(400)
+        val o2 = new MyWeighable(400)
+        val o3 = new MyWeighable(700)
+
+        cache.add(Key("o1"), VALIDITY, o1)
+        cache.add(Key("o2"), VALIDITY, o2)
+        assert(cache.getCurrentWeight === 800)
+
+        // Both previous objects must go to make room for the third one
+        cache.add(Key("o3"), VALIDITY, o3)
+        assert(o1.wasEvicted)
+        assert(o2.wasEvicted)
+        assert(!o3.wasEvicted)
+        assert(cache.getCurrentSize === 1)
+        assert(cache.getCurrentWeight === 700)
+
+        // Object larger than the whole budget is not cached
+        cache.add(Key("o4"), VALIDITY, new MyWeighable(2000))
+        assert(cache.findValid(Key("o4"), VALIDITY) eq null)
+        assert(cache.getCurrentWeight === 700)
+
+        cache.remove(Key("o3"))
+        assert(cache.getCurrentWeight === 0)
+    }
 }
\ No newline at end of file
@@ -0,0 +1,174 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor
+
+import collection.JavaConverters._
+import java.lang.management.ManagementFactory
+import java.sql.DriverManager
+import javax.management.ObjectName
+import org.junit.Test
+import org.orbeon.oxf.common.OXFException
+import org.orbeon.oxf.pipeline.api.PipelineContext
+import org.scalatest.junit.AssertionsForJUnit
+
+class ConnectionPoolTest extends AssertionsForJUnit {
+
+    private val Driver = "org.hsqldb.jdbcDriver"
+
+    private def newDatasource(name: String) = new Datasource(Driver, "jdbc:hsqldb:mem:" + name, "sa", "")
+
+    private def newConnection(name: String, statementCacheSize: Int) = {
+        Class.forName(Driver)
+        val connection = new PooledConnection(DriverManager.getConnection("jdbc:hsqldb:mem:" + name, "sa", ""), statementCacheSize)
+        connection.getConnection.createStatement.execute("create table t (i int)")
+        connection
+    }
+
+    @Test def reuseConnections(): Unit = {
+        val pool = new ConnectionPool(newDatasource("reuse"), 2, 100, 60000, null, 10)
+        try {
+            val c1 = pool.borrowConnection()
+            pool.returnConnection(c1)
+
+            val c2 = pool.borrowConnection()
+            assert(c2 eq c1)
+
+            val c3 = pool.borrowConnection()
+            assert(c3 ne c2)
+            assert(pool.getActiveCount === 2)
+            assert(pool.getCreatedCount === 2)
+
+            // Pool is exhausted
+            intercept[OXFException] {
+                pool.borrowConnection()
+            }
+            assert(pool.getTimedOutCount === 1)
+
+            // Invalidated connections are not reused
+            pool.invalidateConnection(c3)
+            assert(pool.borrowConnection() ne c3)
+            assert(pool.getDestroyedCount === 1)
+        } finally
+            pool.close()
+    }
+
+    @Test def branchConnections(): Unit = {
+        val datasource = newDatasource("branch")
+        val pipelineContext = new PipelineContext
+        val connection = DatabaseContext.getPooledConnection(pipelineContext, datasource, null)
+        val pool = ConnectionPool.getPool(datasource, null)
+
+        // A branch gets its own connection, which goes back to the pool as soon as the branch ends
+        val branchContext = new PipelineContext(pipelineContext, Map[AnyRef, AnyRef](DatabaseContext.DATASOURCE_CONTEXT → null).asJava)
+        assert(DatabaseContext.getPooledConnection(branchContext, datasource, null) ne connection)
+        assert(pool.getActiveCount === 2)
+        branchContext.destroy(true)
+        assert(pool.getActiveCount === 1)
+
+        pipelineContext.destroy(true)
+        assert(pool.getActiveCount === 0)
+    }
+
+    @Test def statementCache(): Unit = {
+        val connection = newConnection("cache", 10)
+        try {
+            val sql = "select i from t where i = ?"
+
+            // Nested uses of the same SQL get distinct statements
+            val s1 = connection.prepareStatement(sql)
+            val s2 = connection.prepareStatement(sql)
+            assert(s1 ne s2)
+
+            // Only one statement is kept
+            connection.closeStatement(s1)
+            connection.closeStatement(s2)
+            assert(connection.getIdleStatementCount === 1)
+
+            val s3 = connection.prepareStatement(sql)
+            assert(s3 eq s1)
+
+            // Parameters are cleared and releasing twice doesn't close the cached statement
+            s3.setInt(1, 42)
+            s3.executeQuery()
+            connection.closeStatement(s3)
+            connection.closeStatement(s3)
+
+            val s4 = connection.prepareStatement(sql)
+            assert(s4 eq s1)
+            s4.setInt(1, 42)
+            assert(! s4.executeQuery().next())
+        } finally
+            connection.close()
+    }
+
+    @Test def statementCacheEviction(): Unit = {
+        val connection = newConnection("eviction", 2)
+        try {
+            val statements = for (i ← 1 to 3) yield connection.prepareStatement("select i from t where i = " + i)
+            statements foreach connection.closeStatement
+
+            // The least recently used statement was closed
+            assert(connection.getIdleStatementCount === 2)
+            assert(connection.prepareStatement("select i from t where i = 1") ne statements(0))
+            assert(connection.prepareStatement("select i from t where i = 3") eq statements(2))
+        } finally
+            connection.close()
+    }
+
+    @Test def statementBatchCleared(): Unit = {
+        val connection = newConnection("batch", 10)
+        try {
+            val sql = "insert into t values (?)"
+
+            // A batch which is not executed is not executed by the next user of the statement
+            val s1 = connection.prepareStatement(sql)
+            s1.setInt(1, 1)
+            s1.addBatch()
+            connection.closeStatement(s1)
+
+            val s2 = connection.prepareStatement(sql)
+            assert(s2 eq s1)
+            assert(s2.executeBatch().length === 0)
+            connection.closeStatement(s2)
+
+            val resultSet = connection.getConnection.createStatement.executeQuery("select count(*) from t")
+            resultSet.next()
+            assert(resultSet.getInt(1) === 0)
+        } finally
+            connection.close()
+    }
+
+    @Test def gauges(): Unit = {
+        val pool = ConnectionPool.getPool(newDatasource("gauges"), null)
+        try {
+            val connection = pool.borrowConnection()
+            connection.getConnection.createStatement.execute("create table t (i int)")
+            connection.closeStatement(connection.prepareStatement("select i from t"))
+            connection.closeStatement(connection.prepareStatement("select i from t"))
+
+            val server = ManagementFactory.getPlatformMBeanServer
+            val metrics = new ObjectName("org.orbeon.oxf.xforms:type=Metrics")
+            def gauge(name: String) = server.getAttribute(metrics, name)
+
+            val pools = ConnectionPool.getPools.asScala
+            assert(gauge("sql.connection-pool.active-count") === (pools map (_.getActiveCount.toLong)).sum)
+            assert(gauge("sql.connection-pool.borrowed-count") === (pools map (_.getBorrowedCount)).sum)
+            assert(gauge("sql.statement-cache.hit-count") === PooledConnection.getStatementCacheHits)
+            assert(gauge("sql.statement-cache.miss-count") === PooledConnection.getStatementCacheMisses)
+
+            pool.returnConnection(connection)
+        } finally
+            pool.close()
+    }
+}
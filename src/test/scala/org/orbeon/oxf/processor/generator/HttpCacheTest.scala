@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor.generator
+
+import collection.JavaConverters._
+import org.junit.Test
+import org.orbeon.oxf.processor.generator.HttpCache.{Entry, CacheControl}
+import org.orbeon.oxf.xml.SAXStore
+import org.scalatest.junit.AssertionsForJUnit
+
+class HttpCacheTest extends AssertionsForJUnit {
+
+    @Test def parseCacheControl(): Unit = {
+        val maxAge = CacheControl.parse("public, max-age=60, stale-while-revalidate=30")
+        assert(! maxAge.isNoStore)
+        assert(maxAge.getFreshnessLifetime === 60)
+        assert(maxAge.getStaleWhileRevalidate === 30)
+
+        // s-maxage takes precedence for a shared cache
+        assert(CacheControl.parse("max-age=60, s-maxage=\"120\"").getFreshnessLifetime === 120)
+
+        assert(CacheControl.parse("no-store").isNoStore)
+        assert(CacheControl.parse("Private, max-age=60").isNoStore)
+        assert(CacheControl.parse("no-cache, max-age=60, stale-while-revalidate=30").getFreshnessLifetime === 0)
+        assert(CacheControl.parse("max-age=60, must-revalidate, stale-while-revalidate=30").getStaleWhileRevalidate === 0)
+
+        // Invalid values and unknown directives are ignored
+        assert(CacheControl.parse("max-age=foo, bar").getFreshnessLifetime === 0)
+        assert(CacheControl.parse(null).getFreshnessLifetime === 0)
+    }
+
+    @Test def entryFreshness(): Unit = {
+        val entry = new Entry(new SAXStore, "\"1\"", null, 1000L, CacheControl.parse("max-age=10, stale-while-revalidate=5"), 0L, 0L)
+        assert(entry.isFresh(9999))
+        assert(! entry.isFresh(10000))
+        assert(entry.isUsableWhileRevalidating(14999))
+        assert(! entry.isUsableWhileRevalidating(15000))
+
+        // Only one background revalidation at a time
+        assert(entry.startRevalidation())
+        assert(! entry.startRevalidation())
+        entry.endRevalidation()
+        assert(entry.startRevalidation())
+
+        // A 304 response keeps the document and validity, and updates the other headers if present
+        val refreshed = entry.refresh(null, null, 0L, 20000L)
+        assert(refreshed.getDocument eq entry.getDocument)
+        assert(refreshed.getValidity === entry.getValidity)
+        assert(refreshed.getEtag === "\"1\"")
+        assert(refreshed.isFresh(29999))
+
+        assert(! entry.refresh("\"2\"", CacheControl.parse("no-cache"), 0L, 20000L).isFresh(20000))
+    }
+
+    @Test def age(): Unit = {
+        // The response was already cached upstream for part of its lifetime
+        val entry = new Entry(new SAXStore, null, null, 1000L, CacheControl.parse("max-age=10, stale-while-revalidate=5"), 8L, 0L)
+        assert(entry.isFresh(1999))
+        assert(! entry.isFresh(2000))
+        assert(entry.isUsableWhileRevalidating(6999))
+        assert(! entry.isUsableWhileRevalidating(7000))
+
+        assert(! entry.refresh(null, null, 10L, 20000L).isFresh(20000))
+
+        assert(HttpCache.parseAge("8") === 8)
+        assert(HttpCache.parseAge("-8") === 0)
+        assert(HttpCache.parseAge("foo") === 0)
+        assert(HttpCache.parseAge(null) === 0)
+    }
+
+    @Test def cacheable(): Unit = {
+        val none = CacheControl.NONE
+        assert(! Entry.isCacheable(none, null, null, null, false))
+        assert(Entry.isCacheable(none, "\"1\"", null, null, false))
+        assert(Entry.isCacheable(none, null, 1000L, null, false))
+        assert(Entry.isCacheable(CacheControl.parse("max-age=60"), null, null, "Accept-Encoding", false))
+        assert(! Entry.isCacheable(CacheControl.parse("max-age=60"), null, null, "Accept-Encoding, Cookie", false))
+        assert(! Entry.isCacheable(CacheControl.parse("no-store"), "\"1\"", 1000L, null, false))
+
+        // With credentials or cookies, only responses meant for shared caches
+        assert(! Entry.isCacheable(CacheControl.parse("max-age=60"), "\"1\"", 1000L, null, true))
+        assert(Entry.isCacheable(CacheControl.parse("public, max-age=60"), null, null, null, true))
+        assert(Entry.isCacheable(CacheControl.parse("s-maxage=60"), null, null, null, true))
+        assert(! Entry.isCacheable(CacheControl.parse("public, no-store"), null, null, null, true))
+    }
+
+    @Test def headers(): Unit = {
+        val headers = Map("cache-control" → List("max-age=60", "stale-while-revalidate=30").asJava, "ETag" → List("\"1\"").asJava).asJava
+        assert(HttpCache.getHeader(headers, "Cache-Control") === "max-age=60,stale-while-revalidate=30")
+        assert(HttpCache.getHeader(headers, "etag") === "\"1\"")
+        assert(HttpCache.getHeader(headers, "Vary") === null)
+        assert(HttpCache.getHeader(null, "Vary") === null)
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor.generator
+
+import collection.JavaConverters._
+import com.sun.net.httpserver.{Headers, HttpExchange, HttpHandler, HttpServer}
+import java.net.InetSocketAddress
+import java.util.concurrent.CopyOnWriteArrayList
+import org.junit.Test
+import org.orbeon.oxf.processor.ProcessorUtils
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.orbeon.oxf.util.NetUtils
+import org.scalatest.junit.AssertionsForJUnit
+
+class URLGeneratorTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+    private case class Response(status: Int, headers: (String, String)*)
+
+    // Run an HTTP server which sends the given responses in turn, the last one being repeated, and pass the URL of a
+    // new document along with the headers of the requests received
+    private def withServer(responses: Response*)(body: (String, collection.Seq[Headers]) ⇒ Unit): Unit = {
+        val requests = new CopyOnWriteArrayList[Headers]
+        val server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+        server.createContext("/", new HttpHandler {
+            def handle(exchange: HttpExchange): Unit = {
+                val response = responses(math.min(requests.size, responses.size - 1))
+                requests.add(exchange.getRequestHeaders)
+
+                for ((name, value) ← response.headers)
+                    exchange.getResponseHeaders.add(name, value)
+
+                if (response.status == 304)
+                    exchange.sendResponseHeaders(304, -1)
+                else {
+                    val bytes = "<document/>".getBytes("UTF-8")
+                    exchange.getResponseHeaders.add("Content-Type", "application/xml")
+                    exchange.sendResponseHeaders(response.status, bytes.length)
+                    exchange.getResponseBody.write(bytes)
+                }
+                exchange.close()
+            }
+        })
+        server.start()
+        try body("http://localhost:" + server.getAddress.getPort + "/document-" + System.nanoTime, requests.asScala)
+        finally server.stop(0)
+    }
+
+    private def read(url: String) =
+        assert(ProcessorUtils.createDocumentFromURL(url, null).getRootElement.getName === "document")
+
+    @Test def noRequestWhileFresh(): Unit =
+        withServer(Response(200, "Cache-Control" → "max-age=60")) { (url, requests) ⇒
+            for (_ ← 1 to 3)
+                read(url)
+            assert(requests.size === 1)
+        }
+
+    @Test def notModified(): Unit =
+        withServer(Response(200, "Cache-Control" → "max-age=0", "ETag" → "\"1\""), Response(304, "Cache-Control" → "max-age=60")) { (url, requests) ⇒
+            read(url)
+            assert(requests.size === 1)
+
+            // The stale document is revalidated, and the 304 response makes it fresh again
+            read(url)
+            assert(requests.size === 2)
+            assert(requests(1).getFirst("If-None-Match") === "\"1\"")
+
+            read(url)
+            assert(requests.size === 2)
+        }
+
+    @Test def varyNotStored(): Unit =
+        withServer(Response(200, "Cache-Control" → "max-age=60", "Vary" → "User-Agent")) { (url, requests) ⇒
+            read(url)
+            read(url)
+            assert(requests.size === 2)
+        }
+
+    @Test def age(): Unit =
+        withServer(Response(200, "Cache-Control" → "max-age=60", "Age" → "60")) { (url, requests) ⇒
+            read(url)
+            read(url)
+            assert(requests.size === 2)
+        }
+
+    @Test def cookies(): Unit = {
+        // The session cookie is forwarded
+        NetUtils.getExternalContext.getRequest.getSession(true)
+
+        withServer(Response(200, "Cache-Control" → "max-age=60")) { (url, requests) ⇒
+            read(url)
+            read(url)
+            assert(requests.size === 2)
+            assert(requests(0).getFirst("Cookie") ne null)
+        }
+
+        withServer(Response(200, "Cache-Control" → "public, max-age=60")) { (url, requests) ⇒
+            read(url)
+            read(url)
+            assert(requests.size === 1)
+        }
+    }
+}
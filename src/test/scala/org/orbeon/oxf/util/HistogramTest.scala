@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util
+
+import org.junit.Test
+import org.scalatest.junit.AssertionsForJUnit
+
+class HistogramTest extends AssertionsForJUnit {
+
+    @Test def buckets(): Unit = {
+        // Small values have their own bucket
+        for (v ← 0L to 63L)
+            assert(Histogram.bucketUpperBound(Histogram.bucketIndex(v)) === v)
+
+        // Larger values are within about 3% of their bucket's upper bound
+        for (v ← Seq(64L, 100L, 1000L, 123456L, 987654321L, Histogram.MaxValue)) {
+            val upper = Histogram.bucketUpperBound(Histogram.bucketIndex(v))
+            assert(upper >= v)
+            assert(upper - v <= v / 32)
+        }
+    }
+
+    @Test def percentiles(): Unit = {
+        val histogram = new Histogram
+
+        assert(histogram.percentile(50) === 0)
+
+        for (v ← 1 to 1000)
+            histogram.record(v)
+
+        assert(histogram.count === 1000)
+        assert(histogram.sum === 500500)
+        assert(histogram.mean === 500)
+        assert(histogram.max === 1000)
+
+        def near(actual: Long, expected: Long) = math.abs(actual - expected) <= expected / 32
+
+        assert(near(histogram.percentile(50), 500))
+        assert(near(histogram.percentile(90), 900))
+        assert(histogram.percentile(100) === 1000)
+    }
+
+    @Test def concurrentRecords(): Unit = {
+        val histogram = new Histogram
+
+        val threads =
+            for (i ← 1 to 4)
+                yield new Thread {
+                    override def run(): Unit = for (v ← 1 to 10000) histogram.record(v)
+                }
+
+        threads foreach (_.start())
+        threads foreach (_.join())
+
+        assert(histogram.count === 40000)
+        assert(histogram.sum === 4 * 50005000L)
+        assert(histogram.max === 10000)
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util
+
+import java.io.{RandomAccessFile, File}
+import org.junit.Test
+import org.orbeon.oxf.common.OXFException
+import org.scalatest.junit.AssertionsForJUnit
+
+class SegmentFileStoreTest extends AssertionsForJUnit {
+
+    private def withDirectory(body: File ⇒ Unit): Unit = {
+        val directory = File.createTempFile("segments", "")
+        directory.delete()
+        try body(directory)
+        finally {
+            Option(directory.listFiles).toList flatMap (_.toList) foreach (_.delete())
+            directory.delete()
+        }
+    }
+
+    private def bytes(s: String) = s.getBytes("UTF-8")
+    private def string(bytes: Option[Array[Byte]]) = bytes map (new String(_, "UTF-8"))
+
+    @Test def putGetRemove(): Unit = withDirectory { directory ⇒
+        val store = new SegmentFileStore(directory, 1024 * 1024, 0, false)
+
+        store.put("a", bytes("1"))
+        store.put("b", bytes("2"))
+        store.put("a", bytes("3"))
+        store.remove("b")
+
+        assert(string(store.get("a")) === Some("3"))
+        assert(store.get("b") === None)
+        assert(store.contains("a"))
+        assert(! store.contains("b"))
+        assert(store.size === 1)
+        store.close()
+    }
+
+    @Test def survivesReopen(): Unit = withDirectory { directory ⇒
+        val store1 = new SegmentFileStore(directory, 1024 * 1024, 0, false)
+        store1.put("a", bytes("1"))
+        store1.put("b", bytes("2"))
+        store1.remove("b")
+        store1.close()
+
+        // Simulate a crash in the middle of a write
+        val segment = new RandomAccessFile(new File(directory, "segment-0.dat"), "rw")
+        segment.seek(segment.length)
+        segment.write(Array[Byte](0x4F, 0x58, 0x46))
+        segment.close()
+
+        val store2 = new SegmentFileStore(directory, 1024 * 1024, 0, false)
+        assert(string(store2.get("a")) === Some("1"))
+        assert(store2.get("b") === None)
+        assert(store2.size === 1)
+        store2.close()
+    }
+
+    @Test def keysByLastAccess(): Unit = withDirectory { directory ⇒
+        val store = new SegmentFileStore(directory, 1024 * 1024, 0, false)
+
+        store.put("a", bytes("1"))
+        Thread.sleep(5)
+        store.put("b", bytes("2"))
+        assert(store.keysByLastAccess === List("b", "a"))
+
+        Thread.sleep(5)
+        store.get("a")
+        assert(store.keysByLastAccess === List("a", "b"))
+        store.close()
+    }
+
+    @Test def touchSurvivesReopen(): Unit = withDirectory { directory ⇒
+        val store1 = new SegmentFileStore(directory, 1024 * 1024, 0, false)
+
+        store1.put("a", bytes("1"))
+        Thread.sleep(5)
+        store1.put("b", bytes("2"))
+        Thread.sleep(5)
+
+        // A recent record is not rewritten
+        store1.touch("a", 60 * 1000)
+        store1.close()
+        val store2 = new SegmentFileStore(directory, 1024 * 1024, 0, false)
+        assert(store2.keysByLastAccess === List("b", "a"))
+
+        // An older one is, and is then the most recently accessed after reopening
+        store2.touch("a", 0)
+        store2.close()
+        val store3 = new SegmentFileStore(directory, 1024 * 1024, 0, false)
+        assert(store3.keysByLastAccess === List("a", "b"))
+        assert(string(store3.get("a")) === Some("1"))
+        assert(store3.size === 2)
+        store3.close()
+    }
+
+    @Test def compactsSparseSegments(): Unit = withDirectory { directory ⇒
+        val store = new SegmentFileStore(directory, 200, 0, false)
+
+        // Overwrite the same keys so that earlier segments only contain dead records
+        for (i ← 1 to 20; key ← Seq("a", "b"))
+            store.put(key, bytes(key + i))
+
+        val segmentsBefore = store.segmentCount
+        assert(segmentsBefore > 2)
+
+        store.compact()
+
+        assert(store.segmentCount < segmentsBefore)
+        assert(string(store.get("a")) === Some("a20"))
+        assert(string(store.get("b")) === Some("b20"))
+        store.close()
+
+        // Compacted store can be reopened
+        val reopened = new SegmentFileStore(directory, 200, 0, false)
+        assert(string(reopened.get("a")) === Some("a20"))
+        assert(reopened.size === 2)
+        reopened.close()
+    }
+
+    @Test def rejectsPutAfterClose(): Unit = withDirectory { directory ⇒
+        val store = new SegmentFileStore(directory, 1024 * 1024, 0, false)
+        store.put("a", bytes("1"))
+        store.close()
+
+        intercept[OXFException](store.put("b", bytes("2")))
+        assert(store.get("a") === None)
+
+        // Closing and compacting again does nothing
+        store.close()
+        store.compact()
+
+        val reopened = new SegmentFileStore(directory, 1024 * 1024, 0, false)
+        assert(string(reopened.get("a")) === Some("1"))
+        assert(reopened.get("b") === None)
+        reopened.close()
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util
+
+import org.scalatest.junit.AssertionsForJUnit
+import org.junit.Test
+import org.apache.commons.pool.BasePoolableObjectFactory
+import java.util.concurrent.atomic.AtomicInteger
+
+class StripedObjectPoolTest extends AssertionsForJUnit {
+
+    class CountingFactory extends BasePoolableObjectFactory[AnyRef] {
+        val created = new AtomicInteger
+        val destroyed = new AtomicInteger
+
+        def makeObject() = { created.incrementAndGet(); new AnyRef }
+        override def destroyObject(o: AnyRef): Unit = destroyed.incrementAndGet()
+    }
+
+    @Test def reusesReturnedObject() {
+        val factory = new CountingFactory
+        val pool = new StripedObjectPool(factory)
+
+        val o1 = pool.borrowObject()
+        pool.returnObject(o1)
+        val o2 = pool.borrowObject()
+
+        assert(o1 eq o2)
+        assert(factory.created.get === 1)
+        assert(pool.getHitCount === 1)
+        assert(pool.getCreateCount === 1)
+    }
+
+    @Test def destroysWhenFull() {
+        val factory = new CountingFactory
+        val pool = new StripedObjectPool(factory)
+
+        // Return more objects than the current thread's stripe can hold
+        val borrowed = for (i ← 1 to 10) yield pool.borrowObject()
+        borrowed foreach pool.returnObject
+
+        assert(factory.created.get === 10)
+        assert(pool.getNumIdle + factory.destroyed.get === 10)
+
+        pool.close()
+        assert(pool.getNumIdle === 0)
+        assert(factory.destroyed.get === 10)
+    }
+}
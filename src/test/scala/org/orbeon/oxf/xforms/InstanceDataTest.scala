@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms
+
+import org.dom4j.Element
+import org.junit.Test
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.orbeon.oxf.util.XPathCache
+import org.orbeon.oxf.xforms.XFormsModelBinds.BindNode
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils
+import org.orbeon.saxon.dom4j.DocumentWrapper
+import org.scalatest.junit.AssertionsForJUnit
+
+class InstanceDataTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+    @Test def inheritedMIPs(): Unit = {
+
+        val document = Dom4jUtils.readDom4j("""<a><b><c x="1"><d/></c></b><e/></a>""")
+        val wrapper  = new DocumentWrapper(document, null, XPathCache.getGlobalConfiguration)
+
+        def element(path: String) = document.selectSingleNode(path).asInstanceOf[Element]
+        def wrap(path: String) = wrapper.wrap(element(path))
+
+        val b = new BindNode("b", wrap("/a/b"), null)
+        val d = new BindNode("d", wrap("/a/b/c/d"), null)
+
+        def relevant(path: String) = InstanceData.getInheritedRelevant(element(path))
+        def readonly(path: String) = InstanceData.getInheritedReadonly(element(path))
+
+        assert(relevant("/a/b/c/d") && relevant("/a/e"))
+        assert(! readonly("/a/b/c/d") && ! readonly("/a/e"))
+
+        // Nodes inherit from ancestors, including ancestors without local MIPs
+        b.setRelevant(false)
+        assert(! relevant("/a/b") && ! relevant("/a/b/c") && ! relevant("/a/b/c/d"))
+        assert(! InstanceData.getInheritedRelevant(element("/a/b/c").attribute("x")))
+        assert(relevant("/a/e"))
+
+        // Cached values are invalidated when a local MIP changes
+        b.setRelevant(true)
+        d.setReadonly(true)
+        assert(relevant("/a/b/c/d"))
+        assert(readonly("/a/b/c/d") && ! readonly("/a/b/c"))
+
+        // Cached values are invalidated when the structure changes
+        b.setReadonly(true)
+        assert(readonly("/a/b/c"))
+        val c = element("/a/b/c")
+        c.detach()
+        InstanceData.structureChanged(wrapper.wrap(document.getRootElement))
+        assert(! InstanceData.getInheritedReadonly(c))
+        assert(InstanceData.getInheritedReadonly(c.element("d")))
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms
+
+import java.util.zip.Deflater
+import org.junit.Test
+import org.scalatest.junit.AssertionsForJUnit
+import XFormsCompressor._
+
+class XFormsCompressorTest extends AssertionsForJUnit {
+
+    private val input =
+        (for (i ← 1 to 2000) yield "<xf:input id=\"input-" + i + "\" ref=\"instance('fr-form-instance')/value\"/>").mkString.getBytes("UTF-8")
+
+    @Test def gzipRoundTrip(): Unit =
+        assert(uncompressBytes(compressBytes(input, Deflater.BEST_SPEED)).toSeq === input.toSeq)
+
+    @Test def blocksRoundTrip(): Unit = {
+        // Single block, multiple blocks with a partial last block, and empty input
+        for (blockSize ← Seq(input.length, 10 * 1024, 4096 + 7)) {
+            val compressed = compressBlocks(input, Deflater.BEST_SPEED, blockSize)
+            assert(compressed.length < input.length)
+            assert(uncompressBytes(compressed).toSeq === input.toSeq)
+        }
+
+        assert(uncompressBytes(compressBlocks(Array[Byte](), Deflater.BEST_SPEED, 1024)).isEmpty)
+    }
+}
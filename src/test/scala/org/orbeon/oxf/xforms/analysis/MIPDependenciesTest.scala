@@ -169,5 +169,96 @@ class MIPDependenciesTest extends DocumentTestBase with AssertionsForJUnit {
         }
     }
 
+    @Test def calculateInDependencyOrder() {
+        Assume.assumeTrue(Version.isPE) // only test this feature if we are the PE version
+
+        // Binds are in reverse dependency order, so a single pass in document order would leave c stale
+        this setupDocument
+            <xh:html xmlns:xf="http://www.w3.org/2002/xforms"
+                     xmlns:xh="http://www.w3.org/1999/xhtml"
+                     xmlns:xxf="http://orbeon.org/oxf/xml/xforms">
+                <xh:head>
+                    <xf:model xxf:xpath-analysis="true" xxf:recalculate.dependency-graph="true">
+                        <xf:instance id="instance">
+                            <values>
+                                <a>1</a>
+                                <b/>
+                                <c/>
+                                <d>1</d>
+                                <e/>
+                            </values>
+                        </xf:instance>
+                        <xf:bind ref="c" calculate="../b * 2"/>
+                        <xf:bind ref="b" calculate="../a + 1"/>
+                        <xf:bind ref="e" calculate="../d * 10"/>
+                    </xf:model>
+                </xh:head>
+                <xh:body>
+                    <xf:input id="a" ref="a"/>
+                    <xf:input id="c" ref="c"/>
+                    <xf:input id="d" ref="d"/>
+                    <xf:input id="e" ref="e"/>
+                </xh:body>
+            </xh:html>
+
+        assert("4" === getControlValue("c"))
+        assert("10" === getControlValue("e"))
+
+        setControlValue("a", "5")
+        assert("12" === getControlValue("c"))
+        assert("10" === getControlValue("e"))
+
+        setControlValue("d", "2")
+        assert("12" === getControlValue("c"))
+        assert("20" === getControlValue("e"))
+    }
+
+    @Test def calculateChangedIterationsOnly() {
+        Assume.assumeTrue(Version.isPE) // only test this feature if we are the PE version
+
+        // The total of a row only reads under the row, while the share of a row reads the subtotal too
+        this setupDocument
+            <xh:html xmlns:xf="http://www.w3.org/2002/xforms"
+                     xmlns:xh="http://www.w3.org/1999/xhtml"
+                     xmlns:xxf="http://orbeon.org/oxf/xml/xforms">
+                <xh:head>
+                    <xf:model xxf:xpath-analysis="true" xxf:recalculate.dependency-graph="true">
+                        <xf:instance id="instance">
+                            <rows>
+                                <row><price>10</price><qty>1</qty><total/><share/></row>
+                                <row><price>20</price><qty>1</qty><total/><share/></row>
+                                <row><price>70</price><qty>1</qty><total/><share/></row>
+                                <subtotal/>
+                            </rows>
+                        </xf:instance>
+                        <xf:bind ref="row">
+                            <xf:bind ref="total" calculate="../price * ../qty"/>
+                        </xf:bind>
+                        <xf:bind ref="subtotal" calculate="sum(../row/total)"/>
+                        <xf:bind ref="row/share" calculate="../total div ../../subtotal"/>
+                    </xf:model>
+                </xh:head>
+                <xh:body>
+                    <xf:repeat ref="row">
+                        <xf:input id="price" ref="price"/>
+                        <xf:input id="total" ref="total"/>
+                        <xf:input id="share" ref="share"/>
+                    </xf:repeat>
+                    <xf:input id="subtotal" ref="subtotal"/>
+                </xh:body>
+            </xh:html>
+
+        assert("100" === getControlValue("subtotal"))
+        assert(List("0.1", "0.2", "0.7") === (1 to 3 map (i ⇒ getControlValue("share·" + i))))
+
+        setControlValue("price·2", "120")
+        assert(List("10", "120", "70") === (1 to 3 map (i ⇒ getControlValue("total·" + i))))
+        assert("200" === getControlValue("subtotal"))
+        assert(List("0.05", "0.6", "0.35") === (1 to 3 map (i ⇒ getControlValue("share·" + i))))
+
+        // Only the total of the second row, the subtotal, and all the shares are evaluated
+        assert(5 === document.getDefaultModel.getBinds.getLastCalculateEvaluationCount)
+    }
+
     // TODO: more tests
 }
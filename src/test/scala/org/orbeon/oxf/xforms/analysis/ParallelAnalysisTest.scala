@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.analysis
+
+import org.junit.Test
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.orbeon.oxf.xforms.XFormsStaticStateImpl
+import org.orbeon.oxf.xml.XMLUtils.DebugXML
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils
+import org.orbeon.oxf.xml.{ContentHandlerHelper, XMLUtils}
+import org.scalatest.junit.AssertionsForJUnit
+
+class ParallelAnalysisTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+    // Enough controls for the analysis to run in parallel, with variables, binds, repeats and local LHHA
+    private val Controls = 500
+
+    private def form =
+        <xh:html xmlns:xh="http://www.w3.org/1999/xhtml"
+                 xmlns:xf="http://www.w3.org/2002/xforms"
+                 xmlns:xxf="http://orbeon.org/oxf/xml/xforms">
+            <xh:head>
+                <xf:model id="model" xxf:xpath-analysis="true">
+                    <xf:instance id="instance">
+                        <form>
+                            <fields>{ for (i ← 1 to Controls) yield <field>{i}</field> }</fields>
+                            <rows>{ for (i ← 1 to 10) yield <row><a>{i}</a><b/></row> }</rows>
+                            <total/>
+                        </form>
+                    </xf:instance>
+                    <xf:var name="fields" value="fields"/>
+                    <xf:bind ref="rows/row/b" calculate="../a * 2"/>
+                    <xf:bind ref="total" calculate="sum(../rows/row/b)"/>
+                </xf:model>
+            </xh:head>
+            <xh:body>
+                <xf:var name="rows" value="rows/row"/>
+                {
+                    for (i ← 1 to Controls)
+                        yield
+                            <xf:group ref={"$fields/field[" + i + "]"}>
+                                <xf:input id={"field" + i} ref=".">
+                                    <xf:label value="concat('Field ', .)"/>
+                                    <xf:hint ref="$fields/field[1]"/>
+                                </xf:input>
+                                <xf:output id={"count" + i} value={"count($rows[a > " + i + "])"}/>
+                            </xf:group>
+                }
+                <xf:repeat id="repeat" ref="$rows">
+                    <xf:input id="a" ref="a"/>
+                    <xf:output id="b" ref="b"/>
+                </xf:repeat>
+                <xf:output id="total" ref="total"/>
+            </xh:body>
+        </xh:html>
+
+    private def analysis(parallelism: Int) =
+        PartControlsAnalysis.Parallelism.withValue(parallelism) {
+            val staticState = XFormsStaticStateImpl.createFromDocument(Dom4jUtils.readDom4j(form.toString))._2
+            Dom4jUtils.domToString(XMLUtils.createDocument(new DebugXML {
+                def toXML(helper: ContentHandlerHelper) = staticState.toXML(helper)
+            }))
+        }
+
+    @Test def sameAsSequential(): Unit = {
+        val sequential = analysis(1)
+        for (_ ← 1 to 3) {
+            assert(analysis(4) === sequential)
+            assert(analysis(8) === sequential)
+        }
+    }
+}
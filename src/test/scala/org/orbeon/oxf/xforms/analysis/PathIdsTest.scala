@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.analysis
+
+import java.util.BitSet
+import org.junit.Test
+import org.orbeon.oxf.xforms.MapSet
+import org.scalatest.junit.AssertionsForJUnit
+
+class PathIdsTest extends AssertionsForJUnit {
+
+    @Test def intern(): Unit = {
+        val pathIds = new PathIds
+
+        val a = pathIds.intern("instance1", "1/2")
+        val b = pathIds.intern("instance1", "1/@3")
+        val c = pathIds.intern("instance2", "1/2")
+
+        assert(Set(a, b, c).size === 3)
+        assert(pathIds.intern("instance1", "1/2") === a)
+        assert(pathIds.id("instance2", "1/2") === c)
+        assert(pathIds.id("instance2", "1/@3") === -1)
+        assert(pathIds.size === 3)
+    }
+
+    @Test def intersects(): Unit = {
+        val pathIds = new PathIds
+
+        val paths = new MapSet[String, String]
+        paths += "instance1" → "1/2"
+        paths += "instance1" → "1/2/4"
+        paths += "instance2" → ""
+
+        val ids = pathIds.intern(paths)
+        assert(ids.toList === ids.toList.sorted)
+        assert(ids.length === 3)
+
+        val changeset = new BitSet
+        assert(! PathIds.intersects(ids, changeset))
+
+        changeset.set(pathIds.intern("instance2", "1/2"))
+        assert(! PathIds.intersects(ids, changeset))
+
+        changeset.set(pathIds.id("instance1", "1/2/4"))
+        assert(PathIds.intersects(ids, changeset))
+
+        assert(! PathIds.intersects(PathIds.NoIds, changeset))
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.processor
+
+import org.junit.Test
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.orbeon.oxf.xforms.processor.XFormsServer.AjaxResponseReceivers
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils
+import org.orbeon.oxf.xml.{TransformerUtils, SAXStore, ForwardingXMLReceiver}
+import org.scalatest.junit.AssertionsForJUnit
+import org.xml.sax.{SAXException, Attributes}
+
+class XFormsServerTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+    private val response = Dom4jUtils.readDom4j(
+        """<xxf:event-response xmlns:xxf="http://orbeon.org/oxf/xml/xforms">
+               <xxf:action><xxf:control-values><xxf:control id="a">1</xxf:control></xxf:control-values></xxf:action>
+           </xxf:event-response>""")
+
+    // Client connection, which fails when receiving the given element
+    private class Client(failOn: Option[String] = None) extends ForwardingXMLReceiver {
+        val received = new SAXStore
+        var elementCount = 0
+        setXMLReceiver(received)
+
+        override def startElement(uri: String, localname: String, qName: String, attributes: Attributes): Unit = {
+            if (failOn == Some(localname))
+                throw new SAXException("connection reset")
+            elementCount += 1
+            super.startElement(uri, localname, qName, attributes)
+        }
+
+        def document = Dom4jUtils.domToString(TransformerUtils.saxStoreToDom4jDocument(received))
+    }
+
+    private val expected = Dom4jUtils.domToString(response)
+
+    private def produce(client: Client, isRetries: Boolean, isStreaming: Boolean) = {
+        val receivers = new AjaxResponseReceivers(client, isRetries, isStreaming, false)
+        TransformerUtils.writeDom4j(response, receivers.responseReceiver)
+        receivers
+    }
+
+    @Test def streaming(): Unit = {
+        val client = new Client
+        val receivers = produce(client, isRetries = true, isStreaming = true)
+
+        // The client got the response as it was produced, and it is kept for retries
+        assert(client.document === expected)
+        assert(receivers.send(client) eq null)
+        assert(client.elementCount === 4)
+        assert(Dom4jUtils.domToString(TransformerUtils.saxStoreToDom4jDocument(receivers.responseStore)) === expected)
+    }
+
+    @Test def streamingFailure(): Unit = {
+        val client = new Client(Some("control"))
+        val receivers = produce(client, isRetries = true, isStreaming = true)
+
+        // Sending stopped at the failure, but the response was still produced entirely
+        assert(receivers.send(client).isInstanceOf[SAXException])
+        assert(client.elementCount === 3)
+
+        // The client gets the complete response when it retries
+        val retryClient = new Client
+        receivers.responseStore.replay(retryClient)
+        assert(retryClient.document === expected)
+    }
+
+    @Test def buffered(): Unit = {
+        val client = new Client
+        val receivers = produce(client, isRetries = true, isStreaming = false)
+
+        // The client only gets the response once complete
+        assert(client.elementCount === 0)
+        assert(receivers.send(client) eq null)
+        assert(client.document === expected)
+    }
+
+    @Test def withoutRetries(): Unit = {
+        for (isStreaming ← Seq(false, true)) {
+            val client = new Client
+            val receivers = produce(client, isRetries = false, isStreaming = isStreaming)
+
+            // The response is sent as it is produced, without a copy
+            assert(receivers.responseStore eq null)
+            assert(receivers.streamingReceiver eq null)
+            assert(client.document === expected)
+            assert(receivers.send(client) eq null)
+        }
+    }
+}
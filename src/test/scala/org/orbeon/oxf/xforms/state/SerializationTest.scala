@@ -24,6 +24,8 @@ import collection.JavaConverters._
 import org.junit.{Assume, Test}
 import org.orbeon.oxf.common.Version
 import org.orbeon.oxf.xforms.XFormsStaticStateImpl
+import org.orbeon.oxf.util.XPathCache
+import org.orbeon.oxf.xforms.model.DataModel
 
 class SerializationTest extends DocumentTestBase with AssertionsForJUnit {
 
@@ -92,6 +94,28 @@ class SerializationTest extends DocumentTestBase with AssertionsForJUnit {
             assert(Dom4j.compareDocumentsIgnoreNamespacesInScope(expected, actual))
     }
 
+    @Test def instanceContent() {
+
+        val doc: Document =
+            <instance xmlns:xf="http://www.w3.org/2002/xforms">
+                <!-- comment -->
+                <xf:value a="1" xf:b="2">0 &amp; &lt;1&gt;</xf:value>
+                <?target data?>
+                <other>é à ü</other>
+            </instance>
+
+        val content = InstanceContent(TransformerUtils.dom4jToTinyTree(XPathCache.getGlobalConfiguration, doc, false))
+
+        // Rebuild both as dom4j and TinyTree
+        assert(Dom4j.compareDocumentsIgnoreNamespacesInScope(doc, content.toDom4j))
+        assert(Dom4j.compareDocumentsIgnoreNamespacesInScope(doc, TransformerUtils.tinyTreeToDom4j2(content.toTinyTree(XPathCache.getGlobalConfiguration))))
+
+        // Serialize then deserialize
+        val deserialized = fromByteSeq[InstanceContent](toByteSeq(content))
+        assert(content === deserialized)
+        assert(Dom4j.compareDocumentsIgnoreNamespacesInScope(doc, deserialized.toDom4j))
+    }
+
     @Test def dynamicState() {
         val originalDoc = this setupDocument simpleDoc
 
@@ -102,6 +126,42 @@ class SerializationTest extends DocumentTestBase with AssertionsForJUnit {
         assert(serialized === deserialized)
     }
     
+    @Test def dynamicStateLog() {
+        val doc = this setupDocument simpleDoc
+
+        val (base, baseStored) = DynamicStateLog.base(doc)
+        assert(base === DynamicState(doc))
+        baseStored()
+
+        // Unchanged state: delta doesn't include any instance or control
+        val (unchangedDelta, unchangedStored) = DynamicStateLog.delta(doc)
+        assert(unchangedDelta.state.decodeInstances.isEmpty)
+        assert(unchangedDelta.state.decodeControls.isEmpty)
+        assert(unchangedDelta.instanceIds === (base.decodeInstances map (_.effectiveId)))
+        assert(DynamicStateLog.replay(base, List(unchangedDelta)) === base)
+        unchangedStored()
+
+        // Changed instance: delta only includes that instance
+        val instance = doc.getDefaultModel.getDefaultInstance
+        DataModel.setValue(instance.rootElement, "1")
+        instance.markModified()
+
+        val (changedDelta, changedStored) = DynamicStateLog.delta(doc)
+        assert(changedDelta.state.decodeInstances.map(_.effectiveId) === List(instance.getEffectiveId))
+        assert(DynamicStateLog.replay(base, List(unchangedDelta, changedDelta)) === DynamicState(doc))
+
+        // The instance is part of the next delta until the delta is stored
+        assert(DynamicStateLog.delta(doc)._1 === changedDelta)
+        changedStored()
+        assert(DynamicStateLog.delta(doc)._1.state.decodeInstances.isEmpty)
+
+        // The head of the log only refers to the records of the base and deltas, and compaction uses new records
+        val log = DynamicStateLog(base).append(unchangedDelta).append(changedDelta)
+        assert(log.deltasCount === 2)
+        assert(log.recordKeys("key") === List("key#0", "key#1", "key#2"))
+        assert(log.compact(base).recordKeys("key") === List("key#3"))
+    }
+
     @Test def template() {
 
         Assume.assumeTrue(Version.isPE) // only test this feature if we are the PE version
@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.submission
+
+import java.lang.management.ManagementFactory
+import java.util.concurrent._
+import javax.management.ObjectName
+import org.junit.Test
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.scalatest.junit.AssertionsForJUnit
+
+class AsynchronousSubmissionExecutorTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+    // Executor with a single thread and a single queued task
+    private def withSmallExecutor(body: (CompletionService[String], BlockingQueue[Future[String]]) ⇒ Unit): Unit = {
+        val executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.SECONDS, new ArrayBlockingQueue[Runnable](1))
+        try {
+            val completionQueue = new LinkedBlockingQueue[Future[String]]
+            body(new ExecutorCompletionService[String](executor, completionQueue), completionQueue)
+        } finally
+            executor.shutdownNow()
+    }
+
+    private def task(result: String, latch: CountDownLatch = new CountDownLatch(0)) = new Callable[String] {
+        def call() = { latch.await(); result }
+    }
+
+    @Test def queueLimit(): Unit = withSmallExecutor { (completionService, completionQueue) ⇒
+
+        val rejectedBefore = AsynchronousSubmissionExecutor.getRejectedCount
+        val latch = new CountDownLatch(1)
+
+        // The first task occupies the thread and the second one the queue
+        val running = AsynchronousSubmissionExecutor.submit(completionService, completionQueue, task("running", latch))
+        val queued  = AsynchronousSubmissionExecutor.submit(completionService, completionQueue, task("queued", latch))
+
+        // The third task is rejected, and is done when submit returns
+        val rejected = AsynchronousSubmissionExecutor.submit(completionService, completionQueue, task("rejected"))
+        assert(rejected.isDone)
+        assert(rejected.get === "rejected")
+        assert(AsynchronousSubmissionExecutor.getRejectedCount === rejectedBefore + 1)
+        assert(! running.isDone && ! queued.isDone)
+
+        // All the tasks are available through the completion queue
+        latch.countDown()
+        val results = Seq.fill(3)(completionQueue.poll(10, TimeUnit.SECONDS).get).toSet
+        assert(results === Set("running", "queued", "rejected"))
+    }
+
+    @Test def rejectedTaskOnCurrentThread(): Unit = withSmallExecutor { (completionService, completionQueue) ⇒
+
+        val latch = new CountDownLatch(1)
+
+        AsynchronousSubmissionExecutor.submit(completionService, completionQueue, task("running", latch))
+        AsynchronousSubmissionExecutor.submit(completionService, completionQueue, task("queued", latch))
+
+        // The rejected task runs on the current thread rather than on a new thread
+        val currentThread = Thread.currentThread
+        val rejected = AsynchronousSubmissionExecutor.submit(completionService, completionQueue, new Callable[String] {
+            def call() = { assert(Thread.currentThread eq currentThread); "rejected" }
+        })
+        assert(rejected.get === "rejected")
+
+        latch.countDown()
+        val results = Seq.fill(3)(completionQueue.poll(10, TimeUnit.SECONDS).get).toSet
+        assert(results === Set("running", "queued", "rejected"))
+    }
+
+    @Test def failedRejectedTask(): Unit = {
+        val completionQueue = new LinkedBlockingQueue[Future[String]]
+        val failing = new Callable[String] { def call() = throw new IllegalStateException }
+
+        // The failure is reported when the future is processed
+        val future = AsynchronousSubmissionExecutor.runRejected(completionQueue, failing)
+        assert(future.isDone)
+        assert(completionQueue.peek eq future)
+        intercept[ExecutionException](future.get)
+    }
+
+    @Test def gauges(): Unit = {
+        AsynchronousSubmissionExecutor.runRejected(new LinkedBlockingQueue[Future[String]], task("rejected"))
+
+        val server = ManagementFactory.getPlatformMBeanServer
+        val name   = new ObjectName("org.orbeon.oxf.xforms:type=Metrics")
+        assert(server.getAttribute(name, "asynchronous-submission.rejected-count") === AsynchronousSubmissionExecutor.getRejectedCount)
+        assert(server.getAttribute(name, "asynchronous-submission.queue-depth") === 0L)
+    }
+}